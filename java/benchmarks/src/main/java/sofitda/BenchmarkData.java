@@ -0,0 +1,256 @@
+package sofitda;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Seeded synthetic data for the benchmarks: integer datasets, document text and document hierarchies shaped like
+ * the stage3 files. Word ids follow a log-uniform distribution, so a few words are very frequent and most are rare.
+ */
+final class BenchmarkData {
+  static final long SEED = 20240611L;
+
+  private static final String[] SYLLABLES = { "ba", "ke", "ri", "so", "tu", "na", "me", "lo", "pi", "da", "ve", "gu",
+      "shi", "tho", "wen", "ar", "el", "in", "or", "um" };
+  private static final String[] PUNCTUATION = { ",", ",", ";", ":", "!", "?" };
+
+  private BenchmarkData() {
+  }
+
+  static Random random() {
+    return new Random(SEED);
+  }
+
+  static File createTemporaryDirectory(String prefix) throws IOException {
+    return Files.createTempDirectory("sofitda-" + prefix).toFile();
+  }
+
+  /**
+   * Returns rows whose first value is the row id, followed by 1 to maxChildCount child ids below childIdLimit.
+   */
+  static List<int[]> rows(Random random, int rowCount, int maxChildCount, int childIdLimit) {
+    List<int[]> rows = new ArrayList<>(rowCount);
+
+    for (int id = 0; id < rowCount; id++) {
+      int[] row = new int[1 + 1 + random.nextInt(maxChildCount)];
+
+      row[0] = id;
+
+      for (int i = 1; i < row.length; i++) {
+        row[i] = wordId(random, childIdLimit);
+      }
+
+      rows.add(row);
+    }
+
+    return rows;
+  }
+
+  /**
+   * Returns a word id between the reserved ids and vocabularySize, log-uniformly distributed.
+   */
+  static int wordId(Random random, int vocabularySize) {
+    int firstWordId = AbstractDocumentsTokenizer.UNKNOWN_WORD_ID + 1;
+    int range = Math.max(1, vocabularySize - firstWordId);
+
+    return firstWordId + Math.min(range - 1, (int) Math.pow(range, random.nextDouble()) - 1);
+  }
+
+  static String word(int wordId) {
+    StringBuilder builder = new StringBuilder();
+
+    for (int id = wordId; id > 0; id /= SYLLABLES.length) {
+      builder.append(SYLLABLES[id % SYLLABLES.length]);
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * Returns English-like text of about wordCount words in sentences and paragraphs.
+   */
+  static String text(Random random, int wordCount, int vocabularySize) {
+    StringBuilder builder = new StringBuilder(wordCount * 7);
+    int sentenceLength = 0;
+
+    for (int i = 0; i < wordCount; i++) {
+      String word = word(wordId(random, vocabularySize));
+
+      if (sentenceLength == 0) {
+        builder.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+      } else {
+        builder.append(word);
+      }
+
+      sentenceLength++;
+
+      if (random.nextInt(12) == 0) {
+        builder.append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]);
+      }
+
+      if (sentenceLength > 3 && random.nextInt(10) == 0) {
+        builder.append(random.nextInt(20) == 0 ? "\n\n" : ". ");
+        sentenceLength = 0;
+      } else {
+        builder.append(' ');
+      }
+    }
+
+    return builder.append('.').toString();
+  }
+
+  /**
+   * Returns the number of words in a document, log-normally distributed around averageWordCount.
+   */
+  static int documentLength(Random random, int averageWordCount) {
+    return Math.max(1, (int) (averageWordCount * Math.exp(random.nextGaussian() * 0.7 - 0.245)));
+  }
+
+  /**
+   * Creates a vocabulary holding the reserved words and a word for every id below vocabularySize.
+   */
+  static Vocabulary vocabulary(int vocabularySize) {
+    Vocabulary vocabulary = new Vocabulary();
+
+    vocabulary.put(AbstractDocumentsTokenizer.SENTENCE_TERMINATOR_WORD_ID, "<end-sentence>");
+    vocabulary.put(AbstractDocumentsTokenizer.PARAGRAPH_TERMINATOR_WORD_ID, "<end-paragraph>");
+    vocabulary.put(AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_WORD_ID, "<end-document>");
+    vocabulary.put(AbstractDocumentsTokenizer.UNKNOWN_WORD_ID, "<unknown>");
+
+    for (int id = AbstractDocumentsTokenizer.UNKNOWN_WORD_ID + 1; id < vocabularySize; id++) {
+      vocabulary.put(id, word(id) + "_" + id);
+    }
+
+    return vocabulary;
+  }
+
+  /**
+   * Creates the training, validation and testing partitions of documentCount documents, split 50/25/25, with ids
+   * running on from one partition to the next as DatasetPartitioner leaves them.
+   */
+  static FilterPipeline.FilterData filterData(Random random, int documentCount, int vocabularySize,
+      int responseCount) {
+    FilterPipeline.FilterData filterData = new FilterPipeline.FilterData();
+    int[] nextIds = firstIds();
+
+    filterData.trainingData = partition(random, documentCount / 2, vocabularySize, responseCount, nextIds);
+    filterData.validationData = partition(random, documentCount / 4, vocabularySize, responseCount, nextIds);
+    filterData.testingData = partition(random, documentCount - documentCount / 2 - documentCount / 4,
+        vocabularySize, responseCount, nextIds);
+    filterData.vocabulary = vocabulary(vocabularySize);
+    filterData.responseIdMap = new TreeMap<>();
+
+    for (int responseId = 0; responseId < responseCount; responseId++) {
+      filterData.responseIdMap.put(responseId, "response_" + responseId);
+    }
+
+    return filterData;
+  }
+
+  /**
+   * Returns the first document, paragraph and sentence ids after the terminators.
+   */
+  static int[] firstIds() {
+    return new int[] { 0, AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_PARAGRAPH_ID + 1,
+        AbstractDocumentsTokenizer.PARAGRAPH_TERMINATOR_SENTENCE_ID + 1 };
+  }
+
+  /**
+   * Creates a partition of documentCount documents of 1 to 3 paragraphs of 1 to 5 sentences of 3 to 20 words, laid
+   * out as the tokenizer writes them: every sentence, paragraph and document ends with its terminator, and the
+   * terminator rows are kept. The responses are skewed, with response 0 the most frequent. nextIds holds the next
+   * document, paragraph and sentence ids and is advanced.
+   */
+  static FilterPipeline.PartitionData partition(Random random, int documentCount, int vocabularySize,
+      int responseCount, int[] nextIds) {
+    FilterPipeline.PartitionData partitionData = new FilterPipeline.PartitionData();
+    Map<Integer, List<Integer>> responseDocuments = new TreeMap<>();
+    CsrDataset documentDataset = new CsrDataset();
+    CsrDataset paragraphDataset = new CsrDataset();
+    CsrDataset sentenceDataset = new CsrDataset();
+    int[] paragraphIds = new int[4];
+    int[] sentenceIds = new int[6];
+    int[] wordIds = new int[21];
+
+    paragraphDataset.addRow(AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_PARAGRAPH_ID,
+        new int[] { AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_SENTENCE_ID }, 0, 1);
+    sentenceDataset.addRow(AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_SENTENCE_ID,
+        new int[] { AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_WORD_ID }, 0, 1);
+    sentenceDataset.addRow(AbstractDocumentsTokenizer.PARAGRAPH_TERMINATOR_SENTENCE_ID,
+        new int[] { AbstractDocumentsTokenizer.PARAGRAPH_TERMINATOR_WORD_ID }, 0, 1);
+
+    for (int d = 0; d < documentCount; d++) {
+      int documentId = nextIds[0]++;
+      int paragraphCount = 1 + random.nextInt(3);
+      int responseId = Math.min(responseCount - 1, (int) (-Math.log(1 - random.nextDouble()) * responseCount / 4));
+
+      if (!responseDocuments.containsKey(responseId)) {
+        responseDocuments.put(responseId, new ArrayList<Integer>());
+      }
+
+      responseDocuments.get(responseId).add(documentId);
+
+      for (int p = 0; p < paragraphCount; p++) {
+        int sentenceCount = 1 + random.nextInt(5);
+
+        paragraphIds[p] = nextIds[1]++;
+
+        for (int s = 0; s < sentenceCount; s++) {
+          int wordCount = 3 + random.nextInt(18);
+
+          sentenceIds[s] = nextIds[2]++;
+
+          for (int w = 0; w < wordCount; w++) {
+            wordIds[w] = wordId(random, vocabularySize);
+          }
+
+          wordIds[wordCount] = AbstractDocumentsTokenizer.SENTENCE_TERMINATOR_WORD_ID;
+          sentenceDataset.addRow(sentenceIds[s], wordIds, 0, wordCount + 1);
+        }
+
+        sentenceIds[sentenceCount] = AbstractDocumentsTokenizer.PARAGRAPH_TERMINATOR_SENTENCE_ID;
+        paragraphDataset.addRow(paragraphIds[p], sentenceIds, 0, sentenceCount + 1);
+      }
+
+      paragraphIds[paragraphCount] = AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_PARAGRAPH_ID;
+      documentDataset.addRow(documentId, paragraphIds, 0, paragraphCount + 1);
+    }
+
+    partitionData.documentTable = IntHierarchyTable.fromDataset(documentDataset);
+    partitionData.paragraphTable = IntHierarchyTable.fromDataset(paragraphDataset);
+    partitionData.sentenceTable = IntHierarchyTable.fromDataset(sentenceDataset);
+    partitionData.responseTable = IntHierarchyTable.fromDataset(CsrDataset.fromListMap(responseDocuments));
+    return partitionData;
+  }
+
+  static IntHierarchyTable copy(IntHierarchyTable table) {
+    return IntHierarchyTable.fromDataset(table.toDataset());
+  }
+
+  static FilterPipeline.PartitionData copy(FilterPipeline.PartitionData partitionData) {
+    FilterPipeline.PartitionData copy = new FilterPipeline.PartitionData();
+
+    copy.responseTable = copy(partitionData.responseTable);
+    copy.documentTable = copy(partitionData.documentTable);
+    copy.paragraphTable = copy(partitionData.paragraphTable);
+    copy.sentenceTable = copy(partitionData.sentenceTable);
+    return copy;
+  }
+
+  static FilterPipeline.FilterData copy(FilterPipeline.FilterData filterData) {
+    FilterPipeline.FilterData copy = new FilterPipeline.FilterData();
+
+    copy.trainingData = copy(filterData.trainingData);
+    copy.validationData = copy(filterData.validationData);
+    copy.testingData = copy(filterData.testingData);
+    copy.vocabulary = filterData.vocabulary.copy();
+    copy.responseIdMap = new TreeMap<>(filterData.responseIdMap);
+    return copy;
+  }
+}
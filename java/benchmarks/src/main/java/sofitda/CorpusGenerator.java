@@ -0,0 +1,249 @@
+package sofitda;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Writes synthetic raw data in the stage1 format of each source, for running the pipeline at sizes the real
+ * datasets do not reach.
+ *
+ * Document lengths are log-normal around the source's typical length, with a long tail. Labels follow the skew of
+ * the real datasets, for example 44% five-star Yelp reviews and 6% insincere Quora questions. Words are drawn with
+ * Zipf-like frequencies from a vocabulary that grows with the corpus, as Heaps' law has it, so large corpora also
+ * have large vocabularies.
+ *
+ *   java -cp target/benchmarks.jar sofitda.CorpusGenerator &lt;stage1 directory&gt; &lt;document count&gt; [source...]
+ *
+ * writes each source (all of them by default) to &lt;stage1 directory&gt;/&lt;source&gt;.
+ */
+public class CorpusGenerator {
+  public static final String[] SOURCES = { "yelp", "tripadvisor", "amazon", "quora", "sst5", "trec" };
+
+  private static final String[] SST5_LABELS = { "very negative", "negative", "neutral", "positive", "very positive" };
+  private static final String[] TREC_LABELS = { "ENTY:other", "HUM:ind", "DESC:def", "NUM:count", "LOC:city",
+      "ABBR:exp" };
+  private static final String[] TREC_FILES = { "train_1000.label", "train_2000.label", "train_3000.label",
+      "train_4000.label", "train_5500.label", "TREC_10.label" };
+
+  // Shares of one to five stars, or of the labels above.
+  private static final double[] YELP_STARS = { 0.14, 0.09, 0.11, 0.22, 0.44 };
+  private static final double[] TRIPADVISOR_STARS = { 0.08, 0.08, 0.14, 0.30, 0.40 };
+  private static final double[] AMAZON_STARS = { 0.10, 0.05, 0.08, 0.17, 0.60 };
+  private static final double[] SST5_SHARES = { 0.13, 0.26, 0.19, 0.27, 0.15 };
+  private static final double[] TREC_SHARES = { 0.23, 0.22, 0.21, 0.16, 0.15, 0.03 };
+  private static final double QUORA_INSINCERE_SHARE = 0.062;
+
+  // Shares of the training, validation and testing files.
+  private static final double[] SST5_SPLIT = { 0.72, 0.09, 0.19 };
+  private static final double[] TREC_SPLIT = { 0.06, 0.12, 0.18, 0.25, 0.34, 0.05 };
+
+  private final Random random;
+  private final int documentCount;
+  private final int vocabularySize;
+
+  public CorpusGenerator(int documentCount, long seed) {
+    this.documentCount = documentCount;
+    random = new Random(seed);
+
+    // Heaps' law for about 100 words a document, with the reserved ids below the first word.
+    vocabularySize = AbstractDocumentsTokenizer.UNKNOWN_WORD_ID + 1
+        + (int) Math.min(5000000, 30 * Math.pow(documentCount * 100.0, 0.55));
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println("Usage: stage1-directory document-count [source...]");
+      return;
+    }
+
+    File stage1Directory = new File(args[0]);
+    int documentCount = Integer.parseInt(args[1]);
+    String[] sources = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : SOURCES;
+
+    for (String source : sources) {
+      long startTime = System.nanoTime();
+
+      new CorpusGenerator(documentCount, BenchmarkData.SEED).generate(source, new File(stage1Directory, source));
+      System.out.println("Generated " + documentCount + " " + source + " documents in "
+          + (System.nanoTime() - startTime) / 1000000 + " ms");
+    }
+  }
+
+  /**
+   * Writes the raw files of the source into directory, creating it if needed.
+   */
+  public void generate(String source, File directory) throws IOException {
+    directory.mkdirs();
+
+    switch (source) {
+    case "yelp":
+      writeReviewJson(new File(directory, "review.json"), false);
+      break;
+
+    case "tripadvisor":
+      writeReviewJson(new File(directory, "review.json"), true);
+      break;
+
+    case "amazon":
+      writeAmazonTsv(new File(directory, "amazon_reviews_us_Camera_v1_00.tsv"));
+      break;
+
+    case "quora":
+      writeQuoraCsv(new File(directory, "train.csv"));
+      break;
+
+    case "sst5":
+      writeSst5Jsonl(directory);
+      break;
+
+    case "trec":
+      writeTrecLabels(directory);
+      break;
+
+    default:
+      throw new IllegalArgumentException("Unknown source: " + source);
+    }
+  }
+
+  // Yelp reviews have their stars at the top level, TripAdvisor reviews in a ratings object.
+  private void writeReviewJson(File file, boolean tripAdvisor) throws IOException {
+    Writer writer = createWriter(file);
+
+    try {
+      for (int i = 0; i < documentCount; i++) {
+        int stars = 1 + pick(tripAdvisor ? TRIPADVISOR_STARS : YELP_STARS);
+        String text = escapeJson(text(tripAdvisor ? 130 : 110));
+
+        if (tripAdvisor) {
+          writer.write("{\"ratings\": {\"service\": " + stars + ".0, \"overall\": " + stars + ".0}, \"text\": \""
+              + text + "\", \"id\": " + i + "}\n");
+        } else {
+          writer.write("{\"review_id\": \"r" + i + "\", \"stars\": " + stars + ", \"useful\": 0, \"text\": \"" + text
+              + "\", \"date\": \"2018-07-07 22:09:11\"}\n");
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private void writeAmazonTsv(File file) throws IOException {
+    Writer writer = createWriter(file);
+
+    try {
+      writer.write("marketplace\tcustomer_id\treview_id\tproduct_id\tproduct_parent\tproduct_title\t"
+          + "product_category\tstar_rating\thelpful_votes\ttotal_votes\tvine\tverified_purchase\treview_headline\t"
+          + "review_body\treview_date\n");
+
+      for (int i = 0; i < documentCount; i++) {
+        String body = text(80).replace("\n\n", "<br /><br />");
+
+        writer.write("US\t" + (10000000 + i) + "\tR" + i + "\tB" + random.nextInt(100000) + "\t"
+            + random.nextInt(1000000) + "\tCamera " + random.nextInt(500) + "\tCamera\t" + (1 + pick(AMAZON_STARS))
+            + "\t0\t0\tN\tY\t" + text(4).replace("\n", " ") + "\t" + body + "\t2015-08-31\n");
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private void writeQuoraCsv(File file) throws IOException {
+    Writer writer = createWriter(file);
+
+    try {
+      writer.write("qid,question_text,target\n");
+
+      for (int i = 0; i < documentCount; i++) {
+        String question = text(13).replace("\n", " ");
+        int target = random.nextDouble() < QUORA_INSINCERE_SHARE ? 1 : 0;
+
+        writer.write(String.format("%020x", (long) i) + ",\"" + question + "?\"," + target + "\n");
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private void writeSst5Jsonl(File directory) throws IOException {
+    String[] prefixes = { "training", "validation", "testing" };
+
+    for (int split = 0; split < prefixes.length; split++) {
+      Writer writer = createWriter(new File(directory, prefixes[split] + ".jsonl"));
+
+      try {
+        for (int i = 0; i < splitSize(SST5_SPLIT, split); i++) {
+          int label = pick(SST5_SHARES);
+
+          writer.write("{\"text\": \"" + escapeJson(text(19).replace("\n", " ")) + "\", \"label\": " + label
+              + ", \"label_text\": \"" + SST5_LABELS[label] + "\"}\n");
+        }
+      } finally {
+        writer.close();
+      }
+    }
+  }
+
+  private void writeTrecLabels(File directory) throws IOException {
+    for (int split = 0; split < TREC_FILES.length; split++) {
+      Writer writer = createWriter(new File(directory, TREC_FILES[split]));
+
+      try {
+        for (int i = 0; i < splitSize(TREC_SPLIT, split); i++) {
+          writer.write(TREC_LABELS[pick(TREC_SHARES)] + " " + text(10).replace("\n", " ") + " ?\n");
+        }
+      } finally {
+        writer.close();
+      }
+    }
+  }
+
+  private String text(int averageWordCount) {
+    return BenchmarkData.text(random, BenchmarkData.documentLength(random, averageWordCount), vocabularySize);
+  }
+
+  // Returns the number of documents in the split, giving the last split whatever rounding leaves over.
+  private int splitSize(double[] shares, int split) {
+    if (split < shares.length - 1) {
+      return (int) (documentCount * shares[split]);
+    }
+
+    int size = documentCount;
+
+    for (int i = 0; i < split; i++) {
+      size -= (int) (documentCount * shares[i]);
+    }
+
+    return size;
+  }
+
+  // Returns an index drawn with the given probabilities.
+  private int pick(double[] shares) {
+    double value = random.nextDouble();
+
+    for (int i = 0; i < shares.length - 1; i++) {
+      value -= shares[i];
+
+      if (value < 0) {
+        return i;
+      }
+    }
+
+    return shares.length - 1;
+  }
+
+  private static Writer createWriter(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+  }
+
+  // The generated text has no quotes or backslashes, only newlines between paragraphs.
+  private static String escapeJson(String text) {
+    return text.replace("\n", "\\n");
+  }
+}
@@ -0,0 +1,84 @@
+package sofitda;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads and writes of integer datasets through Helper, in the text, gzip and binary forms. The rows have 1 to 20
+ * children, like sentence rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatasetIoBenchmark {
+  @Param({ "10000", "100000", "1000000" })
+  public int rowCount;
+
+  @Param({ "text", "gzip", "binary" })
+  public String format;
+
+  private File directory;
+  private String readFilePath;
+  private String writeFilePath;
+  private List<int[]> rows;
+  private CsrDataset dataset;
+
+  @Setup
+  public void setUp() throws IOException {
+    Configuration.IN_MEMORY_DATASETS = false;
+    Configuration.BINARY_DATASETS = format.equals("binary");
+    Configuration.TEXT_DATASETS = !Configuration.BINARY_DATASETS;
+    Configuration.GZIP_DATASETS = format.equals("gzip");
+
+    directory = BenchmarkData.createTemporaryDirectory("io");
+    readFilePath = new File(directory, "read.txt").getPath();
+    writeFilePath = new File(directory, "write.txt").getPath();
+    rows = BenchmarkData.rows(BenchmarkData.random(), rowCount, 20, 100000);
+    dataset = CsrDataset.fromRows(rows);
+    Helper.writeIntegerDataset(readFilePath, dataset);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Benchmark
+  public List<int[]> readMultiColumnIntegerDataset() throws IOException {
+    return Helper.readMultiColumnIntegerDataset(readFilePath);
+  }
+
+  @Benchmark
+  public CsrDataset readIntegerDataset() throws IOException {
+    return Helper.readIntegerDataset(readFilePath);
+  }
+
+  @Benchmark
+  public void writeMultiColumnIntegerDataset() throws IOException {
+    Helper.writeMultiColumnIntegerDataset(writeFilePath, rows);
+  }
+
+  @Benchmark
+  public void writeIntegerDataset() throws IOException {
+    Helper.writeIntegerDataset(writeFilePath, dataset);
+  }
+}
@@ -0,0 +1,81 @@
+package sofitda;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FilterPipeline's id maintenance on partitions from which about 10% of the documents have been dropped, as the
+ * document length filter leaves them. Every invocation works on a fresh copy of the partitions, and compactIds()
+ * is given partitions without dangling references, as it expects.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterPipelineBenchmark {
+  private static final int VOCABULARY_SIZE = 100000;
+  private static final int RESPONSE_COUNT = 5;
+
+  @Param({ "10000", "100000" })
+  public int documentCount;
+
+  private RunContext context = new RunContext("benchmark");
+  private FilterPipeline.FilterData filterData;
+  private FilterPipeline.FilterData filteredData;
+  private FilterPipeline.FilterData danglingFreeData;
+  private FilterPipeline.FilterData compactedData;
+
+  @Setup(Level.Trial)
+  public void setUpTrial() {
+    Random random = BenchmarkData.random();
+
+    filterData = BenchmarkData.filterData(random, documentCount, VOCABULARY_SIZE, RESPONSE_COUNT);
+
+    FilterPipeline.PartitionData[] partitionDatas = { filterData.trainingData, filterData.validationData,
+        filterData.testingData };
+
+    for (FilterPipeline.PartitionData partitionData : partitionDatas) {
+      for (int documentId : partitionData.documentTable.ids()) {
+        if (random.nextInt(10) == 0) {
+          partitionData.documentTable.remove(documentId);
+        }
+      }
+    }
+
+    danglingFreeData = BenchmarkData.copy(filterData);
+    new FilterPipeline(context, danglingFreeData).removeDanglingReferences();
+  }
+
+  @Setup(Level.Invocation)
+  public void setUpInvocation() {
+    filteredData = BenchmarkData.copy(filterData);
+    compactedData = BenchmarkData.copy(danglingFreeData);
+  }
+
+  @Benchmark
+  public FilterPipeline.FilterData removeDanglingReferences() {
+    new FilterPipeline(context, filteredData).removeDanglingReferences();
+    return filteredData;
+  }
+
+  @Benchmark
+  public FilterPipeline.FilterData compactIds() {
+    new FilterPipeline(context, compactedData).compactIds();
+    return compactedData;
+  }
+}
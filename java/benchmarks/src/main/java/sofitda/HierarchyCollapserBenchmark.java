@@ -0,0 +1,58 @@
+package sofitda;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HierarchyCollapser's collapse of documents into sentences and of document sentences into words, on the stage
+ * pool with the given number of threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HierarchyCollapserBenchmark {
+  private static final int VOCABULARY_SIZE = 100000;
+
+  @Param({ "10000", "100000", "1000000" })
+  public int documentCount;
+
+  @Param({ "1", "4" })
+  public int stageThreads;
+
+  private FilterPipeline.PartitionData partitionData;
+  private IntHierarchyTable documentSentenceTable;
+
+  @Setup
+  public void setUp() {
+    // Each trial runs in its own fork, so the pool is created with this thread count.
+    Configuration.STAGE_THREAD_COUNT = stageThreads;
+    partitionData = BenchmarkData.partition(BenchmarkData.random(), documentCount, VOCABULARY_SIZE, 5,
+        BenchmarkData.firstIds());
+    documentSentenceTable = IntHierarchyTable.fromDataset(collapseParagraphs());
+  }
+
+  @Benchmark
+  public CsrDataset collapseParagraphs() {
+    return HierarchyCollapser.collapseParent(partitionData.documentTable, partitionData.paragraphTable,
+        AbstractDocumentsTokenizer.PARAGRAPH_TERMINATOR_SENTENCE_ID);
+  }
+
+  @Benchmark
+  public CsrDataset collapseSentences() {
+    return HierarchyCollapser.collapseParent(documentSentenceTable, partitionData.sentenceTable, -1);
+  }
+}
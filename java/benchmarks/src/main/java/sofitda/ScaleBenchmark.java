@@ -0,0 +1,263 @@
+package sofitda;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Runs the whole pipeline on generated corpora of growing size, to find where it breaks. For every size, the
+ * sources are generated by CorpusGenerator under &lt;work directory&gt;/&lt;size&gt;/data/stage1, and each dataset
+ * is built by Main in a JVM of its own with the given heap, so a build that runs out of memory fails alone. The
+ * per-stage figures of every build are taken from its StageReport and collected in
+ * &lt;work directory&gt;/scale_report.csv, with the throughput and peak heap of each stage. A dataset that fails at
+ * one size is not tried at larger ones.
+ *
+ *   java -cp target/benchmarks.jar sofitda.ScaleBenchmark [--sizes 10000,100000,1000000] [--sources yelp,quora]
+ *       [--work-directory scale] [--heap 4g] [--keep] [-- Main options...]
+ *
+ * Options after -- are passed to Main, for example --binary or --in-memory.
+ */
+public class ScaleBenchmark {
+  private static final String[] REPORT_COLUMNS = { "size", "dataset", "exitCode", "stage", "cached", "failed",
+      "wallMillis", "cpuMillis", "allocatedBytes", "peakHeapBytes", "gcCount", "gcMillis", "rowsRead", "bytesRead",
+      "rowsWritten", "bytesWritten", "rowsPerSecond", "documentsPerSecond" };
+  private static final Pattern JSON_FIELD = Pattern.compile("\"([^\"]+)\": (\"[^\"]*\"|[^,}]+)");
+
+  private final File workDirectory;
+  private final String heapSize;
+  private final List<String> mainOptions;
+  private final PrintWriter reportWriter;
+
+  public ScaleBenchmark(File workDirectory, String heapSize, List<String> mainOptions) throws IOException {
+    this.workDirectory = workDirectory;
+    this.heapSize = heapSize;
+    this.mainOptions = mainOptions;
+
+    workDirectory.mkdirs();
+    reportWriter = new PrintWriter(new OutputStreamWriter(
+        new FileOutputStream(new File(workDirectory, "scale_report.csv")), StandardCharsets.UTF_8));
+    reportWriter.println(String.join(",", REPORT_COLUMNS));
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    List<Integer> sizes = Arrays.asList(10000, 100000, 1000000);
+    List<String> sources = Arrays.asList("yelp", "amazon", "quora", "sst5", "trec");
+    File workDirectory = new File("scale");
+    String heapSize = "4g";
+    boolean keep = false;
+    List<String> mainOptions = new ArrayList<>();
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--")) {
+        mainOptions.addAll(Arrays.asList(args).subList(i + 1, args.length));
+        break;
+      }
+
+      if (args[i].equals("--keep")) {
+        keep = true;
+        continue;
+      }
+
+      if (i + 1 == args.length) {
+        System.out.println("Unknown option or missing value: " + args[i]);
+        return;
+      }
+
+      switch (args[i]) {
+      case "--sizes":
+        sizes = new ArrayList<>();
+
+        for (String size : args[++i].split(",")) {
+          sizes.add(Integer.parseInt(size));
+        }
+
+        break;
+
+      case "--sources":
+        sources = Arrays.asList(args[++i].split(","));
+        break;
+
+      case "--work-directory":
+        workDirectory = new File(args[++i]);
+        break;
+
+      case "--heap":
+        heapSize = args[++i];
+        break;
+
+      default:
+        System.out.println("Unknown option: " + args[i]);
+        return;
+      }
+    }
+
+    ScaleBenchmark benchmark = new ScaleBenchmark(workDirectory, heapSize, mainOptions);
+    Set<String> failedSources = new HashSet<>();
+
+    try {
+      for (int size : sizes) {
+        for (String source : sources) {
+          if (failedSources.contains(source)) {
+            System.out.println("Skipping " + source + " at " + size + " documents, it failed at a smaller size");
+            continue;
+          }
+
+          if (!benchmark.run(source, size, keep)) {
+            failedSources.add(source);
+          }
+        }
+      }
+    } finally {
+      benchmark.close();
+    }
+
+    System.out.println("Report: " + new File(workDirectory, "scale_report.csv").getAbsolutePath());
+  }
+
+  /**
+   * Generates the source at the given size, builds it and adds its stages to the report. Returns whether the build
+   * succeeded.
+   */
+  public boolean run(String source, int size, boolean keep) throws IOException, InterruptedException {
+    // Main finds its data in ../data, so it runs in <size>/java.
+    File sizeDirectory = new File(workDirectory, String.valueOf(size));
+    File dataDirectory = new File(sizeDirectory, "data");
+    File javaDirectory = new File(sizeDirectory, "java");
+    RunContext context = new RunContext(source, dataDirectory.getPath());
+    File reportFile = new File(context.getReportDirectory(), source + "_stage_report.json");
+
+    javaDirectory.mkdirs();
+    FileUtils.deleteDirectory(new File(context.getStage3Directory()));
+    reportFile.delete();
+
+    if (!new File(context.getStage1Directory()).exists()) {
+      System.out.println("Generating " + size + " " + source + " documents");
+      new CorpusGenerator(size, BenchmarkData.SEED).generate(source, new File(context.getStage1Directory()));
+    }
+
+    System.out.println("Building " + source + " from " + size + " documents");
+
+    long startTime = System.nanoTime();
+    int exitCode = runMain(source, size, javaDirectory, new File(sizeDirectory, source + ".log"));
+    long wallMillis = (System.nanoTime() - startTime) / 1000000;
+    List<Map<String, String>> stages = readStageReport(reportFile);
+    long documentsPerSecond = wallMillis > 0 ? size * 1000L / wallMillis : 0;
+
+    for (Map<String, String> stage : stages) {
+      addReportRow(size, source, exitCode, stage, documentsPerSecond);
+    }
+
+    reportWriter.flush();
+    System.out.println(source + " at " + size + " documents: exit code " + exitCode + ", " + wallMillis + " ms, "
+        + stages.size() + " stages reported");
+
+    if (!keep) {
+      FileUtils.deleteDirectory(new File(context.getStage3Directory()));
+    }
+
+    return exitCode == 0;
+  }
+
+  public void close() {
+    reportWriter.close();
+  }
+
+  private int runMain(String source, int size, File javaDirectory, File logFile)
+      throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+
+    command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+    command.add("-Xmx" + heapSize);
+    command.add("-Dfile.encoding=UTF-8");
+    command.add("-cp");
+    command.add(getAbsoluteClassPath());
+    command.add(Main.class.getName());
+    command.add(source);
+    command.add("--max-documents");
+    command.add(String.valueOf(size));
+    command.addAll(mainOptions);
+
+    Process process = new ProcessBuilder(command).directory(javaDirectory).redirectErrorStream(true)
+        .redirectOutput(logFile).start();
+
+    return process.waitFor();
+  }
+
+  // The child runs in another directory, so relative class path entries are made absolute.
+  private static String getAbsoluteClassPath() {
+    List<String> entries = new ArrayList<>();
+
+    for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      entries.add(new File(entry).getAbsolutePath());
+    }
+
+    return String.join(File.pathSeparator, entries);
+  }
+
+  // Reads the stages from the JSON form of a StageReport, which has one stage object per line.
+  private static List<Map<String, String>> readStageReport(File file) throws IOException {
+    List<Map<String, String>> stages = new ArrayList<>();
+
+    if (!file.exists()) {
+      return stages;
+    }
+
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+        StandardCharsets.UTF_8));
+
+    try {
+      String line;
+
+      while ((line = reader.readLine()) != null) {
+        if (!line.trim().startsWith("{\"stage\"")) {
+          continue;
+        }
+
+        Map<String, String> stage = new LinkedHashMap<>();
+        Matcher matcher = JSON_FIELD.matcher(line);
+
+        while (matcher.find()) {
+          stage.put(matcher.group(1), matcher.group(2).replace("\"", ""));
+        }
+
+        stages.add(stage);
+      }
+    } finally {
+      reader.close();
+    }
+
+    return stages;
+  }
+
+  private void addReportRow(int size, String source, int exitCode, Map<String, String> stage,
+      long documentsPerSecond) {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append(size).append(',').append(source).append(',').append(exitCode);
+
+    for (int column = 3; column < REPORT_COLUMNS.length - 1; column++) {
+      String value = stage.get(REPORT_COLUMNS[column]);
+
+      builder.append(',').append(value != null ? value : "");
+    }
+
+    reportWriter.println(builder.append(',').append(documentsPerSecond));
+  }
+}
@@ -0,0 +1,75 @@
+package sofitda;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The tokenizer stage of each source, run on raw files from CorpusGenerator: line parsing, the source's tokenization
+ * and the writing of the stage3 datasets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SourceTokenizerBenchmark {
+  @Param({ "yelp", "tripadvisor", "amazon", "quora", "sst5", "trec" })
+  public String source;
+
+  @Param({ "1000", "10000" })
+  public int documentCount;
+
+  private File directory;
+  private RunContext context;
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = BenchmarkData.createTemporaryDirectory("source");
+    context = new RunContext(source, directory.getPath());
+    new CorpusGenerator(documentCount, BenchmarkData.SEED).generate(source, new File(context.getStage1Directory()));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Benchmark
+  public AbstractDocumentsTokenizer tokenize() throws IOException {
+    switch (source) {
+    case "yelp":
+      return new YelpReviewsTokenizer(context, documentCount);
+
+    case "tripadvisor":
+      return new TripAdvisorTokenizer(context, documentCount);
+
+    case "amazon":
+      return new AmazonReviewsTokenizer(context, documentCount);
+
+    case "quora":
+      return new QuoraInsincereTokenizer(context, documentCount);
+
+    case "sst5":
+      return new SST5Tokenizer(context);
+
+    default:
+      return new TRECTokenizer(context);
+    }
+  }
+}
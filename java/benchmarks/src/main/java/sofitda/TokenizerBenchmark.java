@@ -0,0 +1,114 @@
+package sofitda;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The per-document work of AbstractDocumentsTokenizer: PTB tokenization of a review-sized document, and word id
+ * lookups and inserts in the dataset vocabulary.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenizerBenchmark {
+  private static final int DOCUMENT_COUNT = 100;
+  private static final int WORD_COUNT = 10000;
+  private static final int VOCABULARY_SIZE = 50000;
+
+  private File directory;
+  private BenchmarkTokenizer tokenizer;
+  private String[] documents;
+  private String[] words;
+  private String[] distinctWords;
+
+  @Setup
+  public void setUp() throws IOException {
+    Random random = BenchmarkData.random();
+
+    directory = BenchmarkData.createTemporaryDirectory("tokenizer");
+    new File(directory, "stage1/benchmark").mkdirs();
+    tokenizer = new BenchmarkTokenizer(new RunContext("benchmark", directory.getPath()));
+    documents = new String[DOCUMENT_COUNT];
+    words = new String[WORD_COUNT];
+    distinctWords = new String[WORD_COUNT];
+
+    for (int i = 0; i < documents.length; i++) {
+      documents[i] = BenchmarkData.text(random, BenchmarkData.documentLength(random, 120), VOCABULARY_SIZE);
+    }
+
+    for (int i = 0; i < words.length; i++) {
+      words[i] = BenchmarkData.word(BenchmarkData.wordId(random, VOCABULARY_SIZE));
+      distinctWords[i] = BenchmarkData.word(AbstractDocumentsTokenizer.UNKNOWN_WORD_ID + 1 + i);
+    }
+
+    for (String word : words) {
+      tokenizer.getWordId(word);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DOCUMENT_COUNT)
+  public void tokenize(final Blackhole blackhole) {
+    TokenizerEngine.TokenCallback callback = new TokenizerEngine.TokenCallback() {
+      @Override
+      public void token(String token) {
+        blackhole.consume(token);
+      }
+    };
+
+    for (String document : documents) {
+      TokenizerEngine.get().tokenize(document, callback);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(WORD_COUNT)
+  public void getWordId(Blackhole blackhole) {
+    for (String word : words) {
+      blackhole.consume(tokenizer.getWordId(word));
+    }
+  }
+
+  // Starts from an empty vocabulary, so every word is added.
+  @Benchmark
+  @OperationsPerInvocation(WORD_COUNT)
+  public void addWordId(Blackhole blackhole) {
+    tokenizer.initializeVocabulary();
+
+    for (String word : distinctWords) {
+      blackhole.consume(tokenizer.getWordId(word));
+    }
+  }
+
+  // A tokenizer that reads no raw data, for calling the per-document methods directly.
+  static class BenchmarkTokenizer extends AbstractDocumentsTokenizer {
+    BenchmarkTokenizer(RunContext context) throws IOException {
+      super(context, false /* hasResponse */);
+    }
+  }
+}
@@ -3,19 +3,21 @@ package sofitda;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-
-import edu.stanford.nlp.ling.CoreLabel;
-import edu.stanford.nlp.process.CoreLabelTokenFactory;
-import edu.stanford.nlp.process.PTBTokenizer;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+@StageConfiguration({ "MIN_WORD_COUNT", "MAX_VOCABULARY_SIZE" })
 public abstract class AbstractDocumentsTokenizer {
   public static final int SENTENCE_TERMINATOR_WORD_ID = 2;
   public static final int PARAGRAPH_TERMINATOR_WORD_ID = 1;
@@ -32,39 +34,55 @@ public abstract class AbstractDocumentsTokenizer {
 
   public static final int DOCUMENT_TERMINATOR_PARAGRAPH_ID = 0;
 
+  private static final int PENDING_DOCUMENTS_PER_THREAD = 64;
+
   protected int sentenceCount;
   protected int paragraphCount;
   protected int documentCount;
   protected int maxSentenceId;
   protected int maxParagraphId;
   protected int maxResponseId;
-  protected PrintWriter sentenceDatasetWriter;
-  protected PrintWriter paragraphDatasetWriter;
-  protected PrintWriter documentDatasetWriter;
-  protected Map<String, Integer> datasetVocabularyMap = new HashMap<>();
+  protected DatasetRowWriter sentenceDatasetWriter;
+  protected DatasetRowWriter paragraphDatasetWriter;
+  protected DatasetRowWriter documentDatasetWriter;
+  protected Vocabulary datasetVocabulary = new Vocabulary();
   protected Map<Integer, List<Integer>> responseMap = new TreeMap<>();
   protected Map<String, Integer> responseIdMap = new TreeMap<>();
-  protected List<String> datasetVocabularyList = new ArrayList<>();
   protected List<String> currentSentence = new ArrayList<>();
   protected List<Integer> currentParagraph = new ArrayList<>();
   protected List<Integer> currentDocument = new ArrayList<>();
   protected File rawDataDirectory;
+  protected RunContext context;
   protected String datasetName;
   protected boolean hasResponse;
+  private ExecutorService tokenizerExecutor;
+  private Deque<PendingDocument> pendingDocuments = new ArrayDeque<>();
+  private VocabularyPruner vocabularyPruner; // When the vocabulary is pruned
+  private TokenizerEngine.TokenCallback tokenAdder = new TokenizerEngine.TokenCallback() {
+    @Override
+    public void token(String token) {
+      addToken(token);
+    }
+  };
 
-  public AbstractDocumentsTokenizer(String datasetName, boolean hasResponse) throws IOException {
-    this.datasetName = datasetName;
+  public AbstractDocumentsTokenizer(RunContext context, boolean hasResponse) throws IOException {
+    this.context = context;
+    this.datasetName = context.getDatasetName();
     this.hasResponse = hasResponse;
 
-    rawDataDirectory = new File(Constants.STAGE1_BASE_DIRECTORY + "/" + datasetName);
+    rawDataDirectory = new File(context.getStage1Directory());
 
     if (!rawDataDirectory.exists()) {
       System.err.println("Directory, " + rawDataDirectory.getAbsolutePath() + ", does not exist");
       return;
     }
 
-    Helper.makeOutputDirectory(datasetName);
+    Helper.makeOutputDirectory(context);
     initializeVocabulary();
+
+    if (Configuration.MIN_WORD_COUNT > 1 || Configuration.MAX_VOCABULARY_SIZE > 0) {
+      vocabularyPruner = new VocabularyPruner(context);
+    }
   }
 
   protected boolean excludeTerminators() {
@@ -72,36 +90,25 @@ public abstract class AbstractDocumentsTokenizer {
   }
 
   protected void initializeVocabulary() {
-    datasetVocabularyMap.clear();
-    datasetVocabularyMap.put(SENTENCE_TERMINATOR_TEXT, SENTENCE_TERMINATOR_WORD_ID);
-    datasetVocabularyList.add(SENTENCE_TERMINATOR_TEXT);
-    datasetVocabularyMap.put(PARAGRAPH_TERMINATOR_TEXT, PARAGRAPH_TERMINATOR_WORD_ID);
-    datasetVocabularyList.add(PARAGRAPH_TERMINATOR_TEXT);
-    datasetVocabularyMap.put(DOCUMENT_TERMINATOR_TEXT, DOCUMENT_TERMINATOR_WORD_ID);
-    datasetVocabularyList.add(DOCUMENT_TERMINATOR_TEXT);
-    datasetVocabularyMap.put(UNKNOWN_WORD_TEXT, UNKNOWN_WORD_ID);
-    datasetVocabularyList.add(UNKNOWN_WORD_TEXT);
+    datasetVocabulary = new Vocabulary();
+    datasetVocabulary.put(SENTENCE_TERMINATOR_WORD_ID, SENTENCE_TERMINATOR_TEXT);
+    datasetVocabulary.put(PARAGRAPH_TERMINATOR_WORD_ID, PARAGRAPH_TERMINATOR_TEXT);
+    datasetVocabulary.put(DOCUMENT_TERMINATOR_WORD_ID, DOCUMENT_TERMINATOR_TEXT);
+    datasetVocabulary.put(UNKNOWN_WORD_ID, UNKNOWN_WORD_TEXT);
   }
 
   protected void initializeSentenceInfo() {
-    sentenceDatasetWriter.print(String.valueOf(DOCUMENT_TERMINATOR_SENTENCE_ID));
-    sentenceDatasetWriter.print(" ");
-    sentenceDatasetWriter.print(String.valueOf(DOCUMENT_TERMINATOR_WORD_ID));
-    sentenceDatasetWriter.print("\n");
+    writeSentence(DOCUMENT_TERMINATOR_SENTENCE_ID, Collections.singletonList(DOCUMENT_TERMINATOR_TEXT));
     sentenceCount++;
 
-    sentenceDatasetWriter.print(String.valueOf(PARAGRAPH_TERMINATOR_SENTENCE_ID));
-    sentenceDatasetWriter.print(" ");
-    sentenceDatasetWriter.print(String.valueOf(PARAGRAPH_TERMINATOR_WORD_ID));
-    sentenceDatasetWriter.print("\n");
+    writeSentence(PARAGRAPH_TERMINATOR_SENTENCE_ID, Collections.singletonList(PARAGRAPH_TERMINATOR_TEXT));
     sentenceCount++;
   }
 
-  protected void initializeParagraphInfo() {
-    paragraphDatasetWriter.print(String.valueOf(DOCUMENT_TERMINATOR_PARAGRAPH_ID));
-    paragraphDatasetWriter.print(" ");
-    paragraphDatasetWriter.print(String.valueOf(DOCUMENT_TERMINATOR_SENTENCE_ID));
-    paragraphDatasetWriter.print("\n");
+  protected void initializeParagraphInfo() throws IOException {
+    paragraphDatasetWriter.write(DOCUMENT_TERMINATOR_PARAGRAPH_ID);
+    paragraphDatasetWriter.write(DOCUMENT_TERMINATOR_SENTENCE_ID);
+    paragraphDatasetWriter.endRow();
     paragraphCount++;
   }
 
@@ -109,13 +116,18 @@ public abstract class AbstractDocumentsTokenizer {
     responseMap.clear();
   }
 
-  protected void initialize(String prefix) throws FileNotFoundException, UnsupportedEncodingException {
-    sentenceDatasetWriter = Helper.createPrintWriter(
-        Configuration.STAGE3_DIRECTORY + "/" + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix));
-    paragraphDatasetWriter = Helper.createPrintWriter(
-        Configuration.STAGE3_DIRECTORY + "/" + String.format(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, prefix));
-    documentDatasetWriter = Helper.createPrintWriter(
-        Configuration.STAGE3_DIRECTORY + "/" + String.format(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, prefix));
+  protected void initialize(String prefix) throws IOException {
+    if (vocabularyPruner != null) {
+      vocabularyPruner.beginPrefix(prefix);
+    } else {
+      sentenceDatasetWriter = new DatasetRowWriter(
+          context.getStage3Directory() + "/" + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix));
+    }
+
+    paragraphDatasetWriter = new DatasetRowWriter(
+        context.getStage3Directory() + "/" + String.format(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, prefix));
+    documentDatasetWriter = new DatasetRowWriter(
+        context.getStage3Directory() + "/" + String.format(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, prefix));
 
     initializeSentenceInfo();
     initializeParagraphInfo();
@@ -125,17 +137,33 @@ public abstract class AbstractDocumentsTokenizer {
     }
   }
 
-  protected void done(String prefix, boolean isLastPrefix) throws FileNotFoundException {
+  protected void done(String prefix, boolean isLastPrefix) throws IOException {
+    flushPendingDocuments();
+
+    if (isLastPrefix && tokenizerExecutor != null) {
+      tokenizerExecutor.shutdown();
+      tokenizerExecutor = null;
+    }
+
     System.out.println("Prefix " + prefix + " - Unique sentenceCount: " + sentenceCount + ", Unique paragraphCount: "
         + paragraphCount);
 
-    sentenceDatasetWriter.close();
+    if (vocabularyPruner != null) {
+      vocabularyPruner.endPrefix();
+    } else {
+      sentenceDatasetWriter.close();
+    }
+
     paragraphDatasetWriter.close();
     documentDatasetWriter.close();
     saveResponse(prefix);
 
     if (isLastPrefix) {
-      Helper.saveDatasetVocabulary(datasetVocabularyMap);
+      if (vocabularyPruner != null) {
+        vocabularyPruner.writeSentenceDatasets(datasetVocabulary);
+      }
+
+      Helper.saveDatasetVocabulary(context, datasetVocabulary);
 
       if (responseIdMap.size() > 0) {
         saveResponseMap(prefix);
@@ -144,7 +172,7 @@ public abstract class AbstractDocumentsTokenizer {
   }
 
   protected void saveResponseMap(String prefix) throws FileNotFoundException {
-    String filename = Configuration.STAGE3_DIRECTORY + "/" + Constants.RESPONSE_DATASET_TEXT_FILENAME;
+    String filename = context.getStage3Directory() + "/" + Constants.RESPONSE_DATASET_TEXT_FILENAME;
 
     Helper.writeStringDictionary(responseIdMap, filename);
   }
@@ -207,23 +235,104 @@ public abstract class AbstractDocumentsTokenizer {
     internalProcessDocument(document, responseIds);
   }
 
-  private void internalProcessDocument(String document, int[] responseIds) {
-    List<String> tokens = tokenize(document);
+  /**
+   * With Configuration.TOKENIZER_THREAD_COUNT above one, documents are tokenized on a pool of threads, while ids are
+   * assigned and rows written on the calling thread in the order the documents were given. The output is the same as
+   * a single-threaded run, so tokenize() must not depend on state that processing earlier documents changes.
+   */
+  private void internalProcessDocument(final String document, int[] responseIds) {
+    int threadCount = Configuration.TOKENIZER_THREAD_COUNT;
+
+    if (threadCount <= 1) {
+      tokenize(document, tokenAdder);
+      endDocument(responseIds);
+      return;
+    }
 
-    for (String token : tokens) {
-      if (token.equals(sentenceTerminator())) {
-        addSentence();
-      } else if (token.equals(paragraphTerminator())) {
-        addParagraph();
-      } else {
-        for (String subToken : token.split(" ")) {
-          if (!subToken.isEmpty()) {
-            currentSentence.add(subToken);
+    if (tokenizerExecutor == null) {
+      tokenizerExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "tokenizer");
+
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+
+    Future<List<String>> tokens = tokenizerExecutor.submit(new Callable<List<String>>() {
+      @Override
+      public List<String> call() {
+        final List<String> tokens = new ArrayList<>();
+
+        tokenize(document, new TokenizerEngine.TokenCallback() {
+          @Override
+          public void token(String token) {
+            tokens.add(token);
           }
+        });
+
+        return tokens;
+      }
+    });
+
+    pendingDocuments.add(new PendingDocument(tokens, responseIds.clone()));
+
+    // Bound the documents in flight so that memory use does not grow with the input size.
+    if (pendingDocuments.size() >= PENDING_DOCUMENTS_PER_THREAD * threadCount) {
+      addNextPendingDocument();
+    }
+  }
+
+  /**
+   * Assigns ids to and writes every document that has been submitted for tokenization but not yet added.
+   */
+  protected void flushPendingDocuments() {
+    while (!pendingDocuments.isEmpty()) {
+      addNextPendingDocument();
+    }
+  }
+
+  private void addNextPendingDocument() {
+    PendingDocument pendingDocument = pendingDocuments.poll();
+    List<String> tokens;
+
+    try {
+      tokens = pendingDocument.tokens.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while tokenizing", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Tokenization failed", e.getCause());
+    }
+
+    for (String token : tokens) {
+      addToken(token);
+    }
+
+    endDocument(pendingDocument.responseIds);
+  }
+
+  private void addToken(String token) {
+    if (token.equals(sentenceTerminator())) {
+      addSentence();
+    } else if (token.equals(paragraphTerminator())) {
+      addParagraph();
+    } else if (token.indexOf(' ') == -1) {
+      if (!token.isEmpty()) {
+        currentSentence.add(token);
+      }
+    } else {
+      for (String subToken : token.split(" ")) {
+        if (!subToken.isEmpty()) {
+          currentSentence.add(subToken);
         }
       }
     }
+  }
 
+  private void endDocument(int[] responseIds) {
     addSentence();
     addParagraph();
     addDocument(responseIds);
@@ -237,20 +346,22 @@ public abstract class AbstractDocumentsTokenizer {
     return "*nl*";
   }
 
-  protected List<String> tokenize(String document) {
-    List<String> tokens = new ArrayList<>();
-    StringReader reader = new StringReader(document);
-    PTBTokenizer<CoreLabel> tokenizer = new PTBTokenizer<>(reader, new CoreLabelTokenFactory(), "tokenizeNLs=true");
-
-    while (tokenizer.hasNext()) {
-      tokens.add(tokenizer.next().toString().toLowerCase());
+  /**
+   * Passes the tokens of the document to callback in order. Subclasses override either this or tokenize(String). With
+   * more than one tokenizer thread, this is called on pool threads.
+   */
+  protected void tokenize(String document, TokenizerEngine.TokenCallback callback) {
+    for (String token : tokenize(document)) {
+      callback.token(token);
     }
+  }
 
-    return tokens;
+  protected List<String> tokenize(String document) {
+    return TokenizerEngine.get().tokenize(document);
   }
 
-  protected void saveResponse(String prefix) throws FileNotFoundException {
-    String responseFilePath = Configuration.STAGE3_DIRECTORY + "/"
+  protected void saveResponse(String prefix) throws IOException {
+    String responseFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
 
     Helper.writeMultiColumnIntegerListMap(responseMap, responseFilePath);
@@ -262,33 +373,36 @@ public abstract class AbstractDocumentsTokenizer {
       return;
     }
 
-    List<Integer> wordIds = new ArrayList<>();
-
-    for (int i = 0; i < currentSentence.size() && i < Constants.MAX_SENTENCE_LENGTH; i++) {
-      String word = currentSentence.get(i);
-
-      wordIds.add(getWordId(word));
-    }
-
     if (!excludeTerminators()) {
-      wordIds.add(SENTENCE_TERMINATOR_WORD_ID);
       currentSentence.add(SENTENCE_TERMINATOR_TEXT);
     }
 
     int sentenceId = sentenceCount++;
 
     currentParagraph.add(sentenceId);
-    sentenceDatasetWriter.write(String.valueOf(sentenceId));
-
-    for (int i = 0; i < wordIds.size(); i++) {
-      int wordId = wordIds.get(i);
+    writeSentence(sentenceId, currentSentence);
+    currentSentence.clear();
+  }
 
-      sentenceDatasetWriter.write(" ");
-      sentenceDatasetWriter.write(String.valueOf(wordId));
+  // Writes the sentence with the ids of its words. When the vocabulary is pruned, the pruner writes it instead once
+  // every word has been counted.
+  private void writeSentence(int sentenceId, List<String> words) {
+    if (vocabularyPruner != null) {
+      vocabularyPruner.addSentence(sentenceId, words);
+      return;
     }
 
-    currentSentence.clear();
-    sentenceDatasetWriter.write("\n");
+    try {
+      sentenceDatasetWriter.write(sentenceId);
+
+      for (String word : words) {
+        sentenceDatasetWriter.write(getWordId(word));
+      }
+
+      sentenceDatasetWriter.endRow();
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot write the sentence " + sentenceId, e);
+    }
   }
 
   protected void addParagraph() {
@@ -303,14 +417,19 @@ public abstract class AbstractDocumentsTokenizer {
     int paragraphId = paragraphCount++;
 
     currentDocument.add(paragraphId);
-    paragraphDatasetWriter.write(String.valueOf(paragraphId));
 
-    for (Integer sentenceId : currentParagraph) {
-      paragraphDatasetWriter.write(" ");
-      paragraphDatasetWriter.write(String.valueOf(sentenceId));
+    try {
+      paragraphDatasetWriter.write(paragraphId);
+
+      for (int sentenceId : currentParagraph) {
+        paragraphDatasetWriter.write(sentenceId);
+      }
+
+      paragraphDatasetWriter.endRow();
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot write the paragraph " + paragraphId, e);
     }
 
-    paragraphDatasetWriter.write("\n");
     currentParagraph.clear();
   }
 
@@ -323,18 +442,22 @@ public abstract class AbstractDocumentsTokenizer {
       currentDocument.add(DOCUMENT_TERMINATOR_PARAGRAPH_ID);
     }
 
-    documentDatasetWriter.write(String.valueOf(documentCount));
-
     if (hasResponse) {
       addResponse(responseIds, documentCount);
     }
 
-    for (Integer paragraphId : currentDocument) {
-      documentDatasetWriter.write(" ");
-      documentDatasetWriter.write(String.valueOf(paragraphId));
+    try {
+      documentDatasetWriter.write(documentCount);
+
+      for (int paragraphId : currentDocument) {
+        documentDatasetWriter.write(paragraphId);
+      }
+
+      documentDatasetWriter.endRow();
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot write the document " + documentCount, e);
     }
 
-    documentDatasetWriter.write("\n");
     documentCount++;
     currentDocument.clear();
   }
@@ -353,19 +476,26 @@ public abstract class AbstractDocumentsTokenizer {
   }
 
   protected int getWordId(String word) {
-    Integer wordId = datasetVocabularyMap.get(word);
-
-    if (wordId == null) {
-      wordId = datasetVocabularyMap.size();
+    int wordId = datasetVocabulary.getId(word);
 
+    if (wordId == -1) {
       if (word.isEmpty()) {
         throw new RuntimeException("Word cannot be empty");
       }
 
-      datasetVocabularyMap.put(word, wordId);
-      datasetVocabularyList.add(word);
+      wordId = datasetVocabulary.add(word);
     }
 
     return wordId;
   }
+
+  private static class PendingDocument {
+    final Future<List<String>> tokens;
+    final int[] responseIds;
+
+    PendingDocument(Future<List<String>> tokens, int[] responseIds) {
+      this.tokens = tokens;
+      this.responseIds = responseIds;
+    }
+  }
 }
@@ -1,7 +1,6 @@
 package sofitda;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
@@ -24,26 +23,32 @@ import java.util.List;
 //  Column 13: review_body
 //  Column 14: review_date
 public class AmazonReviewsTokenizer extends AbstractDocumentsTokenizer {
-  public AmazonReviewsTokenizer() throws IOException {
-    super("amazon", true /* hasResponse */);
+  public AmazonReviewsTokenizer(RunContext context) throws IOException {
+    this(context, 40000);
+  }
+
+  public AmazonReviewsTokenizer(RunContext context, int maxReviewCount) throws IOException {
+    super(context, true /* hasResponse */);
 
     initialize("all");
 
-    processDocuments("amazon_reviews_us_Camera_v1_00.tsv", 40000);
+    processDocuments("amazon_reviews_us_Camera_v1_00.tsv", maxReviewCount);
 
     done("all", true /* isLastPrefix */);
   }
 
   public void processDocuments(String filename, int reviewCount) throws IOException {
     String reviewFilePath = rawDataDirectory.getAbsolutePath() + "/" + filename;
-    BufferedReader reader = new BufferedReader(new FileReader(reviewFilePath));
+    BufferedReader reader = Helper.createBufferedReader(reviewFilePath);
     boolean firstLine = true;
     int count = 0;
     int errorCount = 0;
 
-    while (true) {
+    String line;
+
+    while ((line = reader.readLine()) != null) {
       try {
-        String[] columns = reader.readLine().split("\t");
+        String[] columns = line.split("\t");
 
         if (firstLine) {
           for (int j = 0; j < columns.length; j++) {
@@ -0,0 +1,130 @@
+package sofitda;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the rows of a binary CSR dataset written by {@link Helper#writeBinaryDataset(String, CsrDataset)} one at a
+ * time. The offsets and the values are read through buffers of their own at their positions in the file, so the
+ * dataset is never loaded whole.
+ */
+public class BinaryDatasetReader implements RowReader {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final String filePath;
+  private final FileChannel channel;
+  private final ByteBuffer offsetBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private final ByteBuffer valueBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private final int rowCount;
+  private long offsetPosition;
+  private long valuePosition;
+  private long valueEnd;
+  private int rowIndex;
+  private int offset;
+  private int[] row = new int[64];
+
+  public BinaryDatasetReader(String filePath) throws IOException {
+    this.filePath = filePath;
+    channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+
+    try {
+      ByteBuffer header = ByteBuffer.allocate(Helper.CSR_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+      fill(header, 0, Helper.CSR_HEADER_SIZE);
+
+      if (header.getInt() != Helper.CSR_MAGIC || header.getInt() != Helper.CSR_VERSION) {
+        throw new IOException(filePath + " is not a CSR dataset");
+      }
+
+      rowCount = header.getInt();
+      offsetPosition = Helper.CSR_HEADER_SIZE;
+      valuePosition = Helper.CSR_HEADER_SIZE + 4L * (rowCount + 1);
+      valueEnd = valuePosition + 4L * header.getInt();
+      offsetBuffer.limit(0);
+      valueBuffer.limit(0);
+      offset = nextOffset();
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public int next() throws IOException {
+    if (rowIndex == rowCount) {
+      return -1;
+    }
+
+    int nextOffset = nextOffset();
+    int length = nextOffset - offset;
+
+    if (row.length < length) {
+      row = new int[Math.max(length, row.length * 2)];
+    }
+
+    for (int i = 0; i < length; i++) {
+      if (!valueBuffer.hasRemaining()) {
+        valuePosition = fill(valueBuffer, valuePosition, valueEnd - valuePosition);
+      }
+
+      row[i] = valueBuffer.getInt();
+    }
+
+    offset = nextOffset;
+    rowIndex++;
+    return length;
+  }
+
+  @Override
+  public int[] row() {
+    return row;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      IoCounters.addRead(rowIndex, channel.size());
+    } finally {
+      channel.close();
+    }
+  }
+
+  private int nextOffset() throws IOException {
+    if (!offsetBuffer.hasRemaining()) {
+      long offsetEnd = Helper.CSR_HEADER_SIZE + 4L * (rowCount + 1);
+
+      offsetPosition = fill(offsetBuffer, offsetPosition, offsetEnd - offsetPosition);
+    }
+
+    return offsetBuffer.getInt();
+  }
+
+  // Reads as much of the remaining bytes of a region as fits into buffer, from position on, and returns the position
+  // after them.
+  private long fill(ByteBuffer buffer, long position, long remaining) throws IOException {
+    buffer.clear();
+    buffer.limit((int) Math.min(buffer.capacity(), remaining));
+
+    if (!buffer.hasRemaining()) {
+      throw new EOFException(filePath + " has fewer values than its header says");
+    }
+
+    while (buffer.hasRemaining()) {
+      int count = channel.read(buffer, position);
+
+      if (count == -1) {
+        throw new EOFException(filePath + " is truncated");
+      }
+
+      position += count;
+    }
+
+    buffer.flip();
+    return position;
+  }
+}
@@ -1,7 +1,24 @@
 package sofitda;
 
 public class Configuration {
-  public static String STAGE3_DIRECTORY = "../data/stage3";
-  public static String STAGE2_DIRECTORY = "../data/stage2";
-  public static String DATASET_NAME;
+  public static boolean BINARY_DATASETS = false;
+  public static boolean TEXT_DATASETS = true;
+  public static boolean GZIP_DATASETS = false;
+  public static int TOKENIZER_THREAD_COUNT = 1;
+  public static int STAGE_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+  public static boolean IN_MEMORY_DATASETS = false;
+  public static boolean STAGE_CACHE = false;
+  public static int MAX_DOCUMENT_COUNT = 0; // Overrides the tokenizers' own limits when above zero
+  public static int PARTITION_MEMORY_MB = 0; // Partitions out of core within this budget when above zero
+  public static long PARTITION_SEED = 0;
+  public static boolean STRATIFIED_PARTITIONS = false; // Splits every response in the partition sizes on its own
+  public static int FOLD_COUNT = 0; // Also writes this many cross-validation folds when above zero
+  public static int MIN_WORD_COUNT = 1; // Maps words seen fewer times to the unknown word when above 1
+  public static int MAX_VOCABULARY_SIZE = 0; // Keeps only this many of the most frequent words when above zero
+  public static double MAX_UNKNOWN_WORD_PROPORTION = 1; // Filters out documents with more unknown words when below 1
+  public static int MAX_SENTENCE_COUNT = 0; // Filters out documents with more sentences when above zero
+  public static String[] RESPONSE_WHITELIST = null; // Filters out documents with other responses when given
+  public static double NEAR_DUPLICATE_THRESHOLD = 0; // Finds near duplicates at this Jaccard similarity when above zero
+  public static boolean DROP_NEAR_DUPLICATES = false;
+  public static boolean DROP_DUPLICATES = false; // Exact duplicates are always listed, and dropped when set
 }
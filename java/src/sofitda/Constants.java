@@ -26,12 +26,19 @@ public class Constants {
   public static final String TEXT_GENERATION_DATASET_FILENAME_FORMAT = "response_%d_text_generation_dataset.txt";
   public static final String COMBINED_DATASET_FILENAME_FORMAT = "%s_combined_dataset.txt";
   public static final String METADATA_DATASET_FILE_NAME_FORMAT = "%s_metadata_dataset.txt";
+  public static final String DUPLICATE_DATASET_FILENAME_FORMAT = "%s_duplicate_dataset.txt";
+  public static final String NEAR_DUPLICATE_DATASET_FILENAME_FORMAT = "%s_near_duplicate_dataset.txt";
   public static final String SENTENCE_LENGTH_STATS_FILE_NAME_FORMAT = "%s_sentence_length_stats.txt";
+  public static final String BINARY_DATASET_EXTENSION = ".csr";
+  public static final String DATASET_STATS_EXTENSION = ".stats";
+  public static final String GZIP_EXTENSION = ".gz";
+  public static final String BINARY_VOCABULARY_EXTENSION = ".vocab";
   public static final String WORD_EMBEDDINGS_FILENAME = "word_embeddings.txt";
   public static final String STAGE1_BASE_DIRECTORY = "../data/stage1";
   public static final String STAGE2_BASE_DIRECTORY = "../data/stage2";
   public static final String STAGE3_BASE_DIRECTORY = "../data/stage3";
   public static final String REPORT_DIRECTORY = "../data/report";
+  public static final String CACHE_BASE_DIRECTORY = "../data/cache";
   public static final String HTML_DIRECTORY = "html";
   public static final int MAX_SENTENCE_LENGTH = 1000;
   public static final double TRAINING_PARTITION_SIZE = 0.5;
@@ -0,0 +1,69 @@
+package sofitda;
+
+/**
+ * Counts how often 64-bit keys are added, in memory that does not grow with the number of keys. Every key has one
+ * counter in each of DEPTH rows, picked by an independent hash per row, and its estimate is the smallest of its
+ * counters. An estimate is never below the true count. It is above it only by the counts of keys that share every
+ * counter with it, and conservative updates, which raise only the counters at the current estimate, keep that small.
+ * Instances are not thread-safe.
+ */
+public class CountMinSketch {
+  private static final int DEPTH = 4;
+
+  private final int[] counters;
+  private final int width;
+  private final int mask;
+  private final int[] indices = new int[DEPTH];
+
+  /**
+   * Creates a sketch with at least width counters per row. The width is rounded up to a power of two.
+   */
+  public CountMinSketch(int width) {
+    this.width = Integer.highestOneBit(Math.max(2, width) * 2 - 1);
+    mask = this.width - 1;
+    counters = new int[DEPTH * this.width];
+  }
+
+  /**
+   * Counts one more occurrence of the key and returns its new estimate.
+   */
+  public int add(long key) {
+    int estimate = Integer.MAX_VALUE;
+
+    for (int row = 0; row < DEPTH; row++) {
+      indices[row] = getIndex(key, row);
+      estimate = Math.min(estimate, counters[indices[row]]);
+    }
+
+    if (estimate == Integer.MAX_VALUE) {
+      return estimate;
+    }
+
+    estimate++;
+
+    for (int row = 0; row < DEPTH; row++) {
+      if (counters[indices[row]] < estimate) {
+        counters[indices[row]] = estimate;
+      }
+    }
+
+    return estimate;
+  }
+
+  /**
+   * Returns the estimated number of times the key has been added.
+   */
+  public int estimate(long key) {
+    int estimate = Integer.MAX_VALUE;
+
+    for (int row = 0; row < DEPTH; row++) {
+      estimate = Math.min(estimate, counters[getIndex(key, row)]);
+    }
+
+    return estimate;
+  }
+
+  private int getIndex(long key, int row) {
+    return row * width + ((int) (Helper.mix64(key + row * 0x9E3779B97F4A7C15L) >>> 32) & mask);
+  }
+}
@@ -0,0 +1,69 @@
+package sofitda;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes and lines read through it and adds them to IoCounters when it is closed, for text files that are
+ * not read by the dataset readers.
+ */
+public class CountingInputStream extends FilterInputStream {
+  private long byteCount;
+  private long lineCount;
+  private boolean closed;
+
+  public CountingInputStream(InputStream inputStream) {
+    super(inputStream);
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = in.read();
+
+    if (b != -1) {
+      byteCount++;
+
+      if (b == '\n') {
+        lineCount++;
+      }
+    }
+
+    return b;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    int count = in.read(bytes, offset, length);
+
+    if (count > 0) {
+      byteCount += count;
+
+      for (int i = offset; i < offset + count; i++) {
+        if (bytes[i] == '\n') {
+          lineCount++;
+        }
+      }
+    }
+
+    return count;
+  }
+
+  @Override
+  public long skip(long length) throws IOException {
+    long count = in.skip(length);
+
+    byteCount += count;
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      IoCounters.addRead(lineCount, byteCount);
+    }
+
+    super.close();
+  }
+}
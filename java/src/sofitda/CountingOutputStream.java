@@ -0,0 +1,52 @@
+package sofitda;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes and lines written through it and adds them to IoCounters when it is closed, for text files that
+ * are not written by the dataset writers.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+  private long byteCount;
+  private long lineCount;
+  private boolean closed;
+
+  public CountingOutputStream(OutputStream outputStream) {
+    super(outputStream);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    out.write(b);
+    byteCount++;
+
+    if (b == '\n') {
+      lineCount++;
+    }
+  }
+
+  // Overridden because FilterOutputStream would write the array a byte at a time.
+  @Override
+  public void write(byte[] bytes, int offset, int length) throws IOException {
+    out.write(bytes, offset, length);
+    byteCount += length;
+
+    for (int i = offset; i < offset + length; i++) {
+      if (bytes[i] == '\n') {
+        lineCount++;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      IoCounters.addWritten(lineCount, byteCount);
+    }
+
+    super.close();
+  }
+}
@@ -0,0 +1,208 @@
+package sofitda;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A multi-column integer dataset in compressed sparse row form. Row r occupies values[offsets[r]] up to
+ * values[offsets[r + 1]], and its first value is the row id, exactly as in the text files.
+ *
+ * A read-only view shares the arrays of the dataset it was made from and cannot have rows added. Its arrays must not
+ * be modified either; {@link #copy()} gives a dataset that can be.
+ */
+public class CsrDataset {
+  private int rowCount;
+  private int[] offsets;
+  private int[] values;
+  private boolean readOnly;
+
+  public CsrDataset(int rowCount, int[] offsets, int[] values) {
+    this.rowCount = rowCount;
+    this.offsets = offsets;
+    this.values = values;
+  }
+
+  public CsrDataset() {
+    this(0, new int[16], new int[1024]);
+  }
+
+  public static CsrDataset fromRows(List<int[]> rows) {
+    CsrDataset dataset = new CsrDataset();
+
+    for (int[] row : rows) {
+      dataset.addRow(row, 0, row.length);
+    }
+
+    return dataset;
+  }
+
+  public static CsrDataset fromArrayMap(Map<Integer, int[]> map) {
+    CsrDataset dataset = new CsrDataset();
+
+    for (Map.Entry<Integer, int[]> entry : map.entrySet()) {
+      dataset.addRow(entry.getKey(), entry.getValue(), 0, entry.getValue().length);
+    }
+
+    return dataset;
+  }
+
+  public static CsrDataset fromListMap(Map<Integer, ? extends Collection<Integer>> map) {
+    CsrDataset dataset = new CsrDataset();
+    int[] childIds = new int[16];
+
+    for (Map.Entry<Integer, ? extends Collection<Integer>> entry : map.entrySet()) {
+      int count = 0;
+
+      if (childIds.length < entry.getValue().size()) {
+        childIds = new int[entry.getValue().size()];
+      }
+
+      for (int childId : entry.getValue()) {
+        childIds[count++] = childId;
+      }
+
+      dataset.addRow(entry.getKey(), childIds, 0, count);
+    }
+
+    return dataset;
+  }
+
+  /**
+   * Returns a view of the rows added so far that shares the arrays of this dataset.
+   */
+  public CsrDataset asReadOnly() {
+    CsrDataset view = new CsrDataset(rowCount, offsets, values);
+
+    view.readOnly = true;
+    return view;
+  }
+
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  public void addRow(int[] row, int from, int length) {
+    ensureCapacity(length);
+    System.arraycopy(row, from, values, offsets[rowCount], length);
+    offsets[rowCount + 1] = offsets[rowCount] + length;
+    rowCount++;
+  }
+
+  public void addRow(int id, int[] childIds, int from, int length) {
+    ensureCapacity(length + 1);
+
+    int offset = offsets[rowCount];
+
+    values[offset] = id;
+    System.arraycopy(childIds, from, values, offset + 1, length);
+    offsets[rowCount + 1] = offset + length + 1;
+    rowCount++;
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public int getValueCount() {
+    return offsets[rowCount];
+  }
+
+  public int getRowOffset(int row) {
+    return offsets[row];
+  }
+
+  public int getRowLength(int row) {
+    return offsets[row + 1] - offsets[row];
+  }
+
+  public int getRowId(int row) {
+    return values[offsets[row]];
+  }
+
+  public int[] getOffsets() {
+    return offsets;
+  }
+
+  public int[] getValues() {
+    return values;
+  }
+
+  public int[] getRow(int row) {
+    return Arrays.copyOfRange(values, offsets[row], offsets[row + 1]);
+  }
+
+  /**
+   * Returns the rows of the datasets one after another, in list order.
+   */
+  public static CsrDataset concat(List<CsrDataset> datasets) {
+    int rowCount = 0;
+    int valueCount = 0;
+
+    for (CsrDataset dataset : datasets) {
+      rowCount += dataset.rowCount;
+      valueCount += dataset.getValueCount();
+    }
+
+    int[] offsets = new int[rowCount + 1];
+    int[] values = new int[valueCount];
+    int row = 0;
+
+    for (CsrDataset dataset : datasets) {
+      int base = offsets[row];
+
+      System.arraycopy(dataset.values, 0, values, base, dataset.getValueCount());
+
+      for (int i = 1; i <= dataset.rowCount; i++) {
+        offsets[row + i] = base + dataset.offsets[i];
+      }
+
+      row += dataset.rowCount;
+    }
+
+    return new CsrDataset(rowCount, offsets, values);
+  }
+
+  public CsrDataset copy() {
+    return new CsrDataset(rowCount, Arrays.copyOf(offsets, rowCount + 1), Arrays.copyOf(values, getValueCount()));
+  }
+
+  public List<int[]> toRows() {
+    List<int[]> rows = new ArrayList<>(rowCount);
+
+    for (int i = 0; i < rowCount; i++) {
+      rows.add(getRow(i));
+    }
+
+    return rows;
+  }
+
+  public TreeMap<Integer, int[]> toMap() {
+    TreeMap<Integer, int[]> map = new TreeMap<>();
+
+    for (int i = 0; i < rowCount; i++) {
+      map.put(values[offsets[i]], Arrays.copyOfRange(values, offsets[i] + 1, offsets[i + 1]));
+    }
+
+    return map;
+  }
+
+  private void ensureCapacity(int length) {
+    if (readOnly) {
+      throw new UnsupportedOperationException("Cannot add rows to a read-only dataset");
+    }
+
+    if (rowCount + 2 > offsets.length) {
+      offsets = Arrays.copyOf(offsets, Math.max(rowCount + 2, offsets.length * 2));
+    }
+
+    int required = offsets[rowCount] + length;
+
+    if (required > values.length) {
+      values = Arrays.copyOf(values, Math.max(required, values.length * 2));
+    }
+  }
+}
@@ -2,14 +2,13 @@ package sofitda;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
 public class DataAugmentationTokenizer extends AbstractDocumentsTokenizer {
-  public DataAugmentationTokenizer(String name) throws IOException {
-    super(name, true /* hasResponse */);
+  public DataAugmentationTokenizer(RunContext context) throws IOException {
+    super(context, true /* hasResponse */);
 
     createDataset("training", false /* isLastPrefix */);
     createDataset("validation", false /* isLastPrefix */);
@@ -22,7 +21,7 @@ public class DataAugmentationTokenizer extends AbstractDocumentsTokenizer {
     String documentWordDatasetTextFilePath = this.rawDataDirectory.getAbsolutePath() + "/"
         + String.format(Constants.DOCUMENT_WORD_DATASET_TEXT_FILENAME_FORMAT, prefix);
 
-    BufferedReader reader = new BufferedReader(new FileReader(documentWordDatasetTextFilePath));
+    BufferedReader reader = Helper.createBufferedReader(documentWordDatasetTextFilePath);
     String line;
 
     while ((line = reader.readLine()) != null) {
@@ -55,7 +54,7 @@ public class DataAugmentationTokenizer extends AbstractDocumentsTokenizer {
 
     System.out.println("Loading generated file " + generatedFilename);
 
-    BufferedReader reader = new BufferedReader(new FileReader(generatedFilename));
+    BufferedReader reader = Helper.createBufferedReader(generatedFilename);
     String line;
 
     while ((line = reader.readLine()) != null) {
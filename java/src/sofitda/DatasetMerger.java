@@ -3,6 +3,7 @@ package sofitda;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -14,22 +15,25 @@ public class DatasetMerger {
   private List<int[]> documentWordDataset = new ArrayList<>();
   private List<int[]> paragraphDataset = new ArrayList<>();
   private List<int[]> sentenceDataset = new ArrayList<>();
+  private final RunContext context;
+
+  public DatasetMerger(RunContext context) throws IOException {
+    this.context = context;
 
-  public DatasetMerger() throws IOException {
     String[] prefixes = { "training", "validation", "testing" };
 
     for (String prefix : prefixes) {
-      String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+      String responseDatasetFilePath = context.getStage3Directory() + "/"
           + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
-      String documentDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+      String documentDatasetFilePath = context.getStage3Directory() + "/"
           + String.format(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, prefix);
-      String documentSentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+      String documentSentenceDatasetFilePath = context.getStage3Directory() + "/"
           + String.format(Constants.DOCUMENT_SENTENCE_DATASET_FILENAME_FORMAT, prefix);
-      String documentWordDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+      String documentWordDatasetFilePath = context.getStage3Directory() + "/"
           + String.format(Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, prefix);
-      String paragraphDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+      String paragraphDatasetFilePath = context.getStage3Directory() + "/"
           + String.format(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, prefix);
-      String sentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+      String sentenceDatasetFilePath = context.getStage3Directory() + "/"
           + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
 
       addResponseDataset(Helper.readMultiColumnIntegerMap(responseDatasetFilePath));
@@ -44,17 +48,17 @@ public class DatasetMerger {
       writeRootIds(prefixDocumentDataset, prefix);
     }
 
-    String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String responseDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "all");
-    String documentDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, "all");
-    String documentSentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentSentenceDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_SENTENCE_DATASET_FILENAME_FORMAT, "all");
-    String documentWordDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentWordDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, "all");
-    String paragraphDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String paragraphDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, "all");
-    String sentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String sentenceDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, "all");
 
     Helper.writeMultiColumnIntegerArrayMap(responseDataset, responseDatasetFilePath);
@@ -65,6 +69,57 @@ public class DatasetMerger {
     Helper.writeMultiColumnIntegerDataset(sentenceDatasetFilePath, sentenceDataset);
   }
 
+  /**
+   * Takes the documents out of the root ids of the training, validation and testing datasets and out of the response
+   * datasets of those and the "all" ones. Responses are kept even when they lose all their documents, so response ids
+   * do not change.
+   */
+  static void removeDocuments(RunContext context, BitSet documentIds) throws IOException {
+    String[] prefixes = { "training", "validation", "testing", "all" };
+
+    for (String prefix : prefixes) {
+      String responseDatasetFilePath = context.getStage3Directory() + "/"
+          + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
+      String rootIdFilePath = context.getStage3Directory() + "/"
+          + String.format(Constants.ROOT_ID_FILENAME_FORMAT, prefix);
+      CsrDataset responseDataset = Helper.readIntegerDataset(responseDatasetFilePath);
+      CsrDataset keptResponseDataset = new CsrDataset();
+      int[] values = responseDataset.getValues();
+      int[] documentIdsOfResponse = new int[16];
+
+      for (int row = 0; row < responseDataset.getRowCount(); row++) {
+        int offset = responseDataset.getRowOffset(row);
+        int count = 0;
+
+        if (documentIdsOfResponse.length < responseDataset.getRowLength(row)) {
+          documentIdsOfResponse = new int[responseDataset.getRowLength(row)];
+        }
+
+        for (int i = offset + 1; i < offset + responseDataset.getRowLength(row); i++) {
+          if (values[i] < 0 || !documentIds.get(values[i])) {
+            documentIdsOfResponse[count++] = values[i];
+          }
+        }
+
+        keptResponseDataset.addRow(values[offset], documentIdsOfResponse, 0, count);
+      }
+
+      Helper.writeIntegerDataset(responseDatasetFilePath, keptResponseDataset);
+
+      if (!prefix.equals("all")) {
+        List<Integer> keptRootIds = new ArrayList<>();
+
+        for (int rootId : Helper.readSingleColumnIntegerDataset(rootIdFilePath)) {
+          if (rootId < 0 || !documentIds.get(rootId)) {
+            keptRootIds.add(rootId);
+          }
+        }
+
+        Helper.writeSingleColumnIntegerDataset(rootIdFilePath, keptRootIds);
+      }
+    }
+  }
+
   private void addResponseDataset(TreeMap<Integer, int[]> prefixResponseDataset) {
     for (Map.Entry<Integer, int[]> entry : prefixResponseDataset.entrySet()) {
       int[] rootIds = responseDataset.get(entry.getKey());
@@ -94,8 +149,8 @@ public class DatasetMerger {
       rootIds.add(prefixDocumentDataset.get(i)[0]);
     }
 
-    String datasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String datasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.ROOT_ID_FILENAME_FORMAT, prefix);
-    Helper.writeSingleColumnDataset(datasetFilePath, rootIds);
+    Helper.writeSingleColumnIntegerDataset(datasetFilePath, rootIds);
   }
 }
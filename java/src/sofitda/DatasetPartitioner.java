@@ -1,31 +1,24 @@
 package sofitda;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-
+import java.util.Random;
+
+/**
+ * Splits the "all" datasets into training, validation and testing ones. The documents are shuffled with
+ * Configuration.PARTITION_SEED, so a seed always gives the same split, and with Configuration.STRATIFIED_PARTITIONS
+ * every response is split in the partition sizes on its own, so a rare response keeps its share in every split.
+ *
+ * Documents, paragraphs and sentences get new ids in the order they are reached from the shuffled documents, the ids
+ * of one split following those of the one before and the terminator ids. As the ids are dense, they are renamed
+ * through int[] tables indexed by id, and every row is appended in new id order as it is reached, so nothing is
+ * sorted.
+ */
+@StageConfiguration({ "PARTITION_SEED", "STRATIFIED_PARTITIONS" })
 public class DatasetPartitioner {
-  private List<int[]> responseDataset;
-  private List<int[]> documentDataset;
-  private List<int[]> paragraphDataset;
-  private List<int[]> sentenceDataset;
-
-  private Map<Integer, List<Integer>> documentResponseMap = new HashMap<>();
-  private Map<Integer, Integer> documentMap = new HashMap<>();
-  private Map<Integer, Integer> paragraphMap = new HashMap<>();
-  private Map<Integer, Integer> sentenceMap = new HashMap<>();
-
-  private Comparator<int[]> rowComparator = new Comparator<int[]>() {
-    public int compare(int[] row1, int[] row2) {
-      return Integer.compare(row1[0], row2[0]);
-    }
-  };
+  private static final String[] PREFIXES = { "training", "validation", "testing" };
 
   private final static int[] EXCLUDED_SENTENCE_IDS = new int[] {
       AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_SENTENCE_ID,
@@ -34,221 +27,317 @@ public class DatasetPartitioner {
   private final static int[] EXCLUDED_PARAGRAPH_IDS = new int[] {
       AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_PARAGRAPH_ID };
 
-  public DatasetPartitioner() throws IOException {
-    String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
-        + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "all");
-    String documentDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
-        + String.format(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, "all");
-    String paragraphDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
-        + String.format(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, "all");
-    String sentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
-        + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, "all");
-
-    responseDataset = Helper.readMultiColumnIntegerDataset(responseDatasetFilePath);
-    documentDataset = Helper.readMultiColumnIntegerDataset(documentDatasetFilePath);
-    paragraphDataset = Helper.readMultiColumnIntegerDataset(paragraphDatasetFilePath);
-    sentenceDataset = Helper.readMultiColumnIntegerDataset(sentenceDatasetFilePath);
-
-    populateDocumentResponseMap();
-    Collections.shuffle(documentDataset);
-
-    int trainingBeginIndex = 0;
-    int trainingLength = (int) (documentDataset.size() * Constants.TRAINING_PARTITION_SIZE);
-    int validationBeginIndex = trainingBeginIndex + trainingLength;
-    int validationLength = (int) (documentDataset.size() * Constants.VALIDATION_PARTITION_SIZE);
-    int testingBeginIndex = validationBeginIndex + validationLength;
-    int testingLength = documentDataset.size() - trainingLength - validationLength;
-
-    Map<Integer, List<Integer>> allResponseMap = new TreeMap<>();
-
-    merge(allResponseMap, partition("training", trainingBeginIndex, trainingLength));
-    merge(allResponseMap, partition("validation", validationBeginIndex, validationLength));
-    merge(allResponseMap, partition("testing", testingBeginIndex, testingLength));
-
-    Collections.sort(documentDataset, rowComparator);
-    Collections.sort(paragraphDataset, rowComparator);
-    Collections.sort(sentenceDataset, rowComparator);
-
-    Helper.writeMultiColumnIntegerListMap(allResponseMap, responseDatasetFilePath);
-    Helper.writeMultiColumnIntegerDataset(documentDatasetFilePath, documentDataset);
-    Helper.writeMultiColumnIntegerDataset(paragraphDatasetFilePath, paragraphDataset);
-    Helper.writeMultiColumnIntegerDataset(sentenceDatasetFilePath, sentenceDataset);
-  }
-
-  private void merge(Map<Integer, List<Integer>> allResponseMap, Map<Integer, List<Integer>> partitionResponseMap) {
-    for (Map.Entry<Integer, List<Integer>> entry : partitionResponseMap.entrySet()) {
-      List<Integer> partitionDocumentIds = partitionResponseMap.get(entry.getKey());
-      List<Integer> allDocumentIds = partitionResponseMap.get(entry.getKey());
-
-      if (allDocumentIds == null) {
-        allDocumentIds = new ArrayList<>();
-        allResponseMap.put(entry.getKey(), allDocumentIds);
+  private final RunContext context;
+  private final CsrDataset documentDataset;
+  private final CsrDataset paragraphDataset;
+  private final CsrDataset sentenceDataset;
+
+  // Row of every paragraph and sentence id, or -1 if it has none.
+  private final int[] paragraphRows;
+  private final int[] sentenceRows;
+
+  // New id of every paragraph and sentence id, or -1 until it is reached.
+  private final int[] newParagraphIds;
+  private final int[] newSentenceIds;
+
+  // The response ids of document row r are documentResponseIds[documentResponseOffsets[r]] up to the next offset.
+  private int[] documentResponseOffsets;
+  private int[] documentResponseIds;
+  private int responseIdLimit;
+
+  // Document row of every new document id.
+  private final int[] newDocumentRows;
+  private int documentCount;
+  private int paragraphCount = EXCLUDED_PARAGRAPH_IDS.length;
+  private int sentenceCount = EXCLUDED_SENTENCE_IDS.length;
+
+  public DatasetPartitioner(RunContext context) throws IOException {
+    this.context = context;
+
+    documentDataset = Helper.readIntegerDataset(getFilePath(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, "all"));
+    paragraphDataset = Helper.readIntegerDataset(getFilePath(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, "all"));
+    sentenceDataset = Helper.readIntegerDataset(getFilePath(Constants.SENTENCE_DATASET_FILENAME_FORMAT, "all"));
+    paragraphRows = PartitionRows.getRows(paragraphDataset);
+    sentenceRows = PartitionRows.getRows(sentenceDataset);
+    newParagraphIds = createIdTable(paragraphRows.length);
+    newSentenceIds = createIdTable(sentenceRows.length);
+    newDocumentRows = new int[documentDataset.getRowCount()];
+
+    CsrDataset responseDataset = Helper.readIntegerDataset(
+        getFilePath(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "all"));
+
+    indexResponses(responseDataset);
+
+    int[][] splits = split(responseDataset, new Random(Configuration.PARTITION_SEED));
+    CsrDataset terminatorParagraphs = getTerminatorRows(paragraphDataset, paragraphRows, EXCLUDED_PARAGRAPH_IDS);
+    CsrDataset terminatorSentences = getTerminatorRows(sentenceDataset, sentenceRows, EXCLUDED_SENTENCE_IDS);
+    List<CsrDataset> allDocuments = new ArrayList<>();
+    List<CsrDataset> allParagraphs = new ArrayList<>();
+    List<CsrDataset> allSentences = new ArrayList<>();
+
+    allParagraphs.add(terminatorParagraphs);
+    allSentences.add(terminatorSentences);
+
+    for (int split = 0; split < PREFIXES.length; split++) {
+      System.out.println("Partitioning " + PREFIXES[split] + ": length = " + splits[split].length + "...");
+
+      int firstDocumentId = documentCount;
+      CsrDataset documents = new CsrDataset();
+      CsrDataset paragraphs = new CsrDataset();
+      CsrDataset sentences = new CsrDataset();
+
+      for (int row : splits[split]) {
+        addDocument(row, documents, paragraphs, sentences);
       }
 
-      allDocumentIds.addAll(partitionDocumentIds);
-      Collections.sort(allDocumentIds);
+      Helper.writeIntegerDataset(getFilePath(Constants.RESPONSE_DATASET_FILENAME_FORMAT, PREFIXES[split]),
+          getResponses(firstDocumentId, documentCount));
+      Helper.writeIntegerDataset(getFilePath(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, PREFIXES[split]),
+          documents);
+      Helper.writeIntegerDataset(getFilePath(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, PREFIXES[split]),
+          CsrDataset.concat(Arrays.asList(terminatorParagraphs, paragraphs)));
+      Helper.writeIntegerDataset(getFilePath(Constants.SENTENCE_DATASET_FILENAME_FORMAT, PREFIXES[split]),
+          CsrDataset.concat(Arrays.asList(terminatorSentences, sentences)));
+
+      allDocuments.add(documents);
+      allParagraphs.add(paragraphs);
+      allSentences.add(sentences);
     }
 
+    Helper.writeIntegerDataset(getFilePath(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "all"),
+        getResponses(0, documentCount));
+    Helper.writeIntegerDataset(getFilePath(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, "all"),
+        CsrDataset.concat(allDocuments));
+    Helper.writeIntegerDataset(getFilePath(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, "all"),
+        CsrDataset.concat(allParagraphs));
+    Helper.writeIntegerDataset(getFilePath(Constants.SENTENCE_DATASET_FILENAME_FORMAT, "all"),
+        CsrDataset.concat(allSentences));
   }
 
-  private void populateDocumentResponseMap() {
-    for (int[] row : responseDataset) {
-      int responseId = row[0];
+  // Returns the document rows of each split, shuffled. With stratification, the rows are first placed by their
+  // response with a counting sort, and every response is shuffled and cut in the partition sizes on its own.
+  // Documents without a response are a stratum of their own, after those of the responses.
+  private int[][] split(CsrDataset responseDataset, Random random) {
+    int rowCount = documentDataset.getRowCount();
+    int[] strata;
+    int stratumCount;
+
+    if (Configuration.STRATIFIED_PARTITIONS) {
+      strata = PartitionRows.getStrata(documentDataset, responseDataset);
+      stratumCount = responseIdLimit + 1;
+    } else {
+      strata = new int[rowCount];
+      stratumCount = 1;
+    }
 
-      for (int i = 1; i < row.length; i++) {
-        int documentId = row[i];
+    int[] strataOffsets = PartitionRows.getStrataOffsets(strata, stratumCount);
+    int[] rows = PartitionRows.sortByStratum(strata, strataOffsets);
+    int[] splitLengths = new int[PREFIXES.length];
+    int[][] strataBounds = new int[stratumCount][];
 
-        List<Integer> responseIds = documentResponseMap.get(documentId);
+    PartitionRows.shuffleStrata(rows, strataOffsets, stratumCount, random);
 
-        if (responseIds == null) {
-          responseIds = new ArrayList<>();
-          documentResponseMap.put(documentId, responseIds);
-        }
+    for (int stratum = 0; stratum < strataBounds.length; stratum++) {
+      int begin = strataOffsets[stratum];
+      int length = strataOffsets[stratum + 1] - begin;
+      int trainingLength = (int) (length * Constants.TRAINING_PARTITION_SIZE);
+      int validationLength = (int) (length * Constants.VALIDATION_PARTITION_SIZE);
 
-        responseIds.add(responseId);
+      strataBounds[stratum] = new int[] { begin, begin + trainingLength, begin + trainingLength + validationLength,
+          begin + length };
+
+      for (int split = 0; split < PREFIXES.length; split++) {
+        splitLengths[split] += strataBounds[stratum][split + 1] - strataBounds[stratum][split];
       }
     }
-  }
 
-  private Map<Integer, List<Integer>> partition(String prefix, int beginIndex, int length)
-      throws FileNotFoundException {
-    System.out.println("Partitioning " + prefix + ": beginIndex = " + beginIndex + ", length = " + length + "...");
+    int[][] splits = new int[PREFIXES.length][];
 
-    List<Integer> oldDocumentIds = new ArrayList<>();
-    List<int[]> documents = new ArrayList<>();
-    List<int[]> paragraphs = new ArrayList<>();
-    List<int[]> sentences = new ArrayList<>();
+    for (int split = 0; split < PREFIXES.length; split++) {
+      int position = 0;
 
-    int endIndex = beginIndex + length - 1;
+      splits[split] = new int[splitLengths[split]];
 
-    for (int paragraphId : EXCLUDED_PARAGRAPH_IDS) {
-      paragraphs.add(paragraphDataset.get(paragraphId));
-    }
+      for (int[] bounds : strataBounds) {
+        int length = bounds[split + 1] - bounds[split];
 
-    for (int sentenceId : EXCLUDED_SENTENCE_IDS) {
-      sentences.add(sentenceDataset.get(sentenceId));
+        System.arraycopy(rows, bounds[split], splits[split], position, length);
+        position += length;
+      }
+
+      // Mixes the strata, which are still in response order.
+      if (strataBounds.length > 1) {
+        PartitionRows.shuffle(splits[split], 0, splits[split].length, random);
+      }
     }
 
-    for (int i = beginIndex; i <= endIndex; i++) {
-      int[] paragraphIds = documentDataset.get(i);
-      int documentId = paragraphIds[0];
+    return splits;
+  }
 
-      for (int j = 1; j < paragraphIds.length; j++) {
-        if (isExcluded(paragraphIds[j], EXCLUDED_PARAGRAPH_IDS)) {
-          continue;
-        }
+  // Gives the document the next id and appends it, and the paragraphs and sentences it reaches first, with their
+  // children renamed.
+  private void addDocument(int row, CsrDataset documents, CsrDataset paragraphs, CsrDataset sentences)
+      throws IOException {
+    int[] values = documentDataset.getValues();
+    int offset = documentDataset.getRowOffset(row);
+    int length = documentDataset.getRowLength(row) - 1;
+
+    newDocumentRows[documentCount] = row;
+    documents.addRow(documentCount++, renameChildren(values, offset + 1, length, EXCLUDED_PARAGRAPH_IDS,
+        newParagraphIds, paragraphRows, paragraphs, sentences), 0, length);
+  }
 
-        int[] sentenceIds = paragraphDataset.get(paragraphIds[j]);
+  // Returns the new ids of the children, giving the next id to those not reached before and appending their rows.
+  // Paragraphs are renamed when paragraphs is given, and sentences otherwise.
+  private int[] renameChildren(int[] values, int from, int length, int[] excludedIds, int[] newIds, int[] rows,
+      CsrDataset paragraphs, CsrDataset sentences) throws IOException {
+    int[] renamedIds = new int[length];
 
-        for (int k = 1; k < sentenceIds.length; k++) {
-          if (isExcluded(sentenceIds[k], EXCLUDED_SENTENCE_IDS)) {
-            continue;
-          }
+    for (int i = 0; i < length; i++) {
+      int id = values[from + i];
 
-          int[] wordIds = sentenceDataset.get(sentenceIds[k]);
+      if (isExcluded(id, excludedIds)) {
+        renamedIds[i] = id;
+        continue;
+      }
 
-          sentences.add(wordIds);
-        }
+      if (id < 0 || id >= rows.length || rows[id] == -1) {
+        throw new IOException("No row for the referenced id " + id);
+      }
 
-        paragraphs.add(sentenceIds);
+      if (newIds[id] == -1) {
+        if (paragraphs != null) {
+          newIds[id] = paragraphCount++;
+          addParagraph(newIds[id], rows[id], paragraphs, sentences);
+        } else {
+          newIds[id] = sentenceCount++;
+          sentences.addRow(newIds[id], sentenceDataset.getValues(), sentenceDataset.getRowOffset(rows[id]) + 1,
+              sentenceDataset.getRowLength(rows[id]) - 1);
+        }
       }
 
-      documents.add(paragraphIds);
-      oldDocumentIds.add(documentId);
+      renamedIds[i] = newIds[id];
     }
 
-    updateIds(documents, documentMap, paragraphMap, null, EXCLUDED_PARAGRAPH_IDS);
-    updateIds(paragraphs, paragraphMap, sentenceMap, EXCLUDED_PARAGRAPH_IDS, EXCLUDED_SENTENCE_IDS);
-    updateIds(sentences, sentenceMap, null, EXCLUDED_SENTENCE_IDS, null);
+    return renamedIds;
+  }
+
+  private void addParagraph(int newId, int row, CsrDataset paragraphs, CsrDataset sentences) throws IOException {
+    int length = paragraphDataset.getRowLength(row) - 1;
 
-    Map<Integer, List<Integer>> responses = getResponses(oldDocumentIds);
+    paragraphs.addRow(newId, renameChildren(paragraphDataset.getValues(), paragraphDataset.getRowOffset(row) + 1,
+        length, EXCLUDED_SENTENCE_IDS, newSentenceIds, sentenceRows, null, sentences), 0, length);
+  }
 
-    String partitionResponseFilePath = Configuration.STAGE3_DIRECTORY + "/"
-        + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
-    String partitionDocumentFilePath = Configuration.STAGE3_DIRECTORY + "/"
-        + String.format(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, prefix);
-    String partitionParagraphFilePath = Configuration.STAGE3_DIRECTORY + "/"
-        + String.format(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, prefix);
-    String partitionSentenceFilePath = Configuration.STAGE3_DIRECTORY + "/"
-        + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
+  // Builds the response ids of every document row with a counting sort of the response rows by document.
+  private void indexResponses(CsrDataset responseDataset) {
+    int[] documentRows = PartitionRows.getRows(documentDataset);
+    int[] values = responseDataset.getValues();
 
-    Helper.writeMultiColumnIntegerListMap(responses, partitionResponseFilePath);
-    Helper.writeMultiColumnIntegerDataset(partitionDocumentFilePath, documents);
-    Helper.writeMultiColumnIntegerDataset(partitionParagraphFilePath, paragraphs);
-    Helper.writeMultiColumnIntegerDataset(partitionSentenceFilePath, sentences);
+    documentResponseOffsets = new int[documentDataset.getRowCount() + 1];
 
-    return responses;
-  }
+    for (int row = 0; row < responseDataset.getRowCount(); row++) {
+      int offset = responseDataset.getRowOffset(row);
 
-  private void updateIds(List<int[]> hierarchy, Map<Integer, Integer> parentMap, Map<Integer, Integer> childMap,
-      int[] excludedParentIds, int[] excludedChildIds) {
-    for (int[] row : hierarchy) {
-      if (!isExcluded(row[0], excludedParentIds)) {
-        Integer newParentId = parentMap.get(row[0]);
-        int begin = excludedParentIds != null ? excludedParentIds.length : 0;
+      responseIdLimit = Math.max(responseIdLimit, values[offset] + 1);
 
-        if (newParentId == null) {
-          newParentId = parentMap.size() + begin;
-          parentMap.put(row[0], newParentId);
+      for (int i = offset + 1; i < offset + responseDataset.getRowLength(row); i++) {
+        if (values[i] >= 0 && values[i] < documentRows.length && documentRows[values[i]] != -1) {
+          documentResponseOffsets[documentRows[values[i]] + 1]++;
         }
-
-        row[0] = newParentId;
       }
+    }
 
-      if (childMap == null) {
-        continue;
-      }
+    for (int row = 1; row < documentResponseOffsets.length; row++) {
+      documentResponseOffsets[row] += documentResponseOffsets[row - 1];
+    }
 
-      for (int i = 1; i < row.length; i++) {
-        if (!isExcluded(row[i], excludedChildIds)) {
-          Integer newChildId = childMap.get(row[i]);
-          int begin = excludedChildIds != null ? excludedChildIds.length : 0;
+    int[] positions = Arrays.copyOf(documentResponseOffsets, documentResponseOffsets.length);
 
-          if (newChildId == null) {
-            newChildId = childMap.size() + begin;
-            childMap.put(row[i], newChildId);
-          }
+    documentResponseIds = new int[documentResponseOffsets[documentResponseOffsets.length - 1]];
 
-          row[i] = newChildId;
+    for (int row = 0; row < responseDataset.getRowCount(); row++) {
+      int offset = responseDataset.getRowOffset(row);
+
+      for (int i = offset + 1; i < offset + responseDataset.getRowLength(row); i++) {
+        if (values[i] >= 0 && values[i] < documentRows.length && documentRows[values[i]] != -1) {
+          documentResponseIds[positions[documentRows[values[i]]]++] = values[offset];
         }
       }
     }
-
-    Collections.sort(hierarchy, rowComparator);
   }
 
-  private Map<Integer, List<Integer>> getResponses(List<Integer> oldDocumentIds) {
-    Map<Integer, List<Integer>> responseMap = new TreeMap<>();
+  // Returns the response dataset of the new document ids in [begin, end), with a row for every response that has
+  // any of them. Rows are placed by response id with a counting sort, and the documents of a row stay in id order.
+  private CsrDataset getResponses(int begin, int end) {
+    int[] counts = new int[responseIdLimit];
+    int rowCount = 0;
 
-    if (documentResponseMap.size() > 0) {
-      for (int oldDocumentId : oldDocumentIds) {
-        int newDocumentId = documentMap.get(oldDocumentId);
-        List<Integer> responseIds = documentResponseMap.get(oldDocumentId);
+    for (int documentId = begin; documentId < end; documentId++) {
+      int row = newDocumentRows[documentId];
 
-        if (responseIds == null) {
-          continue;
+      for (int i = documentResponseOffsets[row]; i < documentResponseOffsets[row + 1]; i++) {
+        if (counts[documentResponseIds[i]]++ == 0) {
+          rowCount++;
         }
+      }
+    }
+
+    int[] offsets = new int[rowCount + 1];
+    int[] positions = new int[responseIdLimit];
+    int row = 0;
 
-        for (int responseId : responseIds) {
-          List<Integer> documentIds = responseMap.get(responseId);
+    for (int responseId = 0; responseId < responseIdLimit; responseId++) {
+      if (counts[responseId] > 0) {
+        offsets[row + 1] = offsets[row] + counts[responseId] + 1;
+        positions[responseId] = offsets[row] + 1;
+        row++;
+      }
+    }
 
-          if (documentIds == null) {
-            documentIds = new ArrayList<>();
-            responseMap.put(responseId, documentIds);
-          }
+    int[] values = new int[offsets[rowCount]];
 
-          documentIds.add(newDocumentId);
-        }
+    for (int responseId = 0; responseId < responseIdLimit; responseId++) {
+      if (counts[responseId] > 0) {
+        values[positions[responseId] - 1] = responseId;
+      }
+    }
+
+    for (int documentId = begin; documentId < end; documentId++) {
+      int documentRow = newDocumentRows[documentId];
+
+      for (int i = documentResponseOffsets[documentRow]; i < documentResponseOffsets[documentRow + 1]; i++) {
+        values[positions[documentResponseIds[i]]++] = documentId;
       }
     }
 
-    return responseMap;
+    return new CsrDataset(rowCount, offsets, values);
   }
 
-  private boolean isExcluded(int id, int[] excludedIds) {
-    if (excludedIds == null) {
-      return false;
+  private String getFilePath(String format, String prefix) {
+    return context.getStage3Directory() + "/" + String.format(format, prefix);
+  }
+
+  private static CsrDataset getTerminatorRows(CsrDataset dataset, int[] rows, int[] excludedIds) {
+    CsrDataset terminatorRows = new CsrDataset();
+
+    for (int id : excludedIds) {
+      if (id < rows.length && rows[id] != -1) {
+        terminatorRows.addRow(dataset.getValues(), dataset.getRowOffset(rows[id]), dataset.getRowLength(rows[id]));
+      }
     }
+
+    return terminatorRows;
+  }
+
+  private static int[] createIdTable(int length) {
+    int[] table = new int[length];
+
+    Arrays.fill(table, -1);
+    return table;
+  }
+
+  private static boolean isExcluded(int id, int[] excludedIds) {
     for (int excludedId : excludedIds) {
       if (id == excludedId) {
         return true;
@@ -0,0 +1,223 @@
+package sofitda;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes an integer dataset a row at a time, in every form Helper.writeIntegerDataset would write it: the text or
+ * gzip form, the binary form, or the dataset store when datasets are kept in memory. The stats sidecar is written on
+ * close. Rows are streamed to the files without being held, so a dataset larger than the heap can be written.
+ *
+ * The binary form needs the offsets before the values, so the values are written to a temporary sibling file and
+ * appended when the writer is closed, after which the header is filled in.
+ */
+public class DatasetRowWriter implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final String filePath;
+  private final DatasetStats stats = new DatasetStats();
+  private IntegerDatasetWriter textWriter;
+  private FileChannel binaryChannel;
+  private FileChannel valueChannel;
+  private File valueFile;
+  private ByteBuffer offsetBuffer;
+  private ByteBuffer valueBuffer;
+  private CsrDataset storedDataset;
+  private int[] storedRow;
+  private int rowLength;
+  private int rowId;
+  private int valueCount;
+  private long binaryByteCount;
+
+  public DatasetRowWriter(String filePath) throws IOException {
+    this.filePath = filePath;
+
+    if (Configuration.IN_MEMORY_DATASETS) {
+      storedDataset = new CsrDataset();
+      storedRow = new int[64];
+      return;
+    }
+
+    try {
+      if (Configuration.BINARY_DATASETS) {
+        openBinaryDataset(Helper.getBinaryFilePath(filePath));
+      }
+
+      String textFilePath = Helper.prepareTextDataset(filePath);
+
+      if (textFilePath != null) {
+        textWriter = new IntegerDatasetWriter(textFilePath);
+      }
+    } catch (IOException e) {
+      closeFiles();
+      throw e;
+    }
+  }
+
+  /**
+   * Appends a value to the current row. The first value of a row is its id.
+   */
+  public void write(int value) throws IOException {
+    if (rowLength == 0) {
+      rowId = value;
+    }
+
+    rowLength++;
+
+    if (storedDataset != null) {
+      if (storedRow.length < rowLength) {
+        storedRow = Arrays.copyOf(storedRow, storedRow.length * 2);
+      }
+
+      storedRow[rowLength - 1] = value;
+      return;
+    }
+
+    if (textWriter != null) {
+      textWriter.write(value);
+    }
+
+    if (valueChannel != null) {
+      if (!valueBuffer.hasRemaining()) {
+        flush(valueChannel, valueBuffer);
+      }
+
+      valueBuffer.putInt(value);
+    }
+  }
+
+  public void endRow() throws IOException {
+    if (storedDataset != null) {
+      storedDataset.addRow(storedRow, 0, rowLength);
+    }
+
+    if (textWriter != null) {
+      textWriter.endRow();
+    }
+
+    if (binaryChannel != null) {
+      valueCount += rowLength;
+      writeOffset(valueCount);
+    }
+
+    stats.addRow(rowId, rowLength);
+    rowLength = 0;
+  }
+
+  public void writeRow(int[] row, int from, int length) throws IOException {
+    for (int i = from; i < from + length; i++) {
+      write(row[i]);
+    }
+
+    endRow();
+  }
+
+  public void writeRow(int id, int[] childIds, int from, int length) throws IOException {
+    write(id);
+    writeRow(childIds, from, length);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (storedDataset != null) {
+      Helper.writeIntegerDataset(filePath, storedDataset);
+      return;
+    }
+
+    try {
+      if (binaryChannel != null) {
+        finishBinaryDataset();
+      }
+    } finally {
+      closeFiles();
+    }
+
+    stats.save(filePath);
+  }
+
+  private void openBinaryDataset(String binaryFilePath) throws IOException {
+    binaryChannel = FileChannel.open(Paths.get(binaryFilePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    valueFile = new File(binaryFilePath + ".values");
+    valueChannel = FileChannel.open(valueFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    offsetBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    valueBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    // The header is written on close, when the counts are known.
+    offsetBuffer.position(Helper.CSR_HEADER_SIZE);
+    writeOffset(0);
+  }
+
+  private void writeOffset(int offset) throws IOException {
+    if (!offsetBuffer.hasRemaining()) {
+      flush(binaryChannel, offsetBuffer);
+    }
+
+    offsetBuffer.putInt(offset);
+  }
+
+  private void finishBinaryDataset() throws IOException {
+    flush(binaryChannel, offsetBuffer);
+    flush(valueChannel, valueBuffer);
+
+    long position = binaryChannel.position();
+    long valueByteCount = valueChannel.size();
+
+    valueChannel.position(0);
+
+    for (long transferred = 0; transferred < valueByteCount;) {
+      transferred += binaryChannel.transferFrom(valueChannel, position + transferred, valueByteCount - transferred);
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(Helper.CSR_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    header.putInt(Helper.CSR_MAGIC);
+    header.putInt(Helper.CSR_VERSION);
+    header.putInt(stats.getRowCount());
+    header.putInt(valueCount);
+    header.flip();
+
+    while (header.hasRemaining()) {
+      binaryChannel.write(header, Helper.CSR_HEADER_SIZE - header.remaining());
+    }
+
+    binaryByteCount = position + valueByteCount;
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+
+    buffer.clear();
+  }
+
+  private void closeFiles() throws IOException {
+    try {
+      if (textWriter != null) {
+        textWriter.close();
+      }
+    } finally {
+      if (binaryChannel != null) {
+        binaryChannel.close();
+
+        if (valueChannel != null) {
+          valueChannel.close();
+          valueFile.delete();
+        }
+
+        IoCounters.addWritten(stats.getRowCount(), binaryByteCount);
+      }
+    }
+  }
+}
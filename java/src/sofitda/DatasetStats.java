@@ -0,0 +1,222 @@
+package sofitda;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Row count, value count, max id and max column count of a dataset file. The Helper writers record these in a small
+ * ".stats" sidecar next to the dataset, so that readers such as MetadataGenerator do not have to scan the data. When
+ * no valid sidecar exists, the statistics are computed in a single pass over the file.
+ */
+public class DatasetStats {
+  private int maxId = -1;
+  private int maxColumnCount = -1;
+  private int rowCount;
+  private long valueCount;
+
+  public int getMaxId() {
+    return maxId;
+  }
+
+  public int getMaxColumnCount() {
+    return maxColumnCount;
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public long getValueCount() {
+    return valueCount;
+  }
+
+  public void addRow(int id, int columnCount) {
+    if (id > maxId) {
+      maxId = id;
+    }
+
+    if (columnCount > maxColumnCount) {
+      maxColumnCount = columnCount;
+    }
+
+    rowCount++;
+    valueCount += columnCount;
+  }
+
+  public static DatasetStats of(CsrDataset dataset) {
+    DatasetStats stats = new DatasetStats();
+
+    for (int i = 0; i < dataset.getRowCount(); i++) {
+      stats.addRow(dataset.getRowId(i), dataset.getRowLength(i));
+    }
+
+    return stats;
+  }
+
+  public static DatasetStats ofRows(List<int[]> rows) {
+    DatasetStats stats = new DatasetStats();
+
+    for (int[] row : rows) {
+      stats.addRow(row[0], row.length);
+    }
+
+    return stats;
+  }
+
+  public static DatasetStats ofArrayMap(Map<Integer, int[]> map) {
+    DatasetStats stats = new DatasetStats();
+
+    for (Map.Entry<Integer, int[]> entry : map.entrySet()) {
+      stats.addRow(entry.getKey(), entry.getValue().length + 1);
+    }
+
+    return stats;
+  }
+
+  public static DatasetStats ofListMap(Map<Integer, ? extends Collection<Integer>> map) {
+    DatasetStats stats = new DatasetStats();
+
+    for (Map.Entry<Integer, ? extends Collection<Integer>> entry : map.entrySet()) {
+      stats.addRow(entry.getKey(), entry.getValue().size() + 1);
+    }
+
+    return stats;
+  }
+
+  public static DatasetStats get(String filePath) throws IOException {
+    return get(filePath, 0, 0);
+  }
+
+  public static DatasetStats get(String filePath, int idColumn, int skipLineCount) throws IOException {
+    DatasetStats storedStats = Helper.getStoredStats(filePath, idColumn, skipLineCount);
+
+    if (storedStats != null) {
+      return storedStats;
+    }
+
+    DatasetStats stats = load(filePath, idColumn, skipLineCount);
+
+    return stats != null ? stats : compute(filePath, idColumn, skipLineCount);
+  }
+
+  public static DatasetStats compute(String filePath, int idColumn, int skipLineCount) throws IOException {
+    if (idColumn == 0 && skipLineCount == 0) {
+      String binaryFilePath = Helper.findBinaryDataset(filePath);
+
+      if (binaryFilePath != null) {
+        return of(Helper.readBinaryDataset(binaryFilePath));
+      }
+
+      DatasetStats stats = new DatasetStats();
+      IntegerDatasetReader reader = new IntegerDatasetReader(filePath);
+      int columnCount;
+
+      while ((columnCount = reader.next()) != -1) {
+        stats.addRow(reader.row()[0], columnCount);
+      }
+
+      reader.close();
+      return stats;
+    }
+
+    DatasetStats stats = new DatasetStats();
+    BufferedReader reader = Helper.createBufferedReader(filePath);
+    String line;
+    int lineCount = 0;
+
+    while ((line = reader.readLine()) != null) {
+      if (lineCount++ < skipLineCount) {
+        continue;
+      }
+
+      String[] columns = line.split("\\s+");
+
+      stats.addRow(Integer.parseInt(columns[idColumn]), columns.length);
+    }
+
+    reader.close();
+    return stats;
+  }
+
+  public void save(String filePath) throws IOException {
+    save(filePath, 0, 0);
+  }
+
+  public void save(String filePath, int idColumn, int skipLineCount) throws IOException {
+    Properties properties = new Properties();
+
+    properties.setProperty("maxId", String.valueOf(maxId));
+    properties.setProperty("maxColumnCount", String.valueOf(maxColumnCount));
+    properties.setProperty("rowCount", String.valueOf(rowCount));
+    properties.setProperty("valueCount", String.valueOf(valueCount));
+    properties.setProperty("idColumn", String.valueOf(idColumn));
+    properties.setProperty("skipLineCount", String.valueOf(skipLineCount));
+    properties.setProperty("textLength", String.valueOf(getLength(Helper.findTextDataset(filePath))));
+    properties.setProperty("binaryLength", String.valueOf(getLength(Helper.getBinaryFilePath(filePath))));
+
+    OutputStream outputStream = new FileOutputStream(getStatsFilePath(filePath));
+
+    try {
+      properties.store(outputStream, null);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  // Returns null unless the sidecar was written for the same id column after the current version of the dataset.
+  private static DatasetStats load(String filePath, int idColumn, int skipLineCount) throws IOException {
+    File statsFile = new File(getStatsFilePath(filePath));
+
+    if (!statsFile.exists()) {
+      return null;
+    }
+
+    Properties properties = new Properties();
+    InputStream inputStream = new FileInputStream(statsFile);
+
+    try {
+      properties.load(inputStream);
+    } finally {
+      inputStream.close();
+    }
+
+    String textFilePath = Helper.findTextDataset(filePath);
+    String binaryFilePath = Helper.getBinaryFilePath(filePath);
+
+    if (!String.valueOf(idColumn).equals(properties.getProperty("idColumn"))
+        || !String.valueOf(skipLineCount).equals(properties.getProperty("skipLineCount"))
+        || !String.valueOf(getLength(textFilePath)).equals(properties.getProperty("textLength"))
+        || !String.valueOf(getLength(binaryFilePath)).equals(properties.getProperty("binaryLength"))
+        || statsFile.lastModified() < new File(textFilePath).lastModified()
+        || statsFile.lastModified() < new File(binaryFilePath).lastModified()) {
+      return null;
+    }
+
+    DatasetStats stats = new DatasetStats();
+
+    stats.maxId = Integer.parseInt(properties.getProperty("maxId"));
+    stats.maxColumnCount = Integer.parseInt(properties.getProperty("maxColumnCount"));
+    stats.rowCount = Integer.parseInt(properties.getProperty("rowCount"));
+    stats.valueCount = Long.parseLong(properties.getProperty("valueCount"));
+    return stats;
+  }
+
+  private static String getStatsFilePath(String filePath) {
+    return Helper.getSiblingFilePath(filePath, Constants.DATASET_STATS_EXTENSION);
+  }
+
+  private static long getLength(String filePath) {
+    File file = new File(filePath);
+
+    return file.exists() ? file.length() : -1;
+  }
+}
@@ -0,0 +1,156 @@
+package sofitda;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Datasets written through Helper while Configuration.IN_MEMORY_DATASETS is set. They are kept by file path, so
+ * the next stage reading the same path gets the object back without a round trip through the stage3 files. Integer
+ * datasets are handed out as shared read-only views, and vocabularies as copies, since stages edit the vocabulary
+ * they read. {@link #flush(String)} writes the latest version of every dataset to disk with the regular file writers.
+ */
+public class DatasetStore {
+  private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+  public synchronized boolean contains(String filePath) {
+    return entries.containsKey(getKey(filePath));
+  }
+
+  public synchronized void putIntegerDataset(String filePath, CsrDataset dataset) {
+    putIntegerDataset(filePath, dataset, false);
+  }
+
+  /**
+   * Stores a dataset of ids, one per row, that is flushed as a plain list of ids like
+   * Helper.writeSingleColumnDataset writes it.
+   */
+  public synchronized void putSingleColumnDataset(String filePath, CsrDataset dataset) {
+    putIntegerDataset(filePath, dataset, true);
+  }
+
+  /**
+   * Returns a read-only view of the integer dataset stored for filePath, or null if there is none.
+   */
+  public synchronized CsrDataset getIntegerDataset(String filePath) {
+    Entry entry = entries.get(getKey(filePath));
+
+    return entry != null ? entry.dataset : null;
+  }
+
+  /**
+   * Stores a copy of the map, which is flushed as "key value" lines in its iteration order.
+   */
+  public synchronized void putStringDictionary(String filePath, Map<String, Integer> dictionary) {
+    Entry entry = new Entry();
+
+    entry.dictionary = Collections.unmodifiableMap(new LinkedHashMap<>(dictionary));
+    entries.put(getKey(filePath), entry);
+  }
+
+  /**
+   * Returns the dictionary stored for filePath, which cannot be modified, or null if there is none.
+   */
+  public synchronized Map<String, Integer> getStringDictionary(String filePath) {
+    Entry entry = entries.get(getKey(filePath));
+
+    return entry != null ? entry.dictionary : null;
+  }
+
+  public synchronized void putVocabulary(String filePath, Vocabulary vocabulary, char separator) {
+    Entry entry = new Entry();
+
+    entry.vocabulary = vocabulary;
+    entry.separator = separator;
+    entry.stats = new DatasetStats();
+    entry.idColumn = 1;
+    entry.skipLineCount = 1;
+
+    for (int id : vocabulary.ids()) {
+      entry.stats.addRow(id, 2);
+    }
+
+    entries.put(getKey(filePath), entry);
+  }
+
+  /**
+   * Returns a copy of the vocabulary stored for filePath, or null if there is none.
+   */
+  public synchronized Vocabulary getVocabulary(String filePath) {
+    Entry entry = entries.get(getKey(filePath));
+
+    return entry != null && entry.vocabulary != null ? entry.vocabulary.copy() : null;
+  }
+
+  /**
+   * Returns the stats of the dataset stored for filePath if they were computed for the same id column, or null.
+   */
+  public synchronized DatasetStats getStats(String filePath, int idColumn, int skipLineCount) {
+    Entry entry = entries.get(getKey(filePath));
+
+    return entry != null && entry.idColumn == idColumn && entry.skipLineCount == skipLineCount ? entry.stats : null;
+  }
+
+  /**
+   * Writes the stored datasets under the directory, or all of them if it is null, to their files and removes them
+   * from the store.
+   */
+  public synchronized void flush(String directoryPath) throws IOException {
+    long startTime = System.currentTimeMillis();
+    Path directory = directoryPath != null ? Paths.get(directoryPath).normalize() : null;
+    int flushedCount = 0;
+
+    for (Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext();) {
+      Map.Entry<String, Entry> mapEntry = iterator.next();
+      Entry entry = mapEntry.getValue();
+
+      if (directory != null && !Paths.get(mapEntry.getKey()).startsWith(directory)) {
+        continue;
+      }
+
+      if (entry.singleColumn) {
+        Helper.writeSingleColumnDatasetFile(mapEntry.getKey(), entry.dataset);
+      } else if (entry.dataset != null) {
+        Helper.writeIntegerDatasetFiles(mapEntry.getKey(), entry.dataset);
+      } else if (entry.dictionary != null) {
+        Helper.writeStringDictionaryFile(entry.dictionary, mapEntry.getKey());
+      } else {
+        Helper.writeVocabularyFiles(mapEntry.getKey(), entry.vocabulary, entry.separator);
+      }
+
+      iterator.remove();
+      flushedCount++;
+    }
+
+    System.out.println("Flushed " + flushedCount + " in-memory datasets in "
+        + (System.currentTimeMillis() - startTime) + " ms");
+  }
+
+  private void putIntegerDataset(String filePath, CsrDataset dataset, boolean singleColumn) {
+    Entry entry = new Entry();
+
+    entry.dataset = dataset.asReadOnly();
+    entry.singleColumn = singleColumn;
+    entry.stats = DatasetStats.of(dataset);
+    entries.put(getKey(filePath), entry);
+  }
+
+  private static String getKey(String filePath) {
+    return Paths.get(filePath).normalize().toString();
+  }
+
+  private static class Entry {
+    CsrDataset dataset;
+    boolean singleColumn;
+    Vocabulary vocabulary;
+    Map<String, Integer> dictionary;
+    char separator;
+    DatasetStats stats;
+    int idColumn;
+    int skipLineCount;
+  }
+}
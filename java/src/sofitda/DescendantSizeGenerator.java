@@ -1,12 +1,13 @@
 package sofitda;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Map;
-import java.util.TreeMap;
 
 public class DescendantSizeGenerator {
-  public DescendantSizeGenerator() throws IOException {
+  private final RunContext context;
+
+  public DescendantSizeGenerator(RunContext context) throws IOException {
+    this.context = context;
+
     String[] prefixes = { "training", "validation", "testing" };
 
     for (String prefix : prefixes) {
@@ -14,50 +15,51 @@ public class DescendantSizeGenerator {
     }
   }
 
-  @SuppressWarnings("unchecked")
   private void createDesendantSizeDatasets(String prefix) throws IOException {
-    String documentSentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentSentenceDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_SENTENCE_DATASET_FILENAME_FORMAT, prefix);
-    String sentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String sentenceDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
-    String documentSentenceDescendantSizeFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentSentenceDescendantSizeFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_SENTENCE_DESCENDANT_SIZE_FILENAME_FORMAT, prefix);
-    String sentenceDescendantSizeFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String sentenceDescendantSizeFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.SENTENCE_DESCENDANT_SIZE_FILENAME_FORMAT, prefix);
 
     createDescendantSizeDatasets(
         new String[] { sentenceDescendantSizeFilePath, documentSentenceDescendantSizeFilePath },
-        new Map[] { Helper.readMultiColumnIntegerMap(sentenceDatasetFilePath),
-            Helper.readMultiColumnIntegerMap(documentSentenceDatasetFilePath) });
+        new IntHierarchyTable[] { Helper.readIntHierarchyTable(sentenceDatasetFilePath),
+            Helper.readIntHierarchyTable(documentSentenceDatasetFilePath) });
   }
 
-  private void createDescendantSizeDatasets(String[] outputFilePaths, Map<Integer, int[]>[] hierarchyMaps)
-      throws FileNotFoundException {
-    @SuppressWarnings("unchecked")
-    Map<Integer, Integer>[] descendantSizeMap = new Map[hierarchyMaps.length];
+  private void createDescendantSizeDatasets(String[] outputFilePaths, IntHierarchyTable[] hierarchyTables)
+      throws IOException {
+    IntHierarchyTable descendantSizeTable = null;
+    int[] size = new int[1];
 
-    for (int i = 0; i < hierarchyMaps.length; i++) {
-      descendantSizeMap[i] = new TreeMap<>();
-    }
-
-    for (Map.Entry<Integer, int[]> entry : hierarchyMaps[0].entrySet()) {
-      descendantSizeMap[0].put(entry.getKey(), entry.getValue().length);
-    }
+    for (int i = 0; i < hierarchyTables.length; i++) {
+      IntHierarchyTable hierarchyTable = hierarchyTables[i];
+      int[] childIds = hierarchyTable.getChildren();
+      CsrDataset descendantSizeDataset = new CsrDataset();
 
-    Helper.writeIntegralDictionary(descendantSizeMap[0], outputFilePaths[0]);
+      for (int id : hierarchyTable.ids()) {
+        int offset = hierarchyTable.getChildOffset(id);
+        int childCount = hierarchyTable.getChildCount(id);
 
-    for (int i = 1; i < hierarchyMaps.length; i++) {
-      for (Map.Entry<Integer, int[]> entry : hierarchyMaps[i].entrySet()) {
-        int totalSize = 0;
+        if (i == 0) {
+          size[0] = childCount;
+        } else {
+          size[0] = 0;
 
-        for (int id : entry.getValue()) {
-          totalSize += descendantSizeMap[i - 1].get(id);
+          for (int j = offset; j < offset + childCount; j++) {
+            size[0] += descendantSizeTable.getChild(childIds[j], 0);
+          }
         }
 
-        descendantSizeMap[i].put(entry.getKey(), totalSize);
+        descendantSizeDataset.addRow(id, size, 0, 1);
       }
 
-      Helper.writeIntegralDictionary(descendantSizeMap[i], outputFilePaths[i]);
+      Helper.writeIntegerDataset(outputFilePaths[i], descendantSizeDataset);
+      descendantSizeTable = IntHierarchyTable.fromDataset(descendantSizeDataset);
     }
   }
 }
@@ -0,0 +1,55 @@
+package sofitda;
+
+/**
+ * Decides which documents FilterPipeline keeps. Every filter is given the counts of a single walk over the document's
+ * paragraphs and sentences, so adding one does not add a pass over the datasets. Filters are called from several
+ * threads at once and must not keep the summary they are given.
+ */
+public interface DocumentFilter {
+  boolean accept(Summary document);
+
+  /**
+   * What FilterPipeline counts in its walk over a document.
+   */
+  class Summary {
+    int responseId;
+    int wordCount;
+    int sentenceCount;
+    int unknownWordCount;
+    int allWordCount;
+
+    /**
+     * Returns the first response of the document, or -1 if it has none.
+     */
+    public int getResponseId() {
+      return responseId;
+    }
+
+    /**
+     * Returns the number of words in the sentences of the document, terminators included, leaving out the paragraph
+     * terminator sentences.
+     */
+    public int getWordCount() {
+      return wordCount;
+    }
+
+    /**
+     * Returns the number of sentences of the document, leaving out the terminator sentences.
+     */
+    public int getSentenceCount() {
+      return sentenceCount;
+    }
+
+    public double getUnknownWordProportion() {
+      return ((double) unknownWordCount) / (allWordCount + 1e-7);
+    }
+
+    void clear(int responseId) {
+      this.responseId = responseId;
+      wordCount = 0;
+      sentenceCount = 0;
+      unknownWordCount = 0;
+      allWordCount = 0;
+    }
+  }
+}
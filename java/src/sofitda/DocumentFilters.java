@@ -0,0 +1,70 @@
+package sofitda;
+
+import java.util.BitSet;
+
+/**
+ * The document filters FilterPipeline can be configured with.
+ */
+public class DocumentFilters {
+  /**
+   * Keeps the documents with at least minWordCount and at most maxWordCount words.
+   */
+  public static DocumentFilter wordCount(final int minWordCount, final int maxWordCount) {
+    return new DocumentFilter() {
+      @Override
+      public boolean accept(Summary document) {
+        return minWordCount <= document.getWordCount() && document.getWordCount() <= maxWordCount;
+      }
+
+      @Override
+      public String toString() {
+        return "remove short and long documents";
+      }
+    };
+  }
+
+  public static DocumentFilter maxUnknownWordProportion(final double maxProportion) {
+    return new DocumentFilter() {
+      @Override
+      public boolean accept(Summary document) {
+        return document.getUnknownWordProportion() <= maxProportion;
+      }
+
+      @Override
+      public String toString() {
+        return "remove documents with more than " + maxProportion + " unknown words";
+      }
+    };
+  }
+
+  public static DocumentFilter maxSentenceCount(final int maxSentenceCount) {
+    return new DocumentFilter() {
+      @Override
+      public boolean accept(Summary document) {
+        return document.getSentenceCount() <= maxSentenceCount;
+      }
+
+      @Override
+      public String toString() {
+        return "remove documents with more than " + maxSentenceCount + " sentences";
+      }
+    };
+  }
+
+  /**
+   * Keeps the documents whose response is one of responseIds.
+   */
+  public static DocumentFilter responses(final BitSet responseIds) {
+    return new DocumentFilter() {
+      @Override
+      public boolean accept(Summary document) {
+        return document.getResponseId() != -1 && responseIds.get(document.getResponseId());
+      }
+
+      @Override
+      public String toString() {
+        return "remove documents with other responses than " + responseIds;
+      }
+    };
+  }
+}
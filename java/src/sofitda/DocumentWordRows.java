@@ -0,0 +1,81 @@
+package sofitda;
+
+import java.io.IOException;
+
+/**
+ * The document word rows of the training, validation and testing datasets, numbered one after another in that order,
+ * for the stages that compare documents across partitions. The words of row r are getValues(r)[getWordStart(r)] up to
+ * getValues(r)[getWordEnd(r)].
+ */
+public class DocumentWordRows {
+  public static final String[] PREFIXES = { "training", "validation", "testing" };
+
+  private final RunContext context;
+  private final CsrDataset[] datasets = new CsrDataset[PREFIXES.length];
+
+  // The first row of prefix p is prefixRows[p].
+  private final int[] prefixRows = new int[PREFIXES.length + 1];
+
+  public DocumentWordRows(RunContext context) throws IOException {
+    this.context = context;
+
+    for (int prefix = 0; prefix < PREFIXES.length; prefix++) {
+      datasets[prefix] = Helper.readIntegerDataset(
+          getFilePath(Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, prefix));
+      prefixRows[prefix + 1] = prefixRows[prefix] + datasets[prefix].getRowCount();
+    }
+  }
+
+  public int getRowCount() {
+    return prefixRows[PREFIXES.length];
+  }
+
+  public int getFirstRow(int prefix) {
+    return prefixRows[prefix];
+  }
+
+  public int getPrefix(int row) {
+    int prefix = 0;
+
+    while (row >= prefixRows[prefix + 1]) {
+      prefix++;
+    }
+
+    return prefix;
+  }
+
+  public int getDocumentId(int row) {
+    int prefix = getPrefix(row);
+
+    return datasets[prefix].getRowId(row - prefixRows[prefix]);
+  }
+
+  public int[] getValues(int row) {
+    return datasets[getPrefix(row)].getValues();
+  }
+
+  public int getWordStart(int row) {
+    int prefix = getPrefix(row);
+
+    // The first value is the id.
+    return datasets[prefix].getRowOffset(row - prefixRows[prefix]) + 1;
+  }
+
+  public int getWordEnd(int row) {
+    int prefix = getPrefix(row);
+    int localRow = row - prefixRows[prefix];
+
+    return datasets[prefix].getRowOffset(localRow) + datasets[prefix].getRowLength(localRow);
+  }
+
+  public int getWordCount(int row) {
+    return getWordEnd(row) - getWordStart(row);
+  }
+
+  /**
+   * Returns the path of the dataset of the prefix with the given file name format in the stage 3 directory.
+   */
+  public String getFilePath(String format, int prefix) {
+    return context.getStage3Directory() + "/" + String.format(format, PREFIXES[prefix]);
+  }
+}
@@ -0,0 +1,84 @@
+package sofitda;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Finds documents whose words are exactly those of an earlier document, within a partition or across partitions,
+ * where a copy leaks the earlier document into validation or testing. The word ids of every document word row are
+ * hashed into a 64-bit fingerprint, and one pass over the training, validation and testing rows, in that order,
+ * looks every fingerprint up in a LongIntHashMap of the rows seen so far. Rows with equal fingerprints are compared
+ * word by word, so a hash collision is never taken for a duplicate.
+ *
+ * The duplicates of a prefix are listed with the document they copy in its duplicate dataset. When they are dropped,
+ * they are also taken out of the root ids and the response datasets.
+ */
+public class DuplicateDetector {
+  private final DocumentWordRows rows;
+
+  public DuplicateDetector(RunContext context, boolean drop) throws IOException {
+    rows = new DocumentWordRows(context);
+
+    String[] prefixes = DocumentWordRows.PREFIXES;
+    LongIntHashMap firstRows = new LongIntHashMap(rows.getRowCount());
+    BitSet duplicateIds = new BitSet();
+
+    for (int prefix = 0; prefix < prefixes.length; prefix++) {
+      CsrDataset duplicates = new CsrDataset();
+      int[] crossPrefixCounts = new int[prefixes.length];
+
+      for (int row = rows.getFirstRow(prefix); row < rows.getFirstRow(prefix + 1); row++) {
+        // Empty documents have no text to copy.
+        if (rows.getWordCount(row) == 0) {
+          continue;
+        }
+
+        int firstRow = firstRows.putIfAbsent(
+            Helper.hashSequence(rows.getValues(row), rows.getWordStart(row), rows.getWordEnd(row)), row);
+
+        if (firstRow == LongIntHashMap.ABSENT || !hasEqualWords(firstRow, row)) {
+          continue;
+        }
+
+        duplicates.addRow(new int[] { rows.getDocumentId(row), rows.getDocumentId(firstRow) }, 0, 2);
+        duplicateIds.set(rows.getDocumentId(row));
+        crossPrefixCounts[rows.getPrefix(firstRow)]++;
+      }
+
+      StringBuilder report = new StringBuilder(prefixes[prefix] + ": " + duplicates.getRowCount() + " duplicates");
+
+      for (int firstPrefix = 0; firstPrefix < prefix; firstPrefix++) {
+        report.append(", ").append(crossPrefixCounts[firstPrefix]).append(" of ").append(prefixes[firstPrefix])
+            .append(" documents");
+      }
+
+      System.out.println(report);
+      Helper.writeIntegerDataset(rows.getFilePath(Constants.DUPLICATE_DATASET_FILENAME_FORMAT, prefix), duplicates);
+    }
+
+    if (drop) {
+      DatasetMerger.removeDocuments(context, duplicateIds);
+    }
+  }
+
+  private boolean hasEqualWords(int row1, int row2) {
+    int length = rows.getWordCount(row1);
+
+    if (length != rows.getWordCount(row2)) {
+      return false;
+    }
+
+    int[] values1 = rows.getValues(row1);
+    int[] values2 = rows.getValues(row2);
+    int start1 = rows.getWordStart(row1);
+    int start2 = rows.getWordStart(row2);
+
+    for (int i = 0; i < length; i++) {
+      if (values1[start1 + i] != values2[start2 + i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,248 @@
+package sofitda;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts more longs than fit in the heap. Values are collected in a buffer of at most memoryBytes, which is sorted and
+ * written to a run file in the given directory whenever it fills up. {@link #sort()} ends the input, after which
+ * {@link #next()} returns the values in ascending order, merged from the runs. Values that all fit in the buffer
+ * never touch the disk.
+ *
+ * Callers pack what they sort into the long, usually a key in the high 32 bits and a value in the low ones.
+ */
+public class ExternalSorter implements Closeable {
+  private static final int MAX_MERGE_WIDTH = 64;
+  private static final int MIN_BUFFER_LENGTH = 1 << 10;
+
+  private final File directory;
+  private final int maxBufferLength;
+  private final int readBufferSize;
+  private final List<File> runFiles = new ArrayList<>();
+  private long[] buffer;
+  private int bufferLength;
+  private int position;
+  private PriorityQueue<RunReader> runReaders;
+
+  private static final Comparator<RunReader> RUN_COMPARATOR = new Comparator<RunReader>() {
+    @Override
+    public int compare(RunReader reader1, RunReader reader2) {
+      return Long.compare(reader1.value, reader2.value);
+    }
+  };
+
+  public ExternalSorter(File directory, long memoryBytes) {
+    this.directory = directory;
+    maxBufferLength = (int) Math.max(MIN_BUFFER_LENGTH, Math.min(Integer.MAX_VALUE - 8, memoryBytes / 8));
+    readBufferSize = (int) Math.max(1 << 12, Math.min(1 << 20, memoryBytes / MAX_MERGE_WIDTH / 2)) & ~7;
+    buffer = new long[MIN_BUFFER_LENGTH];
+  }
+
+  public void add(long value) throws IOException {
+    if (bufferLength == buffer.length) {
+      if (buffer.length < maxBufferLength) {
+        buffer = Arrays.copyOf(buffer, (int) Math.min(maxBufferLength, 2L * buffer.length));
+      } else {
+        spill();
+      }
+    }
+
+    buffer[bufferLength++] = value;
+  }
+
+  /**
+   * Ends the input. Runs beyond what can be merged at once are first merged into longer ones.
+   */
+  public void sort() throws IOException {
+    if (runFiles.isEmpty()) {
+      Arrays.sort(buffer, 0, bufferLength);
+      return;
+    }
+
+    spill();
+    buffer = null;
+
+    while (runFiles.size() > MAX_MERGE_WIDTH) {
+      List<File> mergedFiles = new ArrayList<>(runFiles.subList(0, MAX_MERGE_WIDTH));
+      File runFile = createRunFile();
+      FileChannel channel = openRun(runFile, true);
+      ByteBuffer writeBuffer = ByteBuffer.allocate(readBufferSize);
+      PriorityQueue<RunReader> readers = openRuns(mergedFiles);
+
+      try {
+        while (!readers.isEmpty()) {
+          if (!writeBuffer.hasRemaining()) {
+            flush(channel, writeBuffer);
+          }
+
+          writeBuffer.putLong(poll(readers));
+        }
+
+        flush(channel, writeBuffer);
+      } finally {
+        channel.close();
+        closeRuns(readers);
+      }
+
+      for (File mergedFile : mergedFiles) {
+        mergedFile.delete();
+      }
+
+      runFiles.subList(0, MAX_MERGE_WIDTH).clear();
+      runFiles.add(runFile);
+    }
+
+    runReaders = openRuns(runFiles);
+  }
+
+  public boolean hasNext() {
+    return runReaders != null ? !runReaders.isEmpty() : position < bufferLength;
+  }
+
+  public long next() throws IOException {
+    return runReaders != null ? poll(runReaders) : buffer[position++];
+  }
+
+  @Override
+  public void close() throws IOException {
+    buffer = null;
+
+    try {
+      if (runReaders != null) {
+        closeRuns(runReaders);
+      }
+    } finally {
+      for (File runFile : runFiles) {
+        runFile.delete();
+      }
+    }
+  }
+
+  private void spill() throws IOException {
+    Arrays.sort(buffer, 0, bufferLength);
+
+    File runFile = createRunFile();
+    FileChannel channel = openRun(runFile, true);
+    ByteBuffer writeBuffer = ByteBuffer.allocate(readBufferSize);
+
+    try {
+      for (int i = 0; i < bufferLength; i++) {
+        if (!writeBuffer.hasRemaining()) {
+          flush(channel, writeBuffer);
+        }
+
+        writeBuffer.putLong(buffer[i]);
+      }
+
+      flush(channel, writeBuffer);
+    } finally {
+      channel.close();
+    }
+
+    runFiles.add(runFile);
+    bufferLength = 0;
+  }
+
+  private File createRunFile() throws IOException {
+    directory.mkdirs();
+    return File.createTempFile("run", ".bin", directory);
+  }
+
+  private PriorityQueue<RunReader> openRuns(List<File> files) throws IOException {
+    PriorityQueue<RunReader> readers = new PriorityQueue<>(Math.max(1, files.size()), RUN_COMPARATOR);
+
+    try {
+      for (File file : files) {
+        RunReader reader = new RunReader(openRun(file, false), readBufferSize);
+
+        if (reader.advance()) {
+          readers.add(reader);
+        } else {
+          reader.channel.close();
+        }
+      }
+    } catch (IOException e) {
+      closeRuns(readers);
+      throw e;
+    }
+
+    return readers;
+  }
+
+  private static long poll(PriorityQueue<RunReader> readers) throws IOException {
+    RunReader reader = readers.poll();
+    long value = reader.value;
+
+    if (reader.advance()) {
+      readers.add(reader);
+    } else {
+      reader.channel.close();
+    }
+
+    return value;
+  }
+
+  private static void closeRuns(PriorityQueue<RunReader> readers) throws IOException {
+    while (!readers.isEmpty()) {
+      readers.poll().channel.close();
+    }
+  }
+
+  private static FileChannel openRun(File file, boolean write) throws IOException {
+    return write ? FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+        : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+
+    buffer.clear();
+  }
+
+  private static class RunReader {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long value;
+
+    RunReader(FileChannel channel, int bufferSize) {
+      this.channel = channel;
+      buffer = ByteBuffer.allocate(bufferSize);
+      buffer.limit(0);
+    }
+
+    // Reads the next value of the run, or returns false at its end.
+    boolean advance() throws IOException {
+      if (!buffer.hasRemaining()) {
+        int count;
+
+        buffer.clear();
+
+        do {
+          count = channel.read(buffer);
+        } while (count != -1 && buffer.hasRemaining());
+
+        buffer.flip();
+
+        if (!buffer.hasRemaining()) {
+          return false;
+        }
+      }
+
+      value = buffer.getLong();
+      return true;
+    }
+  }
+}
@@ -1,7 +1,5 @@
 package sofitda;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.HashMap;
@@ -12,44 +10,54 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 
 public class ExtraDatasetGenerator {
-  public ExtraDatasetGenerator() throws IOException {
-    Map<Integer, String> vocabulary = Helper
-        .readSingleColumnStringMap(Configuration.STAGE3_DIRECTORY + "/" + Constants.VOCABULARY_FILENAME, 1);
+  private final RunContext context;
+
+  public ExtraDatasetGenerator(RunContext context) throws IOException {
+    this.context = context;
+
+    final Vocabulary vocabulary = Helper
+        .readVocabulary(context.getStage3Directory() + "/" + Constants.VOCABULARY_FILENAME);
     String[] prefixes = { "all", "training", "validation", "testing" };
 
-    for (String prefix : prefixes) {
-      String sentenceDatasetFilePath = String
-          .format(Configuration.STAGE3_DIRECTORY + "/" + Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
-      String sentenceDatasetTextFilePath = String
-          .format(Configuration.STAGE3_DIRECTORY + "/" + Constants.SENTENCE_DATASET_TEXT_FILENAME_FORMAT, prefix);
-      String wordDatasetFilePath = String
-          .format(Configuration.STAGE3_DIRECTORY + "/" + Constants.WORD_DATASET_FILENAME_FORMAT, prefix);
-      String documentWordDatasetFilePath = String
-          .format(Configuration.STAGE3_DIRECTORY + "/" + Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, prefix);
-      String documentWordDatasetTextFilePath = String
-          .format(Configuration.STAGE3_DIRECTORY + "/" + Constants.DOCUMENT_WORD_DATASET_TEXT_FILENAME_FORMAT, prefix);
-      String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
-          + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
-
-      createSentenceTextDatasetFile(sentenceDatasetFilePath, vocabulary, sentenceDatasetTextFilePath);
-      createDocumentWordTextDatasetFile(documentWordDatasetFilePath, responseDatasetFilePath, vocabulary,
-          documentWordDatasetTextFilePath);
-      createWordDatasetFile(sentenceDatasetFilePath, wordDatasetFilePath);
-    }
+    StagePool.forEachPrefix(prefixes, new StagePool.PrefixTask() {
+      @Override
+      public void run(String prefix) throws IOException {
+        String sentenceDatasetFilePath = String
+            .format(context.getStage3Directory() + "/" + Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
+        String sentenceDatasetTextFilePath = String
+            .format(context.getStage3Directory() + "/" + Constants.SENTENCE_DATASET_TEXT_FILENAME_FORMAT, prefix);
+        String wordDatasetFilePath = String
+            .format(context.getStage3Directory() + "/" + Constants.WORD_DATASET_FILENAME_FORMAT, prefix);
+        String documentWordDatasetFilePath = String
+            .format(context.getStage3Directory() + "/" + Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, prefix);
+        String documentWordDatasetTextFilePath = String
+            .format(context.getStage3Directory() + "/" + Constants.DOCUMENT_WORD_DATASET_TEXT_FILENAME_FORMAT, prefix);
+        String responseDatasetFilePath = context.getStage3Directory() + "/"
+            + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
+
+        createSentenceTextDatasetFile(sentenceDatasetFilePath, vocabulary, sentenceDatasetTextFilePath);
+        createDocumentWordTextDatasetFile(documentWordDatasetFilePath, responseDatasetFilePath, vocabulary,
+            documentWordDatasetTextFilePath);
+        createWordDatasetFile(sentenceDatasetFilePath, wordDatasetFilePath);
+      }
+    });
   }
 
-  private void createSentenceTextDatasetFile(String inputFilePath, Map<Integer, String> vocabulary,
+  private void createSentenceTextDatasetFile(String inputFilePath, Vocabulary vocabulary,
       String outputFilePath) throws IOException {
     System.out.println("Creating sentence dataset text file " + outputFilePath + "...");
 
-    Map<Integer, int[]> sentenceMap = Helper.readMultiColumnIntegerMap(inputFilePath);
+    IntHierarchyTable sentenceTable = Helper.readIntHierarchyTable(inputFilePath);
+    int[] wordIds = sentenceTable.getChildren();
     PrintWriter writer = new PrintWriter(outputFilePath);
 
-    for (int sentenceId : sentenceMap.keySet()) {
+    for (int sentenceId : sentenceTable.ids()) {
+      int offset = sentenceTable.getChildOffset(sentenceId);
+
       writer.write(sentenceId + " ");
 
-      for (int wordId : sentenceMap.get(sentenceId)) {
-        writer.write(vocabulary.get(wordId));
+      for (int i = offset; i < offset + sentenceTable.getChildCount(sentenceId); i++) {
+        writer.write(vocabulary.getWord(wordIds[i]));
         writer.write(" ");
       }
 
@@ -60,26 +68,38 @@ public class ExtraDatasetGenerator {
   }
 
   private void createDocumentWordTextDatasetFile(String documentWordDatasetFilePath, String responseDatasetFilePath,
-      Map<Integer, String> vocabulary, String outputFilePath) throws IOException {
+      Vocabulary vocabulary, String outputFilePath) throws IOException {
     System.out.println("Creating document word dataset text file " + outputFilePath + "...");
 
-    Map<Integer, int[]> documentWordDatasetMap = Helper.readMultiColumnIntegerMap(documentWordDatasetFilePath);
-    Map<Integer, int[]> responseMap = Helper.readMultiColumnIntegerMap(responseDatasetFilePath);
-    Map<Integer, Integer> documentResponseMap = new HashMap<>();
+    IntHierarchyTable documentWordTable = Helper.readIntHierarchyTable(documentWordDatasetFilePath);
+    IntHierarchyTable responseTable = Helper.readIntHierarchyTable(responseDatasetFilePath);
+    int[] documentIds = responseTable.getChildren();
+    IntHierarchyTable documentResponseTable = new IntHierarchyTable();
+    int[] responseIdHolder = new int[1];
+
+    for (int responseId : responseTable.ids()) {
+      int offset = responseTable.getChildOffset(responseId);
 
-    for (int responseId : responseMap.keySet()) {
-      for (int documentId : responseMap.get(responseId)) {
-        documentResponseMap.put(documentId, responseId);
+      responseIdHolder[0] = responseId;
+
+      for (int i = offset; i < offset + responseTable.getChildCount(responseId); i++) {
+        documentResponseTable.put(documentIds[i], responseIdHolder);
       }
     }
 
+    int[] wordIds = documentWordTable.getChildren();
     PrintWriter writer = new PrintWriter(outputFilePath);
 
-    for (int documentId : documentWordDatasetMap.keySet()) {
-      writer.write(documentId + " " + documentResponseMap.get(documentId) + " ");
+    for (int documentId : documentWordTable.ids()) {
+      int offset = documentWordTable.getChildOffset(documentId);
+      String responseId = documentResponseTable.contains(documentId)
+          ? String.valueOf(documentResponseTable.getChild(documentId, 0))
+          : "null";
+
+      writer.write(documentId + " " + responseId + " ");
 
-      for (int wordId : documentWordDatasetMap.get(documentId)) {
-        String word = vocabulary.get(wordId);
+      for (int i = offset; i < offset + documentWordTable.getChildCount(documentId); i++) {
+        String word = vocabulary.getWord(wordIds[i]);
 
         writer.write(word);
         writer.write(" ");
@@ -94,33 +114,27 @@ public class ExtraDatasetGenerator {
   private void createWordDatasetFile(String inputFilePath, String outputFilePath) throws IOException {
     System.out.println("Creating word dataset file " + outputFilePath + "...");
 
-    BufferedReader reader = new BufferedReader(new FileReader(inputFilePath));
-    String line;
+    CsrDataset sentenceDataset = Helper.readIntegerDataset(inputFilePath);
+    int[] values = sentenceDataset.getValues();
     Map<Integer, Set<Integer>> wordMap = new HashMap<>();
 
-    while ((line = reader.readLine()) != null) {
-      String[] idStrings = line.split("\\s+");
-      int sentenceId = Integer.parseInt(idStrings[0]);
-
-      for (int i = 1; i < idStrings.length; i++) {
-        String wordIdString = idStrings[i];
+    for (int row = 0; row < sentenceDataset.getRowCount(); row++) {
+      int offset = sentenceDataset.getRowOffset(row);
+      int sentenceId = values[offset];
 
-        if (wordIdString != null && !wordIdString.isEmpty()) {
-          int wordId = Integer.parseInt(wordIdString);
-          Set<Integer> sentenceIds = wordMap.get(wordId);
+      for (int i = offset + 1; i < offset + sentenceDataset.getRowLength(row); i++) {
+        int wordId = values[i];
+        Set<Integer> sentenceIds = wordMap.get(wordId);
 
-          if (sentenceIds == null) {
-            sentenceIds = new HashSet<>();
-            wordMap.put(wordId, sentenceIds);
-          }
-
-          sentenceIds.add(sentenceId);
+        if (sentenceIds == null) {
+          sentenceIds = new HashSet<>();
+          wordMap.put(wordId, sentenceIds);
         }
+
+        sentenceIds.add(sentenceId);
       }
     }
 
-    reader.close();
-
     SortedMap<Integer, Set<Integer>> sortedWordMap = new TreeMap<>(wordMap);
     PrintWriter writer = new PrintWriter(outputFilePath);
 
@@ -1,18 +1,15 @@
 package sofitda;
 
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.RecursiveAction;
 
+@StageConfiguration({ "MAX_UNKNOWN_WORD_PROPORTION", "MAX_SENTENCE_COUNT", "RESPONSE_WHITELIST" })
 public class FilterPipeline {
   private static int MIN_DOCUMENT_WORD_COUNT = 1; // Includes document terminator
   private static int MAX_DOCUMENT_WORD_COUNT = 50; // Includes document terminator
@@ -21,9 +18,22 @@ public class FilterPipeline {
       AbstractDocumentsTokenizer.PARAGRAPH_TERMINATOR_WORD_ID, AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_WORD_ID,
       AbstractDocumentsTokenizer.UNKNOWN_WORD_ID };
 
+  private static final int DOCUMENTS_PER_TASK = 8192;
+
   private FilterData filterData = new FilterData();
+  private final List<DocumentFilter> filters;
+  private final RunContext context;
+
+  // Wraps data already in memory without running the pipeline, for benchmarks.
+  FilterPipeline(RunContext context, FilterData filterData) {
+    this.context = context;
+    this.filterData = filterData;
+    filters = getFilters(filterData.responseIdMap);
+  }
+
+  public FilterPipeline(RunContext context) throws IOException {
+    this.context = context;
 
-  public FilterPipeline() throws IOException {
     filterData.trainingData = loadPartitionData("training");
     filterData.validationData = loadPartitionData("validation");
     filterData.testingData = loadPartitionData("testing");
@@ -32,8 +42,9 @@ public class FilterPipeline {
     System.out.println("Vocabulary Size: " + filterData.vocabulary.size());
 
     filterData.responseIdMap = getResponseIdMap();
+    filters = getFilters(filterData.responseIdMap);
 
-    filterRemoveShortAndLongDocuments();
+    filterDocuments();
 
     savePartitionData(filterData.trainingData, "training");
     savePartitionData(filterData.validationData, "validation");
@@ -45,127 +56,282 @@ public class FilterPipeline {
     System.out.println("Final vocabularySize: " + filterData.vocabulary.size());
   }
 
-  private void filterRemoveShortAndLongDocuments() {
-    System.out.println("Filter: remove short and long documents.");
+  // The word count bounds, followed by the filters the configuration asks for.
+  private static List<DocumentFilter> getFilters(Map<Integer, String> responseIdMap) {
+    List<DocumentFilter> filters = new ArrayList<>();
 
-    PartitionData[] partitionDatas = { filterData.trainingData, filterData.validationData, filterData.testingData };
+    filters.add(DocumentFilters.wordCount(MIN_DOCUMENT_WORD_COUNT, MAX_DOCUMENT_WORD_COUNT));
 
-    for (PartitionData partitionData : partitionDatas) {
-      Iterator<Integer> iterator = partitionData.documentMap.keySet().iterator();
+    if (Configuration.MAX_UNKNOWN_WORD_PROPORTION < 1) {
+      filters.add(DocumentFilters.maxUnknownWordProportion(Configuration.MAX_UNKNOWN_WORD_PROPORTION));
+    }
+
+    if (Configuration.MAX_SENTENCE_COUNT > 0) {
+      filters.add(DocumentFilters.maxSentenceCount(Configuration.MAX_SENTENCE_COUNT));
+    }
 
-      while (iterator.hasNext()) {
-        int documentId = iterator.next();
-        int wordCount = getWordCount(partitionData, documentId);
+    if (Configuration.RESPONSE_WHITELIST != null) {
+      List<String> responses = Arrays.asList(Configuration.RESPONSE_WHITELIST);
+      BitSet responseIds = new BitSet();
 
-        if (wordCount < MIN_DOCUMENT_WORD_COUNT || MAX_DOCUMENT_WORD_COUNT < wordCount) {
-          iterator.remove();
+      for (Map.Entry<Integer, String> entry : responseIdMap.entrySet()) {
+        if (responses.contains(entry.getValue())) {
+          responseIds.set(entry.getKey());
         }
       }
+
+      filters.add(DocumentFilters.responses(responseIds));
     }
 
+    return filters;
+  }
+
+  /**
+   * Removes the documents that any of the filters rejects, then the rows and words only they referenced, and
+   * compacts the ids. The partitions are filtered at the same time, each in tasks of DOCUMENTS_PER_TASK documents.
+   */
+  void filterDocuments() throws IOException {
+    for (DocumentFilter filter : filters) {
+      System.out.println("Filter: " + filter + ".");
+    }
+
+    StagePool.forEachPrefix(new String[] { "training", "validation", "testing" }, new StagePool.PrefixTask() {
+      @Override
+      public void run(String prefix) {
+        filterDocuments(getPartitionData(prefix));
+      }
+    });
+
     removeDanglingReferences();
     compactIds();
   }
 
-  private void printAverageProportionOfUnknownWords(String partitionName, PartitionData partitionData) {
-    float total = 0;
+  private void filterDocuments(PartitionData partitionData) {
+    int[] documentIds = partitionData.documentTable.ids();
+    boolean[] accepted = new boolean[documentIds.length];
+    double[] unknownWordProportions = new double[documentIds.length];
+
+    StagePool.invoke(new FilterTask(partitionData, getResponseIds(partitionData, documentIds), documentIds, accepted,
+        unknownWordProportions, 0, documentIds.length));
+
+    float unknownWordProportionTotal = 0;
 
-    for (Integer documentId : partitionData.documentMap.keySet()) {
-      total += getProportionOfUnknownWords(partitionData, documentId);
+    for (int i = 0; i < documentIds.length; i++) {
+      if (accepted[i]) {
+        unknownWordProportionTotal += unknownWordProportions[i];
+      } else {
+        partitionData.documentTable.remove(documentIds[i]);
+      }
     }
 
-    System.out
-        .println(partitionName + ": average proportion of unknown words: " + total / partitionData.documentMap.size());
+    partitionData.unknownWordProportionTotal = unknownWordProportionTotal;
   }
 
-  private double getProportionOfUnknownWords(PartitionData partitionData, int documentId) {
-    int[] paragraphIds = partitionData.documentMap.get(documentId);
-    int knownWordCount = 0;
-    int unknownWordCount = 0;
+  private PartitionData getPartitionData(String prefix) {
+    switch (prefix) {
+    case "training":
+      return filterData.trainingData;
+
+    case "validation":
+      return filterData.validationData;
+
+    default:
+      return filterData.testingData;
+    }
+  }
+
+  // Returns the first response of every document, at the document's index in documentIds, or -1 if it has none.
+  private static int[] getResponseIds(PartitionData partitionData, int[] documentIds) {
+    IntHierarchyTable responseTable = partitionData.responseTable;
+    int[] responseDocumentIds = responseTable.getChildren();
+    int[] documentIndexes = createIdTable(documentIds.length == 0 ? 0 : documentIds[documentIds.length - 1] + 1);
+    int[] responseIds = createIdTable(documentIds.length);
+
+    for (int i = 0; i < documentIds.length; i++) {
+      documentIndexes[documentIds[i]] = i;
+    }
 
-    for (int paragraphId : paragraphIds) {
-      int[] sentenceIds = partitionData.paragraphMap.get(paragraphId);
+    for (int responseId : responseTable.ids()) {
+      int offset = responseTable.getChildOffset(responseId);
 
-      for (int sentenceId : sentenceIds) {
-        int[] wordIds = partitionData.sentenceMap.get(sentenceId);
+      for (int i = offset; i < offset + responseTable.getChildCount(responseId); i++) {
+        int documentId = responseDocumentIds[i];
+
+        if (documentId >= 0 && documentId < documentIndexes.length && documentIndexes[documentId] != -1
+            && responseIds[documentIndexes[documentId]] == -1) {
+          responseIds[documentIndexes[documentId]] = responseId;
+        }
+      }
+    }
+
+    return responseIds;
+  }
+
+  // Runs the filters on the documents in [from, to). A large range is split into tasks of DOCUMENTS_PER_TASK
+  // documents, which write to their own slots of accepted and unknownWordProportions.
+  private class FilterTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final PartitionData partitionData;
+    private final int[] responseIds;
+    private final int[] documentIds;
+    private final boolean[] accepted;
+    private final double[] unknownWordProportions;
+    private final int from;
+    private final int to;
+
+    FilterTask(PartitionData partitionData, int[] responseIds, int[] documentIds, boolean[] accepted,
+        double[] unknownWordProportions, int from, int to) {
+      this.partitionData = partitionData;
+      this.responseIds = responseIds;
+      this.documentIds = documentIds;
+      this.accepted = accepted;
+      this.unknownWordProportions = unknownWordProportions;
+      this.from = from;
+      this.to = to;
+    }
 
-        for (int wordId : wordIds) {
-          if (wordId == AbstractDocumentsTokenizer.UNKNOWN_WORD_ID) {
-            unknownWordCount++;
-          } else {
-            knownWordCount++;
+    @Override
+    protected void compute() {
+      if (to - from > DOCUMENTS_PER_TASK) {
+        List<FilterTask> tasks = new ArrayList<>();
+
+        for (int begin = from; begin < to; begin += DOCUMENTS_PER_TASK) {
+          tasks.add(new FilterTask(partitionData, responseIds, documentIds, accepted, unknownWordProportions, begin,
+              Math.min(begin + DOCUMENTS_PER_TASK, to)));
+        }
+
+        invokeAll(tasks);
+        return;
+      }
+
+      DocumentFilter.Summary summary = new DocumentFilter.Summary();
+
+      for (int i = from; i < to; i++) {
+        summary.clear(responseIds[i]);
+        summarize(partitionData, documentIds[i], summary);
+        accepted[i] = accept(summary);
+        unknownWordProportions[i] = summary.getUnknownWordProportion();
+      }
+    }
+  }
+
+  private boolean accept(DocumentFilter.Summary summary) {
+    for (DocumentFilter filter : filters) {
+      if (!filter.accept(summary)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  // Counts the words and sentences of the document in one walk over its paragraphs and sentences.
+  private static void summarize(PartitionData partitionData, int documentId, DocumentFilter.Summary summary) {
+    IntHierarchyTable documentTable = partitionData.documentTable;
+    IntHierarchyTable paragraphTable = partitionData.paragraphTable;
+    IntHierarchyTable sentenceTable = partitionData.sentenceTable;
+    int[] paragraphIds = documentTable.getChildren();
+    int[] sentenceIds = paragraphTable.getChildren();
+    int[] wordIds = sentenceTable.getChildren();
+    int paragraphOffset = documentTable.getChildOffset(documentId);
+
+    for (int i = paragraphOffset; i < paragraphOffset + documentTable.getChildCount(documentId); i++) {
+      int sentenceOffset = paragraphTable.getChildOffset(paragraphIds[i]);
+
+      for (int j = sentenceOffset; j < sentenceOffset + paragraphTable.getChildCount(paragraphIds[i]); j++) {
+        int wordOffset = sentenceTable.getChildOffset(sentenceIds[j]);
+        int wordCount = sentenceTable.getChildCount(sentenceIds[j]);
+
+        for (int k = wordOffset; k < wordOffset + wordCount; k++) {
+          if (wordIds[k] == AbstractDocumentsTokenizer.UNKNOWN_WORD_ID) {
+            summary.unknownWordCount++;
           }
         }
+
+        summary.allWordCount += wordCount;
+
+        if (sentenceIds[j] == AbstractDocumentsTokenizer.PARAGRAPH_TERMINATOR_SENTENCE_ID) {
+          continue;
+        }
+
+        // We include the terminator since a period normally counts as a word.
+        summary.wordCount += wordCount;
+
+        if (sentenceIds[j] != AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_SENTENCE_ID) {
+          summary.sentenceCount++;
+        }
       }
     }
+  }
 
-    return ((double) unknownWordCount) / (unknownWordCount + knownWordCount + 1e-7);
+  private void printAverageProportionOfUnknownWords(String partitionName, PartitionData partitionData) {
+    System.out.println(partitionName + ": average proportion of unknown words: "
+        + partitionData.unknownWordProportionTotal / partitionData.documentTable.size());
   }
 
   private PartitionData loadPartitionData(String prefix) throws IOException {
-    String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String responseDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
-    String documentDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, prefix);
-    String paragraphDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String paragraphDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, prefix);
-    String sentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String sentenceDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
     PartitionData partitionData = new PartitionData();
 
-    partitionData.responseMap = loadDataset(responseDatasetFilePath);
-    partitionData.documentMap = loadDataset(documentDatasetFilePath);
-    partitionData.paragraphMap = loadDataset(paragraphDatasetFilePath);
-    partitionData.sentenceMap = loadDataset(sentenceDatasetFilePath);
+    partitionData.responseTable = loadDataset(responseDatasetFilePath);
+    partitionData.documentTable = loadDataset(documentDatasetFilePath);
+    partitionData.paragraphTable = loadDataset(paragraphDatasetFilePath);
+    partitionData.sentenceTable = loadDataset(sentenceDatasetFilePath);
     return partitionData;
   }
 
-  private TreeMap<Integer, int[]> loadDataset(String datasetFilePath) throws IOException {
-    File datasetFile = new File(datasetFilePath);
-
-    if (datasetFile.exists()) {
-      TreeMap<Integer, int[]> datasetMap = Helper.readMultiColumnIntegerMap(datasetFilePath);
+  private IntHierarchyTable loadDataset(String datasetFilePath) throws IOException {
+    if (Helper.datasetExists(datasetFilePath)) {
+      IntHierarchyTable datasetTable = Helper.readIntHierarchyTable(datasetFilePath);
 
       System.out.println("Loaded dataset: " + datasetFilePath);
-      return datasetMap;
+      return datasetTable;
     } else {
       System.out.println("Did not find " + datasetFilePath + ". Skipping...");
-      return new TreeMap<>();
+      return new IntHierarchyTable();
     }
   }
 
-  private void savePartitionData(PartitionData partitionData, String prefix) throws FileNotFoundException {
-    String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+  private void savePartitionData(PartitionData partitionData, String prefix) throws IOException {
+    String responseDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
-    String documentDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, prefix);
-    String paragraphDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String paragraphDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, prefix);
-    String sentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String sentenceDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
 
-    Helper.writeMultiColumnIntegerArrayMap(partitionData.responseMap, responseDatasetFilePath);
-    Helper.writeMultiColumnIntegerArrayMap(partitionData.documentMap, documentDatasetFilePath);
-    Helper.writeMultiColumnIntegerArrayMap(partitionData.paragraphMap, paragraphDatasetFilePath);
-    Helper.writeMultiColumnIntegerArrayMap(partitionData.sentenceMap, sentenceDatasetFilePath);
+    Helper.writeIntHierarchyTable(partitionData.responseTable, responseDatasetFilePath);
+    Helper.writeIntHierarchyTable(partitionData.documentTable, documentDatasetFilePath);
+    Helper.writeIntHierarchyTable(partitionData.paragraphTable, paragraphDatasetFilePath);
+    Helper.writeIntHierarchyTable(partitionData.sentenceTable, sentenceDatasetFilePath);
   }
 
-  private Map<Integer, String> getVocabulary() throws IOException {
-    String vocabularyFilePath = Configuration.STAGE3_DIRECTORY + "/" + Constants.VOCABULARY_FILENAME;
-    return Helper.readSingleColumnStringMap(vocabularyFilePath, 1);
+  private Vocabulary getVocabulary() throws IOException {
+    String vocabularyFilePath = context.getStage3Directory() + "/" + Constants.VOCABULARY_FILENAME;
+    return Helper.readVocabulary(vocabularyFilePath);
   }
 
   private Map<Integer, String> getResponseIdMap() throws IOException {
-    String responseFilePath = Configuration.STAGE3_DIRECTORY + "/" + Constants.RESPONSE_DATASET_TEXT_FILENAME;
+    String responseFilePath = context.getStage3Directory() + "/" + Constants.RESPONSE_DATASET_TEXT_FILENAME;
     return Helper.readSingleColumnStringMap(responseFilePath, 0);
   }
 
-  private void saveVocabulary(Map<Integer, String> vocabulary) throws IOException {
-    String vocabularyFilePath = Configuration.STAGE3_DIRECTORY + "/" + Constants.VOCABULARY_FILENAME;
-    Helper.writeSingleColumnStringMap(vocabularyFilePath, "Word\tID", vocabulary);
+  private void saveVocabulary(Vocabulary vocabulary) throws IOException {
+    String vocabularyFilePath = context.getStage3Directory() + "/" + Constants.VOCABULARY_FILENAME;
+    Helper.writeVocabulary(vocabularyFilePath, vocabulary, ' ');
   }
 
-  private void compactIds() {
+  void compactIds() {
     compactWordIds();
 
     PartitionData[] partitionDatas = new PartitionData[] { filterData.trainingData, filterData.validationData,
@@ -175,28 +341,22 @@ public class FilterPipeline {
     int minParagraphId = 0;
 
     for (PartitionData partitionData : partitionDatas) {
-      minSentenceId = compactChildIds(minSentenceId, partitionData.paragraphMap, partitionData.sentenceMap);
-      minParagraphId = compactChildIds(minParagraphId, partitionData.documentMap, partitionData.paragraphMap);
+      minSentenceId = compactChildIds(minSentenceId, partitionData.paragraphTable, partitionData.sentenceTable);
+      minParagraphId = compactChildIds(minParagraphId, partitionData.documentTable, partitionData.paragraphTable);
     }
 
     compactDocumentIds();
     compactResponseIds();
   }
 
-  private int compactChildIds(int beginChildId, TreeMap<Integer, int[]> parentDataset,
-      TreeMap<Integer, int[]> childDataset) {
-    Set<Integer> foundChildIds = new TreeSet<>();
-
-    for (int[] childIds : parentDataset.values()) {
-      for (int childId : childIds) {
-        foundChildIds.add(childId);
-      }
-    }
-
+  private int compactChildIds(int beginChildId, IntHierarchyTable parentTable, IntHierarchyTable childTable) {
     int previousFoundChildId = beginChildId;
-    Map<Integer, Integer> compactIdMap = new HashMap<>();
+    int[] foundChildIds = childTable.ids();
+    int[] compactChildIds = new int[foundChildIds.length];
+    int[] compactIds = createIdTable(foundChildIds.length == 0 ? 0 : foundChildIds[foundChildIds.length - 1] + 1);
 
-    for (int foundChildId : childDataset.keySet()) {
+    for (int i = 0; i < foundChildIds.length; i++) {
+      int foundChildId = foundChildIds[i];
       int compactChildId;
 
       if (foundChildId - previousFoundChildId > 1) {
@@ -206,30 +366,12 @@ public class FilterPipeline {
       }
 
       previousFoundChildId = beginChildId > compactChildId ? beginChildId : compactChildId;
-      compactIdMap.put(foundChildId, compactChildId);
-    }
-
-    Map<Integer, int[]> newChildDataset = new TreeMap<>();
-
-    for (Map.Entry<Integer, Integer> entry : compactIdMap.entrySet()) {
-      int[] grandChildIds = childDataset.get(entry.getKey());
-
-      newChildDataset.put(entry.getValue(), grandChildIds);
-    }
-
-    childDataset.clear();
-    childDataset.putAll(newChildDataset);
-
-    for (int[] childIds : parentDataset.values()) {
-      for (int i = 0; i < childIds.length; i++) {
-        if (!compactIdMap.containsKey(childIds[i])) {
-          System.err.println("Missing " + childIds[i]);
-        }
-
-        childIds[i] = compactIdMap.get(childIds[i]);
-      }
+      compactIds[foundChildId] = compactChildId;
+      compactChildIds[i] = compactChildId;
     }
 
+    childTable.renumber(compactChildIds);
+    renameChildren(parentTable, compactIds);
     return previousFoundChildId;
   }
 
@@ -239,9 +381,12 @@ public class FilterPipeline {
     int previousDocumentId = 0;
 
     for (PartitionData partitionData : partitionDatas) {
-      Map<Integer, Integer> compactIdMap = new HashMap<>();
+      int[] documentIds = partitionData.documentTable.ids();
+      int[] compactDocumentIds = new int[documentIds.length];
+      int[] compactIds = createIdTable(documentIds.length == 0 ? 0 : documentIds[documentIds.length - 1] + 1);
 
-      for (int documentId : partitionData.documentMap.keySet()) {
+      for (int i = 0; i < documentIds.length; i++) {
+        int documentId = documentIds[i];
         int compactId;
 
         if (documentId - previousDocumentId > 1) {
@@ -251,45 +396,33 @@ public class FilterPipeline {
         }
 
         previousDocumentId = compactId;
-        compactIdMap.put(documentId, compactId);
+        compactIds[documentId] = compactId;
+        compactDocumentIds[i] = compactId;
       }
 
-      Map<Integer, int[]> newDocumentMap = new TreeMap<>();
-
-      for (Map.Entry<Integer, Integer> entry : compactIdMap.entrySet()) {
-        int[] paragraphIds = partitionData.documentMap.get(entry.getKey());
-
-        newDocumentMap.put(entry.getValue(), paragraphIds);
-      }
-
-      partitionData.documentMap.clear();
-      partitionData.documentMap.putAll(newDocumentMap);
-
-      for (int[] documentIds : partitionData.responseMap.values()) {
-        for (int i = 0; i < documentIds.length; i++) {
-          documentIds[i] = compactIdMap.get(documentIds[i]);
-        }
-      }
+      partitionData.documentTable.renumber(compactDocumentIds);
+      renameChildren(partitionData.responseTable, compactIds);
     }
   }
 
   private void compactResponseIds() {
-    Set<Integer> foundResponseIds = new TreeSet<>();
+    BitSet foundResponseIds = new BitSet();
     PartitionData[] partitionDatas = new PartitionData[] { filterData.trainingData, filterData.validationData,
         filterData.testingData };
 
     for (PartitionData partitionData : partitionDatas) {
-      for (Map.Entry<Integer, int[]> entry : partitionData.responseMap.entrySet()) {
-        if (entry.getValue().length > 0) {
-          foundResponseIds.add(entry.getKey());
+      for (int responseId : partitionData.responseTable.ids()) {
+        if (partitionData.responseTable.getChildCount(responseId) > 0) {
+          foundResponseIds.set(responseId);
         }
       }
     }
 
-    Map<Integer, Integer> compactIdMap = new HashMap<>();
+    int[] compactIds = createIdTable(foundResponseIds.length());
     int previousResponseId = -1;
 
-    for (int responseId : foundResponseIds) {
+    for (int responseId = foundResponseIds.nextSetBit(0); responseId != -1;
+        responseId = foundResponseIds.nextSetBit(responseId + 1)) {
       int compactId;
 
       if (responseId - previousResponseId > 1) {
@@ -303,83 +436,116 @@ public class FilterPipeline {
         compactId = responseId;
       }
 
-      compactIdMap.put(responseId, compactId);
+      compactIds[responseId] = compactId;
       previousResponseId = compactId;
     }
 
     for (PartitionData partitionData : partitionDatas) {
-      TreeMap<Integer, int[]> newResponseMap = new TreeMap<>();
+      IntHierarchyTable responseTable = partitionData.responseTable;
 
-      for (Map.Entry<Integer, int[]> entry : partitionData.responseMap.entrySet()) {
-        if (entry.getValue().length > 0) {
-          int newResponseId = compactIdMap.get(entry.getKey());
-
-          newResponseMap.put(newResponseId, entry.getValue());
+      for (int responseId : responseTable.ids()) {
+        if (responseTable.getChildCount(responseId) == 0) {
+          responseTable.remove(responseId);
         }
       }
 
-      partitionData.responseMap = newResponseMap;
+      int[] responseIds = responseTable.ids();
+
+      for (int i = 0; i < responseIds.length; i++) {
+        responseIds[i] = compactIds[responseIds[i]];
+      }
+
+      responseTable.renumber(responseIds);
     }
   }
 
   private void compactWordIds() {
-    Set<Integer> foundWordIds = new TreeSet<>();
+    BitSet foundWordIds = new BitSet(filterData.vocabulary.getIdLimit());
     PartitionData[] partitionDatas = new PartitionData[] { filterData.trainingData, filterData.validationData,
         filterData.testingData };
 
     for (PartitionData partitionData : partitionDatas) {
-      for (int[] wordIds : partitionData.sentenceMap.values()) {
-        for (int wordId : wordIds) {
-          foundWordIds.add(wordId);
-        }
-      }
+      markChildren(partitionData.sentenceTable, foundWordIds);
     }
 
     for (int wordId : EXEMPT_WORD_IDS) {
-      foundWordIds.add(wordId);
+      foundWordIds.set(wordId);
     }
 
-    Map<Integer, Integer> compactIdMap = new HashMap<>();
+    int[] compactIds = createIdTable(foundWordIds.length());
     int previousFoundWordId = 1;
 
-    for (int foundWordId : foundWordIds) {
+    for (int foundWordId = foundWordIds.nextSetBit(0); foundWordId != -1;
+        foundWordId = foundWordIds.nextSetBit(foundWordId + 1)) {
       int compactWordId;
 
       if (foundWordId - previousFoundWordId > 1) {
         compactWordId = previousFoundWordId + 1;
 
-        String word = filterData.vocabulary.get(foundWordId);
+        String word = filterData.vocabulary.getWord(foundWordId);
 
         if (word.isEmpty()) {
           throw new RuntimeException("Word cannot be empty. WordId: " + foundWordId);
         }
 
-        filterData.vocabulary.put(compactWordId, word);
-        filterData.vocabulary.remove(foundWordId);
+        filterData.vocabulary.renumber(foundWordId, compactWordId);
 
       } else {
         compactWordId = foundWordId;
       }
 
       previousFoundWordId = compactWordId;
-      compactIdMap.put(foundWordId, compactWordId);
+      compactIds[foundWordId] = compactWordId;
     }
 
     for (PartitionData partitionData : partitionDatas) {
-      for (int[] wordIds : partitionData.sentenceMap.values()) {
-        for (int i = 0; i < wordIds.length; i++) {
-          wordIds[i] = compactIdMap.get(wordIds[i]);
+      renameChildren(partitionData.sentenceTable, compactIds);
+    }
+  }
+
+  // Rewrites the children of every row of the table in place to compactIds[childId].
+  private static void renameChildren(IntHierarchyTable table, int[] compactIds) {
+    int[] childIds = table.getChildren();
+
+    for (int id : table.ids()) {
+      int offset = table.getChildOffset(id);
+
+      for (int i = offset; i < offset + table.getChildCount(id); i++) {
+        if (childIds[i] < 0 || childIds[i] >= compactIds.length || compactIds[childIds[i]] == -1) {
+          throw new IllegalStateException("Missing " + childIds[i]);
         }
+
+        childIds[i] = compactIds[childIds[i]];
+      }
+    }
+  }
+
+  // Sets the bits of the children of every row of the table.
+  private static void markChildren(IntHierarchyTable table, BitSet marks) {
+    int[] childIds = table.getChildren();
+
+    for (int id : table.ids()) {
+      int offset = table.getChildOffset(id);
+
+      for (int i = offset; i < offset + table.getChildCount(id); i++) {
+        marks.set(childIds[i]);
       }
     }
   }
 
-  private void removeDanglingReferences() {
+  private static int[] createIdTable(int length) {
+    int[] table = new int[length];
+
+    Arrays.fill(table, -1);
+    return table;
+  }
+
+  void removeDanglingReferences() {
     PartitionData[] partitionDatas = { filterData.trainingData, filterData.validationData, filterData.testingData };
 
     for (PartitionData partitionData : partitionDatas) {
-      removeDanglingReferences(partitionData.documentMap, partitionData.paragraphMap);
-      removeDanglingReferences(partitionData.paragraphMap, partitionData.sentenceMap);
+      removeDanglingReferences(partitionData.documentTable, partitionData.paragraphTable);
+      removeDanglingReferences(partitionData.paragraphTable, partitionData.sentenceTable);
     }
 
     removeDanglingWords();
@@ -388,31 +554,13 @@ public class FilterPipeline {
 
   private void removeDanglingResponses() {
     PartitionData[] partitionDatas = { filterData.trainingData, filterData.validationData, filterData.testingData };
-    Set<Integer> referenced = new HashSet<>();
+    BitSet referenced = new BitSet();
 
     for (PartitionData partitionData : partitionDatas) {
-      TreeMap<Integer, int[]> newResponseMap = new TreeMap<>();
-
-      for (Map.Entry<Integer, int[]> entry : partitionData.responseMap.entrySet()) {
-        ArrayList<Integer> foundDocumentIds = new ArrayList<>();
-
-        for (int documentId : entry.getValue()) {
-          if (partitionData.documentMap.containsKey(documentId)) {
-            foundDocumentIds.add(documentId);
-          }
-        }
-
-        int[] documentIds = new int[foundDocumentIds.size()];
-
-        for (int i = 0; i < documentIds.length; i++) {
-          documentIds[i] = foundDocumentIds.get(i);
-        }
-
-        newResponseMap.put(entry.getKey(), documentIds);
-        referenced.add(entry.getKey());
+      for (int responseId : partitionData.responseTable.ids()) {
+        retainChildren(partitionData.responseTable, responseId, partitionData.documentTable);
+        referenced.set(responseId);
       }
-
-      partitionData.responseMap = newResponseMap;
     }
 
     Iterator<Integer> iterator = filterData.responseIdMap.keySet().iterator();
@@ -420,7 +568,7 @@ public class FilterPipeline {
     while (iterator.hasNext()) {
       int responseId = iterator.next();
 
-      if (!referenced.contains(responseId)) {
+      if (responseId < 0 || !referenced.get(responseId)) {
         iterator.remove();
       }
     }
@@ -428,31 +576,23 @@ public class FilterPipeline {
 
   private void removeDanglingWords() {
     PartitionData[] partitionDatas = { filterData.trainingData, filterData.validationData, filterData.testingData };
-    Set<Integer> referenced = new HashSet<>();
+    BitSet referenced = new BitSet(filterData.vocabulary.getIdLimit());
 
     for (PartitionData partitionData : partitionDatas) {
-      for (int[] childIds : partitionData.sentenceMap.values()) {
-        for (int childId : childIds) {
-          referenced.add(childId);
-        }
-      }
+      markChildren(partitionData.sentenceTable, referenced);
     }
 
-    Iterator<Integer> iterator = filterData.vocabulary.keySet().iterator();
-
-    while (iterator.hasNext()) {
-      int wordId = iterator.next();
-
-      if (!referenced.contains(wordId)) {
+    for (int wordId : filterData.vocabulary.ids()) {
+      if (!referenced.get(wordId)) {
         if (canBeRemoved(wordId)) {
-          iterator.remove();
+          filterData.vocabulary.remove(wordId);
         }
       }
     }
   }
 
   private boolean canBeRemoved(int wordId) {
-    String word = filterData.vocabulary.get(wordId);
+    String word = filterData.vocabulary.getWord(wordId);
 
     for (int exemptWordId : EXEMPT_WORD_IDS) {
       if (wordId == exemptWordId) {
@@ -467,78 +607,53 @@ public class FilterPipeline {
     return true;
   }
 
-  private void removeDanglingReferences(TreeMap<Integer, int[]> parentMap, TreeMap<Integer, int[]> childMap) {
-    Set<Integer> referenced = new HashSet<>();
-
-    for (int[] childIds : parentMap.values()) {
-      for (int childId : childIds) {
-        referenced.add(childId);
-      }
-    }
-
-    Iterator<Integer> childIterator = childMap.keySet().iterator();
+  private void removeDanglingReferences(IntHierarchyTable parentTable, IntHierarchyTable childTable) {
+    BitSet referenced = new BitSet();
 
-    while (childIterator.hasNext()) {
-      int childId = childIterator.next();
+    markChildren(parentTable, referenced);
 
-      if (!referenced.contains(childId)) {
-        childIterator.remove();
+    for (int childId : childTable.ids()) {
+      if (childId < 0 || !referenced.get(childId)) {
+        childTable.remove(childId);
       }
     }
 
-    for (int parentId : parentMap.keySet()) {
-      int[] childIds = parentMap.get(parentId);
-      List<Integer> newChildIds = new ArrayList<>();
-
-      for (int childId : childIds) {
-        if (childMap.containsKey(childId)) {
-          newChildIds.add(childId);
-        }
-      }
-
-      if (newChildIds.size() != childIds.length) {
-        childIds = new int[newChildIds.size()];
-
-        for (int i = 0; i < newChildIds.size(); i++) {
-          childIds[i] = newChildIds.get(i);
-        }
-
-        parentMap.put(parentId, childIds);
-      }
+    for (int parentId : parentTable.ids()) {
+      retainChildren(parentTable, parentId, childTable);
     }
   }
 
-  private int getWordCount(PartitionData partitionData, int documentId) {
-    int wordCount = 0;
-
-    for (int paragraphId : partitionData.documentMap.get(documentId)) {
-      int[] sentenceIds = partitionData.paragraphMap.get(paragraphId);
-
-      for (int sentenceId : sentenceIds) {
-        if (sentenceId == AbstractDocumentsTokenizer.PARAGRAPH_TERMINATOR_SENTENCE_ID) {
-          continue;
-        }
+  // Drops the children of parentId that have no row in childTable, keeping the order of the others.
+  private void retainChildren(IntHierarchyTable parentTable, int parentId, IntHierarchyTable childTable) {
+    int[] childIds = parentTable.getChildren();
+    int offset = parentTable.getChildOffset(parentId);
+    int childCount = parentTable.getChildCount(parentId);
+    int retainedCount = 0;
 
-        // We include the terminator since a period normally counts as a word.
-        wordCount += partitionData.sentenceMap.get(sentenceId).length;
+    for (int i = offset; i < offset + childCount; i++) {
+      if (childTable.contains(childIds[i])) {
+        childIds[offset + retainedCount++] = childIds[i];
       }
     }
 
-    return wordCount;
+    if (retainedCount != childCount) {
+      parentTable.setChildCount(parentId, retainedCount);
+    }
   }
 
   static class FilterData {
     PartitionData trainingData;
     PartitionData validationData;
     PartitionData testingData;
-    Map<Integer, String> vocabulary;
+    Vocabulary vocabulary;
     Map<Integer, String> responseIdMap;
   }
 
   static class PartitionData {
-    TreeMap<Integer, int[]> responseMap;
-    TreeMap<Integer, int[]> documentMap;
-    TreeMap<Integer, int[]> paragraphMap;
-    TreeMap<Integer, int[]> sentenceMap;
+    IntHierarchyTable responseTable;
+    IntHierarchyTable documentTable;
+    IntHierarchyTable paragraphTable;
+    IntHierarchyTable sentenceTable;
+    float unknownWordProportionTotal; // Over the documents kept by the filters
   }
 }
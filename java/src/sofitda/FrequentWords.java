@@ -0,0 +1,42 @@
+package sofitda;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The words that may be among the most frequent of those added, in at most a given number of counters (the
+ * Misra-Gries summary). A new word takes a free counter; when there is none, every counter loses one and those at
+ * zero are freed. Every word that makes up more than 1 / (capacity + 1) of the words added is kept. As each round of
+ * decrements uses up capacity + 1 added words, adding n words takes O(n) time. Instances are not thread-safe.
+ */
+public class FrequentWords {
+  private final int capacity;
+  private final Map<String, int[]> counters = new HashMap<>();
+
+  public FrequentWords(int capacity) {
+    this.capacity = capacity;
+  }
+
+  public void add(String word) {
+    int[] counter = counters.get(word);
+
+    if (counter != null) {
+      counter[0]++;
+    } else if (counters.size() < capacity) {
+      counters.put(word, new int[] { 1 });
+    } else {
+      Iterator<int[]> iterator = counters.values().iterator();
+
+      while (iterator.hasNext()) {
+        if (--iterator.next()[0] == 0) {
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  public boolean contains(String word) {
+    return counters.containsKey(word);
+  }
+}
@@ -2,7 +2,6 @@ package sofitda;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
@@ -10,8 +9,8 @@ import java.util.Map;
 
 public class GenerationRankingTokenizer extends AbstractDocumentsTokenizer {
 
-  public GenerationRankingTokenizer(String name) throws IOException {
-    super(name, true /* hasResponse */);
+  public GenerationRankingTokenizer(RunContext context) throws IOException {
+    super(context, true /* hasResponse */);
 
     createRealDataset("training", false /* isLastPrefix */);
     createRealDataset("validation", false /* isLastPrefix */);
@@ -27,7 +26,7 @@ public class GenerationRankingTokenizer extends AbstractDocumentsTokenizer {
     String documentWordDatasetTextFilePath = this.rawDataDirectory.getAbsolutePath() + "/"
         + String.format(Constants.DOCUMENT_WORD_DATASET_TEXT_FILENAME_FORMAT, prefix);
 
-    BufferedReader reader = new BufferedReader(new FileReader(documentWordDatasetTextFilePath));
+    BufferedReader reader = Helper.createBufferedReader(documentWordDatasetTextFilePath);
     String line;
 
     while ((line = reader.readLine()) != null) {
@@ -48,7 +47,7 @@ public class GenerationRankingTokenizer extends AbstractDocumentsTokenizer {
 
     initialize(prefix);
 
-    String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String responseDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "training");
 
     Map<Integer, int[]> responseMap = Helper.readMultiColumnIntegerMap(responseDatasetFilePath);
@@ -65,7 +64,7 @@ public class GenerationRankingTokenizer extends AbstractDocumentsTokenizer {
 
       System.out.println("Merging generated file: " + generatedFilename);
 
-      BufferedReader reader = new BufferedReader(new FileReader(generatedFilename));
+      BufferedReader reader = Helper.createBufferedReader(generatedFilename);
       String line;
       int count = 0;
 
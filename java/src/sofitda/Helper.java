@@ -1,26 +1,38 @@
 package sofitda;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 public class Helper {
+  static final int CSR_MAGIC = 0x31525343; // "CSR1" in little-endian byte order
+  static final int CSR_VERSION = 1;
+  static final int CSR_HEADER_SIZE = 16;
+  private static final int BINARY_BUFFER_SIZE = 1 << 20;
+  private static final DatasetStore DATASET_STORE = new DatasetStore();
+
   public static void deleteDirectory(File file) {
     if (!file.isDirectory()) {
       file.delete();
@@ -34,16 +46,12 @@ public class Helper {
     file.delete();
   }
 
-  public static void makeOutputDirectory(String datasetName) {
-    makeOutputDirectory(datasetName, true);
+  public static void makeOutputDirectory(RunContext context) {
+    makeOutputDirectory(context, true);
   }
 
-  public static void makeOutputDirectory(String datasetName, boolean deleteExisting) {
-    Configuration.STAGE2_DIRECTORY = Constants.STAGE2_BASE_DIRECTORY + "/" + datasetName;
-    Configuration.STAGE3_DIRECTORY = Constants.STAGE3_BASE_DIRECTORY + "/" + datasetName;
-    Configuration.DATASET_NAME = datasetName;
-
-    File outputDirectory = new File(Configuration.STAGE3_DIRECTORY);
+  public static void makeOutputDirectory(RunContext context, boolean deleteExisting) {
+    File outputDirectory = new File(context.getStage3Directory());
 
     if (deleteExisting && outputDirectory.exists()) {
       Helper.deleteDirectory(outputDirectory);
@@ -53,41 +61,175 @@ public class Helper {
   }
 
   public static List<int[]> readMultiColumnIntegerDataset(String filePath) throws IOException {
+    CsrDataset storedDataset = getStoredDataset(filePath);
+
+    if (storedDataset != null) {
+      return storedDataset.toRows();
+    }
+
+    String binaryFilePath = findBinaryDataset(filePath);
+
+    if (binaryFilePath != null) {
+      return readBinaryDataset(binaryFilePath).toRows();
+    }
+
     List<int[]> dataset = new ArrayList<>();
-    BufferedReader reader = new BufferedReader(new FileReader(filePath));
-    String line;
+    IntegerDatasetReader reader = new IntegerDatasetReader(filePath);
+    int[] row;
 
-    while ((line = reader.readLine()) != null) {
-      String[] idStrings = line.split("\\s+");
-      int[] ids = new int[idStrings.length];
+    while ((row = reader.nextRow()) != null) {
+      dataset.add(row);
+    }
 
-      for (int i = 0; i < ids.length; i++) {
-        ids[i] = Integer.parseInt(idStrings[i]);
-      }
+    reader.close();
+    return dataset;
+  }
+
+  public static CsrDataset readIntegerDataset(String filePath) throws IOException {
+    CsrDataset storedDataset = getStoredDataset(filePath);
+
+    if (storedDataset != null) {
+      return storedDataset;
+    }
+
+    String binaryFilePath = findBinaryDataset(filePath);
+
+    if (binaryFilePath != null) {
+      return readBinaryDataset(binaryFilePath);
+    }
+
+    CsrDataset dataset = new CsrDataset();
+    IntegerDatasetReader reader = new IntegerDatasetReader(filePath);
+    int columnCount;
 
-      dataset.add(ids);
+    while ((columnCount = reader.next()) != -1) {
+      dataset.addRow(reader.row(), 0, columnCount);
     }
 
     reader.close();
     return dataset;
   }
 
-  public static void writeMultiColumnIntegerDataset(String filePath, List<int[]> dataset) throws FileNotFoundException {
-    PrintWriter writer = new PrintWriter(filePath);
+  /**
+   * Opens the dataset for reading a row at a time, from memory, its binary form or its text form, in that order.
+   * Unlike the read methods, this never holds more than one row of a file-backed dataset.
+   */
+  public static RowReader openIntegerDataset(String filePath) throws IOException {
+    final CsrDataset storedDataset = getStoredDataset(filePath);
+
+    if (storedDataset != null) {
+      return new RowReader() {
+        private int row = -1;
+        private int[] values = new int[16];
+
+        @Override
+        public int next() {
+          if (++row >= storedDataset.getRowCount()) {
+            return -1;
+          }
 
-    for (int[] row : dataset) {
-      for (int i = 0; i < row.length; i++) {
-        if (i != 0) {
-          writer.print(" ");
+          int length = storedDataset.getRowLength(row);
+
+          if (values.length < length) {
+            values = new int[Math.max(length, values.length * 2)];
+          }
+
+          System.arraycopy(storedDataset.getValues(), storedDataset.getRowOffset(row), values, 0, length);
+          return length;
         }
 
-        writer.write(String.valueOf(row[i]));
+        @Override
+        public int[] row() {
+          return values;
+        }
+
+        @Override
+        public void close() {
+        }
+      };
+    }
+
+    String binaryFilePath = findBinaryDataset(filePath);
+
+    if (binaryFilePath != null) {
+      return new BinaryDatasetReader(binaryFilePath);
+    }
+
+    return new IntegerDatasetReader(filePath);
+  }
+
+  public static void writeMultiColumnIntegerDataset(String filePath, List<int[]> dataset) throws IOException {
+    if (Configuration.IN_MEMORY_DATASETS) {
+      DATASET_STORE.putIntegerDataset(filePath, CsrDataset.fromRows(dataset));
+      return;
+    }
+
+    if (Configuration.BINARY_DATASETS) {
+      writeBinaryDataset(getBinaryFilePath(filePath), CsrDataset.fromRows(dataset));
+    }
+
+    String textFilePath = prepareTextDataset(filePath);
+
+    if (textFilePath != null) {
+      writeMultiColumnIntegerTextDataset(textFilePath, dataset);
+    }
+
+    DatasetStats.ofRows(dataset).save(filePath);
+  }
+
+  public static void writeMultiColumnIntegerTextDataset(String filePath, List<int[]> dataset) throws IOException {
+    IntegerDatasetWriter writer = new IntegerDatasetWriter(filePath);
+
+    try {
+      for (int[] row : dataset) {
+        writer.writeRow(row, 0, row.length);
       }
+    } finally {
+      writer.close();
+    }
+  }
 
-      writer.write("\n");
+  public static void writeIntegerDataset(String filePath, CsrDataset dataset) throws IOException {
+    if (Configuration.IN_MEMORY_DATASETS) {
+      DATASET_STORE.putIntegerDataset(filePath, dataset);
+      return;
     }
 
-    writer.close();
+    writeIntegerDatasetFiles(filePath, dataset);
+  }
+
+  static void writeIntegerDatasetFiles(String filePath, CsrDataset dataset) throws IOException {
+    if (Configuration.BINARY_DATASETS) {
+      writeBinaryDataset(getBinaryFilePath(filePath), dataset);
+    }
+
+    String textFilePath = prepareTextDataset(filePath);
+
+    if (textFilePath != null) {
+      writeIntegerTextDataset(textFilePath, dataset);
+    }
+
+    DatasetStats.of(dataset).save(filePath);
+  }
+
+  public static void writeIntegerTextDataset(String filePath, CsrDataset dataset) throws IOException {
+    IntegerDatasetWriter writer = new IntegerDatasetWriter(filePath);
+
+    try {
+      for (int row = 0; row < dataset.getRowCount(); row++) {
+        writer.writeRow(dataset.getValues(), dataset.getRowOffset(row), dataset.getRowLength(row));
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  public static IntHierarchyTable readIntHierarchyTable(String filePath) throws IOException {
+    return IntHierarchyTable.fromDataset(readIntegerDataset(filePath));
+  }
+
+  public static void writeIntHierarchyTable(IntHierarchyTable table, String filePath) throws IOException {
+    writeIntegerDataset(filePath, table.toDataset());
   }
 
   public static <T> void writeMultiColumnObjectDataset(String filePath, List<T[]> dataset)
@@ -110,23 +252,26 @@ public class Helper {
   }
 
   public static TreeMap<Integer, int[]> readMultiColumnIntegerMap(String filePath) throws IOException {
-    TreeMap<Integer, int[]> rows = new TreeMap<>();
-    BufferedReader reader = new BufferedReader(new FileReader(filePath));
-    String line;
+    CsrDataset storedDataset = getStoredDataset(filePath);
 
-    while ((line = reader.readLine()) != null) {
-      String[] idStrings = line.split("\\s+");
+    if (storedDataset != null) {
+      return storedDataset.toMap();
+    }
 
-      if (idStrings.length > 0) {
-        int parentId = Integer.parseInt(idStrings[0]);
-        int[] childIds = new int[idStrings.length - 1];
+    String binaryFilePath = findBinaryDataset(filePath);
 
-        for (int i = 1; i < idStrings.length; i++) {
-          childIds[i - 1] = Integer.parseInt(idStrings[i]);
-        }
+    if (binaryFilePath != null) {
+      return readBinaryDataset(binaryFilePath).toMap();
+    }
 
-        rows.put(parentId, childIds);
-      }
+    TreeMap<Integer, int[]> rows = new TreeMap<>();
+    IntegerDatasetReader reader = new IntegerDatasetReader(filePath);
+    int columnCount;
+
+    while ((columnCount = reader.next()) != -1) {
+      int[] row = reader.row();
+
+      rows.put(row[0], Arrays.copyOfRange(row, 1, columnCount));
     }
 
     reader.close();
@@ -135,7 +280,7 @@ public class Helper {
 
   public static TreeMap<String, String[]> readMultiColumnStringMap(String filePath) throws IOException {
     TreeMap<String, String[]> rows = new TreeMap<>();
-    BufferedReader reader = new BufferedReader(new FileReader(filePath));
+    BufferedReader reader = createBufferedReader(filePath);
     String line;
 
     while ((line = reader.readLine()) != null) {
@@ -160,7 +305,7 @@ public class Helper {
   public static TreeMap<Integer, String[]> readMultiColumnStringMap(String filePath, int columnCount)
       throws IOException {
     TreeMap<Integer, String[]> rows = new TreeMap<>();
-    BufferedReader reader = new BufferedReader(new FileReader(filePath));
+    BufferedReader reader = createBufferedReader(filePath);
     String line;
 
     while ((line = reader.readLine()) != null) {
@@ -196,20 +341,28 @@ public class Helper {
     return rows;
   }
 
-  public static void writeIntegralDictionary(Map<Integer, Integer> map, String filePath) throws FileNotFoundException {
-    PrintWriter writer = new PrintWriter(filePath);
+  public static void writeIntegralDictionary(Map<Integer, Integer> map, String filePath) throws IOException {
+    IntegerDatasetWriter writer = new IntegerDatasetWriter(filePath);
 
-    for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
-      writer.print(entry.getKey().toString());
-      writer.print(" ");
-      writer.print(entry.getValue().toString());
-      writer.print("\n");
+    try {
+      for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+        writer.writeRow(entry.getKey(), entry.getValue());
+      }
+    } finally {
+      writer.close();
     }
-
-    writer.close();
   }
 
   public static void writeStringDictionary(Map<String, Integer> map, String filePath) throws FileNotFoundException {
+    if (Configuration.IN_MEMORY_DATASETS) {
+      DATASET_STORE.putStringDictionary(filePath, map);
+      return;
+    }
+
+    writeStringDictionaryFile(map, filePath);
+  }
+
+  static void writeStringDictionaryFile(Map<String, Integer> map, String filePath) throws FileNotFoundException {
     PrintWriter writer = new PrintWriter(filePath);
 
     for (Map.Entry<String, Integer> entry : map.entrySet()) {
@@ -222,22 +375,36 @@ public class Helper {
     writer.close();
   }
 
-  public static void writeMultiColumnIntegerArrayMap(Map<Integer, int[]> map, String filePath)
-      throws FileNotFoundException {
-    PrintWriter writer = new PrintWriter(filePath);
+  public static void writeMultiColumnIntegerArrayMap(Map<Integer, int[]> map, String filePath) throws IOException {
+    if (Configuration.IN_MEMORY_DATASETS) {
+      DATASET_STORE.putIntegerDataset(filePath, CsrDataset.fromArrayMap(map));
+      return;
+    }
 
-    for (Map.Entry<Integer, int[]> entry : map.entrySet()) {
-      writer.print(entry.getKey().toString());
+    if (Configuration.BINARY_DATASETS) {
+      writeBinaryDataset(getBinaryFilePath(filePath), CsrDataset.fromArrayMap(map));
+    }
 
-      for (int value : entry.getValue()) {
-        writer.print(" ");
-        writer.print(String.valueOf(value));
-      }
+    String textFilePath = prepareTextDataset(filePath);
 
-      writer.print("\n");
+    if (textFilePath != null) {
+      writeMultiColumnIntegerArrayTextMap(map, textFilePath);
     }
 
-    writer.close();
+    DatasetStats.ofArrayMap(map).save(filePath);
+  }
+
+  private static void writeMultiColumnIntegerArrayTextMap(Map<Integer, int[]> map, String filePath)
+      throws IOException {
+    IntegerDatasetWriter writer = new IntegerDatasetWriter(filePath);
+
+    try {
+      for (Map.Entry<Integer, int[]> entry : map.entrySet()) {
+        writer.writeRow(entry.getKey(), entry.getValue(), 0, entry.getValue().length);
+      }
+    } finally {
+      writer.close();
+    }
   }
 
   public static void writeMultiColumnDoubleArrayMap(Map<Integer, double[]> map, String filePath)
@@ -259,36 +426,98 @@ public class Helper {
   }
 
   public static void writeMultiColumnIntegerListMap(Map<Integer, List<Integer>> map, String filePath)
-      throws FileNotFoundException {
-    PrintWriter writer = new PrintWriter(filePath);
+      throws IOException {
+    if (Configuration.IN_MEMORY_DATASETS) {
+      DATASET_STORE.putIntegerDataset(filePath, CsrDataset.fromListMap(map));
+      return;
+    }
 
-    for (Map.Entry<Integer, List<Integer>> entry : map.entrySet()) {
-      writer.print(entry.getKey().toString());
+    if (Configuration.BINARY_DATASETS) {
+      writeBinaryDataset(getBinaryFilePath(filePath), CsrDataset.fromListMap(map));
+    }
 
-      for (int value : entry.getValue()) {
-        writer.print(" ");
-        writer.print(String.valueOf(value));
-      }
+    String textFilePath = prepareTextDataset(filePath);
 
-      writer.print("\n");
+    if (textFilePath != null) {
+      writeMultiColumnIntegerListTextMap(map, textFilePath);
     }
 
-    writer.close();
+    DatasetStats.ofListMap(map).save(filePath);
+  }
+
+  private static void writeMultiColumnIntegerListTextMap(Map<Integer, List<Integer>> map, String filePath)
+      throws IOException {
+    IntegerDatasetWriter writer = new IntegerDatasetWriter(filePath);
+
+    try {
+      for (Map.Entry<Integer, List<Integer>> entry : map.entrySet()) {
+        writer.write(entry.getKey());
+
+        for (int value : entry.getValue()) {
+          writer.write(value);
+        }
+
+        writer.endRow();
+      }
+    } finally {
+      writer.close();
+    }
   }
 
   public static List<Integer> readSingleColumnIntegerDataset(String filePath) throws IOException {
+    CsrDataset storedDataset = getStoredDataset(filePath);
     List<Integer> dataset = new ArrayList<>();
-    BufferedReader reader = new BufferedReader(new FileReader(filePath));
-    String line;
 
-    while ((line = reader.readLine()) != null) {
-      dataset.add(Integer.parseInt(line.trim()));
+    if (storedDataset != null) {
+      for (int row = 0; row < storedDataset.getRowCount(); row++) {
+        dataset.add(storedDataset.getRowId(row));
+      }
+
+      return dataset;
+    }
+
+    IntegerDatasetReader reader = new IntegerDatasetReader(filePath);
+
+    while (reader.next() != -1) {
+      dataset.add(reader.row()[0]);
     }
 
     reader.close();
     return dataset;
   }
 
+  /**
+   * Writes the ids one per line like {@link #writeSingleColumnDataset(String, Collection)}, or keeps them in memory
+   * when Configuration.IN_MEMORY_DATASETS is set.
+   */
+  public static void writeSingleColumnIntegerDataset(String filePath, Collection<Integer> ids)
+      throws FileNotFoundException {
+    if (Configuration.IN_MEMORY_DATASETS) {
+      CsrDataset dataset = new CsrDataset();
+      int[] row = new int[1];
+
+      for (int id : ids) {
+        row[0] = id;
+        dataset.addRow(row, 0, 1);
+      }
+
+      DATASET_STORE.putSingleColumnDataset(filePath, dataset);
+      return;
+    }
+
+    writeSingleColumnDataset(filePath, ids);
+  }
+
+  static void writeSingleColumnDatasetFile(String filePath, CsrDataset dataset) throws FileNotFoundException {
+    List<Integer> ids = new ArrayList<>(dataset.getRowCount());
+
+    for (int row = 0; row < dataset.getRowCount(); row++) {
+      ids.add(dataset.getRowId(row));
+    }
+
+    writeSingleColumnDataset(filePath, ids);
+  }
+
   public static void writeSingleColumnDataset(String filePath, Collection<?> collection) throws FileNotFoundException {
     PrintWriter writer = new PrintWriter(filePath);
 
@@ -301,23 +530,28 @@ public class Helper {
   }
 
   public static Map<Integer, String> readSingleColumnStringMap(String filePath, int skipLineCount) throws IOException {
+    Map<String, Integer> storedDictionary = Configuration.IN_MEMORY_DATASETS
+        ? DATASET_STORE.getStringDictionary(filePath) : null;
     Map<Integer, String> rows = new TreeMap<>();
-    BufferedReader reader = new BufferedReader(new FileReader(filePath));
-    String line;
     int count = 0;
 
-    while ((line = reader.readLine()) != null) {
-      if (count++ < skipLineCount) {
-        continue;
+    if (storedDictionary != null) {
+      // The lines of the dictionary are parsed as they would be read from its file.
+      for (Map.Entry<String, Integer> entry : storedDictionary.entrySet()) {
+        if (count++ >= skipLineCount) {
+          addStringMapRow(entry.getKey() + " " + entry.getValue(), rows);
+        }
       }
 
-      String[] idStrings = line.split("\\s+");
+      return rows;
+    }
 
-      if (idStrings.length == 2) {
-        String value = idStrings[0];
-        int key = Integer.parseInt(idStrings[1]);
+    BufferedReader reader = createBufferedReader(filePath);
+    String line;
 
-        rows.put(key, value);
+    while ((line = reader.readLine()) != null) {
+      if (count++ >= skipLineCount) {
+        addStringMapRow(line, rows);
       }
     }
 
@@ -325,10 +559,21 @@ public class Helper {
     return rows;
   }
 
+  private static void addStringMapRow(String line, Map<Integer, String> rows) {
+    String[] idStrings = line.split("\\s+");
+
+    if (idStrings.length == 2) {
+      String value = idStrings[0];
+      int key = Integer.parseInt(idStrings[1]);
+
+      rows.put(key, value);
+    }
+  }
+
   public static Map<Integer, Integer> readSingleColumnIntegerMap(String filePath, int skipLineCount)
       throws IOException {
     Map<Integer, Integer> rows = new TreeMap<>();
-    BufferedReader reader = new BufferedReader(new FileReader(filePath));
+    BufferedReader reader = createBufferedReader(filePath);
     String line;
     int count = 0;
 
@@ -354,6 +599,7 @@ public class Helper {
   public static void writeSingleColumnStringMap(String filePath, String header, Map<Integer, String> map)
       throws IOException {
     PrintWriter writer = new PrintWriter(filePath);
+    DatasetStats stats = new DatasetStats();
 
     if (header != null) {
       writer.write(header);
@@ -365,17 +611,19 @@ public class Helper {
       writer.write(" ");
       writer.write(entry.getKey().toString());
       writer.write("\n");
+      stats.addRow(entry.getKey(), 2);
     }
 
     writer.close();
+    stats.save(filePath, 1, header != null ? 1 : 0);
   }
 
   public static int getMaxId(String filePath) throws IOException {
-    return getMaxId(filePath, 0, 0);
+    return DatasetStats.get(filePath).getMaxId();
   }
 
   public static int getMaxId(String filePath, int idColumn, int skipLineCount) throws IOException {
-    BufferedReader reader = new BufferedReader(new FileReader(filePath));
+    BufferedReader reader = createBufferedReader(filePath);
     String line;
     int maxId = -1;
     int lineCount = 0;
@@ -401,11 +649,11 @@ public class Helper {
   }
 
   public static int getMaxColumnCount(String filePath) throws IOException {
-    return getMaxColumnCount(filePath, 0, 0);
+    return DatasetStats.get(filePath).getMaxColumnCount();
   }
 
   public static int getMaxColumnCount(String filePath, int idColumn, int skipLineCount) throws IOException {
-    BufferedReader reader = new BufferedReader(new FileReader(filePath));
+    BufferedReader reader = createBufferedReader(filePath);
     String line;
     int lineCount = 0;
     int maxColumnCount = -1;
@@ -426,173 +674,313 @@ public class Helper {
     return maxColumnCount;
   }
 
-  public static void saveDatasetVocabulary(Map<String, Integer> datasetVocabularyMap) throws FileNotFoundException {
-    PrintWriter writer = new PrintWriter(Configuration.STAGE3_DIRECTORY + "/" + Constants.VOCABULARY_FILENAME);
+  public static void saveDatasetVocabulary(RunContext context, Vocabulary vocabulary) throws IOException {
+    writeVocabulary(context.getStage3Directory() + "/" + Constants.VOCABULARY_FILENAME, vocabulary, '\t');
+  }
 
-    writer.write("Word\tID\n");
+  /**
+   * Reads a vocabulary written by {@link #writeVocabulary(String, Vocabulary, char)}. The binary form is mapped when
+   * it matches the text form, and the text form is parsed otherwise.
+   */
+  public static Vocabulary readVocabulary(String filePath) throws IOException {
+    if (Configuration.IN_MEMORY_DATASETS && DATASET_STORE.contains(filePath)) {
+      return DATASET_STORE.getVocabulary(filePath);
+    }
+
+    String binaryFilePath = getSiblingFilePath(filePath, Constants.BINARY_VOCABULARY_EXTENSION);
+    File textFile = new File(filePath);
+    File binaryFile = new File(binaryFilePath);
 
-    Map<Integer, String> reverseVocabularyMap = new TreeMap<Integer, String>();
+    if (binaryFile.exists() && (!textFile.exists() || (binaryFile.lastModified() >= textFile.lastModified()
+        && Vocabulary.readTextLength(binaryFilePath) == textFile.length()))) {
+      Vocabulary vocabulary = Vocabulary.map(binaryFilePath);
 
-    for (Map.Entry<String, Integer> entry : datasetVocabularyMap.entrySet()) {
-      reverseVocabularyMap.put(entry.getValue(), entry.getKey());
+      IoCounters.addRead(vocabulary.size(), binaryFile.length());
+      return vocabulary;
     }
 
-    for (Map.Entry<Integer, String> entry : reverseVocabularyMap.entrySet()) {
-      writer.write(entry.getValue());
-      writer.write("\t");
-      writer.write(String.valueOf(entry.getKey()));
-      writer.write("\n");
+    Vocabulary vocabulary = new Vocabulary();
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8));
+    String line = reader.readLine(); // Header
+
+    while ((line = reader.readLine()) != null) {
+      String[] fields = line.split("\\s+");
+
+      if (fields.length == 2) {
+        vocabulary.put(Integer.parseInt(fields[1]), fields[0]);
+      }
     }
 
-    writer.close();
+    reader.close();
+    IoCounters.addRead(vocabulary.size(), textFile.length());
+    return vocabulary;
   }
 
-  public static void touch(String filePath) throws FileNotFoundException, IOException {
-    new FileOutputStream(filePath).close();
+  /**
+   * Writes the vocabulary as "word id" lines in id order, together with its stats and binary form. The separator is
+   * the character between the word and the id.
+   */
+  public static void writeVocabulary(String filePath, Vocabulary vocabulary, char separator) throws IOException {
+    if (Configuration.IN_MEMORY_DATASETS) {
+      DATASET_STORE.putVocabulary(filePath, vocabulary, separator);
+      return;
+    }
+
+    writeVocabularyFiles(filePath, vocabulary, separator);
   }
 
-  public static void zip(String directoryPath, String zipFilename) throws IOException {
-    File directory = new File(directoryPath);
-    ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(directory.getParent() + "/" + zipFilename));
+  static void writeVocabularyFiles(String filePath, Vocabulary vocabulary, char separator) throws IOException {
+    OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(filePath), 1 << 16);
+    DatasetStats stats = new DatasetStats();
+
+    try {
+      outputStream.write("Word\tID\n".getBytes(StandardCharsets.US_ASCII));
 
-    zipFile(directory, directory.getName(), zipOut);
-    zipOut.close();
+      for (int id : vocabulary.ids()) {
+        vocabulary.writeWord(id, outputStream);
+        outputStream.write(separator);
+        outputStream.write(Integer.toString(id).getBytes(StandardCharsets.US_ASCII));
+        outputStream.write('\n');
+        stats.addRow(id, 2);
+      }
+    } finally {
+      outputStream.close();
+    }
+
+    long textLength = new File(filePath).length();
+
+    stats.save(filePath, 1, 1);
+    vocabulary.save(getSiblingFilePath(filePath, Constants.BINARY_VOCABULARY_EXTENSION), textLength);
+    IoCounters.addWritten(vocabulary.size(), textLength);
   }
 
-  private static void zipFile(File fileToZip, String fileName, ZipOutputStream zipOut) throws IOException {
-    if (fileToZip.isHidden()) {
-      return;
+  public static String getBinaryFilePath(String filePath) {
+    return getSiblingFilePath(filePath, Constants.BINARY_DATASET_EXTENSION);
+  }
+
+  public static String getSiblingFilePath(String filePath, String extension) {
+    if (filePath.endsWith(".txt")) {
+      filePath = filePath.substring(0, filePath.length() - ".txt".length());
     }
 
-    if (fileToZip.isDirectory()) {
-      if (fileName.endsWith("/")) {
-        zipOut.putNextEntry(new ZipEntry(fileName));
-        zipOut.closeEntry();
-      } else {
-        zipOut.putNextEntry(new ZipEntry(fileName + "/"));
-        zipOut.closeEntry();
-      }
+    return filePath + extension;
+  }
 
-      File[] children = fileToZip.listFiles();
+  public static CsrDataset readBinaryDataset(String filePath) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+    ByteBuffer buffer = ByteBuffer.allocate(BINARY_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
 
-      for (File childFile : children) {
-        zipFile(childFile, fileName + "/" + childFile.getName(), zipOut);
+    try {
+      readFully(channel, buffer, CSR_HEADER_SIZE, filePath);
+
+      if (buffer.getInt() != CSR_MAGIC || buffer.getInt() != CSR_VERSION) {
+        throw new IOException(filePath + " is not a CSR dataset");
       }
 
-      return;
-    }
+      int rowCount = buffer.getInt();
+      int[] offsets = new int[rowCount + 1];
+      int[] values = new int[buffer.getInt()];
 
-    FileInputStream fis = new FileInputStream(fileToZip);
-    ZipEntry zipEntry = new ZipEntry(fileName);
-    zipOut.putNextEntry(zipEntry);
-    byte[] bytes = new byte[1024];
-    int length;
+      readInts(channel, buffer, offsets, filePath);
+      readInts(channel, buffer, values, filePath);
+      IoCounters.addRead(rowCount, channel.size());
+      return new CsrDataset(rowCount, offsets, values);
+    } finally {
+      channel.close();
+    }
+  }
 
-    while ((length = fis.read(bytes)) >= 0) {
-      zipOut.write(bytes, 0, length);
+  public static void writeBinaryDataset(String filePath, CsrDataset dataset) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    ByteBuffer buffer = ByteBuffer.allocate(BINARY_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    try {
+      buffer.putInt(CSR_MAGIC);
+      buffer.putInt(CSR_VERSION);
+      buffer.putInt(dataset.getRowCount());
+      buffer.putInt(dataset.getValueCount());
+      buffer.flip();
+      writeFully(channel, buffer);
+      writeInts(channel, buffer, dataset.getOffsets(), dataset.getRowCount() + 1);
+      writeInts(channel, buffer, dataset.getValues(), dataset.getValueCount());
+      IoCounters.addWritten(dataset.getRowCount(), channel.size());
+    } finally {
+      channel.close();
     }
+  }
 
-    fis.close();
+  public static String getGzipFilePath(String filePath) {
+    return filePath + Constants.GZIP_EXTENSION;
   }
 
-  public static PrintWriter createPrintWriter(String filePath)
-      throws FileNotFoundException, UnsupportedEncodingException {
-    FileOutputStream fos = new FileOutputStream(filePath);
+  /**
+   * Returns filePath, or the path of its gzip-compressed form if only that exists.
+   */
+  public static String findTextDataset(String filePath) {
+    String gzipFilePath = getGzipFilePath(filePath);
 
-    return new PrintWriter(new OutputStreamWriter(fos, "UTF-8"));
+    return !new File(filePath).exists() && new File(gzipFilePath).exists() ? gzipFilePath : filePath;
   }
 
-  public static Map<String, String> nextJson(Reader reader) throws IOException {
-    char character = (char) -1;
-    Map<String, String> attributes = null;
-    boolean isInJson = false;
-    boolean isInDoubleQuote = false;
-    boolean isEscapingNextCharacter = false;
-    boolean isEndOfReview = false;
-    boolean isInKey = false;
-    boolean isInValue = false;
-    StringBuilder keyBuilder = new StringBuilder(100);
-    StringBuilder valueBuilder = new StringBuilder(4096);
-    int count = 0;
+  public static boolean datasetExists(String filePath) {
+    return (Configuration.IN_MEMORY_DATASETS && DATASET_STORE.contains(filePath))
+        || new File(findTextDataset(filePath)).exists() || findBinaryDataset(filePath) != null;
+  }
 
-    while (!isEndOfReview && (character = (char) reader.read()) != -1) {
-      if (count++ > 1000000) {
-        System.out.println("Max loop count exceeded");
-        return null;
-      }
+  /**
+   * Returns the stats of the in-memory dataset stored for filePath, or null if it is not held in memory.
+   */
+  public static DatasetStats getStoredStats(String filePath, int idColumn, int skipLineCount) {
+    return Configuration.IN_MEMORY_DATASETS ? DATASET_STORE.getStats(filePath, idColumn, skipLineCount) : null;
+  }
 
-      if (isInDoubleQuote == false) {
-        if (character == '{') {
-          if (isInJson) {
-            throw new IllegalStateException("{ unexpectedly encountered");
-          } else {
-            isInJson = true;
-            attributes = new HashMap<>();
-          }
-        } else if (character == '\"') {
-          isInDoubleQuote = true;
+  /**
+   * Writes the datasets held in memory to their files. Does nothing unless Configuration.IN_MEMORY_DATASETS is set.
+   */
+  public static void flushDatasets() throws IOException {
+    if (Configuration.IN_MEMORY_DATASETS) {
+      DATASET_STORE.flush(null);
+    }
+  }
 
-          if (isInValue == false) {
-            isInKey = true;
-          }
-        } else if (character == ':') {
-          isInValue = true;
-        } else if (character == ',' || character == '}') {
-          String key = keyBuilder.toString().trim();
-          String value = valueBuilder.toString().trim();
-
-          keyBuilder.setLength(0);
-          valueBuilder.setLength(0);
-          isInValue = false;
-
-          if (key != null && !key.isEmpty() && value != null && !value.isEmpty()) {
-            attributes.put(key, value);
-          }
+  /**
+   * Writes the datasets held in memory under the directory to their files, leaving those of other builds in memory.
+   */
+  public static void flushDatasets(String directoryPath) throws IOException {
+    if (Configuration.IN_MEMORY_DATASETS) {
+      DATASET_STORE.flush(directoryPath);
+    }
+  }
 
-          if (character == '}') {
-            isInJson = false;
-            isEndOfReview = true;
-          }
-        } else if (isInValue) {
-          valueBuilder.append(character);
-        }
-      } else {
-        if (character == '[' || character == ']') {
-        } else if (character == '\\' && isEscapingNextCharacter == false) {
-          isEscapingNextCharacter = true;
-        } else if (character == '\"' && isEscapingNextCharacter == false) {
-          if (isInKey == true) {
-            isInKey = false;
-          }
+  private static CsrDataset getStoredDataset(String filePath) {
+    return Configuration.IN_MEMORY_DATASETS ? DATASET_STORE.getIntegerDataset(filePath) : null;
+  }
+
+  public static String findBinaryDataset(String filePath) {
+    if (!Configuration.BINARY_DATASETS) {
+      return null;
+    }
 
-          isInDoubleQuote = false;
-        } else {
-          if (isEscapingNextCharacter == true) {
-            switch (character) {
-            case 'n':
-              character = '\n';
-              break;
+    String binaryFilePath = getBinaryFilePath(filePath);
 
-            case 't':
-              character = '\t';
-            }
+    return new File(binaryFilePath).exists() ? binaryFilePath : null;
+  }
 
-            isEscapingNextCharacter = false;
-          }
+  // Removes whichever forms of the dataset are not being written so that a stale copy is never read back. Returns
+  // the path the text form should be written to, or null if it should not be written.
+  static String prepareTextDataset(String filePath) {
+    String gzipFilePath = getGzipFilePath(filePath);
 
-          if (isInKey) {
-            keyBuilder.append(character);
-          } else if (isInValue) {
-            valueBuilder.append(character);
-          }
-        }
+    if (!Configuration.BINARY_DATASETS) {
+      new File(getBinaryFilePath(filePath)).delete();
+    } else if (!Configuration.TEXT_DATASETS) {
+      new File(filePath).delete();
+      new File(gzipFilePath).delete();
+      return null;
+    }
+
+    if (Configuration.GZIP_DATASETS) {
+      new File(filePath).delete();
+      return gzipFilePath;
+    }
+
+    new File(gzipFilePath).delete();
+    return filePath;
+  }
+
+  private static void readInts(FileChannel channel, ByteBuffer buffer, int[] values, String filePath)
+      throws IOException {
+    for (int index = 0; index < values.length;) {
+      int count = Math.min(values.length - index, buffer.capacity() / 4);
+
+      readFully(channel, buffer, count * 4, filePath);
+      buffer.asIntBuffer().get(values, index, count);
+      index += count;
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, int length, String filePath)
+      throws IOException {
+    buffer.clear();
+    buffer.limit(length);
+
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) == -1) {
+        throw new EOFException(filePath + " is truncated");
       }
     }
 
-    if (isInJson || character == -1) {
-      return null;
-    } else {
-      return attributes;
+    buffer.flip();
+  }
+
+  private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values, int length) throws IOException {
+    for (int index = 0; index < length;) {
+      int count = Math.min(length - index, buffer.capacity() / 4);
+
+      buffer.clear();
+      buffer.asIntBuffer().put(values, index, count);
+      buffer.limit(count * 4);
+      writeFully(channel, buffer);
+      index += count;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Returns a 64-bit hash of the ids in values[from, to) that depends on their order. Equal sequences have equal
+   * hashes in every run.
+   */
+  public static long hashSequence(int[] values, int from, int to) {
+    long hash = mix64(to - from);
+
+    for (int i = from; i < to; i++) {
+      hash = mix64(hash + (values[i] & 0xFFFFFFFFL));
     }
+
+    return hash;
+  }
+
+  // The SplitMix64 finalizer, which spreads every bit of the value over the whole result.
+  public static long mix64(long value) {
+    long hash = value + 0x9E3779B97F4A7C15L;
+
+    hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+    hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+    return hash ^ (hash >>> 31);
+  }
+
+  public static void touch(String filePath) throws FileNotFoundException, IOException {
+    new FileOutputStream(filePath).close();
+  }
+
+  public static void zip(String directoryPath, String zipFilename) throws IOException {
+    File directory = new File(directoryPath);
+
+    new ZipPackager().pack(directoryPath, directory.getParent() + "/" + zipFilename);
+  }
+
+  /**
+   * Creates a UTF-8 writer whose bytes and lines are added to IoCounters when it is closed.
+   */
+  public static PrintWriter createPrintWriter(String filePath)
+      throws FileNotFoundException, UnsupportedEncodingException {
+    FileOutputStream fos = new FileOutputStream(filePath);
+
+    return new PrintWriter(new OutputStreamWriter(new CountingOutputStream(fos), "UTF-8"));
+  }
+
+  /**
+   * Opens a reader in the default charset, like FileReader, whose bytes and lines are added to IoCounters when it is
+   * closed.
+   */
+  public static BufferedReader createBufferedReader(String filePath) throws FileNotFoundException {
+    return new BufferedReader(new InputStreamReader(new CountingInputStream(new FileInputStream(filePath))));
   }
 }
@@ -2,29 +2,39 @@ package sofitda;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.RecursiveTask;
 
 public class HierarchyCollapser {
-  public HierarchyCollapser() throws IOException {
+  // Grandparents collapsed by one fork/join task.
+  private static final int GRAND_PARENTS_PER_TASK = 8192;
+
+  private final RunContext context;
+
+  public HierarchyCollapser(RunContext context) throws IOException {
+    this.context = context;
+
     // collapseParagraph("all");
-    collapseParagraphAndSentence("training");
-    collapseParagraphAndSentence("validation");
-    collapseParagraphAndSentence("testing");
+    StagePool.forEachPrefix(new String[] { "training", "validation", "testing" }, new StagePool.PrefixTask() {
+      @Override
+      public void run(String prefix) throws IOException {
+        collapseParagraphAndSentence(prefix);
+      }
+    });
   }
 
   private void collapseParagraphAndSentence(String prefix) throws IOException {
     String documentFilePath = String
-        .format(Configuration.STAGE3_DIRECTORY + "/" + Constants.DOCUMENT_DATASET_FILENAME_FORMAT, prefix);
+        .format(context.getStage3Directory() + "/" + Constants.DOCUMENT_DATASET_FILENAME_FORMAT, prefix);
     String paragraphFilePath = String
-        .format(Configuration.STAGE3_DIRECTORY + "/" + Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, prefix);
+        .format(context.getStage3Directory() + "/" + Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, prefix);
     String sentenceFilePath = String
-        .format(Configuration.STAGE3_DIRECTORY + "/" + Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
+        .format(context.getStage3Directory() + "/" + Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
     String documentSentenceFilePath = String
-        .format(Configuration.STAGE3_DIRECTORY + "/" + Constants.DOCUMENT_SENTENCE_DATASET_FILENAME_FORMAT, prefix);
+        .format(context.getStage3Directory() + "/" + Constants.DOCUMENT_SENTENCE_DATASET_FILENAME_FORMAT, prefix);
     String documentWordFilePath = String
-        .format(Configuration.STAGE3_DIRECTORY + "/" + Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, prefix);
+        .format(context.getStage3Directory() + "/" + Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, prefix);
 
     collapse(documentFilePath, paragraphFilePath, documentSentenceFilePath,
         AbstractDocumentsTokenizer.PARAGRAPH_TERMINATOR_SENTENCE_ID);
@@ -33,40 +43,104 @@ public class HierarchyCollapser {
 
   private void collapse(String grandParentFilePath, String parentFilePath, String collapsedFilePath,
       int parentTerminatorId) throws IOException {
-    TreeMap<Integer, int[]> grandParentMap = Helper.readMultiColumnIntegerMap(grandParentFilePath);
-    TreeMap<Integer, int[]> parentMap = Helper.readMultiColumnIntegerMap(parentFilePath);
-    TreeMap<Integer, int[]> collapsedMap = collapseParent(grandParentMap, parentMap, parentTerminatorId);
+    IntHierarchyTable grandParentTable = Helper.readIntHierarchyTable(grandParentFilePath);
+    IntHierarchyTable parentTable = Helper.readIntHierarchyTable(parentFilePath);
+    CsrDataset collapsedDataset = collapseParent(grandParentTable, parentTable, parentTerminatorId);
 
-    Helper.writeMultiColumnIntegerArrayMap(collapsedMap, collapsedFilePath);
+    Helper.writeIntegerDataset(collapsedFilePath, collapsedDataset);
   }
 
-  private TreeMap<Integer, int[]> collapseParent(TreeMap<Integer, int[]> grandParentMap,
-      TreeMap<Integer, int[]> parentMap, int parentTerminatorId) {
-    TreeMap<Integer, int[]> collapsedMap = new TreeMap<Integer, int[]>();
+  /**
+   * Returns a row for every grandparent listing the children of its parents, leaving out parentTerminatorId.
+   */
+  static CsrDataset collapseParent(IntHierarchyTable grandParentTable, IntHierarchyTable parentTable,
+      int parentTerminatorId) {
+    return StagePool
+        .invoke(new CollapseTask(grandParentTable, parentTable, parentTerminatorId, grandParentTable.ids()));
+  }
 
-    for (Map.Entry<Integer, int[]> grandParentEntry : grandParentMap.entrySet()) {
-      int grandParentId = grandParentEntry.getKey();
-      List<Integer> grandParentGrandChildIds = new ArrayList<>();
+  // Collapses the grandparents with the given ids. A large range is split into tasks whose rows are concatenated in
+  // the order of the ids.
+  private static class CollapseTask extends RecursiveTask<CsrDataset> {
+    private static final long serialVersionUID = 1L;
 
-      for (int parentId : grandParentEntry.getValue()) {
-        int[] parentChildIds = parentMap.get(parentId);
+    private final IntHierarchyTable grandParentTable;
+    private final IntHierarchyTable parentTable;
+    private final int parentTerminatorId;
+    private final int[] grandParentIds;
+    private final int from;
+    private final int to;
 
-        for (int parentChildId : parentChildIds) {
-          if (parentChildId != parentTerminatorId) {
-            grandParentGrandChildIds.add(parentChildId);
-          }
-        }
+    CollapseTask(IntHierarchyTable grandParentTable, IntHierarchyTable parentTable, int parentTerminatorId,
+        int[] grandParentIds) {
+      this(grandParentTable, parentTable, parentTerminatorId, grandParentIds, 0, grandParentIds.length);
+    }
+
+    private CollapseTask(IntHierarchyTable grandParentTable, IntHierarchyTable parentTable, int parentTerminatorId,
+        int[] grandParentIds, int from, int to) {
+      this.grandParentTable = grandParentTable;
+      this.parentTable = parentTable;
+      this.parentTerminatorId = parentTerminatorId;
+      this.grandParentIds = grandParentIds;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected CsrDataset compute() {
+      if (to - from <= GRAND_PARENTS_PER_TASK) {
+        return collapseParent(grandParentTable, parentTable, parentTerminatorId, grandParentIds, from, to);
+      }
+
+      List<CollapseTask> tasks = new ArrayList<>();
+
+      for (int begin = from; begin < to; begin += GRAND_PARENTS_PER_TASK) {
+        tasks.add(new CollapseTask(grandParentTable, parentTable, parentTerminatorId, grandParentIds, begin,
+            Math.min(begin + GRAND_PARENTS_PER_TASK, to)));
+      }
+
+      List<CsrDataset> datasets = new ArrayList<>(tasks.size());
+
+      for (CollapseTask task : invokeAll(tasks)) {
+        datasets.add(task.join());
       }
 
-      int[] childIds = new int[grandParentGrandChildIds.size()];
+      return CsrDataset.concat(datasets);
+    }
+  }
+
+  private static CsrDataset collapseParent(IntHierarchyTable grandParentTable, IntHierarchyTable parentTable,
+      int parentTerminatorId, int[] grandParentIds, int from, int to) {
+    CsrDataset collapsedDataset = new CsrDataset();
+    int[] parentIds = grandParentTable.getChildren();
+    int[] parentChildIds = parentTable.getChildren();
+    int[] grandChildIds = new int[64];
 
-      for (int i = 0; i < childIds.length; i++) {
-        childIds[i] = grandParentGrandChildIds.get(i);
+    for (int index = from; index < to; index++) {
+      int grandParentId = grandParentIds[index];
+      int parentOffset = grandParentTable.getChildOffset(grandParentId);
+      int parentEnd = parentOffset + grandParentTable.getChildCount(grandParentId);
+      int grandChildCount = 0;
+
+      for (int i = parentOffset; i < parentEnd; i++) {
+        int childOffset = parentTable.getChildOffset(parentIds[i]);
+        int childEnd = childOffset + parentTable.getChildCount(parentIds[i]);
+
+        if (grandChildCount + childEnd - childOffset > grandChildIds.length) {
+          grandChildIds = Arrays.copyOf(grandChildIds,
+              Math.max(grandChildCount + childEnd - childOffset, grandChildIds.length * 2));
+        }
+
+        for (int j = childOffset; j < childEnd; j++) {
+          if (parentChildIds[j] != parentTerminatorId) {
+            grandChildIds[grandChildCount++] = parentChildIds[j];
+          }
+        }
       }
 
-      collapsedMap.put(grandParentId, childIds);
+      collapsedDataset.addRow(grandParentId, grandChildIds, 0, grandChildCount);
     }
 
-    return collapsedMap;
+    return collapsedDataset;
   }
 }
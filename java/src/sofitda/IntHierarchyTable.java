@@ -0,0 +1,398 @@
+package sofitda;
+
+import java.util.Arrays;
+
+/**
+ * Maps parent ids to child id lists without boxing. Rows are found through an id-indexed slot array when the ids are
+ * dense, and through a sorted id array with binary search when there are too many gaps for that. The child ids of all
+ * rows live in one flat int array.
+ */
+public class IntHierarchyTable {
+  private static final int ABSENT = -1;
+  private static final int DENSE_SLACK = 64;
+
+  private int minId;
+  private int[] ids; // Sorted row ids when sparse, null when dense.
+  private int[] starts = new int[0];
+  private int[] lengths = new int[0];
+  private int slotCount;
+  private int size;
+  private int[] children = new int[0];
+  private int childrenLength;
+
+  /**
+   * Builds a table from dataset rows whose first value is the parent id. The table takes over the dataset's value
+   * array instead of copying it, unless the dataset is read-only. If an id occurs more than once, the last row wins.
+   */
+  public static IntHierarchyTable fromDataset(CsrDataset dataset) {
+    int rowCount = dataset.getRowCount();
+    int[] rowIds = new int[rowCount];
+    int[] rowStarts = new int[rowCount];
+    int[] rowLengths = new int[rowCount];
+
+    for (int i = 0; i < rowCount; i++) {
+      rowIds[i] = dataset.getRowId(i);
+      rowStarts[i] = dataset.getRowOffset(i) + 1;
+      rowLengths[i] = dataset.getRowLength(i) - 1;
+    }
+
+    IntHierarchyTable table = new IntHierarchyTable();
+
+    table.children = dataset.isReadOnly() ? Arrays.copyOf(dataset.getValues(), dataset.getValueCount())
+        : dataset.getValues();
+    table.childrenLength = dataset.getValueCount();
+    table.index(rowIds, rowStarts, rowLengths, rowCount);
+    return table;
+  }
+
+  public CsrDataset toDataset() {
+    int[] offsets = new int[size + 1];
+    int[] values = new int[size + childrenLength];
+    int row = 0;
+
+    for (int slot = 0; slot < slotCount; slot++) {
+      if (lengths[slot] == ABSENT) {
+        continue;
+      }
+
+      int offset = offsets[row];
+
+      values[offset] = getSlotId(slot);
+      System.arraycopy(children, starts[slot], values, offset + 1, lengths[slot]);
+      offsets[++row] = offset + lengths[slot] + 1;
+    }
+
+    return new CsrDataset(size, offsets, values);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean contains(int id) {
+    return findSlot(id) != ABSENT;
+  }
+
+  /**
+   * Returns a copy of the child ids of the given id, or null if the id has no row.
+   */
+  public int[] get(int id) {
+    int slot = findSlot(id);
+
+    return slot == ABSENT ? null : Arrays.copyOfRange(children, starts[slot], starts[slot] + lengths[slot]);
+  }
+
+  public int getChildCount(int id) {
+    return lengths[requireSlot(id)];
+  }
+
+  public int getChild(int id, int index) {
+    int slot = requireSlot(id);
+
+    if (index < 0 || index >= lengths[slot]) {
+      throw new IndexOutOfBoundsException("Child " + index + " of id " + id);
+    }
+
+    return children[starts[slot] + index];
+  }
+
+  /**
+   * Returns where the children of the given id start in {@link #getChildren()}.
+   */
+  public int getChildOffset(int id) {
+    return starts[requireSlot(id)];
+  }
+
+  /**
+   * Returns the flat array holding the children of every row. Writes to it change the table.
+   */
+  public int[] getChildren() {
+    return children;
+  }
+
+  /**
+   * Returns the ids that have rows, in ascending order.
+   */
+  public int[] ids() {
+    int[] result = new int[size];
+    int count = 0;
+
+    for (int slot = 0; slot < slotCount; slot++) {
+      if (lengths[slot] != ABSENT) {
+        result[count++] = getSlotId(slot);
+      }
+    }
+
+    return result;
+  }
+
+  public void put(int id, int[] childIds) {
+    put(id, childIds, 0, childIds.length);
+  }
+
+  public void put(int id, int[] childIds, int from, int length) {
+    int slot = findOrCreateSlot(id);
+
+    if (lengths[slot] == ABSENT) {
+      size++;
+    }
+
+    if (lengths[slot] == ABSENT || lengths[slot] < length) {
+      if (childrenLength + length > children.length) {
+        children = Arrays.copyOf(children, Math.max(childrenLength + length, children.length * 2));
+      }
+
+      starts[slot] = childrenLength;
+      childrenLength += length;
+    }
+
+    System.arraycopy(childIds, from, children, starts[slot], length);
+    lengths[slot] = length;
+  }
+
+  /**
+   * Drops all but the first childCount children of the given id.
+   */
+  public void setChildCount(int id, int childCount) {
+    int slot = requireSlot(id);
+
+    if (childCount < 0 || childCount > lengths[slot]) {
+      throw new IllegalArgumentException("Cannot grow id " + id + " to " + childCount + " children");
+    }
+
+    lengths[slot] = childCount;
+  }
+
+  public boolean remove(int id) {
+    int slot = findSlot(id);
+
+    if (slot == ABSENT) {
+      return false;
+    }
+
+    lengths[slot] = ABSENT;
+    size--;
+    return true;
+  }
+
+  public void clear() {
+    ids = null;
+    starts = new int[0];
+    lengths = new int[0];
+    slotCount = 0;
+    size = 0;
+    childrenLength = 0;
+  }
+
+  /**
+   * Gives every row a new id. newIds[i] becomes the id of the row that is at position i of {@link #ids()}. Child lists
+   * are kept as they are.
+   */
+  public void renumber(int[] newIds) {
+    if (newIds.length != size) {
+      throw new IllegalArgumentException("Expected " + size + " ids, got " + newIds.length);
+    }
+
+    int[] rowStarts = new int[size];
+    int[] rowLengths = new int[size];
+    int row = 0;
+
+    for (int slot = 0; slot < slotCount; slot++) {
+      if (lengths[slot] != ABSENT) {
+        rowStarts[row] = starts[slot];
+        rowLengths[row] = lengths[slot];
+        row++;
+      }
+    }
+
+    index(Arrays.copyOf(newIds, size), rowStarts, rowLengths, size);
+  }
+
+  private void index(int[] rowIds, int[] rowStarts, int[] rowLengths, int rowCount) {
+    if (!isStrictlyAscending(rowIds, rowCount)) {
+      long[] order = new long[rowCount];
+
+      for (int i = 0; i < rowCount; i++) {
+        order[i] = ((long) rowIds[i] << 32) | i;
+      }
+
+      Arrays.sort(order);
+
+      int[] sortedIds = new int[rowCount];
+      int[] sortedStarts = new int[rowCount];
+      int[] sortedLengths = new int[rowCount];
+      int count = 0;
+
+      for (int i = 0; i < rowCount; i++) {
+        int row = (int) order[i];
+
+        if (count > 0 && sortedIds[count - 1] == rowIds[row]) {
+          count--;
+        }
+
+        sortedIds[count] = rowIds[row];
+        sortedStarts[count] = rowStarts[row];
+        sortedLengths[count] = rowLengths[row];
+        count++;
+      }
+
+      rowIds = sortedIds;
+      rowStarts = sortedStarts;
+      rowLengths = sortedLengths;
+      rowCount = count;
+    }
+
+    size = rowCount;
+
+    if (rowCount == 0) {
+      ids = null;
+      starts = new int[0];
+      lengths = new int[0];
+      slotCount = 0;
+      return;
+    }
+
+    long span = (long) rowIds[rowCount - 1] - rowIds[0] + 1;
+
+    if (span > 2L * rowCount + DENSE_SLACK) {
+      ids = rowIds;
+      starts = rowStarts;
+      lengths = rowLengths;
+      slotCount = rowCount;
+      return;
+    }
+
+    ids = null;
+    minId = rowIds[0];
+    slotCount = (int) span;
+    starts = new int[slotCount];
+    lengths = new int[slotCount];
+    Arrays.fill(lengths, ABSENT);
+
+    for (int i = 0; i < rowCount; i++) {
+      int slot = rowIds[i] - minId;
+
+      starts[slot] = rowStarts[i];
+      lengths[slot] = rowLengths[i];
+    }
+  }
+
+  private int getSlotId(int slot) {
+    return ids == null ? minId + slot : ids[slot];
+  }
+
+  private int findSlot(int id) {
+    int slot;
+
+    if (ids == null) {
+      long index = (long) id - minId;
+
+      if (index < 0 || index >= slotCount) {
+        return ABSENT;
+      }
+
+      slot = (int) index;
+    } else {
+      slot = Arrays.binarySearch(ids, 0, slotCount, id);
+
+      if (slot < 0) {
+        return ABSENT;
+      }
+    }
+
+    return lengths[slot] == ABSENT ? ABSENT : slot;
+  }
+
+  private int requireSlot(int id) {
+    int slot = findSlot(id);
+
+    if (slot == ABSENT) {
+      throw new IllegalArgumentException("No row for id " + id);
+    }
+
+    return slot;
+  }
+
+  private int findOrCreateSlot(int id) {
+    if (ids == null) {
+      long index = (long) id - minId;
+
+      if (slotCount > 0 && index >= 0 && index < slotCount) {
+        return (int) index;
+      }
+
+      long lowId = slotCount == 0 ? id : Math.min(minId, id);
+      long highId = slotCount == 0 ? id : Math.max(minId + (long) slotCount - 1, id);
+
+      if (highId - lowId + 1 <= 2L * (size + 1) + DENSE_SLACK) {
+        int offset = (int) (minId - lowId);
+        int newSlotCount = (int) (highId - lowId + 1);
+        int[] newStarts = new int[newSlotCount];
+        int[] newLengths = new int[newSlotCount];
+
+        Arrays.fill(newLengths, ABSENT);
+
+        if (slotCount > 0) {
+          System.arraycopy(starts, 0, newStarts, offset, slotCount);
+          System.arraycopy(lengths, 0, newLengths, offset, slotCount);
+        }
+
+        minId = (int) lowId;
+        starts = newStarts;
+        lengths = newLengths;
+        slotCount = newSlotCount;
+        return id - minId;
+      }
+
+      int[] rowIds = ids();
+      int[] rowStarts = new int[size];
+      int[] rowLengths = new int[size];
+
+      for (int i = 0; i < size; i++) {
+        int slot = rowIds[i] - minId;
+
+        rowStarts[i] = starts[slot];
+        rowLengths[i] = lengths[slot];
+      }
+
+      ids = rowIds;
+      starts = rowStarts;
+      lengths = rowLengths;
+      slotCount = size;
+    }
+
+    int slot = Arrays.binarySearch(ids, 0, slotCount, id);
+
+    if (slot >= 0) {
+      return slot;
+    }
+
+    slot = -slot - 1;
+
+    if (slotCount == ids.length) {
+      int capacity = Math.max(16, slotCount * 2);
+
+      ids = Arrays.copyOf(ids, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+    }
+
+    System.arraycopy(ids, slot, ids, slot + 1, slotCount - slot);
+    System.arraycopy(starts, slot, starts, slot + 1, slotCount - slot);
+    System.arraycopy(lengths, slot, lengths, slot + 1, slotCount - slot);
+    ids[slot] = id;
+    lengths[slot] = ABSENT;
+    slotCount++;
+    return slot;
+  }
+
+  private static boolean isStrictlyAscending(int[] values, int count) {
+    for (int i = 1; i < count; i++) {
+      if (values[i] <= values[i - 1]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
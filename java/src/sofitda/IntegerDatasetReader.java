@@ -0,0 +1,183 @@
+package sofitda;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads whitespace-separated integer rows straight from the raw bytes of a file. Digits are decoded in place and each
+ * row is collected into a reusable int buffer, so no per-line or per-token objects are created.
+ */
+public class IntegerDatasetReader implements RowReader {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final String name;
+  private final ReadableByteChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private final byte[] bytes = buffer.array();
+  private int position;
+  private int limit;
+  private int[] row = new int[64];
+  private long lineNumber = 1;
+  private long rowCount;
+  private long byteCount;
+
+  /**
+   * Opens the dataset at filePath, or its gzip-compressed form if only that exists.
+   */
+  public IntegerDatasetReader(String filePath) throws IOException {
+    this(filePath, open(Helper.findTextDataset(filePath)));
+  }
+
+  public IntegerDatasetReader(String name, ReadableByteChannel channel) {
+    this.name = name;
+    this.channel = channel;
+  }
+
+  /**
+   * Advances to the next non-blank row and returns its column count, or -1 at the end of the file. The values are
+   * available through {@link #row()} until the next call.
+   */
+  @Override
+  public int next() throws IOException {
+    int count = 0;
+    long value = 0;
+    boolean inNumber = false;
+    boolean negative = false;
+
+    while (true) {
+      if (position == limit && !fill()) {
+        if (negative && !inNumber) {
+          throw invalid("-");
+        }
+
+        if (inNumber) {
+          count = append(count, negative ? -value : value);
+        }
+
+        if (count == 0) {
+          return -1;
+        }
+
+        rowCount++;
+        return count;
+      }
+
+      byte[] bytes = this.bytes;
+      int p = position;
+      int end = limit;
+
+      while (p < end) {
+        int c = bytes[p++];
+
+        if (c >= '0' && c <= '9') {
+          value = value * 10 + (c - '0');
+          inNumber = true;
+
+          if (value > Integer.MAX_VALUE + 1L) {
+            position = p;
+            throw invalid("out of range value");
+          }
+        } else if (c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B) {
+          if (inNumber) {
+            count = append(count, negative ? -value : value);
+            value = 0;
+            inNumber = false;
+            negative = false;
+          } else if (negative) {
+            position = p;
+            throw invalid("-");
+          }
+
+          if (c == '\n') {
+            lineNumber++;
+
+            if (count > 0) {
+              position = p;
+              rowCount++;
+              return count;
+            }
+          }
+        } else if (c == '-' && !inNumber && !negative) {
+          negative = true;
+        } else {
+          position = p;
+          throw invalid("character '" + (char) (c & 0xFF) + "'");
+        }
+      }
+
+      position = p;
+    }
+  }
+
+  /**
+   * Returns the buffer holding the row read by the last call to {@link #next()}. Only the first {@code columnCount}
+   * entries are valid.
+   */
+  @Override
+  public int[] row() {
+    return row;
+  }
+
+  /**
+   * Returns a copy of the next row, or null at the end of the file.
+   */
+  public int[] nextRow() throws IOException {
+    int columnCount = next();
+
+    return columnCount == -1 ? null : Arrays.copyOf(row, columnCount);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    IoCounters.addRead(rowCount, byteCount);
+  }
+
+  private int append(int count, long value) {
+    if (value > Integer.MAX_VALUE) {
+      throw invalid("out of range value");
+    }
+
+    if (count == row.length) {
+      row = Arrays.copyOf(row, count * 2);
+    }
+
+    row[count] = (int) value;
+    return count + 1;
+  }
+
+  private boolean fill() throws IOException {
+    buffer.clear();
+
+    int read;
+
+    do {
+      read = channel.read(buffer);
+    } while (read == 0);
+
+    position = 0;
+    limit = read == -1 ? 0 : read;
+    byteCount += limit;
+    return read != -1;
+  }
+
+  private static ReadableByteChannel open(String filePath) throws IOException {
+    if (filePath.endsWith(Constants.GZIP_EXTENSION)) {
+      return Channels.newChannel(new GZIPInputStream(new FileInputStream(filePath), BUFFER_SIZE));
+    }
+
+    return FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+  }
+
+  private NumberFormatException invalid(String what) {
+    return new NumberFormatException("Unexpected " + what + " in " + name + " at line " + lineNumber);
+  }
+}
@@ -0,0 +1,149 @@
+package sofitda;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes whitespace-separated integer rows in the format read by {@link IntegerDatasetReader}. Digits are encoded
+ * straight into a reusable byte buffer, which is handed to a FileChannel when full. Paths ending in ".gz" are
+ * written gzip-compressed.
+ */
+public class IntegerDatasetWriter implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int MAX_VALUE_LENGTH = 12; // Separator, sign and ten digits
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private final byte[] bytes = buffer.array();
+  private int position;
+  private boolean rowStarted;
+  private long rowCount;
+  private long byteCount;
+
+  public IntegerDatasetWriter(String filePath) throws IOException {
+    this(open(filePath));
+  }
+
+  public IntegerDatasetWriter(WritableByteChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Appends a value to the current row, preceded by a space unless it is the first one.
+   */
+  public void write(int value) throws IOException {
+    if (position + MAX_VALUE_LENGTH > bytes.length) {
+      flush();
+    }
+
+    if (rowStarted) {
+      bytes[position++] = ' ';
+    }
+
+    rowStarted = true;
+    position = encode(value, bytes, position);
+  }
+
+  public void endRow() throws IOException {
+    if (position == bytes.length) {
+      flush();
+    }
+
+    bytes[position++] = '\n';
+    rowStarted = false;
+    rowCount++;
+  }
+
+  public void writeRow(int[] row, int from, int length) throws IOException {
+    for (int i = from; i < from + length; i++) {
+      write(row[i]);
+    }
+
+    endRow();
+  }
+
+  public void writeRow(int id, int[] childIds, int from, int length) throws IOException {
+    write(id);
+    writeRow(childIds, from, length);
+  }
+
+  public void writeRow(int id, int value) throws IOException {
+    write(id);
+    write(value);
+    endRow();
+  }
+
+  public void flush() throws IOException {
+    buffer.clear();
+    buffer.limit(position);
+
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+
+    byteCount += position;
+    position = 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      channel.close();
+      IoCounters.addWritten(rowCount, byteCount);
+    }
+  }
+
+  private static int encode(int value, byte[] bytes, int position) {
+    if (value < 0) {
+      if (value == Integer.MIN_VALUE) {
+        for (byte c : "-2147483648".getBytes()) {
+          bytes[position++] = c;
+        }
+
+        return position;
+      }
+
+      bytes[position++] = '-';
+      value = -value;
+    }
+
+    int end = position + digitCount(value);
+
+    for (int i = end - 1; i >= position; i--) {
+      bytes[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+
+    return end;
+  }
+
+  private static int digitCount(int value) {
+    int count = 1;
+
+    while (value >= 10) {
+      value /= 10;
+      count++;
+    }
+
+    return count;
+  }
+
+  private static WritableByteChannel open(String filePath) throws IOException {
+    if (filePath.endsWith(Constants.GZIP_EXTENSION)) {
+      return Channels.newChannel(new GZIPOutputStream(new FileOutputStream(filePath), BUFFER_SIZE));
+    }
+
+    return FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+  }
+}
@@ -0,0 +1,79 @@
+package sofitda;
+
+/**
+ * Totals of the rows and bytes moved by the dataset readers and writers, kept for each thread so that builds running
+ * at the same time are counted apart. Readers and writers add their counts when they are closed, and StageRunner
+ * reports the difference across each stage.
+ */
+public class IoCounters {
+  private static final int ROWS_READ = 0;
+  private static final int BYTES_READ = 1;
+  private static final int ROWS_WRITTEN = 2;
+  private static final int BYTES_WRITTEN = 3;
+
+  private static final ThreadLocal<long[]> COUNTS = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[4];
+    }
+  };
+
+  public static void addRead(long rows, long bytes) {
+    long[] counts = COUNTS.get();
+
+    counts[ROWS_READ] += rows;
+    counts[BYTES_READ] += bytes;
+  }
+
+  public static void addWritten(long rows, long bytes) {
+    long[] counts = COUNTS.get();
+
+    counts[ROWS_WRITTEN] += rows;
+    counts[BYTES_WRITTEN] += bytes;
+  }
+
+  /**
+   * Starts counting the calling thread's reads and writes from zero, for a task run on a pool thread. Returns the
+   * counts to hand back to {@link #end(long[])}.
+   */
+  static long[] begin() {
+    long[] previous = COUNTS.get();
+
+    COUNTS.set(new long[4]);
+    return previous;
+  }
+
+  /**
+   * Restores the counts replaced by {@link #begin()} and returns those made since.
+   */
+  static long[] end(long[] previous) {
+    long[] counts = COUNTS.get();
+
+    COUNTS.set(previous);
+    return counts;
+  }
+
+  /**
+   * Adds counts returned by {@link #end(long[])} to the calling thread's.
+   */
+  static void add(long[] counts) {
+    addRead(counts[ROWS_READ], counts[BYTES_READ]);
+    addWritten(counts[ROWS_WRITTEN], counts[BYTES_WRITTEN]);
+  }
+
+  public static long getRowsRead() {
+    return COUNTS.get()[ROWS_READ];
+  }
+
+  public static long getBytesRead() {
+    return COUNTS.get()[BYTES_READ];
+  }
+
+  public static long getRowsWritten() {
+    return COUNTS.get()[ROWS_WRITTEN];
+  }
+
+  public static long getBytesWritten() {
+    return COUNTS.get()[BYTES_WRITTEN];
+  }
+}
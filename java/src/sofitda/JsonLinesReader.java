@@ -0,0 +1,520 @@
+package sofitda;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a file with one JSON object per line and extracts a fixed set of fields from each line. Field paths use dots
+ * for nested objects, as in "ratings.overall". Lines are scanned straight from a large byte buffer and everything
+ * else is skipped without being built into objects. Only the matched values are decoded and unescaped, and only when
+ * asked for. Lines that are malformed or lack a requested field (or have it set to null) are reported on System.err
+ * and skipped.
+ */
+public class JsonLinesReader implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 20;
+  private static final int MAX_FIELD_COUNT = 64;
+  private static final byte STRING = 1;
+  private static final byte OTHER = 2;
+
+  private final String name;
+  private final ReadableByteChannel channel;
+  private final byte[][][] fieldPaths;
+  private final long allFields;
+  private final int[] valueStarts;
+  private final int[] valueEnds;
+  private final byte[] valueTypes;
+  private final boolean[] valueEscaped;
+  private byte[] bytes = new byte[BUFFER_SIZE];
+  private int position;
+  private int limit;
+  private boolean endOfInput;
+  private int lineStart;
+  private int lineEnd;
+  private boolean escaped;
+  private long lineNumber;
+  private long malformedLineCount;
+  private long byteCount;
+
+  public JsonLinesReader(String filePath, String... fieldPaths) throws IOException {
+    this(filePath, FileChannel.open(Paths.get(filePath), StandardOpenOption.READ), fieldPaths);
+  }
+
+  public JsonLinesReader(String name, ReadableByteChannel channel, String... fieldPaths) {
+    if (fieldPaths.length == 0 || fieldPaths.length > MAX_FIELD_COUNT) {
+      throw new IllegalArgumentException("Between 1 and " + MAX_FIELD_COUNT + " field paths are supported");
+    }
+
+    this.name = name;
+    this.channel = channel;
+    this.fieldPaths = new byte[fieldPaths.length][][];
+
+    for (int i = 0; i < fieldPaths.length; i++) {
+      String[] segments = fieldPaths[i].split("\\.");
+
+      this.fieldPaths[i] = new byte[segments.length][];
+
+      for (int j = 0; j < segments.length; j++) {
+        this.fieldPaths[i][j] = segments[j].getBytes(StandardCharsets.UTF_8);
+      }
+    }
+
+    allFields = fieldPaths.length == 64 ? -1L : (1L << fieldPaths.length) - 1;
+    valueStarts = new int[fieldPaths.length];
+    valueEnds = new int[fieldPaths.length];
+    valueTypes = new byte[fieldPaths.length];
+    valueEscaped = new boolean[fieldPaths.length];
+  }
+
+  /**
+   * Advances to the next line that holds every requested field. Returns false at the end of the file.
+   */
+  public boolean next() throws IOException {
+    while (true) {
+      int lineStart = position;
+      int newline = indexOfNewline(lineStart);
+
+      while (newline == -1 && !endOfInput) {
+        int scanned = limit - lineStart;
+
+        fill(lineStart);
+        lineStart = 0;
+        newline = indexOfNewline(scanned);
+      }
+
+      if (newline == -1) {
+        if (lineStart == limit) {
+          return false;
+        }
+
+        newline = limit;
+      }
+
+      lineNumber++;
+      this.lineStart = lineStart;
+      lineEnd = newline;
+      position = newline == limit ? limit : newline + 1;
+
+      int start = skipWhitespace(lineStart);
+
+      if (start == lineEnd) {
+        continue;
+      }
+
+      Arrays.fill(valueTypes, (byte) 0);
+
+      try {
+        int end = skipWhitespace(parseValue(start, allFields, 0));
+
+        if (end != lineEnd) {
+          throw malformed(end, "trailing characters");
+        }
+      } catch (MalformedJsonException e) {
+        report(e.getMessage());
+        continue;
+      }
+
+      int missing = indexOf((byte) 0);
+
+      if (missing != -1) {
+        report("missing field " + getFieldPath(missing));
+        continue;
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * Returns the field at the given index of the constructor's field paths. Strings are unescaped, and other values
+   * are returned as their JSON text.
+   */
+  public String getString(int field) {
+    String value = new String(bytes, valueStarts[field], valueEnds[field] - valueStarts[field], StandardCharsets.UTF_8);
+
+    return valueEscaped[field] ? unescape(value) : value;
+  }
+
+  public boolean isString(int field) {
+    return valueTypes[field] == STRING;
+  }
+
+  public double getDouble(int field) {
+    return Double.parseDouble(getString(field));
+  }
+
+  public int getInt(int field) {
+    if (valueTypes[field] == OTHER) {
+      int value = 0;
+      int sign = 1;
+      int i = valueStarts[field];
+
+      if (bytes[i] == '-') {
+        sign = -1;
+        i++;
+      }
+
+      for (; i < valueEnds[field] && bytes[i] >= '0' && bytes[i] <= '9' && value < 100000000; i++) {
+        value = value * 10 + bytes[i] - '0';
+      }
+
+      if (i == valueEnds[field]) {
+        return sign * value;
+      }
+    }
+
+    return (int) getDouble(field);
+  }
+
+  public long getLineNumber() {
+    return lineNumber;
+  }
+
+  public long getMalformedLineCount() {
+    return malformedLineCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    IoCounters.addRead(lineNumber, byteCount);
+  }
+
+  // Parses the value at index and returns the index just past it. fields holds the requested paths whose first depth
+  // segments lead to this value.
+  private int parseValue(int index, long fields, int depth) throws MalformedJsonException {
+    if (index >= lineEnd) {
+      throw malformed(index, "missing value");
+    }
+
+    int end;
+    int start = index;
+    byte type = OTHER;
+    boolean isEscaped = false;
+
+    switch (bytes[index]) {
+    case '{':
+      end = parseObject(index, fields, depth);
+      break;
+
+    case '[':
+      end = parseArray(index, depth);
+      break;
+
+    case '"':
+      end = skipString(index);
+      start = index + 1;
+      type = STRING;
+      isEscaped = escaped;
+      break;
+
+    case 't':
+      end = skipLiteral(index, "true");
+      break;
+
+    case 'f':
+      end = skipLiteral(index, "false");
+      break;
+
+    case 'n':
+      // A null value counts as a missing field.
+      return skipLiteral(index, "null");
+
+    default:
+      end = skipNumber(index);
+    }
+
+    for (long remaining = fields; remaining != 0; remaining &= remaining - 1) {
+      int field = Long.numberOfTrailingZeros(remaining);
+
+      if (fieldPaths[field].length == depth) {
+        valueStarts[field] = start;
+        valueEnds[field] = type == STRING ? end - 1 : end;
+        valueTypes[field] = type;
+        valueEscaped[field] = isEscaped;
+      }
+    }
+
+    return end;
+  }
+
+  private int parseObject(int index, long fields, int depth) throws MalformedJsonException {
+    index = skipWhitespace(index + 1);
+
+    if (index < lineEnd && bytes[index] == '}') {
+      return index + 1;
+    }
+
+    while (true) {
+      if (index >= lineEnd || bytes[index] != '"') {
+        throw malformed(index, "expected a key");
+      }
+
+      int keyEnd = skipString(index);
+      long childFields = 0;
+
+      for (long remaining = fields; remaining != 0; remaining &= remaining - 1) {
+        int field = Long.numberOfTrailingZeros(remaining);
+
+        if (fieldPaths[field].length > depth && keyEquals(index + 1, keyEnd - 1, fieldPaths[field][depth])) {
+          childFields |= 1L << field;
+        }
+      }
+
+      index = skipWhitespace(keyEnd);
+
+      if (index >= lineEnd || bytes[index] != ':') {
+        throw malformed(index, "expected ':'");
+      }
+
+      index = skipWhitespace(parseValue(skipWhitespace(index + 1), childFields, depth + 1));
+
+      if (index < lineEnd && bytes[index] == ',') {
+        index = skipWhitespace(index + 1);
+      } else if (index < lineEnd && bytes[index] == '}') {
+        return index + 1;
+      } else {
+        throw malformed(index, "expected ',' or '}'");
+      }
+    }
+  }
+
+  private int parseArray(int index, int depth) throws MalformedJsonException {
+    index = skipWhitespace(index + 1);
+
+    if (index < lineEnd && bytes[index] == ']') {
+      return index + 1;
+    }
+
+    while (true) {
+      index = skipWhitespace(parseValue(index, 0, depth + 1));
+
+      if (index < lineEnd && bytes[index] == ',') {
+        index = skipWhitespace(index + 1);
+      } else if (index < lineEnd && bytes[index] == ']') {
+        return index + 1;
+      } else {
+        throw malformed(index, "expected ',' or ']'");
+      }
+    }
+  }
+
+  // Returns the index just past the closing quote and sets escaped if the string contains escape sequences.
+  private int skipString(int index) throws MalformedJsonException {
+    escaped = false;
+
+    for (int i = index + 1; i < lineEnd; i++) {
+      if (bytes[i] == '"') {
+        return i + 1;
+      }
+
+      if (bytes[i] == '\\') {
+        escaped = true;
+        i++;
+      }
+    }
+
+    throw malformed(index, "unterminated string");
+  }
+
+  private int skipLiteral(int index, String literal) throws MalformedJsonException {
+    if (index + literal.length() > lineEnd) {
+      throw malformed(index, "unexpected end of line");
+    }
+
+    for (int i = 0; i < literal.length(); i++) {
+      if (bytes[index + i] != literal.charAt(i)) {
+        throw malformed(index, "unexpected character");
+      }
+    }
+
+    return index + literal.length();
+  }
+
+  private int skipNumber(int index) throws MalformedJsonException {
+    int i = index;
+    boolean hasDigit = false;
+
+    while (i < lineEnd) {
+      byte c = bytes[i];
+
+      if (c >= '0' && c <= '9') {
+        hasDigit = true;
+      } else if (c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E') {
+        break;
+      }
+
+      i++;
+    }
+
+    if (!hasDigit) {
+      throw malformed(index, "unexpected character");
+    }
+
+    return i;
+  }
+
+  private boolean keyEquals(int start, int end, byte[] key) {
+    if (escaped) {
+      return unescape(new String(bytes, start, end - start, StandardCharsets.UTF_8))
+          .equals(new String(key, StandardCharsets.UTF_8));
+    }
+
+    if (end - start != key.length) {
+      return false;
+    }
+
+    for (int i = 0; i < key.length; i++) {
+      if (bytes[start + i] != key[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private int skipWhitespace(int index) {
+    while (index < lineEnd && (bytes[index] == ' ' || bytes[index] == '\t' || bytes[index] == '\r')) {
+      index++;
+    }
+
+    return index;
+  }
+
+  private int indexOfNewline(int from) {
+    for (int i = from; i < limit; i++) {
+      if (bytes[i] == '\n') {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private int indexOf(byte type) {
+    for (int i = 0; i < valueTypes.length; i++) {
+      if (valueTypes[i] == type) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  // Moves the unread bytes from keepFrom to the front of the buffer, growing it if a single line fills it, and reads
+  // more input after them.
+  private void fill(int keepFrom) throws IOException {
+    int kept = limit - keepFrom;
+
+    if (kept == bytes.length) {
+      bytes = Arrays.copyOf(bytes, bytes.length * 2);
+    } else {
+      System.arraycopy(bytes, keepFrom, bytes, 0, kept);
+    }
+
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, kept, bytes.length - kept);
+    int read;
+
+    do {
+      read = channel.read(buffer);
+    } while (read == 0);
+
+    position = 0;
+    limit = read == -1 ? kept : kept + read;
+    endOfInput = read == -1;
+    byteCount += Math.max(read, 0);
+  }
+
+  private String getFieldPath(int field) {
+    StringBuilder builder = new StringBuilder();
+
+    for (byte[] segment : fieldPaths[field]) {
+      if (builder.length() > 0) {
+        builder.append('.');
+      }
+
+      builder.append(new String(segment, StandardCharsets.UTF_8));
+    }
+
+    return builder.toString();
+  }
+
+  private void report(String reason) {
+    malformedLineCount++;
+    System.err.println("Skipping line " + lineNumber + " of " + name + ": " + reason);
+  }
+
+  private MalformedJsonException malformed(int index, String reason) {
+    return new MalformedJsonException(reason + " at column " + (index - lineStart + 1));
+  }
+
+  private static String unescape(String value) {
+    StringBuilder builder = new StringBuilder(value.length());
+
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+
+      if (c != '\\' || i + 1 == value.length()) {
+        builder.append(c);
+        continue;
+      }
+
+      c = value.charAt(++i);
+
+      switch (c) {
+      case 'b':
+        builder.append('\b');
+        break;
+
+      case 'f':
+        builder.append('\f');
+        break;
+
+      case 'n':
+        builder.append('\n');
+        break;
+
+      case 'r':
+        builder.append('\r');
+        break;
+
+      case 't':
+        builder.append('\t');
+        break;
+
+      case 'u':
+        if (i + 4 < value.length()) {
+          try {
+            builder.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+            i += 4;
+            break;
+          } catch (NumberFormatException e) {
+            // Keep the sequence as it is.
+          }
+        }
+
+        builder.append("\\u");
+        break;
+
+      default:
+        builder.append(c);
+      }
+    }
+
+    return builder.toString();
+  }
+
+  private static class MalformedJsonException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    MalformedJsonException(String message) {
+      super(message, null, false, false);
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package sofitda;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes k cross-validation folds of the merged "all" datasets. The documents are shuffled with
+ * Configuration.PARTITION_SEED and dealt to the folds in turn, every response on its own with
+ * Configuration.STRATIFIED_PARTITIONS. Fold f tests on the documents dealt to f, validates on those dealt to f + 1
+ * and trains on the rest, and its datasets, root ids and metadata are written with the prefixes fold_f_training,
+ * fold_f_validation and fold_f_testing.
+ *
+ * The "all" datasets are read once and shared by the folds, which are written in parallel. Ids are kept, so the
+ * datasets of a split are the rows of the "all" ones reached from its documents.
+ */
+@StageConfiguration({ "PARTITION_SEED", "STRATIFIED_PARTITIONS" })
+public class KFoldPartitioner {
+  private static final String[] PREFIXES = { "training", "validation", "testing" };
+
+  private final RunContext context;
+  private final int foldCount;
+  private final String metadataType;
+  private final CsrDataset responseDataset;
+  private final CsrDataset documentDataset;
+  private final CsrDataset paragraphDataset;
+  private final CsrDataset sentenceDataset;
+  private final CsrDataset documentSentenceDataset;
+  private final CsrDataset documentWordDataset;
+
+  // Fold every document row is dealt to, or -1.
+  private final int[] documentFolds;
+
+  public KFoldPartitioner(RunContext context, int foldCount, String metadataType) throws IOException {
+    if (foldCount < 3) {
+      throw new IllegalArgumentException("Cross-validation needs at least 3 folds: " + foldCount);
+    }
+
+    this.context = context;
+    this.foldCount = foldCount;
+    this.metadataType = metadataType;
+
+    responseDataset = Helper.readIntegerDataset(getFilePath(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "all"));
+    documentDataset = Helper.readIntegerDataset(getFilePath(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, "all"));
+    paragraphDataset = Helper.readIntegerDataset(getFilePath(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, "all"));
+    sentenceDataset = Helper.readIntegerDataset(getFilePath(Constants.SENTENCE_DATASET_FILENAME_FORMAT, "all"));
+    documentSentenceDataset = Helper.readIntegerDataset(
+        getFilePath(Constants.DOCUMENT_SENTENCE_DATASET_FILENAME_FORMAT, "all"));
+    documentWordDataset = Helper.readIntegerDataset(
+        getFilePath(Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, "all"));
+    documentFolds = dealFolds(new Random(Configuration.PARTITION_SEED));
+
+    String[] foldNames = new String[foldCount];
+
+    for (int fold = 0; fold < foldCount; fold++) {
+      foldNames[fold] = "fold_" + fold;
+    }
+
+    StagePool.forEachPrefix(foldNames, new StagePool.PrefixTask() {
+      @Override
+      public void run(String foldName) throws IOException {
+        writeFold(Integer.parseInt(foldName.substring("fold_".length())), foldName);
+      }
+    });
+  }
+
+  // Deals the shuffled document rows to the folds in turn. With stratification, the rows are first placed by their
+  // smallest response with a counting sort and every response is shuffled on its own, so that the turn carries over
+  // from one response to the next and the folds differ in length by at most one document. Documents missing from the
+  // root ids, such as dropped duplicates, are placed last and dealt to no fold.
+  private int[] dealFolds(Random random) throws IOException {
+    int rowCount = documentDataset.getRowCount();
+    int[] strata = Configuration.STRATIFIED_PARTITIONS ? PartitionRows.getStrata(documentDataset, responseDataset)
+        : new int[rowCount];
+    BitSet rootIds = getRootIds();
+    int stratumCount = 0;
+
+    for (int stratum : strata) {
+      stratumCount = Math.max(stratumCount, stratum + 1);
+    }
+
+    for (int row = 0; row < rowCount; row++) {
+      if (!rootIds.get(documentDataset.getRowId(row))) {
+        strata[row] = stratumCount;
+      }
+    }
+
+    int[] strataOffsets = PartitionRows.getStrataOffsets(strata, stratumCount + 1);
+    int[] rows = PartitionRows.sortByStratum(strata, strataOffsets);
+
+    PartitionRows.shuffleStrata(rows, strataOffsets, stratumCount, random);
+
+    int[] folds = new int[rowCount];
+
+    Arrays.fill(folds, -1);
+
+    for (int position = 0; position < strataOffsets[stratumCount]; position++) {
+      folds[rows[position]] = position % foldCount;
+    }
+
+    return folds;
+  }
+
+  private BitSet getRootIds() throws IOException {
+    BitSet rootIds = new BitSet();
+
+    for (String prefix : PREFIXES) {
+      for (int rootId : Helper.readSingleColumnIntegerDataset(getFilePath(Constants.ROOT_ID_FILENAME_FORMAT, prefix))) {
+        rootIds.set(rootId);
+      }
+    }
+
+    return rootIds;
+  }
+
+  private void writeFold(int fold, String foldName) throws IOException {
+    String[] prefixes = new String[PREFIXES.length];
+
+    for (int split = 0; split < PREFIXES.length; split++) {
+      BitSet documentIds = new BitSet();
+
+      prefixes[split] = foldName + "_" + PREFIXES[split];
+
+      for (int row = 0; row < documentDataset.getRowCount(); row++) {
+        if (documentFolds[row] != -1 && getSplit(fold, documentFolds[row]) == split) {
+          documentIds.set(documentDataset.getRowId(row));
+        }
+      }
+
+      System.out.println("Partitioning " + prefixes[split] + ": length = " + documentIds.cardinality() + "...");
+      writeSplit(prefixes[split], documentIds);
+    }
+
+    new MetadataGenerator(context, metadataType, prefixes);
+  }
+
+  // Testing is the fold itself and validation the one after it.
+  private int getSplit(int fold, int documentFold) {
+    if (documentFold == fold) {
+      return 2;
+    }
+
+    return documentFold == (fold + 1) % foldCount ? 1 : 0;
+  }
+
+  private void writeSplit(String prefix, BitSet documentIds) throws IOException {
+    CsrDataset documents = select(documentDataset, documentIds);
+    CsrDataset documentSentences = select(documentSentenceDataset, documentIds);
+    CsrDataset paragraphs = select(paragraphDataset, getChildIds(documents, null));
+    CsrDataset sentences = select(sentenceDataset, getChildIds(documentSentences, getChildIds(paragraphs, null)));
+    List<Integer> rootIds = new ArrayList<>(documents.getRowCount());
+
+    for (int row = 0; row < documents.getRowCount(); row++) {
+      rootIds.add(documents.getRowId(row));
+    }
+
+    Helper.writeIntegerDataset(getFilePath(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix),
+        selectChildren(responseDataset, documentIds));
+    Helper.writeIntegerDataset(getFilePath(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, prefix), documents);
+    Helper.writeIntegerDataset(getFilePath(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, prefix), paragraphs);
+    Helper.writeIntegerDataset(getFilePath(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix), sentences);
+    Helper.writeIntegerDataset(getFilePath(Constants.DOCUMENT_SENTENCE_DATASET_FILENAME_FORMAT, prefix),
+        documentSentences);
+    Helper.writeIntegerDataset(getFilePath(Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, prefix),
+        select(documentWordDataset, documentIds));
+    Helper.writeSingleColumnIntegerDataset(getFilePath(Constants.ROOT_ID_FILENAME_FORMAT, prefix), rootIds);
+  }
+
+  private String getFilePath(String format, String prefix) {
+    return context.getStage3Directory() + "/" + String.format(format, prefix);
+  }
+
+  // Returns the rows of the dataset whose id is in ids, in their order.
+  private static CsrDataset select(CsrDataset dataset, BitSet ids) {
+    CsrDataset selectedRows = new CsrDataset();
+
+    for (int row = 0; row < dataset.getRowCount(); row++) {
+      if (ids.get(dataset.getRowId(row))) {
+        selectedRows.addRow(dataset.getValues(), dataset.getRowOffset(row), dataset.getRowLength(row));
+      }
+    }
+
+    return selectedRows;
+  }
+
+  // Returns the rows of the dataset with only their children in ids, leaving out the rows with none.
+  private static CsrDataset selectChildren(CsrDataset dataset, BitSet ids) {
+    CsrDataset selectedRows = new CsrDataset();
+    int[] values = dataset.getValues();
+    int[] childIds = new int[16];
+
+    for (int row = 0; row < dataset.getRowCount(); row++) {
+      int offset = dataset.getRowOffset(row);
+      int count = 0;
+
+      if (childIds.length < dataset.getRowLength(row)) {
+        childIds = new int[dataset.getRowLength(row)];
+      }
+
+      for (int i = offset + 1; i < offset + dataset.getRowLength(row); i++) {
+        if (values[i] >= 0 && ids.get(values[i])) {
+          childIds[count++] = values[i];
+        }
+      }
+
+      if (count > 0) {
+        selectedRows.addRow(values[offset], childIds, 0, count);
+      }
+    }
+
+    return selectedRows;
+  }
+
+  // Adds the children of every row of the dataset to childIds, or to a new set when it is null.
+  private static BitSet getChildIds(CsrDataset dataset, BitSet childIds) {
+    BitSet ids = childIds != null ? childIds : new BitSet();
+    int[] values = dataset.getValues();
+
+    for (int row = 0; row < dataset.getRowCount(); row++) {
+      int offset = dataset.getRowOffset(row);
+
+      for (int i = offset + 1; i < offset + dataset.getRowLength(row); i++) {
+        if (values[i] >= 0) {
+          ids.set(values[i]);
+        }
+      }
+    }
+
+    return ids;
+  }
+}
@@ -0,0 +1,99 @@
+package sofitda;
+
+import java.util.Arrays;
+
+/**
+ * Maps long keys to non-negative int values without boxing. Keys are placed by open addressing with linear probing
+ * in a table of at most half load, and an empty slot holds the value ABSENT.
+ */
+public class LongIntHashMap {
+  public static final int ABSENT = -1;
+
+  private long[] keys;
+  private int[] values;
+  private int mask;
+  private int size;
+
+  public LongIntHashMap() {
+    this(16);
+  }
+
+  public LongIntHashMap(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(8, expectedSize) * 2 - 1) * 2;
+
+    keys = new long[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+    Arrays.fill(values, ABSENT);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the value of the key, or ABSENT if it has none.
+   */
+  public int get(long key) {
+    for (int slot = getSlot(key); values[slot] != ABSENT; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+    }
+
+    return ABSENT;
+  }
+
+  /**
+   * Gives the key the value unless it already has one, and returns the value it had, or ABSENT.
+   */
+  public int putIfAbsent(long key, int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Values cannot be negative: " + value);
+    }
+
+    int slot = getSlot(key);
+
+    for (; values[slot] != ABSENT; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+    }
+
+    keys[slot] = key;
+    values[slot] = value;
+
+    if (++size * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+
+    return ABSENT;
+  }
+
+  private int getSlot(long key) {
+    return (int) Helper.mix64(key) & mask;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+
+    keys = new long[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+    Arrays.fill(values, ABSENT);
+
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldValues[i] != ABSENT) {
+        int slot = getSlot(oldKeys[i]);
+
+        while (values[slot] != ABSENT) {
+          slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+}
@@ -3,6 +3,16 @@ package sofitda;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.bind.JAXBException;
 
@@ -11,121 +21,466 @@ import org.apache.commons.io.FileUtils;
 public class Main {
   public static void main(String[] args) throws IOException, JAXBException {
     if (args.length < 1) {
-      System.out.println("Usage: dataset-name [optional args]");
+      System.out.println("Usage: dataset-name... [optional args]");
       return;
     }
 
-    switch (args[0]) {
+    List<String> datasetNames = new ArrayList<>();
+    int concurrency = 1;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+      case "--binary":
+        Configuration.BINARY_DATASETS = true;
+        break;
+
+      case "--no-text":
+        Configuration.TEXT_DATASETS = false;
+        break;
+
+      case "--gzip":
+        Configuration.GZIP_DATASETS = true;
+        break;
+
+      case "--in-memory":
+        Configuration.IN_MEMORY_DATASETS = true;
+        break;
+
+      case "--cache":
+        Configuration.STAGE_CACHE = true;
+        break;
+
+      case "--threads":
+        if (i + 1 == args.length) {
+          System.out.println("--threads requires a thread count");
+          return;
+        }
+
+        Configuration.TOKENIZER_THREAD_COUNT = Integer.parseInt(args[++i]);
+        break;
+
+      case "--stage-threads":
+        if (i + 1 == args.length) {
+          System.out.println("--stage-threads requires a thread count");
+          return;
+        }
+
+        Configuration.STAGE_THREAD_COUNT = Integer.parseInt(args[++i]);
+        break;
+
+      case "--max-documents":
+        if (i + 1 == args.length) {
+          System.out.println("--max-documents requires a document count");
+          return;
+        }
+
+        Configuration.MAX_DOCUMENT_COUNT = Integer.parseInt(args[++i]);
+        break;
+
+      case "--partition-memory":
+        if (i + 1 == args.length) {
+          System.out.println("--partition-memory requires a memory budget in megabytes");
+          return;
+        }
+
+        Configuration.PARTITION_MEMORY_MB = Integer.parseInt(args[++i]);
+        break;
+
+      case "--stratify":
+        Configuration.STRATIFIED_PARTITIONS = true;
+        break;
+
+      case "--seed":
+        if (i + 1 == args.length) {
+          System.out.println("--seed requires a number");
+          return;
+        }
+
+        Configuration.PARTITION_SEED = Long.parseLong(args[++i]);
+        break;
+
+      case "--folds":
+        if (i + 1 == args.length || Integer.parseInt(args[i + 1]) < 3) {
+          System.out.println("--folds requires a fold count of at least 3");
+          return;
+        }
+
+        Configuration.FOLD_COUNT = Integer.parseInt(args[++i]);
+        break;
+
+      case "--min-word-count":
+        if (i + 1 == args.length) {
+          System.out.println("--min-word-count requires a word count");
+          return;
+        }
+
+        Configuration.MIN_WORD_COUNT = Integer.parseInt(args[++i]);
+        break;
+
+      case "--max-vocabulary":
+        if (i + 1 == args.length) {
+          System.out.println("--max-vocabulary requires a vocabulary size");
+          return;
+        }
+
+        Configuration.MAX_VOCABULARY_SIZE = Integer.parseInt(args[++i]);
+        break;
+
+      case "--max-unknown-words":
+        if (i + 1 == args.length) {
+          System.out.println("--max-unknown-words requires a proportion");
+          return;
+        }
+
+        Configuration.MAX_UNKNOWN_WORD_PROPORTION = Double.parseDouble(args[++i]);
+        break;
+
+      case "--max-sentences":
+        if (i + 1 == args.length) {
+          System.out.println("--max-sentences requires a sentence count");
+          return;
+        }
+
+        Configuration.MAX_SENTENCE_COUNT = Integer.parseInt(args[++i]);
+        break;
+
+      case "--responses":
+        if (i + 1 == args.length) {
+          System.out.println("--responses requires a comma-separated list of responses");
+          return;
+        }
+
+        Configuration.RESPONSE_WHITELIST = args[++i].split(",");
+        break;
+
+      case "--drop-duplicates":
+        Configuration.DROP_DUPLICATES = true;
+        break;
+
+      case "--near-duplicates":
+        if (i + 1 == args.length) {
+          System.out.println("--near-duplicates requires a Jaccard similarity");
+          return;
+        }
+
+        Configuration.NEAR_DUPLICATE_THRESHOLD = Double.parseDouble(args[++i]);
+        break;
+
+      case "--drop-near-duplicates":
+        Configuration.DROP_NEAR_DUPLICATES = true;
+        break;
+
+      case "--parallel":
+        if (i + 1 == args.length) {
+          System.out.println("--parallel requires the number of datasets to build at once");
+          return;
+        }
+
+        concurrency = Integer.parseInt(args[++i]);
+        break;
+
+      default:
+        if (args[i].startsWith("--")) {
+          System.out.println("Unknown option: " + args[i]);
+          return;
+        }
+
+        datasetNames.add(args[i]);
+      }
+    }
+
+    if (datasetNames.isEmpty()) {
+      System.out.println("No dataset name given");
+      return;
+    }
+
+    buildDatasets(orderBySource(datasetNames), Math.max(1, Math.min(concurrency, datasetNames.size())));
+    Helper.flushDatasets();
+    System.out.println("DONE!");
+  }
+
+  /**
+   * Builds the datasets with at most concurrency of them at once. A dataset derived from another one in the list
+   * waits for it to be built first. Every build runs to the end, and the first failure is then rethrown.
+   */
+  private static void buildDatasets(List<String> datasetNames, int concurrency) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    final Map<String, Future<Void>> builds = new ConcurrentHashMap<>();
+
+    for (final String datasetName : datasetNames) {
+      builds.put(datasetName, executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          String sourceDatasetName = getSourceDatasetName(datasetName);
+
+          if (sourceDatasetName != null && builds.containsKey(sourceDatasetName)) {
+            builds.get(sourceDatasetName).get();
+          }
+
+          buildDataset(new RunContext(datasetName));
+          return null;
+        }
+      }));
+    }
+
+    executor.shutdown();
+
+    Throwable failure = null;
+
+    for (String datasetName : datasetNames) {
+      try {
+        builds.get(datasetName).get();
+      } catch (ExecutionException e) {
+        System.err.println("Building " + datasetName + " failed");
+        e.getCause().printStackTrace();
+
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      } catch (InterruptedException e) {
+        executor.shutdownNow();
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while building " + datasetName);
+      }
+    }
+
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    }
+
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    }
+
+    if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+
+    if (failure != null) {
+      throw new RuntimeException(failure);
+    }
+  }
+
+  // Moves every dataset after the one it is derived from, so that its build is submitted after that build.
+  private static List<String> orderBySource(List<String> datasetNames) {
+    List<String> orderedNames = new ArrayList<>();
+
+    for (String datasetName : datasetNames) {
+      addAfterSource(datasetName, datasetNames, orderedNames);
+    }
+
+    return orderedNames;
+  }
+
+  private static void addAfterSource(String datasetName, List<String> datasetNames, List<String> orderedNames) {
+    if (orderedNames.contains(datasetName)) {
+      return;
+    }
+
+    String sourceDatasetName = getSourceDatasetName(datasetName);
+
+    if (sourceDatasetName != null && !sourceDatasetName.equals(datasetName)
+        && datasetNames.contains(sourceDatasetName)) {
+      addAfterSource(sourceDatasetName, datasetNames, orderedNames);
+    }
+
+    orderedNames.add(datasetName);
+  }
+
+  /**
+   * Returns the name of the dataset whose stage3 files the dataset is built from, or null if it is built from raw
+   * data.
+   */
+  private static String getSourceDatasetName(String datasetName) {
+    if (datasetName.startsWith("mingen")) {
+      return "quora";
+    }
+
+    if (datasetName.startsWith("aug") && datasetName.indexOf("_") != -1) {
+      return datasetName.substring("aug".length(), datasetName.indexOf("_"));
+    }
+
+    if (datasetName.startsWith("genrank") && datasetName.split("_").length > 2) {
+      return datasetName.split("_")[2];
+    }
+
+    return null;
+  }
+
+  private static void buildDataset(RunContext context) throws IOException {
+    switch (context.getDatasetName()) {
     case "yelp":
-      createYelpDatasets();
+      createYelpDatasets(context);
       break;
 
     case "amazon":
-      createAmazonDatasets();
+      createAmazonDatasets(context);
       break;
 
     case "tripadvisor":
-      createTripAdvisorDatasets();
+      createTripAdvisorDatasets(context);
       break;
 
     case "sst5":
-      createSST5Datasets();
+      createSST5Datasets(context);
       break;
 
     case "quora":
-      createQuoraDatasets();
+      createQuoraDatasets(context);
       break;
 
     case "trec":
-      createTRECDatasets();
+      createTRECDatasets(context);
       break;
 
     default:
-      if (args[0].startsWith("mingen")) {
-        createMingenDatasets(args[0]);
-      } else if (args[0].startsWith("aug")) {
-        createAugmentedDatasets(args[0]);
-      } else if (args[0].startsWith("genrank")) {
-        createGenrankDatasets(args[0]);
+      if (context.getDatasetName().startsWith("mingen")) {
+        createMingenDatasets(context);
+      } else if (context.getDatasetName().startsWith("aug")) {
+        createAugmentedDatasets(context);
+      } else if (context.getDatasetName().startsWith("genrank")) {
+        createGenrankDatasets(context);
       } else {
-        System.out.println("Unknown dataset: " + args[0]);
+        System.out.println("Unknown dataset: " + context.getDatasetName());
+        return;
       }
     }
 
-    System.out.println("DONE!");
+    // Datasets derived from this one are copied from its stage3 files.
+    Helper.flushDatasets(context.getStage3Directory());
+  }
+
+  // Returns the number of raw documents a tokenizer reads, which is defaultCount unless --max-documents is given.
+  private static int getMaxDocumentCount(int defaultCount) {
+    return Configuration.MAX_DOCUMENT_COUNT > 0 ? Configuration.MAX_DOCUMENT_COUNT : defaultCount;
+  }
+
+  // Partitions out of core when a memory budget is given, for corpora larger than the heap.
+  private static Class<?> getPartitionerClass() {
+    return Configuration.PARTITION_MEMORY_MB > 0 ? StreamingDatasetPartitioner.class : DatasetPartitioner.class;
+  }
+
+  // Lists, and with --drop-near-duplicates drops, the near-duplicate documents when --near-duplicates is given.
+  private static void runNearDuplicateDetector(StageRunner runner) throws IOException {
+    if (Configuration.NEAR_DUPLICATE_THRESHOLD > 0) {
+      runner.run(NearDuplicateDetector.class, Configuration.NEAR_DUPLICATE_THRESHOLD,
+          Configuration.DROP_NEAR_DUPLICATES);
+    }
+  }
+
+  // Writes the cross-validation folds of the merged datasets when --folds is given.
+  private static void runKFoldPartitioner(StageRunner runner, String metadataType) throws IOException {
+    if (Configuration.FOLD_COUNT > 0) {
+      runner.run(KFoldPartitioner.class, Configuration.FOLD_COUNT, metadataType);
+    }
+  }
+
+  private static void createYelpDatasets(RunContext context) throws IOException {
+    StageRunner runner = new StageRunner(context);
+
+    runner.run(YelpReviewsTokenizer.class, getMaxDocumentCount(100000));
+    runner.run(getPartitionerClass());
+    runner.run(FilterPipeline.class);
+    runner.run(HierarchyCollapser.class);
+    runner.run(DatasetMerger.class);
+    runner.run(DuplicateDetector.class, Configuration.DROP_DUPLICATES);
+    runNearDuplicateDetector(runner);
+    runner.run(MetadataGenerator.class, "dw");
+    runKFoldPartitioner(runner, "dw");
+    runner.run(ExtraDatasetGenerator.class);
+    runner.run(ResponseCounter.class);
+    runner.run(TextGenerationDataset.class);
+    runner.finish();
+  }
+
+  private static void createSST5Datasets(RunContext context) throws IOException {
+    StageRunner runner = new StageRunner(context);
+
+    runner.run(SST5Tokenizer.class);
+    runner.run(FilterPipeline.class);
+    runner.run(HierarchyCollapser.class);
+    runner.run(DatasetMerger.class);
+    runner.run(DuplicateDetector.class, Configuration.DROP_DUPLICATES);
+    runNearDuplicateDetector(runner);
+    runner.run(MetadataGenerator.class, "dw");
+    runner.run(ExtraDatasetGenerator.class);
+    runner.run(ResponseCounter.class);
+    runner.run(TextGenerationDataset.class);
+    runner.finish();
+  }
+
+  private static void createTRECDatasets(RunContext context) throws IOException {
+    StageRunner runner = new StageRunner(context);
+
+    runner.run(TRECTokenizer.class);
+    runner.run(FilterPipeline.class);
+    runner.run(HierarchyCollapser.class);
+    runner.run(DatasetMerger.class);
+    runner.run(DuplicateDetector.class, Configuration.DROP_DUPLICATES);
+    runNearDuplicateDetector(runner);
+    runner.run(MetadataGenerator.class, "dw");
+    runner.run(ExtraDatasetGenerator.class);
+    runner.run(ResponseCounter.class);
+    runner.run(TextGenerationDataset.class);
+    runner.finish();
+  }
+
+  private static void createAmazonDatasets(RunContext context) throws IOException {
+    StageRunner runner = new StageRunner(context);
+
+    runner.run(AmazonReviewsTokenizer.class, getMaxDocumentCount(40000));
+    runner.run(getPartitionerClass());
+    runner.run(FilterPipeline.class);
+    runner.run(HierarchyCollapser.class);
+    runner.run(DatasetMerger.class);
+    runner.run(DuplicateDetector.class, Configuration.DROP_DUPLICATES);
+    runNearDuplicateDetector(runner);
+    runner.run(MetadataGenerator.class, "dw");
+    runKFoldPartitioner(runner, "dw");
+    runner.run(ExtraDatasetGenerator.class);
+    runner.run(ResponseCounter.class);
+    runner.run(TextGenerationDataset.class);
+    runner.finish();
+  }
+
+  private static void createTripAdvisorDatasets(RunContext context) throws IOException {
+    StageRunner runner = new StageRunner(context);
+
+    runner.run(TripAdvisorTokenizer.class, getMaxDocumentCount(300000));
+    runner.run(getPartitionerClass());
+    runner.run(FilterPipeline.class);
+    runner.run(HierarchyCollapser.class);
+    runner.run(DatasetMerger.class);
+    runner.run(DuplicateDetector.class, Configuration.DROP_DUPLICATES);
+    runNearDuplicateDetector(runner);
+    runner.run(MetadataGenerator.class, "dw");
+    runKFoldPartitioner(runner, "dw");
+    runner.run(ExtraDatasetGenerator.class);
+    runner.run(ResponseCounter.class);
+    runner.run(TextGenerationDataset.class);
+    runner.finish();
+  }
+
+  private static void createQuoraDatasets(RunContext context) throws IOException {
+    StageRunner runner = new StageRunner(context);
+
+    runner.run(QuoraInsincereTokenizer.class, getMaxDocumentCount(40000));
+    runner.run(getPartitionerClass());
+    runner.run(FilterPipeline.class);
+    runner.run(HierarchyCollapser.class);
+    runner.run(DatasetMerger.class);
+    runner.run(DuplicateDetector.class, Configuration.DROP_DUPLICATES);
+    runNearDuplicateDetector(runner);
+    runner.run(MetadataGenerator.class, "dw");
+    runKFoldPartitioner(runner, "dw");
+    runner.run(ExtraDatasetGenerator.class);
+    runner.run(TextGenerationDataset.class);
+    runner.run(ResponseCounter.class);
+    runner.finish();
   }
 
-  private static void createYelpDatasets() throws IOException {
-    new YelpReviewsTokenizer(100000);
-    new DatasetPartitioner();
-    new FilterPipeline();
-    new HierarchyCollapser();
-    new DatasetMerger();
-    new MetadataGenerator("dw");
-    new ExtraDatasetGenerator();
-    new ResponseCounter();
-    new TextGenerationDataset();
-  }
-
-  private static void createSST5Datasets() throws IOException {
-    new SST5Tokenizer();
-    new FilterPipeline();
-    new HierarchyCollapser();
-    new DatasetMerger();
-    new MetadataGenerator("dw");
-    new ExtraDatasetGenerator();
-    new ResponseCounter();
-    new TextGenerationDataset();
-  }
-
-  private static void createTRECDatasets() throws IOException {
-    new TRECTokenizer();
-    new FilterPipeline();
-    new HierarchyCollapser();
-    new DatasetMerger();
-    new MetadataGenerator("dw");
-    new ExtraDatasetGenerator();
-    new ResponseCounter();
-    new TextGenerationDataset();
-  }
-
-  private static void createAmazonDatasets() throws IOException {
-    new AmazonReviewsTokenizer();
-    new DatasetPartitioner();
-    new FilterPipeline();
-    new HierarchyCollapser();
-    new DatasetMerger();
-    new MetadataGenerator("dw");
-    new ExtraDatasetGenerator();
-    new ResponseCounter();
-    new TextGenerationDataset();
-  }
-
-  private static void createTripAdvisorDatasets() throws IOException {
-    new TripAdvisorTokenizer(300000);
-    new DatasetPartitioner();
-    new FilterPipeline();
-    new HierarchyCollapser();
-    new DatasetMerger();
-    new MetadataGenerator("dw");
-    new ExtraDatasetGenerator();
-    new ResponseCounter();
-    new TextGenerationDataset();
-  }
-
-  private static void createQuoraDatasets() throws IOException {
-    new QuoraInsincereTokenizer(40000);
-    new DatasetPartitioner();
-    new FilterPipeline();
-    new HierarchyCollapser();
-    new DatasetMerger();
-    new MetadataGenerator("dw");
-    new ExtraDatasetGenerator();
-    new TextGenerationDataset();
-    new ResponseCounter();
-  }
-
-  private static void createAugmentedDatasets(String datasetName) throws IOException {
+  private static void createAugmentedDatasets(RunContext context) throws IOException {
+    String datasetName = context.getDatasetName();
     int index = datasetName.indexOf("aug");
 
     if (index != 0) {
@@ -143,25 +498,33 @@ public class Main {
     System.out.println("Original dataset name: " + originalDatasetName);
 
     File originalDataset3Directory = new File(Constants.STAGE3_BASE_DIRECTORY + "/" + originalDatasetName);
-    File augStage1Directory = new File(Constants.STAGE1_BASE_DIRECTORY + "/" + datasetName);
+    File augStage1Directory = new File(context.getStage1Directory());
 
     FileUtils.copyDirectory(originalDataset3Directory, augStage1Directory);
 
-    new DataAugmentationTokenizer(datasetName);
-    new HierarchyCollapser();
-    new DatasetMerger();
-    new MetadataGenerator("dw");
-    new ExtraDatasetGenerator();
-    new ResponseCounter();
+    StageRunner runner = new StageRunner(context);
+
+    runner.run(DataAugmentationTokenizer.class);
+    runner.run(HierarchyCollapser.class);
+    runner.run(DatasetMerger.class);
+    runner.run(DuplicateDetector.class, Configuration.DROP_DUPLICATES);
+    runNearDuplicateDetector(runner);
+    runner.run(MetadataGenerator.class, "dw");
+    runner.run(ExtraDatasetGenerator.class);
+    runner.run(ResponseCounter.class);
+    runner.finish();
   }
 
-  private static void createMingenDatasets(String datasetName) throws IOException {
+  private static void createMingenDatasets(RunContext context) throws IOException {
+    String datasetName = context.getDatasetName();
     File quora3Directory = new File(Constants.STAGE3_BASE_DIRECTORY + "/quora");
-    File mingenStage1Directory = new File(Constants.STAGE1_BASE_DIRECTORY + "/" + datasetName);
+    File mingenStage1Directory = new File(context.getStage1Directory());
 
     FileUtils.copyDirectory(quora3Directory, mingenStage1Directory, new FileFilter() {
 
       String[] filenames = new String[] { String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "training"),
+          Helper.getBinaryFilePath(String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "training")),
+          String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "training") + Constants.GZIP_EXTENSION,
           String.format(Constants.DOCUMENT_WORD_DATASET_TEXT_FILENAME_FORMAT, "training") };
 
       @Override
@@ -176,27 +539,37 @@ public class Main {
       }
     });
 
-    new MinorityVsGeneratedTokenizer(datasetName, 1);
-    new DatasetPartitioner();
-    new FilterPipeline();
-    new HierarchyCollapser();
-    new DatasetMerger();
-    new MetadataGenerator("dw");
-    new ExtraDatasetGenerator();
-    new ResponseCounter();
-    new MinorityVsGeneratedPartitioner();
+    StageRunner runner = new StageRunner(context);
+
+    runner.run(MinorityVsGeneratedTokenizer.class, 1);
+    runner.run(getPartitionerClass());
+    runner.run(FilterPipeline.class);
+    runner.run(HierarchyCollapser.class);
+    runner.run(DatasetMerger.class);
+    runner.run(DuplicateDetector.class, Configuration.DROP_DUPLICATES);
+    runNearDuplicateDetector(runner);
+    runner.run(MetadataGenerator.class, "dw");
+    runner.run(ExtraDatasetGenerator.class);
+    runner.run(ResponseCounter.class);
+    runner.run(MinorityVsGeneratedPartitioner.class);
+    runner.finish();
   }
 
-  private static void createGenrankDatasets(String genrankDatasetName) throws IOException {
+  private static void createGenrankDatasets(RunContext context) throws IOException {
+    String genrankDatasetName = context.getDatasetName();
     String datasetName = genrankDatasetName.split("_")[2];
     File datasetName3Directory = new File(Constants.STAGE3_BASE_DIRECTORY + "/" + datasetName);
-    File genrankStage1Directory = new File(Constants.STAGE1_BASE_DIRECTORY + "/" + genrankDatasetName);
+    File genrankStage1Directory = new File(context.getStage1Directory());
 
     FileUtils.copyDirectory(datasetName3Directory, genrankStage1Directory, new FileFilter() {
 
       String[] filenames = new String[] { String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "training"),
+          Helper.getBinaryFilePath(String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "training")),
+          String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "training") + Constants.GZIP_EXTENSION,
           String.format(Constants.DOCUMENT_WORD_DATASET_TEXT_FILENAME_FORMAT, "training"),
           String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "validation"),
+          Helper.getBinaryFilePath(String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "validation")),
+          String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "validation") + Constants.GZIP_EXTENSION,
           String.format(Constants.DOCUMENT_WORD_DATASET_TEXT_FILENAME_FORMAT, "validation") };
 
       @Override
@@ -211,11 +584,16 @@ public class Main {
       }
     });
 
-    new GenerationRankingTokenizer(genrankDatasetName);
-    new HierarchyCollapser();
-    new DatasetMerger();
-    new MetadataGenerator("dw");
-    new ExtraDatasetGenerator();
-    new ResponseCounter();
+    StageRunner runner = new StageRunner(context);
+
+    runner.run(GenerationRankingTokenizer.class);
+    runner.run(HierarchyCollapser.class);
+    runner.run(DatasetMerger.class);
+    runner.run(DuplicateDetector.class, Configuration.DROP_DUPLICATES);
+    runNearDuplicateDetector(runner);
+    runner.run(MetadataGenerator.class, "dw");
+    runner.run(ExtraDatasetGenerator.class);
+    runner.run(ResponseCounter.class);
+    runner.finish();
   }
 }
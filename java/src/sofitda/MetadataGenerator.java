@@ -8,203 +8,245 @@ import java.util.List;
 import org.apache.commons.io.FileUtils;
 
 public class MetadataGenerator {
-  public MetadataGenerator(String type) throws IOException {
-    String[] prefixes = { "training", "validation", "testing", "all" };
+  private DatasetStats vocabularyStats;
+  private final RunContext context;
+
+  public MetadataGenerator(RunContext context, final String type) throws IOException {
+    this(context, type, new String[] { "training", "validation", "testing", "all" });
+  }
+
+  /**
+   * Generates the metadata of the given prefixes, the first of which is the training one.
+   */
+  public MetadataGenerator(RunContext context, final String type, String[] prefixes) throws IOException {
+    this.context = context;
+
+    String vocabularyFilePath = context.getStage3Directory() + "/" + Constants.VOCABULARY_FILENAME;
+
+    vocabularyStats = DatasetStats.get(vocabularyFilePath, 1 /* idColumn */, 1 /* skipLineCount */);
+
+    // Prefixes with no documents get a copy of the training metadata once it has been generated.
+    List<String> generatedPrefixes = new ArrayList<>();
+    List<String> copiedPrefixes = new ArrayList<>();
 
     for (String prefix : prefixes) {
-      if (!prefix.equals("training") && isDatasetEmpty(prefix)) {
-        copyMetadata("training", prefix);
-        continue;
+      if (!prefix.equals(prefixes[0]) && isDatasetEmpty(prefix)) {
+        copiedPrefixes.add(prefix);
+      } else {
+        generatedPrefixes.add(prefix);
       }
+    }
+
+    StagePool.forEachPrefix(generatedPrefixes.toArray(new String[generatedPrefixes.size()]),
+        new StagePool.PrefixTask() {
+          @Override
+          public void run(String prefix) throws IOException {
+            generate(type, prefix);
+          }
+        });
+
+    for (String prefix : copiedPrefixes) {
+      copyMetadata(prefixes[0], prefix);
+    }
+  }
 
-      switch (type) {
-      case "rdps":
-        generateRdps(prefix);
-        break;
+  private void generate(String type, String prefix) throws IOException {
+    switch (type) {
+    case "rdps":
+      generateRdps(prefix);
+      break;
 
-      case "dps":
-        generateDps(prefix);
-        break;
+    case "dps":
+      generateDps(prefix);
+      break;
 
-      case "rds":
-        generateRds(prefix);
-        break;
+    case "rds":
+      generateRds(prefix);
+      break;
 
-      case "rdw":
-        generateRdw(prefix);
-        break;
+    case "rdw":
+      generateRdw(prefix);
+      break;
 
-      case "ds":
-        generateDs(prefix);
-        break;
+    case "ds":
+      generateDs(prefix);
+      break;
 
-      case "dw":
-        generateDw(prefix);
-        break;
-      }
+    case "dw":
+      generateDw(prefix);
+      break;
     }
   }
 
   private boolean isDatasetEmpty(String prefix) throws IOException {
-    String documentDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, prefix);
 
-    return Helper.getMaxId(documentDatasetFilePath) == -1;
+    return DatasetStats.get(documentDatasetFilePath).getMaxId() == -1;
   }
 
   private void copyMetadata(String fromPrefix, String toPrefix) throws IOException {
-    String fromMetadataDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String fromMetadataDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.METADATA_DATASET_FILE_NAME_FORMAT, fromPrefix);
-    String toMetadataDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String toMetadataDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.METADATA_DATASET_FILE_NAME_FORMAT, toPrefix);
 
     FileUtils.copyFile(new File(fromMetadataDatasetFilePath), new File(toMetadataDatasetFilePath));
   }
 
   private void generateRdps(String prefix) throws IOException {
-    String metadataDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String metadataDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.METADATA_DATASET_FILE_NAME_FORMAT, prefix);
-    String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String responseDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
-    String documentDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, prefix);
-    String paragraphDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String paragraphDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, prefix);
-    String sentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String sentenceDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
-    String vocabularyFilePath = Configuration.STAGE3_DIRECTORY + "/" + Constants.VOCABULARY_FILENAME;
 
+    DatasetStats responseStats = DatasetStats.get(responseDatasetFilePath);
+    DatasetStats documentStats = DatasetStats.get(documentDatasetFilePath);
+    DatasetStats paragraphStats = DatasetStats.get(paragraphDatasetFilePath);
+    DatasetStats sentenceStats = DatasetStats.get(sentenceDatasetFilePath);
     List<int[]> metadataDataset = new ArrayList<int[]>();
     int[] limits = new int[8];
     int index = 0;
 
     metadataDataset.add(limits);
 
-    limits[index++] = Helper.getMaxId(responseDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxId(documentDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxColumnCount(documentDatasetFilePath) - 1;
-    limits[index++] = Helper.getMaxId(paragraphDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxColumnCount(paragraphDatasetFilePath) - 1;
-    limits[index++] = Helper.getMaxId(sentenceDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxColumnCount(sentenceDatasetFilePath) - 1;
-    limits[index++] = Helper.getMaxId(vocabularyFilePath, 1, 1) + 1;
-    Helper.writeMultiColumnIntegerDataset(metadataDatasetFilePath, metadataDataset);
+    limits[index++] = responseStats.getMaxId() + 1;
+    limits[index++] = documentStats.getMaxId() + 1;
+    limits[index++] = documentStats.getMaxColumnCount() - 1;
+    limits[index++] = paragraphStats.getMaxId() + 1;
+    limits[index++] = paragraphStats.getMaxColumnCount() - 1;
+    limits[index++] = sentenceStats.getMaxId() + 1;
+    limits[index++] = sentenceStats.getMaxColumnCount() - 1;
+    limits[index++] = vocabularyStats.getMaxId() + 1;
+    Helper.writeMultiColumnIntegerTextDataset(metadataDatasetFilePath, metadataDataset);
   }
 
   private void generateDps(String prefix) throws IOException {
-    String metadataDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String metadataDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.METADATA_DATASET_FILE_NAME_FORMAT, prefix);
-    String documentDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, prefix);
-    String paragraphDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String paragraphDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, prefix);
-    String sentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String sentenceDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
-    String vocabularyFilePath = Configuration.STAGE3_DIRECTORY + "/" + Constants.VOCABULARY_FILENAME;
 
+    DatasetStats documentStats = DatasetStats.get(documentDatasetFilePath);
+    DatasetStats paragraphStats = DatasetStats.get(paragraphDatasetFilePath);
+    DatasetStats sentenceStats = DatasetStats.get(sentenceDatasetFilePath);
     List<int[]> metadataDataset = new ArrayList<int[]>();
     int[] limits = new int[7];
     int index = 0;
 
     metadataDataset.add(limits);
 
-    limits[index++] = Helper.getMaxId(documentDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxColumnCount(documentDatasetFilePath) - 1;
-    limits[index++] = Helper.getMaxId(paragraphDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxColumnCount(paragraphDatasetFilePath) - 1;
-    limits[index++] = Helper.getMaxId(sentenceDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxColumnCount(sentenceDatasetFilePath) - 1;
-    limits[index++] = Helper.getMaxId(vocabularyFilePath, 1, 1) + 1;
-    Helper.writeMultiColumnIntegerDataset(metadataDatasetFilePath, metadataDataset);
+    limits[index++] = documentStats.getMaxId() + 1;
+    limits[index++] = documentStats.getMaxColumnCount() - 1;
+    limits[index++] = paragraphStats.getMaxId() + 1;
+    limits[index++] = paragraphStats.getMaxColumnCount() - 1;
+    limits[index++] = sentenceStats.getMaxId() + 1;
+    limits[index++] = sentenceStats.getMaxColumnCount() - 1;
+    limits[index++] = vocabularyStats.getMaxId() + 1;
+    Helper.writeMultiColumnIntegerTextDataset(metadataDatasetFilePath, metadataDataset);
   }
 
   private void generateRds(String prefix) throws IOException {
-    String metadataDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String metadataDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.METADATA_DATASET_FILE_NAME_FORMAT, prefix);
-    String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String responseDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
-    String documentSentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentSentenceDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_SENTENCE_DATASET_FILENAME_FORMAT, prefix);
-    String sentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String sentenceDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
-    String vocabularyFilePath = Configuration.STAGE3_DIRECTORY + "/" + Constants.VOCABULARY_FILENAME;
 
+    DatasetStats responseStats = DatasetStats.get(responseDatasetFilePath);
+    DatasetStats sentenceStats = DatasetStats.get(sentenceDatasetFilePath);
+    DatasetStats documentSentenceStats = DatasetStats.get(documentSentenceDatasetFilePath);
     List<int[]> metadataDataset = new ArrayList<int[]>();
     int[] limits = new int[6];
     int index = 0;
 
     metadataDataset.add(limits);
 
-    limits[index++] = Helper.getMaxId(responseDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxId(documentSentenceDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxColumnCount(documentSentenceDatasetFilePath) - 1;
-    limits[index++] = Helper.getMaxId(sentenceDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxColumnCount(sentenceDatasetFilePath) - 1;
-    limits[index++] = Helper.getMaxId(vocabularyFilePath, 1, 1) + 1;
-    Helper.writeMultiColumnIntegerDataset(metadataDatasetFilePath, metadataDataset);
+    limits[index++] = responseStats.getMaxId() + 1;
+    limits[index++] = documentSentenceStats.getMaxId() + 1;
+    limits[index++] = documentSentenceStats.getMaxColumnCount() - 1;
+    limits[index++] = sentenceStats.getMaxId() + 1;
+    limits[index++] = sentenceStats.getMaxColumnCount() - 1;
+    limits[index++] = vocabularyStats.getMaxId() + 1;
+    Helper.writeMultiColumnIntegerTextDataset(metadataDatasetFilePath, metadataDataset);
   }
 
   private void generateDs(String prefix) throws IOException {
-    String metadataDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String metadataDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.METADATA_DATASET_FILE_NAME_FORMAT, prefix);
-    String documentSentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentSentenceDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_SENTENCE_DATASET_FILENAME_FORMAT, prefix);
-    String sentenceDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String sentenceDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix);
-    String vocabularyFilePath = Configuration.STAGE3_DIRECTORY + "/" + Constants.VOCABULARY_FILENAME;
 
+    DatasetStats sentenceStats = DatasetStats.get(sentenceDatasetFilePath);
+    DatasetStats documentSentenceStats = DatasetStats.get(documentSentenceDatasetFilePath);
     List<int[]> metadataDataset = new ArrayList<int[]>();
     int[] limits = new int[5];
     int index = 0;
 
     metadataDataset.add(limits);
-    limits[index++] = Helper.getMaxId(documentSentenceDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxColumnCount(documentSentenceDatasetFilePath) - 1;
-    limits[index++] = Helper.getMaxId(sentenceDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxColumnCount(sentenceDatasetFilePath) - 1;
-    limits[index++] = Helper.getMaxId(vocabularyFilePath, 1, 1) + 1;
+    limits[index++] = documentSentenceStats.getMaxId() + 1;
+    limits[index++] = documentSentenceStats.getMaxColumnCount() - 1;
+    limits[index++] = sentenceStats.getMaxId() + 1;
+    limits[index++] = sentenceStats.getMaxColumnCount() - 1;
+    limits[index++] = vocabularyStats.getMaxId() + 1;
 
-    Helper.writeMultiColumnIntegerDataset(metadataDatasetFilePath, metadataDataset);
+    Helper.writeMultiColumnIntegerTextDataset(metadataDatasetFilePath, metadataDataset);
   }
 
   private void generateRdw(String prefix) throws IOException {
-    String metadataDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String metadataDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.METADATA_DATASET_FILE_NAME_FORMAT, prefix);
-    String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String responseDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
-    String documentWordDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentWordDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, prefix);
-    String vocabularyFilePath = Configuration.STAGE3_DIRECTORY + "/" + Constants.VOCABULARY_FILENAME;
 
+    DatasetStats responseStats = DatasetStats.get(responseDatasetFilePath);
+    DatasetStats documentWordStats = DatasetStats.get(documentWordDatasetFilePath);
     List<int[]> metadataDataset = new ArrayList<int[]>();
     int[] limits = new int[4];
     int index = 0;
 
     metadataDataset.add(limits);
-    limits[index++] = Helper.getMaxId(responseDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxId(documentWordDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxColumnCount(documentWordDatasetFilePath) - 1;
-    limits[index++] = Helper.getMaxId(vocabularyFilePath, 1, 1) + 1;
+    limits[index++] = responseStats.getMaxId() + 1;
+    limits[index++] = documentWordStats.getMaxId() + 1;
+    limits[index++] = documentWordStats.getMaxColumnCount() - 1;
+    limits[index++] = vocabularyStats.getMaxId() + 1;
 
-    Helper.writeMultiColumnIntegerDataset(metadataDatasetFilePath, metadataDataset);
+    Helper.writeMultiColumnIntegerTextDataset(metadataDatasetFilePath, metadataDataset);
   }
 
   private void generateDw(String prefix) throws IOException {
-    String metadataDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String metadataDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.METADATA_DATASET_FILE_NAME_FORMAT, prefix);
-    String documentWordDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+    String documentWordDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, prefix);
-    String vocabularyFilePath = Configuration.STAGE3_DIRECTORY + "/" + Constants.VOCABULARY_FILENAME;
 
+    DatasetStats documentWordStats = DatasetStats.get(documentWordDatasetFilePath);
     List<int[]> metadataDataset = new ArrayList<int[]>();
     int[] limits = new int[3];
     int index = 0;
 
     metadataDataset.add(limits);
-    limits[index++] = Helper.getMaxId(documentWordDatasetFilePath) + 1;
-    limits[index++] = Helper.getMaxColumnCount(documentWordDatasetFilePath) - 1;
-    limits[index++] = Helper.getMaxId(vocabularyFilePath, 1, 1) + 1;
+    limits[index++] = documentWordStats.getMaxId() + 1;
+    limits[index++] = documentWordStats.getMaxColumnCount() - 1;
+    limits[index++] = vocabularyStats.getMaxId() + 1;
 
-    Helper.writeMultiColumnIntegerDataset(metadataDatasetFilePath, metadataDataset);
+    Helper.writeMultiColumnIntegerTextDataset(metadataDatasetFilePath, metadataDataset);
   }
 }
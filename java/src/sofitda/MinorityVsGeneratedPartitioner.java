@@ -8,8 +8,12 @@ import java.util.Map;
 import java.util.Set;
 
 public class MinorityVsGeneratedPartitioner {
-  public MinorityVsGeneratedPartitioner() throws IOException {
-    String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+  private final RunContext context;
+
+  public MinorityVsGeneratedPartitioner(RunContext context) throws IOException {
+    this.context = context;
+
+    String responseDatasetFilePath = context.getStage3Directory() + "/"
         + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "all");
 
     Map<Integer, int[]> responseMap = Helper.readMultiColumnIntegerMap(responseDatasetFilePath);
@@ -45,15 +49,15 @@ public class MinorityVsGeneratedPartitioner {
         }
       }
 
-      String trainingIdFilePath = Configuration.STAGE3_DIRECTORY + "/"
+      String trainingIdFilePath = context.getStage3Directory() + "/"
           + String.format(Constants.ROOT_ID_CHUNK_FILENAME_FORMAT, "training", i);
-      String testingIdFilePath = Configuration.STAGE3_DIRECTORY + "/"
+      String testingIdFilePath = context.getStage3Directory() + "/"
           + String.format(Constants.ROOT_ID_CHUNK_FILENAME_FORMAT, "testing", i);
 
       System.out.println("Creating minority dataset chunk (" + beginChunkIndex + ", " + endChunkIndex + ")");
 
-      Helper.writeSingleColumnDataset(trainingIdFilePath, trainingIds);
-      Helper.writeSingleColumnDataset(testingIdFilePath, testingIds);
+      Helper.writeSingleColumnIntegerDataset(trainingIdFilePath, trainingIds);
+      Helper.writeSingleColumnIntegerDataset(testingIdFilePath, testingIds);
     }
   }
 }
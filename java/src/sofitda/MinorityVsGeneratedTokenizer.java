@@ -1,7 +1,6 @@
 package sofitda;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -11,8 +10,8 @@ import java.util.Set;
 public class MinorityVsGeneratedTokenizer extends AbstractDocumentsTokenizer {
   private int responseId;
 
-  public MinorityVsGeneratedTokenizer(String name, int responseId) throws IOException {
-    super(name, true /* hasResponse */);
+  public MinorityVsGeneratedTokenizer(RunContext context, int responseId) throws IOException {
+    super(context, true /* hasResponse */);
 
     this.responseId = responseId;
 
@@ -20,28 +19,19 @@ public class MinorityVsGeneratedTokenizer extends AbstractDocumentsTokenizer {
 
     String responseDatasetFilePath = this.rawDataDirectory.getAbsolutePath() + "/"
         + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "training");
-    BufferedReader responseReader = new BufferedReader(new FileReader(responseDatasetFilePath));
+    int[] responseDocumentIds = Helper.readMultiColumnIntegerMap(responseDatasetFilePath).get(responseId);
     Set<Integer> documentIds = new HashSet<>();
     String line;
 
-    while ((line = responseReader.readLine()) != null) {
-      String[] tokens = line.split(" ");
-      int temp = Integer.parseInt(tokens[0]);
-
-      if (temp != responseId) {
-        continue;
-      }
-
-      for (int i = 1; i < tokens.length; i++) {
-        documentIds.add(Integer.parseInt(tokens[i]));
+    if (responseDocumentIds != null) {
+      for (int documentId : responseDocumentIds) {
+        documentIds.add(documentId);
       }
     }
 
-    responseReader.close();
-
     String documentWordDatasetTextFilePath = this.rawDataDirectory.getAbsolutePath() + "/"
         + String.format(Constants.DOCUMENT_WORD_DATASET_TEXT_FILENAME_FORMAT, "training");
-    BufferedReader reader = new BufferedReader(new FileReader(documentWordDatasetTextFilePath));
+    BufferedReader reader = Helper.createBufferedReader(documentWordDatasetTextFilePath);
 
     while ((line = reader.readLine()) != null) {
       int firstSpaceIndex = line.indexOf(' ');
@@ -67,7 +57,7 @@ public class MinorityVsGeneratedTokenizer extends AbstractDocumentsTokenizer {
     String generatedFile = this.rawDataDirectory.getAbsolutePath() + "/"
         + String.format("generated_%d.txt", this.responseId);
 
-    BufferedReader reader = new BufferedReader(new FileReader(generatedFile));
+    BufferedReader reader = Helper.createBufferedReader(generatedFile);
     String line;
 
     while ((line = reader.readLine()) != null) {
@@ -0,0 +1,362 @@
+package sofitda;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds near-duplicate documents in the training, validation and testing datasets. Every document is reduced to a
+ * MinHash signature of the shingles of its document word row, and the signatures are cut into bands. Only documents
+ * that agree on a whole band are compared, so the work grows with the number of documents rather than the number of
+ * pairs. A document whose estimated Jaccard similarity to another one reaches the threshold is grouped with it, and
+ * every document of a group but the first is a near duplicate of the first. Training documents come before
+ * validation ones, and those before testing ones.
+ *
+ * The near duplicates of a prefix are listed with the document they duplicate in its near duplicate dataset. When
+ * they are dropped, they are also taken out of the root ids and the response datasets, which is what the later
+ * stages and the classifiers select documents by.
+ *
+ * Only the low 16 bits of every minimum are kept (b-bit MinHash), so a signature takes 128 bytes. Two differing
+ * minima agree on them once in 65536 times, which barely changes the estimated similarities.
+ */
+public class NearDuplicateDetector {
+  private static final int SHINGLE_LENGTH = 3;
+  private static final int SIGNATURE_LENGTH = 64;
+  private static final int DOCUMENTS_PER_TASK = 8192;
+  private static final int MAX_BUCKET_REPRESENTATIVES = 64;
+  private static final long HASH_SEED = 0x5EED;
+
+  private final double threshold;
+  private final int bandLength;
+  private final DocumentWordRows rows;
+  private final long[] hashMultipliers = new long[SIGNATURE_LENGTH];
+  private final long[] hashIncrements = new long[SIGNATURE_LENGTH];
+
+  // The signature of row r is signatures[r * SIGNATURE_LENGTH] up to the next row's. Empty documents have none.
+  private final char[] signatures;
+  private final boolean[] emptyRows;
+
+  public NearDuplicateDetector(RunContext context, double threshold, boolean drop) throws IOException {
+    if (threshold <= 0 || threshold > 1) {
+      throw new IllegalArgumentException("The Jaccard threshold must be in (0, 1]: " + threshold);
+    }
+
+    this.threshold = threshold;
+
+    bandLength = getBandLength(threshold);
+    rows = new DocumentWordRows(context);
+
+    Random random = new Random(HASH_SEED);
+
+    for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+      hashMultipliers[i] = random.nextLong() | 1;
+      hashIncrements[i] = random.nextLong();
+    }
+
+    int rowCount = rows.getRowCount();
+
+    signatures = new char[rowCount * SIGNATURE_LENGTH];
+    emptyRows = new boolean[rowCount];
+
+    System.out.println("Computing the MinHash signatures of " + rowCount + " documents, "
+        + SIGNATURE_LENGTH / bandLength + " bands of " + bandLength + "...");
+    StagePool.invoke(new SignatureTask(0, rowCount));
+
+    int[] groupRows = group(findSimilarPairs());
+    BitSet duplicateIds = new BitSet();
+
+    for (int prefix = 0; prefix < DocumentWordRows.PREFIXES.length; prefix++) {
+      CsrDataset duplicates = new CsrDataset();
+      int crossPrefixCount = 0;
+
+      for (int row = rows.getFirstRow(prefix); row < rows.getFirstRow(prefix + 1); row++) {
+        if (groupRows[row] != row) {
+          duplicates.addRow(new int[] { rows.getDocumentId(row), rows.getDocumentId(groupRows[row]) }, 0, 2);
+          duplicateIds.set(rows.getDocumentId(row));
+
+          if (groupRows[row] < rows.getFirstRow(prefix)) {
+            crossPrefixCount++;
+          }
+        }
+      }
+
+      System.out.println(DocumentWordRows.PREFIXES[prefix] + ": " + duplicates.getRowCount() + " near duplicates, "
+          + crossPrefixCount + " of them of documents of an earlier partition");
+      Helper.writeIntegerDataset(rows.getFilePath(Constants.NEAR_DUPLICATE_DATASET_FILENAME_FORMAT, prefix),
+          duplicates);
+    }
+
+    if (drop) {
+      DatasetMerger.removeDocuments(context, duplicateIds);
+    }
+  }
+
+  // Returns the band length whose LSH threshold, (1 / bands) ^ (1 / band length), is closest to the given threshold.
+  // Pairs just below it are found less often, but every pair found is checked against the threshold itself.
+  private static int getBandLength(double threshold) {
+    int bestBandLength = 1;
+    double bestDistance = Double.MAX_VALUE;
+
+    for (int bandLength = 1; bandLength <= SIGNATURE_LENGTH; bandLength *= 2) {
+      double distance = Math.abs(Math.pow((double) bandLength / SIGNATURE_LENGTH, 1.0 / bandLength) - threshold);
+
+      if (distance < bestDistance) {
+        bestBandLength = bandLength;
+        bestDistance = distance;
+      }
+    }
+
+    return bestBandLength;
+  }
+
+  private void computeSignature(int row, long[] minima) {
+    int[] values = rows.getValues(row);
+    int from = rows.getWordStart(row);
+    int to = rows.getWordEnd(row);
+
+    if (from == to) {
+      emptyRows[row] = true;
+      return;
+    }
+
+    Arrays.fill(minima, Long.MAX_VALUE);
+
+    // A document shorter than a shingle is a shingle of its own.
+    int shingleCount = Math.max(1, to - from - SHINGLE_LENGTH + 1);
+
+    for (int shingle = 0; shingle < shingleCount; shingle++) {
+      long shingleHash = Helper.hashSequence(values, from + shingle, Math.min(from + shingle + SHINGLE_LENGTH, to));
+
+      for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+        long hash = (shingleHash * hashMultipliers[i] + hashIncrements[i]) >>> 32;
+
+        if (hash < minima[i]) {
+          minima[i] = hash;
+        }
+      }
+    }
+
+    for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+      signatures[row * SIGNATURE_LENGTH + i] = (char) minima[i];
+    }
+  }
+
+  // Returns the pairs of similar rows, the later row in the high 32 bits and the earlier one in the low bits.
+  private long[] findSimilarPairs() {
+    final List<BandTask> tasks = new ArrayList<>();
+
+    for (int band = 0; band < SIGNATURE_LENGTH / bandLength; band++) {
+      tasks.add(new BandTask(band));
+    }
+
+    StagePool.invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        invokeAll(tasks);
+      }
+    });
+
+    List<long[]> bandPairs = new ArrayList<>();
+    int pairCount = 0;
+
+    for (BandTask task : tasks) {
+      bandPairs.add(task.join());
+      pairCount += task.pairCount;
+    }
+
+    long[] pairs = new long[pairCount];
+    int position = 0;
+
+    for (int band = 0; band < bandPairs.size(); band++) {
+      System.arraycopy(bandPairs.get(band), 0, pairs, position, tasks.get(band).pairCount);
+      position += tasks.get(band).pairCount;
+    }
+
+    return pairs;
+  }
+
+  // Groups the rows of the pairs and returns the first row of the group of every row.
+  private int[] group(long[] pairs) {
+    int[] groupRows = new int[rows.getRowCount()];
+
+    for (int row = 0; row < groupRows.length; row++) {
+      groupRows[row] = row;
+    }
+
+    for (long pair : pairs) {
+      int row1 = findGroupRow(groupRows, (int) (pair >>> 32));
+      int row2 = findGroupRow(groupRows, (int) pair);
+
+      if (row1 < row2) {
+        groupRows[row2] = row1;
+      } else if (row2 < row1) {
+        groupRows[row1] = row2;
+      }
+    }
+
+    for (int row = 0; row < groupRows.length; row++) {
+      groupRows[row] = findGroupRow(groupRows, row);
+    }
+
+    return groupRows;
+  }
+
+  private static int findGroupRow(int[] groupRows, int row) {
+    while (groupRows[row] != row) {
+      groupRows[row] = groupRows[groupRows[row]];
+      row = groupRows[row];
+    }
+
+    return row;
+  }
+
+  private double getSimilarity(int row1, int row2) {
+    int equalCount = 0;
+
+    for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+      if (signatures[row1 * SIGNATURE_LENGTH + i] == signatures[row2 * SIGNATURE_LENGTH + i]) {
+        equalCount++;
+      }
+    }
+
+    return (double) equalCount / SIGNATURE_LENGTH;
+  }
+
+  // Computes the signatures of the rows in [from, to), in tasks of DOCUMENTS_PER_TASK rows.
+  private class SignatureTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+
+    SignatureTask(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > DOCUMENTS_PER_TASK) {
+        List<SignatureTask> tasks = new ArrayList<>();
+
+        for (int begin = from; begin < to; begin += DOCUMENTS_PER_TASK) {
+          tasks.add(new SignatureTask(begin, Math.min(begin + DOCUMENTS_PER_TASK, to)));
+        }
+
+        invokeAll(tasks);
+        return;
+      }
+
+      long[] minima = new long[SIGNATURE_LENGTH];
+
+      for (int row = from; row < to; row++) {
+        computeSignature(row, minima);
+      }
+    }
+  }
+
+  // Finds the similar pairs among the rows that agree on one band. The rows are sorted by the hash of their band,
+  // with the row in the low bits. Every row of a bucket is compared with the representatives of the groups found so
+  // far in the bucket, the first row of each, and joins the groups it is similar to; a row similar to none starts a
+  // group of its own. Only the last MAX_BUCKET_REPRESENTATIVES groups are kept as candidates, so a bucket of k rows
+  // takes at most k * MAX_BUCKET_REPRESENTATIVES comparisons, and a bucket of copies of one document takes one per
+  // row. A row is then missed only when it is similar to a member of a group but not to its representative, or to
+  // a group pushed out of the window, and another band usually finds it.
+  private class BandTask extends RecursiveTask<long[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final int band;
+    int pairCount;
+
+    BandTask(int band) {
+      this.band = band;
+    }
+
+    @Override
+    protected long[] compute() {
+      int rowCount = rows.getRowCount();
+      int rowBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, rowCount));
+      long rowMask = (1L << rowBits) - 1;
+      long[] keys = new long[rowCount];
+      int keyCount = 0;
+
+      for (int row = 0; row < rowCount; row++) {
+        if (emptyRows[row]) {
+          continue;
+        }
+
+        long hash = band;
+
+        for (int i = band * bandLength; i < (band + 1) * bandLength; i++) {
+          hash = Helper.mix64(hash + signatures[row * SIGNATURE_LENGTH + i]);
+        }
+
+        keys[keyCount++] = (hash & ~rowMask) | row;
+      }
+
+      Arrays.sort(keys, 0, keyCount);
+
+      long[] pairs = new long[16];
+
+      // The group of every member of the current bucket, by position in the bucket.
+      int[] bucketGroups = new int[16];
+
+      // The members that represent the last groups of the bucket, in a ring from representativeStart.
+      int[] representatives = new int[MAX_BUCKET_REPRESENTATIVES];
+
+      for (int begin = 0, end; begin < keyCount; begin = end) {
+        for (end = begin + 1; end < keyCount && (keys[end] & ~rowMask) == (keys[begin] & ~rowMask); end++) {
+        }
+
+        if (end - begin > bucketGroups.length) {
+          bucketGroups = new int[Math.max(end - begin, bucketGroups.length * 2)];
+        }
+
+        int representativeStart = 0;
+        int representativeCount = 0;
+
+        for (int member = 0; member < end - begin; member++) {
+          int row = (int) (keys[begin + member] & rowMask);
+
+          bucketGroups[member] = member;
+
+          for (int i = 0; i < representativeCount; i++) {
+            int representative = representatives[(representativeStart + i) % MAX_BUCKET_REPRESENTATIVES];
+            int group = findGroupRow(bucketGroups, member);
+            int representativeGroup = findGroupRow(bucketGroups, representative);
+            int representativeRow = (int) (keys[begin + representative] & rowMask);
+
+            if (group == representativeGroup || getSimilarity(representativeRow, row) < threshold) {
+              continue;
+            }
+
+            if (pairCount == pairs.length) {
+              pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+
+            pairs[pairCount++] = ((long) row << 32) | representativeRow;
+            bucketGroups[Math.max(group, representativeGroup)] = Math.min(group, representativeGroup);
+          }
+
+          if (findGroupRow(bucketGroups, member) != member) {
+            continue;
+          }
+
+          if (representativeCount < MAX_BUCKET_REPRESENTATIVES) {
+            representatives[(representativeStart + representativeCount++) % MAX_BUCKET_REPRESENTATIVES] = member;
+          } else {
+            representatives[representativeStart] = member;
+            representativeStart = (representativeStart + 1) % MAX_BUCKET_REPRESENTATIVES;
+          }
+        }
+      }
+
+      return pairs;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package sofitda;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The row tables, strata and seeded shuffles shared by DatasetPartitioner and KFoldPartitioner, so that both split
+ * the documents the same way.
+ */
+final class PartitionRows {
+  private PartitionRows() {
+  }
+
+  // Returns a table of the row of every id of the dataset, -1 for the ids it does not have.
+  static int[] getRows(CsrDataset dataset) {
+    int maxId = -1;
+
+    for (int row = 0; row < dataset.getRowCount(); row++) {
+      maxId = Math.max(maxId, dataset.getRowId(row));
+    }
+
+    int[] rows = new int[maxId + 1];
+
+    Arrays.fill(rows, -1);
+
+    for (int row = 0; row < dataset.getRowCount(); row++) {
+      rows[dataset.getRowId(row)] = row;
+    }
+
+    return rows;
+  }
+
+  // Returns the stratum of every document row, which is its smallest response id, or one past the largest response
+  // id when it has none.
+  static int[] getStrata(CsrDataset documentDataset, CsrDataset responseDataset) {
+    int[] documentRows = getRows(documentDataset);
+    int[] values = responseDataset.getValues();
+    int responseIdLimit = 0;
+
+    for (int row = 0; row < responseDataset.getRowCount(); row++) {
+      responseIdLimit = Math.max(responseIdLimit, responseDataset.getRowId(row) + 1);
+    }
+
+    int[] strata = new int[documentDataset.getRowCount()];
+
+    Arrays.fill(strata, responseIdLimit);
+
+    for (int row = 0; row < responseDataset.getRowCount(); row++) {
+      int offset = responseDataset.getRowOffset(row);
+
+      for (int i = offset + 1; i < offset + responseDataset.getRowLength(row); i++) {
+        if (values[i] >= 0 && values[i] < documentRows.length && documentRows[values[i]] != -1) {
+          strata[documentRows[values[i]]] = Math.min(strata[documentRows[values[i]]], values[offset]);
+        }
+      }
+    }
+
+    return strata;
+  }
+
+  // Returns the offset of every stratum in [0, stratumCount) among the rows sorted by stratum, and the row count last.
+  static int[] getStrataOffsets(int[] strata, int stratumCount) {
+    int[] strataOffsets = new int[stratumCount + 1];
+
+    for (int stratum : strata) {
+      strataOffsets[stratum + 1]++;
+    }
+
+    for (int stratum = 1; stratum < strataOffsets.length; stratum++) {
+      strataOffsets[stratum] += strataOffsets[stratum - 1];
+    }
+
+    return strataOffsets;
+  }
+
+  // Returns the rows sorted by stratum with a counting sort, keeping their order within a stratum.
+  static int[] sortByStratum(int[] strata, int[] strataOffsets) {
+    int[] positions = Arrays.copyOf(strataOffsets, strataOffsets.length);
+    int[] rows = new int[strata.length];
+
+    for (int row = 0; row < strata.length; row++) {
+      rows[positions[strata[row]]++] = row;
+    }
+
+    return rows;
+  }
+
+  // Shuffles the rows of every stratum in [0, stratumCount) on its own, in stratum order.
+  static void shuffleStrata(int[] rows, int[] strataOffsets, int stratumCount, Random random) {
+    for (int stratum = 0; stratum < stratumCount; stratum++) {
+      shuffle(rows, strataOffsets[stratum], strataOffsets[stratum + 1], random);
+    }
+  }
+
+  static void shuffle(int[] values, int from, int to, Random random) {
+    for (int i = to - 1; i > from; i--) {
+      int j = from + random.nextInt(i - from + 1);
+      int value = values[i];
+
+      values[i] = values[j];
+      values[j] = value;
+    }
+  }
+}
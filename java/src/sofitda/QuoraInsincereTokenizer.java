@@ -1,7 +1,6 @@
 package sofitda;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -13,8 +12,8 @@ public class QuoraInsincereTokenizer extends AbstractDocumentsTokenizer {
   private static final Pattern entry = Pattern.compile("[^\"]+,\"([^\"]*)\",(\\d)");
   private static final String QUOTE_REPLACER = "#U^$&*^#&(*$";
 
-  public QuoraInsincereTokenizer(int maxRowCount) throws IOException {
-    super("quora", true /* hasResponse */);
+  public QuoraInsincereTokenizer(RunContext context, int maxRowCount) throws IOException {
+    super(context, true /* hasResponse */);
 
     System.out.println("Extracting quora dataset...");
     initialize("all");
@@ -27,7 +26,7 @@ public class QuoraInsincereTokenizer extends AbstractDocumentsTokenizer {
     List<String> insincereList = new ArrayList<String>();
 
     try {
-      reader = new BufferedReader(new FileReader(trainFilePath));
+      reader = Helper.createBufferedReader(trainFilePath);
 
       reader.readLine(); // skip headers
 
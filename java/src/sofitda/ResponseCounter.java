@@ -5,24 +5,31 @@ import java.util.Map;
 import java.util.TreeMap;
 
 public class ResponseCounter {
-  public ResponseCounter() throws IOException {
+  private final RunContext context;
+
+  public ResponseCounter(RunContext context) throws IOException {
+    this.context = context;
+
     String[] prefixes = { "training", "validation", "testing", "all" };
 
-    for (String prefix : prefixes) {
-      String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
-          + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
+    StagePool.forEachPrefix(prefixes, new StagePool.PrefixTask() {
+      @Override
+      public void run(String prefix) throws IOException {
+        String responseDatasetFilePath = context.getStage3Directory() + "/"
+            + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, prefix);
 
-      Map<Integer, int[]> responseMap = Helper.readMultiColumnIntegerMap(responseDatasetFilePath);
-      Map<Integer, Integer> responseCountMap = new TreeMap<>();
+        Map<Integer, int[]> responseMap = Helper.readMultiColumnIntegerMap(responseDatasetFilePath);
+        Map<Integer, Integer> responseCountMap = new TreeMap<>();
 
-      for (Map.Entry<Integer, int[]> entry : responseMap.entrySet()) {
-        responseCountMap.put(entry.getKey(), entry.getValue().length);
-      }
+        for (Map.Entry<Integer, int[]> entry : responseMap.entrySet()) {
+          responseCountMap.put(entry.getKey(), entry.getValue().length);
+        }
 
-      String responseCountDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
-          + String.format(Constants.RESPONSE_COUNT_DATASET_FORMAT, prefix);
+        String responseCountDatasetFilePath = context.getStage3Directory() + "/"
+            + String.format(Constants.RESPONSE_COUNT_DATASET_FORMAT, prefix);
 
-      Helper.writeIntegralDictionary(responseCountMap, responseCountDatasetFilePath);
-    }
+        Helper.writeIntegralDictionary(responseCountMap, responseCountDatasetFilePath);
+      }
+    });
   }
 }
@@ -0,0 +1,21 @@
+package sofitda;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Integer dataset rows read one at a time, for stages that stream a dataset instead of loading it.
+ * {@link Helper#openIntegerDataset(String)} returns one for whichever form of the dataset exists.
+ */
+public interface RowReader extends Closeable {
+  /**
+   * Advances to the next row and returns its column count, or -1 at the end of the dataset.
+   */
+  int next() throws IOException;
+
+  /**
+   * Returns the buffer holding the row read by the last call to {@link #next()}. Only the first {@code columnCount}
+   * entries are valid, and the buffer may be reused by the next call.
+   */
+  int[] row();
+}
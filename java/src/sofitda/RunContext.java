@@ -0,0 +1,68 @@
+package sofitda;
+
+/**
+ * The dataset a build is for and the directories its stages read and write. Every tokenizer and stage is given the
+ * context of its build, so several datasets can be built in one process at the same time. The directories, including
+ * those of the stage cache and the stage reports, are under ../data unless another data directory is given.
+ */
+public class RunContext {
+  private final String datasetName;
+  private final String stage1Directory;
+  private final String stage2Directory;
+  private final String stage3Directory;
+  private final String cacheDirectory;
+  private final String reportDirectory;
+
+  public RunContext(String datasetName) {
+    this.datasetName = datasetName;
+    stage1Directory = Constants.STAGE1_BASE_DIRECTORY + "/" + datasetName;
+    stage2Directory = Constants.STAGE2_BASE_DIRECTORY + "/" + datasetName;
+    stage3Directory = Constants.STAGE3_BASE_DIRECTORY + "/" + datasetName;
+    cacheDirectory = Constants.CACHE_BASE_DIRECTORY + "/" + datasetName;
+    reportDirectory = Constants.REPORT_DIRECTORY;
+  }
+
+  /**
+   * Creates a context whose stage directories are under dataDirectory instead of ../data.
+   */
+  public RunContext(String datasetName, String dataDirectory) {
+    this.datasetName = datasetName;
+    stage1Directory = dataDirectory + "/stage1/" + datasetName;
+    stage2Directory = dataDirectory + "/stage2/" + datasetName;
+    stage3Directory = dataDirectory + "/stage3/" + datasetName;
+    cacheDirectory = dataDirectory + "/cache/" + datasetName;
+    reportDirectory = dataDirectory + "/report";
+  }
+
+  public String getDatasetName() {
+    return datasetName;
+  }
+
+  public String getStage1Directory() {
+    return stage1Directory;
+  }
+
+  public String getStage2Directory() {
+    return stage2Directory;
+  }
+
+  public String getStage3Directory() {
+    return stage3Directory;
+  }
+
+  public String getCacheDirectory() {
+    return cacheDirectory;
+  }
+
+  /**
+   * Returns the directory the stage reports of every dataset built in the data directory are written to.
+   */
+  public String getReportDirectory() {
+    return reportDirectory;
+  }
+
+  @Override
+  public String toString() {
+    return datasetName;
+  }
+}
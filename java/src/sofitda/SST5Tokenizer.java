@@ -1,18 +1,13 @@
 package sofitda;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import org.json.JSONObject;
-import org.json.JSONTokener;
-
 public class SST5Tokenizer extends AbstractDocumentsTokenizer {
-  public SST5Tokenizer() throws IOException {
-    super("sst5", true /* hasResponse */);
+  public SST5Tokenizer(RunContext context) throws IOException {
+    super(context, true /* hasResponse */);
 
     createDataset("training", false /* isLastPrefix */);
     createDataset("validation", false /* isLastPrefix */);
@@ -49,18 +44,15 @@ public class SST5Tokenizer extends AbstractDocumentsTokenizer {
 
   private void processResponse(String prefix) throws IOException {
     String reviewFilePath = rawDataDirectory.getAbsolutePath() + "/" + prefix + ".jsonl";
-    BufferedReader reader = new BufferedReader(new FileReader(reviewFilePath));
-    String line;
+    JsonLinesReader reader = new JsonLinesReader(reviewFilePath, "text", "label_text");
 
-    for (int i = 0; (line = reader.readLine()) != null; i++) {
+    for (int i = 0; reader.next(); i++) {
       if (i % 1000 == 0) {
         System.out.println("Processed " + i + " reviews for prefix: " + prefix);
       }
 
-      JSONTokener tokener = new JSONTokener(line);
-      JSONObject json = new JSONObject(tokener);
-      String text = json.getString("text");
-      String response = json.getString("label_text");
+      String text = reader.getString(0);
+      String response = reader.getString(1);
 
       processDocument(text, response);
     }
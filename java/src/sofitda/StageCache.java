@@ -0,0 +1,356 @@
+package sofitda;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Content-addressed snapshots of a stage3 directory, keyed by stage fingerprint. A fingerprint is a SHA-256 over the
+ * stage's inputs and parameters, and each snapshot lists the file hashes the directory held after that stage ran.
+ * File contents are stored once under objects/ however many snapshots refer to them. The manifest records the last
+ * fingerprint of every stage and, for each file hashed, its size and modification time, so that an unchanged file
+ * is not read again.
+ */
+public class StageCache {
+  private static final String MANIFEST_FILENAME = "manifest.properties";
+  private static final String OBJECT_DIRECTORY = "objects";
+  private static final String SNAPSHOT_DIRECTORY = "snapshots";
+  private static final String STAGE_KEY_PREFIX = "stage.";
+  private static final String FILE_KEY_PREFIX = "file.";
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private static String packageCodeHash;
+
+  private final File directory;
+  private final File objectDirectory;
+  private final File snapshotDirectory;
+  private final Properties manifest = new Properties();
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  public StageCache(RunContext context) throws IOException {
+    directory = new File(context.getCacheDirectory());
+    objectDirectory = new File(directory, OBJECT_DIRECTORY);
+    snapshotDirectory = new File(directory, SNAPSHOT_DIRECTORY);
+    objectDirectory.mkdirs();
+    snapshotDirectory.mkdirs();
+
+    File manifestFile = new File(directory, MANIFEST_FILENAME);
+
+    if (manifestFile.exists()) {
+      InputStream inputStream = new FileInputStream(manifestFile);
+
+      try {
+        manifest.load(inputStream);
+      } finally {
+        inputStream.close();
+      }
+    }
+  }
+
+  public static String hash(String... parts) {
+    MessageDigest digest = createDigest();
+
+    for (String part : parts) {
+      digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+    }
+
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Returns the content hash of the file. The hash recorded in the manifest is reused while the file's size and
+   * modification time are unchanged.
+   */
+  public String hashFile(File file) throws IOException {
+    String key = FILE_KEY_PREFIX + file.getCanonicalPath();
+    String state = getFileState(file);
+    String recorded = manifest.getProperty(key);
+
+    if (recorded != null && recorded.startsWith(state)) {
+      return recorded.substring(state.length());
+    }
+
+    MessageDigest digest = createDigest();
+    InputStream inputStream = new FileInputStream(file);
+
+    try {
+      int count;
+
+      while ((count = inputStream.read(buffer)) != -1) {
+        digest.update(buffer, 0, count);
+      }
+    } finally {
+      inputStream.close();
+    }
+
+    String hash = toHex(digest.digest());
+
+    manifest.setProperty(key, state + hash);
+    return hash;
+  }
+
+  /**
+   * Returns a hash over the relative paths and contents of every file under the directory, or of nothing if it does
+   * not exist.
+   */
+  public String hashDirectory(File directory) throws IOException {
+    Map<String, String> fileHashes = hashFiles(directory);
+    List<String> parts = new ArrayList<>();
+
+    for (Map.Entry<String, String> entry : fileHashes.entrySet()) {
+      parts.add(entry.getKey());
+      parts.add(entry.getValue());
+    }
+
+    return hash(parts.toArray(new String[parts.size()]));
+  }
+
+  /**
+   * Returns a hash over the bytecode of every class in the package of the given class, read from the directory or jar
+   * the class was loaded from. A stage runs code of many classes, such as the document filters and Helper, so a
+   * change to any of them changes the fingerprint of every stage. The hash is computed once per run.
+   */
+  public static synchronized String hashPackageCode(Class<?> stageClass) throws IOException {
+    if (packageCodeHash != null) {
+      return packageCodeHash;
+    }
+
+    CodeSource codeSource = stageClass.getProtectionDomain().getCodeSource();
+
+    if (codeSource == null) {
+      throw new IOException("Cannot locate the bytecode of " + stageClass.getName());
+    }
+
+    File location;
+
+    try {
+      location = new File(codeSource.getLocation().toURI());
+    } catch (URISyntaxException e) {
+      throw new IOException("Cannot locate the bytecode of " + stageClass.getName(), e);
+    }
+
+    String packagePath = stageClass.getPackage().getName().replace('.', '/') + "/";
+    MessageDigest digest = createDigest();
+
+    if (location.isDirectory()) {
+      File[] files = new File(location, packagePath).listFiles();
+
+      if (files == null) {
+        throw new IOException("Cannot list " + new File(location, packagePath));
+      }
+
+      Arrays.sort(files);
+
+      for (File file : files) {
+        if (file.getName().endsWith(".class")) {
+          digest.update(file.getName().getBytes(StandardCharsets.UTF_8));
+          update(digest, new FileInputStream(file));
+        }
+      }
+    } else {
+      JarFile jarFile = new JarFile(location);
+
+      try {
+        TreeMap<String, JarEntry> entries = new TreeMap<>();
+
+        for (Enumeration<JarEntry> e = jarFile.entries(); e.hasMoreElements();) {
+          JarEntry entry = e.nextElement();
+          String name = entry.getName();
+
+          if (name.startsWith(packagePath) && name.endsWith(".class")
+              && name.indexOf('/', packagePath.length()) == -1) {
+            entries.put(name.substring(packagePath.length()), entry);
+          }
+        }
+
+        for (Map.Entry<String, JarEntry> entry : entries.entrySet()) {
+          digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+          update(digest, jarFile.getInputStream(entry.getValue()));
+        }
+      } finally {
+        jarFile.close();
+      }
+    }
+
+    packageCodeHash = toHex(digest.digest());
+    return packageCodeHash;
+  }
+
+  public boolean hasSnapshot(String fingerprint) {
+    return getSnapshotFile(fingerprint).exists();
+  }
+
+  /**
+   * Records the current contents of outputDirectory as the snapshot for fingerprint.
+   */
+  public void saveSnapshot(String fingerprint, File outputDirectory) throws IOException {
+    Map<String, String> fileHashes = hashFiles(outputDirectory);
+    Properties snapshot = new Properties();
+
+    for (Map.Entry<String, String> entry : fileHashes.entrySet()) {
+      File object = getObjectFile(entry.getValue());
+
+      if (!object.exists()) {
+        File temporaryFile = new File(objectDirectory, entry.getValue() + ".tmp");
+
+        Files.copy(new File(outputDirectory, entry.getKey()).toPath(), temporaryFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temporaryFile.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+
+      snapshot.setProperty(entry.getKey(), entry.getValue());
+    }
+
+    store(snapshot, getSnapshotFile(fingerprint));
+  }
+
+  /**
+   * Replaces the contents of outputDirectory with the snapshot for fingerprint.
+   */
+  public void restoreSnapshot(String fingerprint, File outputDirectory) throws IOException {
+    Properties snapshot = new Properties();
+    InputStream inputStream = new FileInputStream(getSnapshotFile(fingerprint));
+
+    try {
+      snapshot.load(inputStream);
+    } finally {
+      inputStream.close();
+    }
+
+    Helper.deleteDirectory(outputDirectory);
+    outputDirectory.mkdirs();
+
+    for (String relativePath : snapshot.stringPropertyNames()) {
+      File object = getObjectFile(snapshot.getProperty(relativePath));
+      File file = new File(outputDirectory, relativePath);
+
+      if (!object.exists()) {
+        throw new IOException("Stage cache object " + object + " is missing");
+      }
+
+      file.getParentFile().mkdirs();
+      Files.copy(object.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+      // Record the restored copy so that it is not hashed again when the next snapshot is taken.
+      manifest.setProperty(FILE_KEY_PREFIX + file.getCanonicalPath(),
+          getFileState(file) + snapshot.getProperty(relativePath));
+    }
+  }
+
+  public String getStageFingerprint(String stageName) {
+    return manifest.getProperty(STAGE_KEY_PREFIX + stageName);
+  }
+
+  public void setStageFingerprint(String stageName, String fingerprint) {
+    manifest.setProperty(STAGE_KEY_PREFIX + stageName, fingerprint);
+  }
+
+  public void save() throws IOException {
+    store(manifest, new File(directory, MANIFEST_FILENAME));
+  }
+
+  // Returns the content hash of every file under the directory, keyed by path relative to it, in path order.
+  private Map<String, String> hashFiles(File directory) throws IOException {
+    Map<String, String> fileHashes = new TreeMap<>();
+
+    if (directory.isDirectory()) {
+      hashFiles(directory, "", fileHashes);
+    }
+
+    return fileHashes;
+  }
+
+  private void hashFiles(File directory, String prefix, Map<String, String> fileHashes) throws IOException {
+    File[] files = directory.listFiles();
+
+    if (files == null) {
+      throw new IOException("Cannot list " + directory);
+    }
+
+    for (File file : files) {
+      if (file.isDirectory()) {
+        hashFiles(file, prefix + file.getName() + "/", fileHashes);
+      } else {
+        fileHashes.put(prefix + file.getName(), hashFile(file));
+      }
+    }
+  }
+
+  private static String getFileState(File file) throws IOException {
+    return file.length() + ":" + Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS) + ":";
+  }
+
+  private File getObjectFile(String hash) {
+    return new File(objectDirectory, hash);
+  }
+
+  private File getSnapshotFile(String fingerprint) {
+    return new File(snapshotDirectory, fingerprint + ".properties");
+  }
+
+  private static void store(Properties properties, File file) throws IOException {
+    File temporaryFile = new File(file.getPath() + ".tmp");
+    OutputStream outputStream = new FileOutputStream(temporaryFile);
+
+    try {
+      properties.store(outputStream, null);
+    } finally {
+      outputStream.close();
+    }
+
+    Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  // Adds the rest of the stream to the digest and closes it.
+  private static void update(MessageDigest digest, InputStream inputStream) throws IOException {
+    try {
+      byte[] bytes = new byte[BUFFER_SIZE];
+      int count;
+
+      while ((count = inputStream.read(bytes)) != -1) {
+        digest.update(bytes, 0, count);
+      }
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder builder = new StringBuilder(bytes.length * 2);
+
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+
+    return builder.toString();
+  }
+}
@@ -0,0 +1,20 @@
+package sofitda;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Names the Configuration fields whose values change what a stage writes, including those read by the classes it
+ * runs. StageRunner adds their values to the stage's cache fingerprint, so a stage that reads a setting without
+ * declaring it here can be restored from the cache with outputs made under another value. Settings that change only
+ * how fast a stage runs, such as thread counts, are left out.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface StageConfiguration {
+  String[] value();
+}
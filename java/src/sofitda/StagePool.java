@@ -0,0 +1,111 @@
+package sofitda;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The fork/join pool shared by the stages, for work split by prefix or by rows. It has
+ * Configuration.STAGE_THREAD_COUNT threads and is created on first use. The reads and writes of a prefix task are
+ * counted towards the thread that waits for it, so stage reports still include them.
+ */
+public class StagePool {
+  private static ForkJoinPool pool;
+
+  public interface PrefixTask {
+    void run(String prefix) throws IOException;
+  }
+
+  public static synchronized ForkJoinPool get() {
+    if (pool == null) {
+      pool = new ForkJoinPool(Math.max(1, Configuration.STAGE_THREAD_COUNT));
+    }
+
+    return pool;
+  }
+
+  /**
+   * Runs the task for every prefix at the same time and waits for all of them. The first failure is rethrown once
+   * every task has ended.
+   */
+  public static void forEachPrefix(String[] prefixes, PrefixTask task) throws IOException {
+    List<PrefixAction> actions = new ArrayList<>(prefixes.length);
+    boolean inPool = ForkJoinTask.getPool() == get();
+
+    for (String prefix : prefixes) {
+      PrefixAction action = new PrefixAction(task, prefix);
+
+      if (inPool) {
+        action.fork();
+      } else {
+        get().execute(action);
+      }
+
+      actions.add(action);
+    }
+
+    IOException failure = null;
+    RuntimeException runtimeFailure = null;
+
+    for (PrefixAction action : actions) {
+      try {
+        IoCounters.add(action.join());
+      } catch (RuntimeException e) {
+        runtimeFailure = runtimeFailure != null ? runtimeFailure : e;
+        continue;
+      }
+
+      if (action.failure != null && failure == null) {
+        failure = action.failure;
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+
+    if (runtimeFailure != null) {
+      throw runtimeFailure;
+    }
+  }
+
+  /**
+   * Runs the task on the pool, or in the calling thread if it is already one of the pool's, and returns its result.
+   */
+  public static <T> T invoke(ForkJoinTask<T> task) {
+    return ForkJoinTask.getPool() == get() ? task.invoke() : get().invoke(task);
+  }
+
+  // Runs the task for one prefix and returns the reads and writes it made.
+  private static class PrefixAction extends RecursiveTask<long[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final PrefixTask task;
+    private final String prefix;
+    IOException failure;
+
+    PrefixAction(PrefixTask task, String prefix) {
+      this.task = task;
+      this.prefix = prefix;
+    }
+
+    @Override
+    protected long[] compute() {
+      long[] previousCounts = IoCounters.begin();
+      long[] counts;
+
+      try {
+        task.run(prefix);
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        counts = IoCounters.end(previousCounts);
+      }
+
+      return counts;
+    }
+  }
+}
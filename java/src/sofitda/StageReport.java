@@ -0,0 +1,240 @@
+package sofitda;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resource usage of every stage of one dataset build. {@link #begin(String)} samples the JVM before a stage and
+ * {@link Measurement#end(boolean)} samples it again after, and {@link #write()} saves the stages to
+ * &lt;dataset&gt;_stage_report.json in the report directory of the RunContext, data/report by default, replacing the
+ * last build, and appends them to &lt;dataset&gt;_stage_report.csv there. A stage that threw is added by
+ * {@link Measurement#fail()}, so a build that breaks still reports how far it got.
+ *
+ * Allocated bytes are summed over the threads alive when the stage ends, so the allocations of a thread that ended
+ * during the stage are missed. Rows and bytes are those counted by IoCounters on the thread running the stage. When
+ * several datasets are built at once, the CPU time, allocation, heap and GC figures include the other builds.
+ */
+public class StageReport {
+  private static final String[] COLUMNS = { "run", "dataset", "stage", "cached", "wallMillis", "cpuMillis",
+      "allocatedBytes", "peakHeapBytes", "gcCount", "gcMillis", "rowsRead", "bytesRead", "rowsWritten",
+      "bytesWritten", "rowsPerSecond", "failed" };
+
+  private final String datasetName;
+  private final String directory;
+  private final String run = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.ROOT).format(new Date());
+  private final List<Object[]> stages = new ArrayList<>();
+
+  public StageReport(RunContext context) {
+    datasetName = context.getDatasetName();
+    directory = context.getReportDirectory();
+  }
+
+  public Measurement begin(String stageName) {
+    return new Measurement(stageName);
+  }
+
+  public void write() throws IOException {
+    File reportDirectory = new File(directory);
+
+    reportDirectory.mkdirs();
+    writeJson(new File(reportDirectory, datasetName + "_stage_report.json"));
+    appendCsv(new File(reportDirectory, datasetName + "_stage_report.csv"));
+  }
+
+  private void writeJson(File file) throws IOException {
+    File temporaryFile = new File(file.getPath() + ".tmp");
+    PrintWriter writer = createWriter(temporaryFile, false);
+
+    try {
+      writer.println("{");
+      writer.println("  \"run\": " + quote(run) + ",");
+      writer.println("  \"dataset\": " + quote(datasetName) + ",");
+      writer.println("  \"stages\": [");
+
+      for (int i = 0; i < stages.size(); i++) {
+        Object[] row = stages.get(i);
+        StringBuilder builder = new StringBuilder("    {");
+
+        // The run and the dataset are already given above.
+        for (int column = 2; column < COLUMNS.length; column++) {
+          builder.append(column > 2 ? ", " : "").append(quote(COLUMNS[column])).append(": ");
+          builder.append(row[column] instanceof String ? quote((String) row[column]) : String.valueOf(row[column]));
+        }
+
+        writer.println(builder.append(i < stages.size() - 1 ? "}," : "}"));
+      }
+
+      writer.println("  ]");
+      writer.println("}");
+    } finally {
+      writer.close();
+    }
+
+    if (!temporaryFile.renameTo(file) && !(file.delete() && temporaryFile.renameTo(file))) {
+      throw new IOException("Cannot replace " + file);
+    }
+  }
+
+  private void appendCsv(File file) throws IOException {
+    boolean newFile = !file.exists() || file.length() == 0;
+    PrintWriter writer = createWriter(file, true);
+
+    try {
+      if (newFile) {
+        writer.println(String.join(",", COLUMNS));
+      }
+
+      for (Object[] row : stages) {
+        StringBuilder builder = new StringBuilder();
+
+        for (int column = 0; column < row.length; column++) {
+          builder.append(column > 0 ? "," : "").append(row[column]);
+        }
+
+        writer.println(builder);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static PrintWriter createWriter(File file, boolean append) throws IOException {
+    return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8));
+  }
+
+  private static String quote(String value) {
+    return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+
+  private static long getProcessCpuTime() {
+    OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+
+    if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+    }
+
+    // Without a process counter, fall back to the CPU time of the calling thread.
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : 0;
+  }
+
+  private static Map<Long, Long> getAllocatedBytes() {
+    Map<Long, Long> allocatedBytes = new HashMap<>();
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      long[] threadIds = bean.getAllThreadIds();
+      long[] bytes = ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(threadIds);
+
+      for (int i = 0; i < threadIds.length; i++) {
+        if (bytes[i] >= 0) {
+          allocatedBytes.put(threadIds[i], bytes[i]);
+        }
+      }
+    }
+
+    return allocatedBytes;
+  }
+
+  /**
+   * The JVM counters sampled when a stage began.
+   */
+  public class Measurement {
+    private final String stageName;
+    private final long startTime = System.nanoTime();
+    private final long startCpuTime = getProcessCpuTime();
+    private final Map<Long, Long> startAllocatedBytes = getAllocatedBytes();
+    private final long startGcCount;
+    private final long startGcTime;
+    private final long startRowsRead = IoCounters.getRowsRead();
+    private final long startBytesRead = IoCounters.getBytesRead();
+    private final long startRowsWritten = IoCounters.getRowsWritten();
+    private final long startBytesWritten = IoCounters.getBytesWritten();
+
+    Measurement(String stageName) {
+      this.stageName = stageName;
+
+      long gcCount = 0;
+      long gcTime = 0;
+
+      for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+        gcCount += Math.max(bean.getCollectionCount(), 0);
+        gcTime += Math.max(bean.getCollectionTime(), 0);
+      }
+
+      startGcCount = gcCount;
+      startGcTime = gcTime;
+
+      for (MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (bean.getType() == MemoryType.HEAP) {
+          bean.resetPeakUsage();
+        }
+      }
+    }
+
+    /**
+     * Adds the stage to the report. A cached stage is one whose outputs came from the StageCache.
+     */
+    public void end(boolean cached) {
+      end(cached, false);
+    }
+
+    /**
+     * Adds the stage to the report as failed, with what it had used when it threw.
+     */
+    public void fail() {
+      end(false, true);
+    }
+
+    private void end(boolean cached, boolean failed) {
+      long wallTime = System.nanoTime() - startTime;
+      long cpuTime = getProcessCpuTime() - startCpuTime;
+      long allocatedBytes = 0;
+      long peakHeapBytes = 0;
+      long gcCount = 0;
+      long gcTime = 0;
+
+      for (Map.Entry<Long, Long> entry : getAllocatedBytes().entrySet()) {
+        Long startBytes = startAllocatedBytes.get(entry.getKey());
+        allocatedBytes += entry.getValue() - (startBytes != null ? startBytes : 0);
+      }
+
+      for (MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (bean.getType() == MemoryType.HEAP) {
+          peakHeapBytes += bean.getPeakUsage().getUsed();
+        }
+      }
+
+      for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+        gcCount += Math.max(bean.getCollectionCount(), 0);
+        gcTime += Math.max(bean.getCollectionTime(), 0);
+      }
+
+      long rowsRead = IoCounters.getRowsRead() - startRowsRead;
+      long rowsWritten = IoCounters.getRowsWritten() - startRowsWritten;
+      long rowsPerSecond = wallTime > 0 ? (long) ((rowsRead + rowsWritten) * 1e9 / wallTime) : 0;
+
+      stages.add(new Object[] { run, datasetName, stageName, cached, wallTime / 1000000, cpuTime / 1000000,
+          allocatedBytes, peakHeapBytes, gcCount - startGcCount, gcTime - startGcTime, rowsRead,
+          IoCounters.getBytesRead() - startBytesRead, rowsWritten, IoCounters.getBytesWritten() - startBytesWritten,
+          rowsPerSecond, failed });
+    }
+  }
+}
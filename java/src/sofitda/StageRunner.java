@@ -0,0 +1,190 @@
+package sofitda;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the stages of one dataset build in order. A stage is a class whose constructor does its work, and run() is
+ * given the class and its constructor arguments. The RunContext of the build is passed to every stage ahead of them.
+ *
+ * With Configuration.STAGE_CACHE set, every stage gets a fingerprint. It hashes the fingerprint of the stage before
+ * it (for the first stage, the content of the dataset's stage1 directory), the bytecode of the package, the stage's
+ * arguments, the output format settings and the settings the stage declares with StageConfiguration. A stage whose
+ * fingerprint has a snapshot in the StageCache does not run. Its outputs are restored into stage3 only when a later
+ * stage has to run, or when the build finishes.
+ *
+ * Every stage is measured, and finish() writes the StageReport of the build. If a stage throws, the report is
+ * written with that stage marked as failed before the exception is passed on.
+ */
+public class StageRunner {
+  private static final List<String> OUTPUT_FORMAT_SETTINGS = Arrays.asList("BINARY_DATASETS", "TEXT_DATASETS",
+      "GZIP_DATASETS");
+
+  private final RunContext context;
+  private final StageCache cache;
+  private final StageReport report;
+  private String fingerprint;
+  private String pendingSnapshot;
+
+  public StageRunner(RunContext context) throws IOException {
+    this.context = context;
+    report = new StageReport(context);
+
+    if (!Configuration.STAGE_CACHE) {
+      cache = null;
+      return;
+    }
+
+    // The tokenizer normally sets up the output directory, but it may not run.
+    Helper.makeOutputDirectory(context, false);
+    cache = new StageCache(context);
+    fingerprint = cache.hashDirectory(new File(context.getStage1Directory()));
+  }
+
+  public void run(Class<?> stageClass, Object... arguments) throws IOException {
+    StageReport.Measurement measurement = report.begin(stageClass.getSimpleName());
+
+    try {
+      run(stageClass, arguments, measurement);
+    } catch (IOException | RuntimeException | Error e) {
+      // Report the stages so far, including this one, before the build is abandoned.
+      measurement.fail();
+
+      try {
+        report.write();
+      } catch (IOException | RuntimeException reportFailure) {
+        e.addSuppressed(reportFailure);
+      }
+
+      throw e;
+    }
+  }
+
+  private void run(Class<?> stageClass, Object[] arguments, StageReport.Measurement measurement) throws IOException {
+    String stageName = stageClass.getSimpleName();
+    Object[] constructorArguments = new Object[arguments.length + 1];
+
+    constructorArguments[0] = context;
+    System.arraycopy(arguments, 0, constructorArguments, 1, arguments.length);
+
+    if (cache == null) {
+      construct(stageClass, constructorArguments);
+      measurement.end(false);
+      return;
+    }
+
+    fingerprint = StageCache.hash(fingerprint, stageClass.getName(), StageCache.hashPackageCode(stageClass),
+        Arrays.deepToString(arguments), getConfiguration(stageClass));
+
+    if (cache.hasSnapshot(fingerprint)) {
+      System.out.println("Stage " + stageName + " of " + context + " is unchanged, using cached outputs");
+      pendingSnapshot = fingerprint;
+      cache.setStageFingerprint(stageName, fingerprint);
+      measurement.end(true);
+      return;
+    }
+
+    restorePendingSnapshot();
+    construct(stageClass, constructorArguments);
+    Helper.flushDatasets(context.getStage3Directory());
+    cache.saveSnapshot(fingerprint, new File(context.getStage3Directory()));
+    cache.setStageFingerprint(stageName, fingerprint);
+    cache.save();
+    measurement.end(false);
+  }
+
+  /**
+   * Brings stage3 up to date with the last stage, saves the cache manifest and writes the stage report.
+   */
+  public void finish() throws IOException {
+    if (cache != null) {
+      restorePendingSnapshot();
+      cache.save();
+    }
+
+    report.write();
+  }
+
+  // Returns the output format settings, which every stage writes by, and the settings the stage declares.
+  private static String getConfiguration(Class<?> stageClass) {
+    List<String> names = new ArrayList<>(OUTPUT_FORMAT_SETTINGS);
+    StageConfiguration stageConfiguration = stageClass.getAnnotation(StageConfiguration.class);
+    StringBuilder builder = new StringBuilder();
+
+    if (stageConfiguration != null) {
+      names.addAll(Arrays.asList(stageConfiguration.value()));
+    }
+
+    for (String name : names) {
+      try {
+        builder.append(name).append('=').append(Arrays.deepToString(new Object[] {
+            Configuration.class.getField(name).get(null) })).append(' ');
+      } catch (NoSuchFieldException | IllegalAccessException e) {
+        throw new IllegalStateException(stageClass.getName() + " declares an unknown setting " + name, e);
+      }
+    }
+
+    return builder.toString();
+  }
+
+  private void restorePendingSnapshot() throws IOException {
+    if (pendingSnapshot != null) {
+      cache.restoreSnapshot(pendingSnapshot, new File(context.getStage3Directory()));
+      pendingSnapshot = null;
+    }
+  }
+
+  private static void construct(Class<?> stageClass, Object[] arguments) throws IOException {
+    for (Constructor<?> constructor : stageClass.getConstructors()) {
+      if (!accepts(constructor.getParameterTypes(), arguments)) {
+        continue;
+      }
+
+      try {
+        constructor.newInstance(arguments);
+        return;
+      } catch (InvocationTargetException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+
+        throw new RuntimeException(e.getCause());
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Cannot run stage " + stageClass.getName(), e);
+      }
+    }
+
+    throw new IllegalArgumentException(
+        "No constructor of " + stageClass.getName() + " takes " + Arrays.deepToString(arguments));
+  }
+
+  private static boolean accepts(Class<?>[] parameterTypes, Object[] arguments) {
+    if (parameterTypes.length != arguments.length) {
+      return false;
+    }
+
+    for (int i = 0; i < arguments.length; i++) {
+      Class<?> type = parameterTypes[i];
+
+      if (type.isPrimitive()) {
+        type = MethodType.methodType(type).wrap().returnType();
+      }
+
+      if (!type.isInstance(arguments[i])) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
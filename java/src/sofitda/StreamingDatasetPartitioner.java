@@ -0,0 +1,489 @@
+package sofitda;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits the "all" datasets into training, validation and testing ones like DatasetPartitioner, but without loading
+ * them, for corpora larger than the heap. Main runs it instead of DatasetPartitioner when
+ * Configuration.PARTITION_MEMORY_MB is set.
+ *
+ * A document goes to the split picked by a hash of its id and Configuration.PARTITION_SEED, so the split sizes are
+ * close to the partition sizes in Constants rather than exact, and a seed always gives the same split. Documents,
+ * paragraphs and sentences are streamed in id order, each to a temporary file per split, and the references from
+ * one level to the next are renamed through ExternalSorters of packed (id, position) pairs, which together stay
+ * within the memory budget. The output has the layout of DatasetPartitioner: the terminator rows start every split,
+ * and the new ids are dense and run on from one split to the next.
+ */
+@StageConfiguration({ "PARTITION_SEED" })
+public class StreamingDatasetPartitioner {
+  private static final String[] PREFIXES = { "training", "validation", "testing" };
+
+  // Packed positions hold the split above the local id or reference number within it.
+  private static final int LOCAL_BITS = 29;
+  private static final int LOCAL_MASK = (1 << LOCAL_BITS) - 1;
+  private static final long NONE = -1;
+
+  private final static int[] EXCLUDED_SENTENCE_IDS = new int[] {
+      AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_SENTENCE_ID,
+      AbstractDocumentsTokenizer.PARAGRAPH_TERMINATOR_SENTENCE_ID };
+
+  private final static int[] EXCLUDED_PARAGRAPH_IDS = new int[] {
+      AbstractDocumentsTokenizer.DOCUMENT_TERMINATOR_PARAGRAPH_ID };
+
+  private final RunContext context;
+  private final File temporaryDirectory;
+  private final long sortMemoryBytes;
+  private final int[] documentCounts = new int[PREFIXES.length];
+  private final int[] paragraphCounts = new int[PREFIXES.length];
+  private final int[] sentenceCounts = new int[PREFIXES.length];
+  private final List<int[]> terminatorParagraphs = new ArrayList<>();
+  private final List<int[]> terminatorSentences = new ArrayList<>();
+
+  public StreamingDatasetPartitioner(RunContext context) throws IOException {
+    this.context = context;
+    temporaryDirectory = new File(context.getStage3Directory(), "partition.tmp");
+
+    // No more than four sorters hold a buffer at the same time.
+    sortMemoryBytes = Configuration.PARTITION_MEMORY_MB * (1L << 20) / 4;
+
+    Helper.deleteDirectory(temporaryDirectory);
+    temporaryDirectory.mkdirs();
+
+    try {
+      partition();
+    } finally {
+      Helper.deleteDirectory(temporaryDirectory);
+    }
+  }
+
+  private void partition() throws IOException {
+    ExternalSorter documentIds = new ExternalSorter(temporaryDirectory, sortMemoryBytes);
+    ExternalSorter paragraphReferences = new ExternalSorter(temporaryDirectory, sortMemoryBytes);
+
+    try {
+      partitionDocuments(documentIds, paragraphReferences);
+      paragraphReferences.sort();
+      writeResponses(documentIds);
+    } finally {
+      documentIds.close();
+    }
+
+    ExternalSorter newParagraphIds = new ExternalSorter(temporaryDirectory, sortMemoryBytes);
+    ExternalSorter sentenceReferences = new ExternalSorter(temporaryDirectory, sortMemoryBytes);
+
+    try {
+      try {
+        partitionChildren(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, paragraphReferences, newParagraphIds,
+            paragraphCounts, EXCLUDED_PARAGRAPH_IDS, terminatorParagraphs, sentenceReferences);
+      } finally {
+        paragraphReferences.close();
+      }
+
+      ExternalSorter newSentenceIds = new ExternalSorter(temporaryDirectory, sortMemoryBytes);
+
+      try {
+        sentenceReferences.sort();
+        partitionChildren(Constants.SENTENCE_DATASET_FILENAME_FORMAT, sentenceReferences, newSentenceIds,
+            sentenceCounts, EXCLUDED_SENTENCE_IDS, terminatorSentences, null);
+        sentenceReferences.close();
+
+        int[] sentenceBases = getBases(sentenceCounts, EXCLUDED_SENTENCE_IDS.length);
+
+        newSentenceIds.sort();
+        writeLevel(Constants.SENTENCE_DATASET_FILENAME_FORMAT, terminatorSentences, sentenceBases, null, null, null);
+        writeLevel(Constants.PARAGRAPH_DATASET_FILENAME_FORMAT, terminatorParagraphs,
+            getBases(paragraphCounts, EXCLUDED_PARAGRAPH_IDS.length), sentenceBases, EXCLUDED_SENTENCE_IDS,
+            newSentenceIds);
+      } finally {
+        newSentenceIds.close();
+      }
+
+      newParagraphIds.sort();
+      writeLevel(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, new ArrayList<int[]>(), getBases(documentCounts, 0),
+          getBases(paragraphCounts, EXCLUDED_PARAGRAPH_IDS.length), EXCLUDED_PARAGRAPH_IDS, newParagraphIds);
+    } finally {
+      newParagraphIds.close();
+      sentenceReferences.close();
+    }
+  }
+
+  // Sends every document to its split, numbering the documents and their paragraph references in each split in
+  // order. The old id of every referenced paragraph is recorded with the position of its reference.
+  private void partitionDocuments(ExternalSorter documentIds, ExternalSorter paragraphReferences)
+      throws IOException {
+    String filePath = getFilePath(Constants.DOCUMENT_DATASET_FILENAME_FORMAT, "all");
+    IntegerDatasetWriter[] writers = openTemporaryWriters(Constants.DOCUMENT_DATASET_FILENAME_FORMAT);
+    int[] referenceCounts = new int[PREFIXES.length];
+    RowReader reader = Helper.openIntegerDataset(filePath);
+
+    try {
+      int columnCount;
+
+      while ((columnCount = reader.next()) != -1) {
+        int[] row = reader.row();
+        int split = getSplit(row[0]);
+
+        documentIds.add(pack(row[0], getPosition(split, nextLocal(documentCounts, split))));
+        writers[split].writeRow(row, 0, columnCount);
+
+        for (int i = 1; i < columnCount; i++) {
+          if (!isExcluded(row[i], EXCLUDED_PARAGRAPH_IDS)) {
+            paragraphReferences.add(pack(row[i], getPosition(split, nextLocal(referenceCounts, split))));
+          }
+        }
+      }
+    } finally {
+      reader.close();
+      closeAll(writers);
+    }
+
+    for (int split = 0; split < PREFIXES.length; split++) {
+      System.out.println("Partitioning " + PREFIXES[split] + ": length = " + documentCounts[split] + "...");
+    }
+  }
+
+  // Streams the rows of the level in id order, joined with the sorted references to them from the level above. A
+  // referenced row goes to the split of its reference and gets the next local id there, recorded in newIds under
+  // the position of the reference. Terminator rows are kept for every split, and rows no one refers to are dropped.
+  private void partitionChildren(String format, ExternalSorter references, ExternalSorter newIds, int[] counts,
+      int[] excludedIds, List<int[]> terminatorRows, ExternalSorter childReferences) throws IOException {
+    String filePath = getFilePath(format, "all");
+    IntegerDatasetWriter[] writers = openTemporaryWriters(format);
+    int[] referenceCounts = new int[PREFIXES.length];
+    long reference = references.hasNext() ? references.next() : NONE;
+    int previousId = -1;
+    RowReader reader = Helper.openIntegerDataset(filePath);
+
+    try {
+      int columnCount;
+
+      while ((columnCount = reader.next()) != -1) {
+        int[] row = reader.row();
+        int id = row[0];
+
+        if (id <= previousId) {
+          throw new IOException(filePath + " is not in id order at id " + id);
+        }
+
+        previousId = id;
+
+        if (isExcluded(id, excludedIds)) {
+          terminatorRows.add(Arrays.copyOf(row, columnCount));
+          continue;
+        }
+
+        if (reference != NONE && getId(reference) < id) {
+          throw new IOException(filePath + " has no row for the referenced id " + getId(reference));
+        }
+
+        if (reference == NONE || getId(reference) > id) {
+          continue;
+        }
+
+        int split = getPosition(reference) >>> LOCAL_BITS;
+
+        newIds.add(pack(getPosition(reference), nextLocal(counts, split)));
+        writers[split].writeRow(row, 0, columnCount);
+
+        if (childReferences != null) {
+          for (int i = 1; i < columnCount; i++) {
+            if (!isExcluded(row[i], EXCLUDED_SENTENCE_IDS)) {
+              childReferences.add(pack(row[i], getPosition(split, nextLocal(referenceCounts, split))));
+            }
+          }
+        }
+
+        reference = references.hasNext() ? references.next() : NONE;
+
+        if (reference != NONE && getId(reference) == id) {
+          throw new IOException(filePath + " row " + id + " is referenced more than once");
+        }
+      }
+    } finally {
+      reader.close();
+      closeAll(writers);
+    }
+
+    if (reference != NONE) {
+      throw new IOException(filePath + " has no row for the referenced id " + getId(reference));
+    }
+  }
+
+  // Writes the level's split datasets and its "all" dataset from the temporary files, with the rows numbered from
+  // each split's base and the references to the level below replaced by their new ids, in reference order.
+  private void writeLevel(String format, List<int[]> terminatorRows, int[] bases, int[] childBases,
+      int[] excludedChildIds, ExternalSorter newChildIds) throws IOException {
+    DatasetRowWriter allWriter = new DatasetRowWriter(getFilePath(format, "all"));
+
+    try {
+      for (int[] row : terminatorRows) {
+        allWriter.writeRow(row, 0, row.length);
+      }
+
+      for (int split = 0; split < PREFIXES.length; split++) {
+        DatasetRowWriter writer = new DatasetRowWriter(getFilePath(format, PREFIXES[split]));
+        IntegerDatasetReader reader = new IntegerDatasetReader(getTemporaryFilePath(format, split));
+
+        try {
+          int id = bases[split];
+          int columnCount;
+
+          for (int[] row : terminatorRows) {
+            writer.writeRow(row, 0, row.length);
+          }
+
+          while ((columnCount = reader.next()) != -1) {
+            int[] row = reader.row();
+
+            writer.write(id);
+            allWriter.write(id);
+
+            for (int i = 1; i < columnCount; i++) {
+              int childId = row[i];
+
+              if (newChildIds != null && !isExcluded(childId, excludedChildIds)) {
+                childId = childBases[split] + getPosition(newChildIds.next());
+              }
+
+              writer.write(childId);
+              allWriter.write(childId);
+            }
+
+            writer.endRow();
+            allWriter.endRow();
+            id++;
+          }
+        } finally {
+          reader.close();
+          writer.close();
+        }
+      }
+    } finally {
+      allWriter.close();
+    }
+  }
+
+  // Renames the documents of the response dataset and writes it for every split and for "all". The new document
+  // ids are known once the documents are counted, and sorting by response and new id gives the rows in order.
+  private void writeResponses(ExternalSorter documentIds) throws IOException {
+    ExternalSorter responseDocuments = new ExternalSorter(temporaryDirectory, sortMemoryBytes);
+    ExternalSorter newResponseDocuments = new ExternalSorter(temporaryDirectory, sortMemoryBytes);
+
+    try {
+      RowReader reader = Helper.openIntegerDataset(getFilePath(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "all"));
+
+      try {
+        int columnCount;
+
+        while ((columnCount = reader.next()) != -1) {
+          for (int i = 1; i < columnCount; i++) {
+            responseDocuments.add(pack(reader.row()[i], reader.row()[0]));
+          }
+        }
+      } finally {
+        reader.close();
+      }
+
+      int[] documentBases = getBases(documentCounts, 0);
+      long document = NONE;
+
+      responseDocuments.sort();
+      documentIds.sort();
+
+      while (responseDocuments.hasNext()) {
+        long responseDocument = responseDocuments.next();
+
+        while ((document == NONE || getId(document) < getId(responseDocument)) && documentIds.hasNext()) {
+          document = documentIds.next();
+        }
+
+        // Responses of documents missing from the document dataset are dropped.
+        if (document != NONE && getId(document) == getId(responseDocument)) {
+          int position = getPosition(document);
+
+          newResponseDocuments.add(pack(getPosition(responseDocument),
+              documentBases[position >>> LOCAL_BITS] + (position & LOCAL_MASK)));
+        }
+      }
+
+      responseDocuments.close();
+      newResponseDocuments.sort();
+      writeResponseRows(newResponseDocuments, documentBases);
+    } finally {
+      responseDocuments.close();
+      newResponseDocuments.close();
+    }
+  }
+
+  private void writeResponseRows(ExternalSorter responseDocuments, int[] documentBases) throws IOException {
+    DatasetRowWriter allWriter = new DatasetRowWriter(getFilePath(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "all"));
+    DatasetRowWriter[] writers = new DatasetRowWriter[PREFIXES.length];
+    boolean[] rowStarted = new boolean[PREFIXES.length + 1];
+    int responseId = -1;
+
+    try {
+      for (int split = 0; split < PREFIXES.length; split++) {
+        writers[split] = new DatasetRowWriter(getFilePath(Constants.RESPONSE_DATASET_FILENAME_FORMAT,
+            PREFIXES[split]));
+      }
+
+      while (responseDocuments.hasNext()) {
+        long responseDocument = responseDocuments.next();
+        int documentId = getPosition(responseDocument);
+        int split = PREFIXES.length - 1;
+
+        if (getId(responseDocument) != responseId) {
+          endResponseRows(writers, allWriter, rowStarted);
+          responseId = getId(responseDocument);
+          allWriter.write(responseId);
+          rowStarted[PREFIXES.length] = true;
+        }
+
+        while (documentId < documentBases[split]) {
+          split--;
+        }
+
+        if (!rowStarted[split]) {
+          writers[split].write(responseId);
+          rowStarted[split] = true;
+        }
+
+        writers[split].write(documentId);
+        allWriter.write(documentId);
+      }
+
+      endResponseRows(writers, allWriter, rowStarted);
+    } finally {
+      allWriter.close();
+
+      for (DatasetRowWriter writer : writers) {
+        if (writer != null) {
+          writer.close();
+        }
+      }
+    }
+  }
+
+  private static void endResponseRows(DatasetRowWriter[] writers, DatasetRowWriter allWriter, boolean[] rowStarted)
+      throws IOException {
+    for (int split = 0; split < writers.length; split++) {
+      if (rowStarted[split]) {
+        writers[split].endRow();
+      }
+    }
+
+    if (rowStarted[writers.length]) {
+      allWriter.endRow();
+    }
+
+    Arrays.fill(rowStarted, false);
+  }
+
+  /**
+   * Returns the split of a document, 0 for training, 1 for validation and 2 for testing. The SplitMix64 hash of the
+   * id and seed is taken as a fraction in [0, 1) and cut at the partition sizes.
+   */
+  public static int getSplit(int documentId) {
+    long hash = Configuration.PARTITION_SEED + (documentId + 1L) * 0x9E3779B97F4A7C15L;
+
+    hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+    hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+    hash ^= hash >>> 31;
+
+    double fraction = (hash >>> 11) * 0x1.0p-53;
+
+    if (fraction < Constants.TRAINING_PARTITION_SIZE) {
+      return 0;
+    }
+
+    return fraction < Constants.TRAINING_PARTITION_SIZE + Constants.VALIDATION_PARTITION_SIZE ? 1 : 2;
+  }
+
+  // Returns the first new id of every split: the ids of a split follow those of the one before, after the
+  // terminator ids.
+  private static int[] getBases(int[] counts, int terminatorCount) {
+    int[] bases = new int[counts.length];
+
+    bases[0] = terminatorCount;
+
+    for (int split = 1; split < counts.length; split++) {
+      bases[split] = bases[split - 1] + counts[split - 1];
+    }
+
+    return bases;
+  }
+
+  // Counts a row or reference of the split and returns its number within the split.
+  private static int nextLocal(int[] counts, int split) throws IOException {
+    if (counts[split] == LOCAL_MASK) {
+      throw new IOException("More than " + LOCAL_MASK + " rows or references in one split");
+    }
+
+    return counts[split]++;
+  }
+
+  private static int getPosition(int split, int local) {
+    return split << LOCAL_BITS | local;
+  }
+
+  private static long pack(int id, int position) {
+    return (long) id << 32 | (position & 0xffffffffL);
+  }
+
+  private static int getId(long packed) {
+    return (int) (packed >>> 32);
+  }
+
+  private static int getPosition(long packed) {
+    return (int) packed;
+  }
+
+  private IntegerDatasetWriter[] openTemporaryWriters(String format) throws IOException {
+    IntegerDatasetWriter[] writers = new IntegerDatasetWriter[PREFIXES.length];
+
+    try {
+      for (int split = 0; split < PREFIXES.length; split++) {
+        writers[split] = new IntegerDatasetWriter(getTemporaryFilePath(format, split));
+      }
+    } catch (IOException e) {
+      closeAll(writers);
+      throw e;
+    }
+
+    return writers;
+  }
+
+  private static void closeAll(IntegerDatasetWriter[] writers) throws IOException {
+    for (IntegerDatasetWriter writer : writers) {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+  }
+
+  private String getFilePath(String format, String prefix) {
+    return context.getStage3Directory() + "/" + String.format(format, prefix);
+  }
+
+  private String getTemporaryFilePath(String format, int split) {
+    return new File(temporaryDirectory, String.format(format, PREFIXES[split])).getPath();
+  }
+
+  private static boolean isExcluded(int id, int[] excludedIds) {
+    if (excludedIds == null) {
+      return false;
+    }
+
+    for (int excludedId : excludedIds) {
+      if (id == excludedId) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
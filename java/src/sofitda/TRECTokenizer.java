@@ -1,7 +1,6 @@
 package sofitda;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
@@ -11,8 +10,8 @@ public class TRECTokenizer extends AbstractDocumentsTokenizer {
   final String[] VALIDATION_FILES = { "train_1000.label" };
   final String[] TESTING_FILES = { "TREC_10.label" };
 
-  public TRECTokenizer() throws IOException {
-    super("trec", true /* hasResponse */);
+  public TRECTokenizer(RunContext context) throws IOException {
+    super(context, true /* hasResponse */);
 
     createDataset("training", TRAINING_FILES, false /* isLastPrefix */);
     createDataset("validation", VALIDATION_FILES, false /* isLastPrefix */);
@@ -38,7 +37,7 @@ public class TRECTokenizer extends AbstractDocumentsTokenizer {
   private void processResponse(String prefix, String[] dataFiles) throws IOException {
     for (String dataFile : dataFiles) {
       String dataFilePath = rawDataDirectory.getAbsolutePath() + "/" + dataFile;
-      BufferedReader reader = new BufferedReader(new FileReader(dataFilePath));
+      BufferedReader reader = Helper.createBufferedReader(dataFilePath);
       String line;
 
       for (int i = 0; (line = reader.readLine()) != null; i++) {
@@ -2,13 +2,16 @@ package sofitda;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Map;
 
 public class TextGenerationDataset {
-  public TextGenerationDataset() throws IOException {
+  private final RunContext context;
+
+  public TextGenerationDataset(RunContext context) throws IOException {
+    this.context = context;
+
 		String documentWordDatasetFilePath = String
-		    .format(Configuration.STAGE3_DIRECTORY + "/" + Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, "training");
-		String responseDatasetFilePath = Configuration.STAGE3_DIRECTORY + "/"
+		    .format(context.getStage3Directory() + "/" + Constants.DOCUMENT_WORD_DATASET_FILENAME_FORMAT, "training");
+		String responseDatasetFilePath = context.getStage3Directory() + "/"
 		    + String.format(Constants.RESPONSE_DATASET_FILENAME_FORMAT, "training");
 
 		this.createWordTextDatasetFile(documentWordDatasetFilePath, responseDatasetFilePath);
@@ -16,24 +19,29 @@ public class TextGenerationDataset {
 
 	private void createWordTextDatasetFile(String documentWordDatasetFilePath, String responseDatasetFilePath)
 	    throws IOException {
-		Map<Integer, String> vocabulary = Helper
-		    .readSingleColumnStringMap(Configuration.STAGE3_DIRECTORY + "/" + Constants.VOCABULARY_FILENAME, 1);
-		Map<Integer, int[]> wordDatasetMap = Helper.readMultiColumnIntegerMap(documentWordDatasetFilePath);
-		Map<Integer, int[]> responseMap = Helper.readMultiColumnIntegerMap(responseDatasetFilePath);
-
-		for (int responseId : responseMap.keySet()) {
+		Vocabulary vocabulary = Helper
+		    .readVocabulary(context.getStage3Directory() + "/" + Constants.VOCABULARY_FILENAME);
+		IntHierarchyTable wordDatasetTable = Helper.readIntHierarchyTable(documentWordDatasetFilePath);
+		IntHierarchyTable responseTable = Helper.readIntHierarchyTable(responseDatasetFilePath);
+		int[] documentIds = responseTable.getChildren();
+		int[] wordIds = wordDatasetTable.getChildren();
+
+		for (int responseId : responseTable.ids()) {
 			String textGenerationDatasetFilePath = String
-			    .format(Configuration.STAGE3_DIRECTORY + "/" + Constants.TEXT_GENERATION_DATASET_FILENAME_FORMAT, responseId);
+			    .format(context.getStage3Directory() + "/" + Constants.TEXT_GENERATION_DATASET_FILENAME_FORMAT, responseId);
 
 			System.out.println("Creating word text dataset text file " + textGenerationDatasetFilePath + "...");
 
 			PrintWriter writer = Helper.createPrintWriter(textGenerationDatasetFilePath);
+			int documentOffset = responseTable.getChildOffset(responseId);
+
+			for (int i = documentOffset; i < documentOffset + responseTable.getChildCount(responseId); i++) {
+				int wordOffset = wordDatasetTable.getChildOffset(documentIds[i]);
 
-			for (int documentId : responseMap.get(responseId)) {
 				writer.write("[BEGIN] ");
 
-				for (int wordId : wordDatasetMap.get(documentId)) {
-					String word = vocabulary.get(wordId);
+				for (int j = wordOffset; j < wordOffset + wordDatasetTable.getChildCount(documentIds[i]); j++) {
+					String word = vocabulary.getWord(wordIds[j]);
 
 					writer.write(word);
 					writer.write(" ");
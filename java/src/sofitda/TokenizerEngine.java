@@ -0,0 +1,221 @@
+package sofitda;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.process.CoreLabelTokenFactory;
+import edu.stanford.nlp.process.PTBTokenizer;
+import edu.stanford.nlp.process.Tokenizer;
+import edu.stanford.nlp.process.TokenizerFactory;
+
+/**
+ * Lowercased PTB tokenization with one engine per thread. Each engine keeps one PTB tokenizer and a reader that are
+ * pointed at each new document instead of being created for it, so the lexer buffer is allocated and the options are
+ * parsed once per thread. Tokens are passed to a callback as they are read.
+ *
+ * CoreNLP has no public way to reset a PTB tokenizer, so its lexer is reset through reflection. Before the reset is
+ * used, a reset tokenizer must give the tokens of a new one on a few check documents. When the lexer cannot be reached
+ * or fails the check, as with a CoreNLP whose internals differ, a warning is printed once and every document gets a
+ * new tokenizer from the factory instead. The reset was written against CoreNLP 3.9.2, and another version is
+ * reported when it is used. With the factory alone, tokenizing takes about 30% longer on review-sized documents.
+ */
+public class TokenizerEngine {
+  private static final String OPTIONS = "tokenizeNLs=true";
+
+  private static final ThreadLocal<TokenizerEngine> ENGINES = new ThreadLocal<TokenizerEngine>() {
+    @Override
+    protected TokenizerEngine initialValue() {
+      return new TokenizerEngine();
+    }
+  };
+
+  private static final String TESTED_CORENLP_VERSION = "3.9.2";
+
+  // Each is tokenized by a tokenizer reset from the one before, so the lexer state of one must not reach the next.
+  private static final String[] CHECK_DOCUMENTS = { "Don't stop (now)! \"Quoted\" -- e.g. U.S.A. costs $5.00 :-)",
+      "An unterminated \"quote and ( paren", "", "Two\n\nparagraphs & a\tTAB...", "Last one." };
+
+  // The lexer field of PTBTokenizer and the reset method of the lexer, or null when they cannot be used.
+  private static final Field LEXER_FIELD;
+  private static final Method RESET_METHOD;
+
+  static {
+    Field lexerField = null;
+    Method resetMethod = null;
+    String problem;
+
+    try {
+      lexerField = PTBTokenizer.class.getDeclaredField("lexer");
+      resetMethod = lexerField.getType().getMethod("yyreset", Reader.class);
+      lexerField.setAccessible(true);
+      resetMethod.setAccessible(true);
+      problem = checkReset(lexerField, resetMethod);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      problem = "the lexer cannot be reset: " + e;
+    }
+
+    String version = PTBTokenizer.class.getPackage().getImplementationVersion();
+    String versionText = version != null ? "CoreNLP " + version : "a CoreNLP of unknown version";
+
+    if (problem != null) {
+      System.err.println("Not reusing PTB lexers with " + versionText + ", as " + problem
+          + "; every document gets a new tokenizer");
+      lexerField = null;
+      resetMethod = null;
+    } else if (version != null && !version.equals(TESTED_CORENLP_VERSION)) {
+      System.err.println("Reusing PTB lexers with " + versionText + ", which passed the reset check but is not the "
+          + "tested " + TESTED_CORENLP_VERSION);
+    }
+
+    LEXER_FIELD = lexerField;
+    RESET_METHOD = resetMethod;
+  }
+
+  private final TokenizerFactory<CoreLabel> factory = PTBTokenizer.factory(new CoreLabelTokenFactory(), OPTIONS);
+  private final DocumentReader reader = new DocumentReader();
+  private final ResettableTokenizer resettableTokenizer = createResettableTokenizer();
+
+  public interface TokenCallback {
+    void token(String token);
+  }
+
+  /**
+   * Returns the engine of the calling thread.
+   */
+  public static TokenizerEngine get() {
+    return ENGINES.get();
+  }
+
+  public void tokenize(String document, TokenCallback callback) {
+    reader.reset(document);
+
+    Tokenizer<CoreLabel> tokenizer;
+
+    if (resettableTokenizer != null) {
+      resettableTokenizer.reset(reader);
+      tokenizer = resettableTokenizer;
+    } else {
+      tokenizer = factory.getTokenizer(reader);
+    }
+
+    while (tokenizer.hasNext()) {
+      // toLowerCase() returns the same String when there is nothing to change.
+      callback.token(tokenizer.next().value().toLowerCase());
+    }
+  }
+
+  public List<String> tokenize(String document) {
+    final List<String> tokens = new ArrayList<>();
+
+    tokenize(document, new TokenCallback() {
+      @Override
+      public void token(String token) {
+        tokens.add(token);
+      }
+    });
+
+    return tokens;
+  }
+
+  private ResettableTokenizer createResettableTokenizer() {
+    if (RESET_METHOD == null) {
+      return null;
+    }
+
+    reader.reset("");
+
+    try {
+      return new ResettableTokenizer(reader, LEXER_FIELD, RESET_METHOD);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Cannot reach the PTB lexer", e);
+    }
+  }
+
+  // Returns why a tokenizer reset onto each check document does not give the tokens of a new one, or null if it does.
+  private static String checkReset(Field lexerField, Method resetMethod) throws ReflectiveOperationException {
+    TokenizerFactory<CoreLabel> factory = PTBTokenizer.factory(new CoreLabelTokenFactory(), OPTIONS);
+    ResettableTokenizer tokenizer = new ResettableTokenizer(new StringReader(""), lexerField, resetMethod);
+
+    for (String document : CHECK_DOCUMENTS) {
+      tokenizer.reset(new StringReader(document));
+
+      if (!getValues(tokenizer).equals(getValues(factory.getTokenizer(new StringReader(document))))) {
+        return "a reset lexer gives other tokens for \"" + document + "\"";
+      }
+    }
+
+    return null;
+  }
+
+  private static List<String> getValues(Tokenizer<CoreLabel> tokenizer) {
+    List<String> values = new ArrayList<>();
+
+    while (tokenizer.hasNext()) {
+      values.add(tokenizer.next().value());
+    }
+
+    return values;
+  }
+
+  // A PTB tokenizer whose lexer can be reset onto another reader. The lexer keeps the state of the previous token
+  // only for invertible tokenization, which the options do not ask for.
+  private static class ResettableTokenizer extends PTBTokenizer<CoreLabel> {
+    private final Object lexer;
+    private final Method resetMethod;
+
+    ResettableTokenizer(Reader reader, Field lexerField, Method resetMethod) throws ReflectiveOperationException {
+      super(reader, new CoreLabelTokenFactory(), OPTIONS);
+
+      lexer = lexerField.get(this);
+      this.resetMethod = resetMethod;
+    }
+
+    void reset(Reader reader) {
+      try {
+        resetMethod.invoke(lexer, reader);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Cannot reset the PTB lexer", e);
+      }
+
+      nextToken = null;
+    }
+  }
+
+  // An unsynchronized StringReader that can be reset onto another string.
+  private static class DocumentReader extends Reader {
+    private String text;
+    private int position;
+
+    void reset(String text) {
+      this.text = text;
+      position = 0;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+      if (position >= text.length()) {
+        return -1;
+      }
+
+      int count = Math.min(length, text.length() - position);
+
+      text.getChars(position, position + count, buffer, offset);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public int read() {
+      return position < text.length() ? text.charAt(position++) : -1;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
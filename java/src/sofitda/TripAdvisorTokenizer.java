@@ -1,40 +1,29 @@
 package sofitda;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
-import org.json.JSONObject;
-import org.json.JSONTokener;
-
 import java.nio.charset.Charset;
 
 public class TripAdvisorTokenizer extends AbstractDocumentsTokenizer {
-  private BufferedReader reader;
-
-  public TripAdvisorTokenizer(int maxReviewCount) throws IOException {
-    super("tripadvisor", true /* hasResponse */);
+  public TripAdvisorTokenizer(RunContext context, int maxReviewCount) throws IOException {
+    super(context, true /* hasResponse */);
 
     initialize("all");
 
     String reviewFilePath = rawDataDirectory.getAbsolutePath() + "/review.json";
 
-    reader = new BufferedReader(new FileReader(reviewFilePath));
-
-    String line = null;
+    JsonLinesReader reader = new JsonLinesReader(reviewFilePath, "text", "ratings.overall");
 
-    for (int i = 0; i < maxReviewCount && (line = reader.readLine()) != null; i++) {
-      JSONTokener tokener = new JSONTokener(line);
-      JSONObject json = new JSONObject(tokener);
-      String text = json.getString("text").trim();
+    for (int i = 0; i < maxReviewCount && reader.next(); i++) {
+      String text = reader.getString(0).trim();
 
       if (!isPureAscii(text)) {
         continue;
       }
 
-      int response = (int) Math.round((json.getJSONObject("ratings").getFloat("overall")));
+      int response = (int) Math.round((float) reader.getDouble(1));
 
       if (response == 0) {
         continue;
@@ -43,8 +32,8 @@ public class TripAdvisorTokenizer extends AbstractDocumentsTokenizer {
       processDocument(text, response);
     }
 
-    done("all", true /* isLastPrefix */);
     reader.close();
+    done("all", true /* isLastPrefix */);
   }
 
   protected List<String> tokenize(String document) {
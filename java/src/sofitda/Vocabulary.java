@@ -0,0 +1,592 @@
+package sofitda;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Two-way mapping between words and word ids. Words are kept as UTF-8 bytes in one byte array and found through an
+ * open-addressing table with linear probing, so no per-word objects are kept. The binary form written by
+ * {@link #save(String, long)} has the same layout as the in-memory tables and is memory-mapped by
+ * {@link #map(String)}. A mapped vocabulary is copied to the heap the first time it is modified. Instances are not
+ * thread-safe, except that {@link #getWord(int)} and {@link #writeWord(int, OutputStream)} may be called from several
+ * threads while nothing modifies the vocabulary.
+ */
+public class Vocabulary {
+  private static final int MAGIC = 0x31434f56; // "VOC1" in little-endian byte order
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int ABSENT = -1;
+
+  private IntBuffer starts; // By id: offset of the word in bytes
+  private IntBuffer lengths; // By id: byte length of the word, or ABSENT
+  private IntBuffer hashes; // By id
+  private IntBuffer slots; // Open-addressing table of id + 1, 0 when empty
+  private ByteBuffer bytes;
+  private boolean mapped;
+  private int byteCount;
+  private int idLimit;
+  private int size;
+  private byte[] scratch = new byte[64];
+
+  public Vocabulary() {
+    this(16);
+  }
+
+  public Vocabulary(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+
+    starts = IntBuffer.wrap(new int[expectedSize]);
+    lengths = IntBuffer.wrap(new int[expectedSize]);
+    hashes = IntBuffer.wrap(new int[expectedSize]);
+    slots = IntBuffer.wrap(new int[capacity]);
+    bytes = ByteBuffer.wrap(new byte[Math.max(64, expectedSize * 8)]);
+    fillAbsent(lengths, 0, expectedSize);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns one more than the largest id ever assigned. This is the id the next {@link #add(String)} will use.
+   */
+  public int getIdLimit() {
+    return idLimit;
+  }
+
+  public boolean contains(int id) {
+    return id >= 0 && id < idLimit && lengths.get(id) != ABSENT;
+  }
+
+  /**
+   * Returns the id of the given word, or -1 if it is not in the vocabulary.
+   */
+  public int getId(String word) {
+    int length = encode(word);
+
+    return getId(scratch, 0, length);
+  }
+
+  public int getId(byte[] word, int offset, int length) {
+    int hash = hash(word, offset, length);
+    int mask = slots.capacity() - 1;
+
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      int entry = slots.get(slot);
+
+      if (entry == 0) {
+        return -1;
+      }
+
+      int id = entry - 1;
+
+      if (hashes.get(id) == hash && lengths.get(id) == length && equals(starts.get(id), word, offset, length)) {
+        return id;
+      }
+    }
+  }
+
+  /**
+   * Returns the word with the given id, or null if there is none.
+   */
+  public String getWord(int id) {
+    if (!contains(id)) {
+      return null;
+    }
+
+    int start = starts.get(id);
+    int length = lengths.get(id);
+
+    if (bytes.hasArray()) {
+      return new String(bytes.array(), bytes.arrayOffset() + start, length, StandardCharsets.UTF_8);
+    }
+
+    byte[] word = new byte[length];
+
+    for (int i = 0; i < length; i++) {
+      word[i] = bytes.get(start + i);
+    }
+
+    return new String(word, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes the UTF-8 bytes of the word with the given id.
+   */
+  public void writeWord(int id, OutputStream outputStream) throws IOException {
+    int start = starts.get(id);
+    int length = lengths.get(id);
+
+    if (bytes.hasArray()) {
+      outputStream.write(bytes.array(), bytes.arrayOffset() + start, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        outputStream.write(bytes.get(start + i));
+      }
+    }
+  }
+
+  /**
+   * Returns the id of the word, adding it with id {@link #getIdLimit()} if it is new.
+   */
+  public int add(String word) {
+    int length = encode(word);
+    int id = getId(scratch, 0, length);
+
+    if (id != -1) {
+      return id;
+    }
+
+    id = idLimit;
+    insert(id, scratch, length);
+    return id;
+  }
+
+  /**
+   * Adds the word under the given id, replacing whatever word had that id before.
+   */
+  public void put(int id, String word) {
+    int length = encode(word);
+    int existingId = getId(scratch, 0, length);
+
+    if (existingId == id) {
+      return;
+    }
+
+    if (existingId != -1) {
+      throw new IllegalArgumentException("Word " + word + " already has id " + existingId);
+    }
+
+    if (contains(id)) {
+      remove(id);
+    }
+
+    insert(id, scratch, length);
+  }
+
+  public boolean remove(int id) {
+    if (!contains(id)) {
+      return false;
+    }
+
+    ensureHeap();
+
+    int mask = slots.capacity() - 1;
+    int slot = findSlot(id);
+
+    // Backward-shift deletion keeps every probe sequence unbroken without tombstones.
+    for (int next = (slot + 1) & mask;; next = (next + 1) & mask) {
+      int entry = slots.get(next);
+
+      if (entry == 0) {
+        break;
+      }
+
+      int home = hashes.get(entry - 1) & mask;
+      boolean canMove = slot <= next ? (home <= slot || home > next) : (home <= slot && home > next);
+
+      if (canMove) {
+        slots.put(slot, entry);
+        slot = next;
+      }
+    }
+
+    slots.put(slot, 0);
+    lengths.put(id, ABSENT);
+    size--;
+    return true;
+  }
+
+  /**
+   * Gives the word with id fromId the id toId, replacing whatever word had toId before.
+   */
+  public void renumber(int fromId, int toId) {
+    if (!contains(fromId)) {
+      throw new IllegalArgumentException("No word with id " + fromId);
+    }
+
+    if (fromId == toId) {
+      return;
+    }
+
+    remove(toId);
+    ensureHeap();
+    ensureIdCapacity(toId + 1);
+    slots.put(findSlot(fromId), toId + 1);
+    starts.put(toId, starts.get(fromId));
+    lengths.put(toId, lengths.get(fromId));
+    hashes.put(toId, hashes.get(fromId));
+    lengths.put(fromId, ABSENT);
+    idLimit = Math.max(idLimit, toId + 1);
+  }
+
+  /**
+   * Returns the ids that have words, in ascending order.
+   */
+  public int[] ids() {
+    int[] ids = new int[size];
+    int count = 0;
+
+    for (int id = 0; id < idLimit; id++) {
+      if (lengths.get(id) != ABSENT) {
+        ids[count++] = id;
+      }
+    }
+
+    return ids;
+  }
+
+  /**
+   * Returns a heap copy that can be modified independently of this vocabulary.
+   */
+  public Vocabulary copy() {
+    Vocabulary copy = new Vocabulary(0);
+    byte[] copyBytes = new byte[Math.max(64, byteCount)];
+
+    for (int i = 0; i < byteCount; i++) {
+      copyBytes[i] = bytes.get(i);
+    }
+
+    copy.starts = grow(starts, Math.max(16, idLimit));
+    copy.lengths = grow(lengths, Math.max(16, idLimit));
+    copy.hashes = grow(hashes, Math.max(16, idLimit));
+    copy.slots = grow(slots, slots.capacity());
+    copy.bytes = ByteBuffer.wrap(copyBytes);
+    copy.byteCount = byteCount;
+    copy.idLimit = idLimit;
+    copy.size = size;
+    fillAbsent(copy.lengths, idLimit, copy.lengths.capacity());
+    return copy;
+  }
+
+  /**
+   * Writes the binary form. textLength records the length of the text vocabulary written alongside it, so that
+   * readers can tell whether the two still match. The file is replaced atomically, so a vocabulary mapped from it
+   * stays valid.
+   */
+  public void save(String filePath, long textLength) throws IOException {
+    int capacity = slots.capacity();
+    int wordByteCount = 0;
+
+    for (int id = 0; id < idLimit; id++) {
+      if (lengths.get(id) != ABSENT) {
+        wordByteCount += lengths.get(id);
+      }
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * (3 * idLimit + capacity) + wordByteCount)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    int wordStart = 0;
+
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(idLimit);
+    buffer.putInt(size);
+    buffer.putInt(capacity);
+    buffer.putInt(wordByteCount);
+    buffer.putLong(textLength);
+
+    // Words are written back to back in id order, which drops the bytes of removed words.
+    for (int id = 0; id < idLimit; id++) {
+      buffer.putInt(lengths.get(id) == ABSENT ? 0 : wordStart);
+
+      if (lengths.get(id) != ABSENT) {
+        wordStart += lengths.get(id);
+      }
+    }
+
+    for (int id = 0; id < idLimit; id++) {
+      buffer.putInt(lengths.get(id));
+    }
+
+    for (int id = 0; id < idLimit; id++) {
+      buffer.putInt(hashes.get(id));
+    }
+
+    for (int slot = 0; slot < capacity; slot++) {
+      buffer.putInt(slots.get(slot));
+    }
+
+    for (int id = 0; id < idLimit; id++) {
+      for (int i = 0; i < lengths.get(id); i++) {
+        buffer.put(bytes.get(starts.get(id) + i));
+      }
+    }
+
+    buffer.flip();
+
+    Path path = Paths.get(filePath);
+    Path temporaryPath = Paths.get(filePath + ".tmp");
+    FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } finally {
+      channel.close();
+    }
+
+    Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Maps a vocabulary written by {@link #save(String, long)}. Nothing is parsed or copied.
+   */
+  public static Vocabulary map(String filePath) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+    ByteBuffer buffer;
+
+    try {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+    } finally {
+      channel.close();
+    }
+
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      throw new IOException(filePath + " is not a binary vocabulary");
+    }
+
+    Vocabulary vocabulary = new Vocabulary(0);
+    int idLimit = buffer.getInt(8);
+    int capacity = buffer.getInt(16);
+    int byteCount = buffer.getInt(20);
+    int offset = HEADER_SIZE;
+
+    vocabulary.mapped = true;
+    vocabulary.idLimit = idLimit;
+    vocabulary.size = buffer.getInt(12);
+    vocabulary.byteCount = byteCount;
+    vocabulary.starts = slice(buffer, offset, 4 * idLimit).asIntBuffer();
+    vocabulary.lengths = slice(buffer, offset += 4 * idLimit, 4 * idLimit).asIntBuffer();
+    vocabulary.hashes = slice(buffer, offset += 4 * idLimit, 4 * idLimit).asIntBuffer();
+    vocabulary.slots = slice(buffer, offset += 4 * idLimit, 4 * capacity).asIntBuffer();
+    vocabulary.bytes = slice(buffer, offset + 4 * capacity, byteCount);
+    return vocabulary;
+  }
+
+  /**
+   * Returns the text length recorded in the binary vocabulary at filePath, or -1 if the file does not hold one.
+   */
+  public static long readTextLength(String filePath) throws IOException {
+    File file = new File(filePath);
+
+    if (file.length() < HEADER_SIZE) {
+      return -1;
+    }
+
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    try {
+      while (header.hasRemaining() && channel.read(header) != -1) {
+      }
+    } finally {
+      channel.close();
+    }
+
+    return header.getInt(0) == MAGIC && header.getInt(4) == VERSION ? header.getLong(24) : -1;
+  }
+
+  private void insert(int id, byte[] word, int length) {
+    ensureHeap();
+    ensureIdCapacity(id + 1);
+
+    if (byteCount + length > bytes.capacity()) {
+      byte[] newBytes = new byte[Math.max(byteCount + length, bytes.capacity() * 2)];
+
+      System.arraycopy(bytes.array(), 0, newBytes, 0, byteCount);
+      bytes = ByteBuffer.wrap(newBytes);
+    }
+
+    System.arraycopy(word, 0, bytes.array(), byteCount, length);
+
+    int hash = hash(word, 0, length);
+
+    starts.put(id, byteCount);
+    lengths.put(id, length);
+    hashes.put(id, hash);
+    byteCount += length;
+    idLimit = Math.max(idLimit, id + 1);
+    size++;
+
+    if (2 * size > slots.capacity()) {
+      rehash(slots.capacity() * 2);
+    } else {
+      placeInSlot(id, hash);
+    }
+  }
+
+  private void placeInSlot(int id, int hash) {
+    int mask = slots.capacity() - 1;
+    int slot = hash & mask;
+
+    while (slots.get(slot) != 0) {
+      slot = (slot + 1) & mask;
+    }
+
+    slots.put(slot, id + 1);
+  }
+
+  private void rehash(int capacity) {
+    slots = IntBuffer.wrap(new int[capacity]);
+
+    for (int id = 0; id < idLimit; id++) {
+      if (lengths.get(id) != ABSENT) {
+        placeInSlot(id, hashes.get(id));
+      }
+    }
+  }
+
+  private int findSlot(int id) {
+    int mask = slots.capacity() - 1;
+    int slot = hashes.get(id) & mask;
+
+    while (slots.get(slot) != id + 1) {
+      slot = (slot + 1) & mask;
+    }
+
+    return slot;
+  }
+
+  private void ensureIdCapacity(int capacity) {
+    if (capacity <= starts.capacity()) {
+      return;
+    }
+
+    int newCapacity = Math.max(capacity, starts.capacity() * 2);
+
+    starts = grow(starts, newCapacity);
+    lengths = grow(lengths, newCapacity);
+    hashes = grow(hashes, newCapacity);
+    fillAbsent(lengths, idLimit, newCapacity);
+  }
+
+  // Copies a mapped vocabulary into heap arrays so that it can be modified.
+  private void ensureHeap() {
+    if (!mapped) {
+      return;
+    }
+
+    byte[] heapBytes = new byte[Math.max(64, byteCount * 2)];
+
+    for (int i = 0; i < byteCount; i++) {
+      heapBytes[i] = bytes.get(i);
+    }
+
+    int idCapacity = Math.max(16, idLimit * 2);
+
+    starts = grow(starts, idCapacity);
+    lengths = grow(lengths, idCapacity);
+    hashes = grow(hashes, idCapacity);
+    slots = grow(slots, slots.capacity());
+    bytes = ByteBuffer.wrap(heapBytes);
+    fillAbsent(lengths, idLimit, idCapacity);
+    mapped = false;
+  }
+
+  private boolean equals(int start, byte[] word, int offset, int length) {
+    if (bytes.hasArray()) {
+      byte[] array = bytes.array();
+      int base = bytes.arrayOffset() + start;
+
+      for (int i = 0; i < length; i++) {
+        if (array[base + i] != word[offset + i]) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    for (int i = 0; i < length; i++) {
+      if (bytes.get(start + i) != word[offset + i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  // Encodes the word into scratch and returns its length in bytes.
+  private int encode(String word) {
+    int length = word.length();
+    byte[] buffer = ensureScratch(length);
+
+    for (int i = 0; i < length; i++) {
+      char c = word.charAt(i);
+
+      if (c >= 0x80) {
+        byte[] encoded = word.getBytes(StandardCharsets.UTF_8);
+
+        ensureScratch(encoded.length);
+        System.arraycopy(encoded, 0, scratch, 0, encoded.length);
+        return encoded.length;
+      }
+
+      buffer[i] = (byte) c;
+    }
+
+    return length;
+  }
+
+  private byte[] ensureScratch(int length) {
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+
+    return scratch;
+  }
+
+  // FNV-1a followed by the MurmurHash3 finalizer. This is part of the binary format and must not change.
+  private static int hash(byte[] word, int offset, int length) {
+    int hash = 0x811c9dc5;
+
+    for (int i = offset; i < offset + length; i++) {
+      hash = (hash ^ word[i]) * 0x01000193;
+    }
+
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
+  private static IntBuffer grow(IntBuffer buffer, int capacity) {
+    int[] array = new int[capacity];
+
+    for (int i = 0; i < Math.min(buffer.capacity(), capacity); i++) {
+      array[i] = buffer.get(i);
+    }
+
+    return IntBuffer.wrap(array);
+  }
+
+  private static void fillAbsent(IntBuffer lengths, int from, int to) {
+    for (int i = from; i < to; i++) {
+      lengths.put(i, ABSENT);
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer duplicate = buffer.duplicate();
+
+    duplicate.position(offset);
+    duplicate.limit(offset + length);
+    return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
@@ -0,0 +1,259 @@
+package sofitda;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the sentence datasets of a tokenizer with the words seen fewer than Configuration.MIN_WORD_COUNT times and,
+ * when Configuration.MAX_VOCABULARY_SIZE is above zero, all but that many of the most frequent words replaced by
+ * AbstractDocumentsTokenizer.UNKNOWN_WORD_ID, in memory that does not grow with the number of distinct words seen.
+ *
+ * While the documents are tokenized, the sentences of every prefix are spilled as words to a file next to its sentence
+ * dataset, and every word is counted in a count-min sketch and, with a vocabulary size, in a FrequentWords of four
+ * times that many words, and at least MIN_FREQUENT_WORDS_CAPACITY. Once the last prefix is done, the spill files are
+ * read twice: first to count exactly the candidate words, those whose estimate reaches the minimum count and, with a
+ * vocabulary size, that are among the frequent words, and then to write the sentence datasets. The kept words are
+ * added to the vocabulary in the order they first appear, so their ids are dense.
+ *
+ * The sketch never underestimates, so every word with the minimum count is a candidate. A word that makes up more
+ * than 1 / (capacity + 1) of the words is always among the frequent words, so the most frequent words are missed only
+ * when they are nearly that rare. Of the candidates with the minimum count, the most frequent are kept, and the first
+ * seen of words seen equally often.
+ */
+public class VocabularyPruner {
+  private static final int SKETCH_WIDTH = 1 << 20;
+  private static final int MIN_FREQUENT_WORDS_CAPACITY = 1 << 16;
+  private static final String SPILL_FILENAME_SUFFIX = ".words.tmp";
+
+  private final RunContext context;
+  private final CountMinSketch wordCounts = new CountMinSketch(SKETCH_WIDTH);
+  private final FrequentWords frequentWords;
+  private final List<String> prefixes = new ArrayList<>();
+  private DataOutputStream spillStream;
+  private byte[] wordBytes = new byte[64];
+
+  public VocabularyPruner(RunContext context) {
+    this.context = context;
+
+    frequentWords = Configuration.MAX_VOCABULARY_SIZE > 0
+        ? new FrequentWords(Math.max(MIN_FREQUENT_WORDS_CAPACITY, 4 * Configuration.MAX_VOCABULARY_SIZE)) : null;
+  }
+
+  public void beginPrefix(String prefix) throws FileNotFoundException {
+    prefixes.add(prefix);
+    spillStream = new DataOutputStream(new BufferedOutputStream(new CountingOutputStream(
+        new FileOutputStream(getSpillFilePath(prefix)))));
+  }
+
+  /**
+   * Spills the sentence of the current prefix and counts its words.
+   */
+  public void addSentence(int sentenceId, List<String> words) {
+    try {
+      spillStream.writeInt(sentenceId);
+      spillStream.writeInt(words.size());
+
+      for (String word : words) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+
+        spillStream.writeInt(bytes.length);
+        spillStream.write(bytes);
+        wordCounts.add(hash(word));
+
+        if (frequentWords != null) {
+          frequentWords.add(word);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot spill the sentence " + sentenceId, e);
+    }
+  }
+
+  public void endPrefix() throws IOException {
+    spillStream.close();
+    spillStream = null;
+  }
+
+  /**
+   * Writes the sentence dataset of every prefix from its spill file and deletes the spill files. Words already in the
+   * vocabulary, the terminators, keep their ids, the kept words are added to it, and all others become
+   * UNKNOWN_WORD_ID.
+   */
+  public void writeSentenceDatasets(Vocabulary vocabulary) throws IOException {
+    Set<String> keptWords = selectKeptWords(countCandidates(vocabulary));
+    List<String> words = new ArrayList<>();
+    long unknownWordCount = 0;
+
+    for (String prefix : prefixes) {
+      DataInputStream spillInputStream = openSpill(prefix);
+      DatasetRowWriter writer = new DatasetRowWriter(context.getStage3Directory() + "/"
+          + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix));
+
+      try {
+        int sentenceId;
+
+        while ((sentenceId = readSentence(spillInputStream, words)) != -1) {
+          writer.write(sentenceId);
+
+          for (String word : words) {
+            int wordId = vocabulary.getId(word);
+
+            if (wordId == -1) {
+              if (keptWords.contains(word)) {
+                wordId = vocabulary.add(word);
+              } else {
+                wordId = AbstractDocumentsTokenizer.UNKNOWN_WORD_ID;
+                unknownWordCount++;
+              }
+            }
+
+            writer.write(wordId);
+          }
+
+          writer.endRow();
+        }
+      } finally {
+        spillInputStream.close();
+        writer.close();
+      }
+
+      new File(getSpillFilePath(prefix)).delete();
+    }
+
+    System.out.println("Pruned vocabulary size: " + vocabulary.size() + ", words written as unknown: "
+        + unknownWordCount);
+  }
+
+  // Counts the candidate words exactly. The second value of a count is the order the word was first seen in.
+  private Map<String, int[]> countCandidates(Vocabulary vocabulary) throws IOException {
+    Map<String, int[]> counts = new HashMap<>();
+    List<String> words = new ArrayList<>();
+
+    for (String prefix : prefixes) {
+      DataInputStream spillInputStream = openSpill(prefix);
+
+      try {
+        while (readSentence(spillInputStream, words) != -1) {
+          for (String word : words) {
+            int[] count = counts.get(word);
+
+            if (count == null) {
+              if (vocabulary.getId(word) != -1 || wordCounts.estimate(hash(word)) < Configuration.MIN_WORD_COUNT
+                  || frequentWords != null && !frequentWords.contains(word)) {
+                continue;
+              }
+
+              count = new int[] { 0, counts.size() };
+              counts.put(word, count);
+            }
+
+            count[0]++;
+          }
+        }
+      } finally {
+        spillInputStream.close();
+      }
+    }
+
+    return counts;
+  }
+
+  private static Set<String> selectKeptWords(Map<String, int[]> counts) {
+    List<Map.Entry<String, int[]>> candidates = new ArrayList<>();
+
+    for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+      if (entry.getValue()[0] >= Configuration.MIN_WORD_COUNT) {
+        candidates.add(entry);
+      }
+    }
+
+    if (Configuration.MAX_VOCABULARY_SIZE > 0 && candidates.size() > Configuration.MAX_VOCABULARY_SIZE) {
+      // The highest counts come first, and the first seen among equal counts.
+      Collections.sort(candidates, new Comparator<Map.Entry<String, int[]>>() {
+        @Override
+        public int compare(Map.Entry<String, int[]> entry1, Map.Entry<String, int[]> entry2) {
+          int[] count1 = entry1.getValue();
+          int[] count2 = entry2.getValue();
+
+          return count1[0] != count2[0] ? Integer.compare(count2[0], count1[0]) : Integer.compare(count1[1], count2[1]);
+        }
+      });
+
+      candidates = candidates.subList(0, Configuration.MAX_VOCABULARY_SIZE);
+    }
+
+    Set<String> keptWords = new HashSet<>();
+
+    for (Map.Entry<String, int[]> entry : candidates) {
+      keptWords.add(entry.getKey());
+    }
+
+    return keptWords;
+  }
+
+  private DataInputStream openSpill(String prefix) throws IOException {
+    return new DataInputStream(new BufferedInputStream(new CountingInputStream(
+        new FileInputStream(getSpillFilePath(prefix)))));
+  }
+
+  // Reads the words of the next sentence into words and returns its id, or -1 at the end of the spill.
+  private int readSentence(DataInputStream spillInputStream, List<String> words) throws IOException {
+    int sentenceId;
+
+    try {
+      sentenceId = spillInputStream.readInt();
+    } catch (EOFException e) {
+      return -1;
+    }
+
+    int wordCount = spillInputStream.readInt();
+
+    words.clear();
+
+    for (int i = 0; i < wordCount; i++) {
+      int length = spillInputStream.readInt();
+
+      if (length > wordBytes.length) {
+        wordBytes = new byte[Math.max(length, wordBytes.length * 2)];
+      }
+
+      spillInputStream.readFully(wordBytes, 0, length);
+      words.add(new String(wordBytes, 0, length, StandardCharsets.UTF_8));
+    }
+
+    return sentenceId;
+  }
+
+  private String getSpillFilePath(String prefix) {
+    return context.getStage3Directory() + "/" + String.format(Constants.SENTENCE_DATASET_FILENAME_FORMAT, prefix)
+        + SPILL_FILENAME_SUFFIX;
+  }
+
+  // 64-bit FNV-1a over the characters of the word.
+  private static long hash(String word) {
+    long hash = 0xCBF29CE484222325L;
+
+    for (int i = 0; i < word.length(); i++) {
+      hash = (hash ^ word.charAt(i)) * 0x100000001B3L;
+    }
+
+    return hash;
+  }
+}
@@ -1,39 +1,28 @@
 package sofitda;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
-import org.json.JSONObject;
-import org.json.JSONTokener;
-
 public class YelpReviewsTokenizer extends AbstractDocumentsTokenizer {
-  private BufferedReader reader;
-
-  public YelpReviewsTokenizer(int maxReviewCount) throws IOException {
-    super("yelp", true /* hasResponse */);
+  public YelpReviewsTokenizer(RunContext context, int maxReviewCount) throws IOException {
+    super(context, true /* hasResponse */);
 
     initialize("all");
 
     String reviewFilePath = rawDataDirectory.getAbsolutePath() + "/review.json";
 
-    reader = new BufferedReader(new FileReader(reviewFilePath));
-
-    String line = null;
+    JsonLinesReader reader = new JsonLinesReader(reviewFilePath, "text", "stars");
 
-    for (int i = 0; i < maxReviewCount && (line = reader.readLine()) != null; i++) {
-      JSONTokener tokener = new JSONTokener(line);
-      JSONObject json = new JSONObject(tokener);
-      String text = json.getString("text");
-      int response = json.getInt("stars");
+    for (int i = 0; i < maxReviewCount && reader.next(); i++) {
+      String text = reader.getString(0);
+      int response = reader.getInt(1);
 
       processDocument(text, response);
     }
 
-    done("all", true /* isLastPrefix */);
     reader.close();
+    done("all", true /* isLastPrefix */);
   }
 
   protected List<String> tokenize(String document) {
@@ -0,0 +1,505 @@
+package sofitda;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Packages a directory into a zip archive, deflating entries on a pool of worker threads while the calling thread
+ * writes finished entries to the archive in directory order. A worker keeps up to IN_MEMORY_SIZE of compressed output
+ * in memory and moves larger outputs to a temporary file next to the archive, so memory use does not grow with the
+ * file sizes. Files that are already compressed or binary are stored as they are and copied with transferTo. Zip64
+ * records are written for entries and archives over 4 GB and for more than 65534 entries.
+ */
+public class ZipPackager {
+  private static final int BUFFER_SIZE = 1 << 20;
+  private static final int IN_MEMORY_SIZE = 4 << 20;
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+  private static final int VERSION = 20;
+  private static final int ZIP64_VERSION = 45;
+  private static final int UTF8_FLAG = 0x0800;
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+  private static final int DIRECTORY_ATTRIBUTE = 0x10;
+  private static final long MAX_SIZE = 0xFFFFFFFFL;
+  private static final int MAX_ENTRY_COUNT = 0xFFFF;
+
+  private int threadCount = Runtime.getRuntime().availableProcessors();
+  private int level = Deflater.DEFAULT_COMPRESSION;
+  private List<String> storedExtensions = new ArrayList<>(Arrays.asList(Constants.GZIP_EXTENSION,
+      Constants.BINARY_DATASET_EXTENSION, ".zip", ".jar", ".bz2", ".xz", ".png", ".jpg"));
+
+  public ZipPackager setThreadCount(int threadCount) {
+    this.threadCount = threadCount;
+    return this;
+  }
+
+  public ZipPackager setLevel(int level) {
+    this.level = level;
+    return this;
+  }
+
+  /**
+   * Sets the file name extensions whose files are stored without compression.
+   */
+  public ZipPackager setStoredExtensions(List<String> storedExtensions) {
+    this.storedExtensions = storedExtensions;
+    return this;
+  }
+
+  /**
+   * Packages directoryPath into zipFilePath. Entry names start with the directory's own name, and hidden files are
+   * skipped.
+   */
+  public void pack(String directoryPath, String zipFilePath) throws IOException {
+    long startTime = System.nanoTime();
+    File directory = new File(directoryPath);
+    List<File> files = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+
+    collect(directory, directory.getName() + "/", files, names);
+
+    File temporaryDirectory = new File(zipFilePath).getAbsoluteFile().getParentFile();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+    FileChannel channel = FileChannel.open(Paths.get(zipFilePath), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    ByteBuffer header = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    ByteBuffer centralDirectory = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    Deque<Future<Entry>> pending = new ArrayDeque<>();
+    long inputSize = 0;
+    int next = 0;
+
+    try {
+      while (next < files.size() || !pending.isEmpty()) {
+        // Keep a bounded number of entries in flight so that memory use does not grow with the directory size.
+        while (next < files.size() && pending.size() < 2 * Math.max(1, threadCount)) {
+          pending.add(executor.submit(createTask(files.get(next), names.get(next), temporaryDirectory)));
+          next++;
+        }
+
+        Entry entry = await(pending.poll());
+        long offset = channel.position();
+
+        try {
+          header.clear();
+          writeLocalHeader(header, entry);
+          header.flip();
+          writeFully(channel, header);
+
+          if (entry.spillFile != null) {
+            transfer(entry.spillFile, channel);
+          } else if (entry.data != null) {
+            writeFully(channel, ByteBuffer.wrap(entry.data, 0, (int) entry.compressedSize));
+          } else if (entry.file.isFile()) {
+            transfer(entry.file, channel);
+          }
+        } finally {
+          entry.deleteSpillFile();
+        }
+
+        inputSize += entry.uncompressedSize;
+        centralDirectory = ensureRemaining(centralDirectory, 46 + 28 + entry.nameBytes.length);
+        writeCentralHeader(centralDirectory, entry, offset);
+      }
+
+      long centralDirectoryOffset = channel.position();
+
+      centralDirectory.flip();
+
+      long centralDirectorySize = centralDirectory.remaining();
+
+      writeFully(channel, centralDirectory);
+      header.clear();
+
+      if (files.size() >= MAX_ENTRY_COUNT || centralDirectorySize >= MAX_SIZE || centralDirectoryOffset >= MAX_SIZE) {
+        writeZip64End(header, files.size(), centralDirectorySize, centralDirectoryOffset);
+      }
+
+      header.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+      header.putShort((short) 0);
+      header.putShort((short) 0);
+      header.putShort((short) Math.min(files.size(), MAX_ENTRY_COUNT));
+      header.putShort((short) Math.min(files.size(), MAX_ENTRY_COUNT));
+      header.putInt((int) Math.min(centralDirectorySize, MAX_SIZE));
+      header.putInt((int) Math.min(centralDirectoryOffset, MAX_SIZE));
+      header.putShort((short) 0);
+      header.flip();
+      writeFully(channel, header);
+    } finally {
+      executor.shutdownNow();
+      channel.close();
+
+      // Entries that were compressed but not written still hold their temporary files.
+      for (Future<Entry> future : pending) {
+        try {
+          future.get().deleteSpillFile();
+        } catch (InterruptedException | ExecutionException | CancellationException e) {
+          // A task that failed or was cancelled has deleted its own temporary file.
+        }
+      }
+    }
+
+    double seconds = (System.nanoTime() - startTime) / 1e9;
+
+    System.out.println(String.format("Packaged %d entries, %.1f MB into %s (%.1f MB) in %.2f s, %.1f MB/s",
+        files.size(), inputSize / 1e6, zipFilePath, new File(zipFilePath).length() / 1e6, seconds,
+        inputSize / 1e6 / seconds));
+  }
+
+  private void collect(File file, String name, List<File> files, List<String> names) {
+    if (file.isHidden()) {
+      return;
+    }
+
+    files.add(file);
+    names.add(name);
+
+    if (file.isDirectory()) {
+      File[] children = file.listFiles();
+
+      Arrays.sort(children);
+
+      for (File child : children) {
+        collect(child, name + child.getName() + (child.isDirectory() ? "/" : ""), files, names);
+      }
+    }
+  }
+
+  private Callable<Entry> createTask(final File file, final String name, final File temporaryDirectory) {
+    return new Callable<Entry>() {
+      @Override
+      public Entry call() throws IOException {
+        Entry entry = new Entry(file, name);
+
+        if (file.isDirectory()) {
+          return entry;
+        }
+
+        if (isStored(file.getName())) {
+          store(entry);
+        } else {
+          deflate(entry, temporaryDirectory);
+        }
+
+        return entry;
+      }
+    };
+  }
+
+  private boolean isStored(String fileName) {
+    for (String extension : storedExtensions) {
+      if (fileName.endsWith(extension)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  // Only the checksum is computed here; the bytes are copied into the archive by the writing thread.
+  private void store(Entry entry) throws IOException {
+    FileChannel channel = FileChannel.open(entry.file.toPath(), StandardOpenOption.READ);
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    CRC32 crc = new CRC32();
+
+    try {
+      while (channel.read(buffer) != -1) {
+        crc.update(buffer.array(), 0, buffer.position());
+        entry.uncompressedSize += buffer.position();
+        buffer.clear();
+      }
+    } finally {
+      channel.close();
+    }
+
+    entry.method = STORED;
+    entry.crc = crc.getValue();
+    entry.compressedSize = entry.uncompressedSize;
+  }
+
+  private void deflate(Entry entry, File temporaryDirectory) throws IOException {
+    FileChannel channel = FileChannel.open(entry.file.toPath(), StandardOpenOption.READ);
+    byte[] input = new byte[BUFFER_SIZE];
+    byte[] output = new byte[BUFFER_SIZE];
+    Deflater deflater = new Deflater(level, true);
+    CRC32 crc = new CRC32();
+
+    entry.method = DEFLATED;
+    entry.data = new byte[(int) Math.min(Math.max(entry.file.length() / 2, 1024), IN_MEMORY_SIZE)];
+
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(input);
+      int read;
+
+      while ((read = channel.read(buffer)) != -1) {
+        crc.update(input, 0, read);
+        entry.uncompressedSize += read;
+        deflater.setInput(input, 0, read);
+
+        while (!deflater.needsInput()) {
+          entry.append(output, deflater.deflate(output), temporaryDirectory);
+        }
+
+        buffer.clear();
+      }
+
+      deflater.finish();
+
+      while (!deflater.finished()) {
+        entry.append(output, deflater.deflate(output), temporaryDirectory);
+      }
+
+      entry.closeSpillFile();
+    } catch (IOException | RuntimeException e) {
+      entry.deleteSpillFile();
+      throw e;
+    } finally {
+      deflater.end();
+      channel.close();
+    }
+
+    entry.crc = crc.getValue();
+  }
+
+  private static ByteBuffer ensureRemaining(ByteBuffer buffer, int length) {
+    if (buffer.remaining() >= length) {
+      return buffer;
+    }
+
+    ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length))
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+    buffer.flip();
+    newBuffer.put(buffer);
+    return newBuffer;
+  }
+
+  // The sizes of an entry are known before its local header is written, so they move to a Zip64 extra field only
+  // when they do not fit in the header itself.
+  private static void writeLocalHeader(ByteBuffer buffer, Entry entry) {
+    boolean zip64 = entry.compressedSize >= MAX_SIZE || entry.uncompressedSize >= MAX_SIZE;
+
+    buffer.putInt(LOCAL_HEADER_SIGNATURE);
+    buffer.putShort((short) (zip64 ? ZIP64_VERSION : VERSION));
+    buffer.putShort((short) UTF8_FLAG);
+    buffer.putShort((short) entry.method);
+    buffer.putInt(entry.dosTime);
+    buffer.putInt((int) entry.crc);
+    buffer.putInt((int) (zip64 ? MAX_SIZE : entry.compressedSize));
+    buffer.putInt((int) (zip64 ? MAX_SIZE : entry.uncompressedSize));
+    buffer.putShort((short) entry.nameBytes.length);
+    buffer.putShort((short) (zip64 ? 20 : 0));
+    buffer.put(entry.nameBytes);
+
+    if (zip64) {
+      buffer.putShort((short) ZIP64_EXTRA_FIELD_ID);
+      buffer.putShort((short) 16);
+      buffer.putLong(entry.uncompressedSize);
+      buffer.putLong(entry.compressedSize);
+    }
+  }
+
+  // The Zip64 extra field of a central header holds only the values that do not fit, in this order.
+  private static void writeCentralHeader(ByteBuffer buffer, Entry entry, long offset) {
+    boolean zip64UncompressedSize = entry.uncompressedSize >= MAX_SIZE;
+    boolean zip64CompressedSize = entry.compressedSize >= MAX_SIZE;
+    boolean zip64Offset = offset >= MAX_SIZE;
+    int extraLength = 8 * ((zip64UncompressedSize ? 1 : 0) + (zip64CompressedSize ? 1 : 0) + (zip64Offset ? 1 : 0));
+    int version = extraLength > 0 ? ZIP64_VERSION : VERSION;
+
+    buffer.putInt(CENTRAL_HEADER_SIGNATURE);
+    buffer.putShort((short) version);
+    buffer.putShort((short) version);
+    buffer.putShort((short) UTF8_FLAG);
+    buffer.putShort((short) entry.method);
+    buffer.putInt(entry.dosTime);
+    buffer.putInt((int) entry.crc);
+    buffer.putInt((int) (zip64CompressedSize ? MAX_SIZE : entry.compressedSize));
+    buffer.putInt((int) (zip64UncompressedSize ? MAX_SIZE : entry.uncompressedSize));
+    buffer.putShort((short) entry.nameBytes.length);
+    buffer.putShort((short) (extraLength > 0 ? 4 + extraLength : 0));
+    buffer.putShort((short) 0);
+    buffer.putShort((short) 0);
+    buffer.putShort((short) 0);
+    buffer.putInt(entry.file.isDirectory() ? DIRECTORY_ATTRIBUTE : 0);
+    buffer.putInt((int) (zip64Offset ? MAX_SIZE : offset));
+    buffer.put(entry.nameBytes);
+
+    if (extraLength > 0) {
+      buffer.putShort((short) ZIP64_EXTRA_FIELD_ID);
+      buffer.putShort((short) extraLength);
+
+      if (zip64UncompressedSize) {
+        buffer.putLong(entry.uncompressedSize);
+      }
+
+      if (zip64CompressedSize) {
+        buffer.putLong(entry.compressedSize);
+      }
+
+      if (zip64Offset) {
+        buffer.putLong(offset);
+      }
+    }
+  }
+
+  // Writes the Zip64 end of central directory record, which directly follows the central directory, and its
+  // locator. The plain end of central directory record still follows them.
+  private static void writeZip64End(ByteBuffer buffer, long entryCount, long centralDirectorySize,
+      long centralDirectoryOffset) {
+    buffer.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+    buffer.putLong(44);
+    buffer.putShort((short) ZIP64_VERSION);
+    buffer.putShort((short) ZIP64_VERSION);
+    buffer.putInt(0);
+    buffer.putInt(0);
+    buffer.putLong(entryCount);
+    buffer.putLong(entryCount);
+    buffer.putLong(centralDirectorySize);
+    buffer.putLong(centralDirectoryOffset);
+    buffer.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+    buffer.putInt(0);
+    buffer.putLong(centralDirectoryOffset + centralDirectorySize);
+    buffer.putInt(1);
+  }
+
+  private static void transfer(File file, FileChannel target) throws IOException {
+    FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+    try {
+      long size = source.size();
+
+      for (long position = 0; position < size;) {
+        position += source.transferTo(position, size - position, target);
+      }
+    } finally {
+      source.close();
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static Entry await(Future<Entry> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while packaging", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+
+      throw new IOException(e.getCause());
+    }
+  }
+
+  // MS-DOS date and time as stored in zip headers: time in the low 16 bits, date in the high 16 bits.
+  private static int toDosTime(long time) {
+    Calendar calendar = Calendar.getInstance();
+
+    calendar.setTimeInMillis(time);
+
+    int year = calendar.get(Calendar.YEAR);
+
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+
+    return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16
+        | calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5
+        | calendar.get(Calendar.SECOND) >> 1;
+  }
+
+  private static class Entry {
+    final File file;
+    final String name;
+    final byte[] nameBytes;
+    final int dosTime;
+    int method = STORED;
+    long crc;
+    long compressedSize;
+    long uncompressedSize;
+    byte[] data;
+    File spillFile;
+    FileChannel spillChannel;
+
+    Entry(File file, String name) {
+      this.file = file;
+      this.name = name;
+      this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+      this.dosTime = toDosTime(file.lastModified());
+    }
+
+    // Appends compressed bytes to data, or to the temporary file once they outgrow IN_MEMORY_SIZE.
+    void append(byte[] bytes, int length, File temporaryDirectory) throws IOException {
+      if (spillChannel == null && compressedSize + length > IN_MEMORY_SIZE) {
+        spillFile = File.createTempFile(".zip-entry-", ".tmp", temporaryDirectory);
+        spillChannel = FileChannel.open(spillFile.toPath(), StandardOpenOption.WRITE);
+        writeFully(spillChannel, ByteBuffer.wrap(data, 0, (int) compressedSize));
+        data = null;
+      }
+
+      if (spillChannel != null) {
+        writeFully(spillChannel, ByteBuffer.wrap(bytes, 0, length));
+      } else {
+        if (compressedSize + length > data.length) {
+          data = Arrays.copyOf(data, (int) Math.min(Math.max(data.length * 2, compressedSize + length),
+              IN_MEMORY_SIZE));
+        }
+
+        System.arraycopy(bytes, 0, data, (int) compressedSize, length);
+      }
+
+      compressedSize += length;
+    }
+
+    void closeSpillFile() throws IOException {
+      if (spillChannel != null) {
+        spillChannel.close();
+        spillChannel = null;
+      }
+    }
+
+    void deleteSpillFile() {
+      try {
+        closeSpillFile();
+      } catch (IOException e) {
+        // The file is deleted either way.
+      }
+
+      if (spillFile != null) {
+        spillFile.delete();
+        spillFile = null;
+      }
+    }
+  }
+}